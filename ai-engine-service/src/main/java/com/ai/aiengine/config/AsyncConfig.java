@@ -0,0 +1,14 @@
+package com.ai.aiengine.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableAsync;
+
+/**
+ * Bật @Async (vd: AiEngineService.generateReplyAsync).
+ * Executor là applicationTaskExecutor do Spring Boot tạo: mỗi task 1 virtual thread khi
+ * spring.threads.virtual.enabled=true, ngược lại là ThreadPoolTaskExecutor mặc định.
+ */
+@Configuration
+@EnableAsync
+public class AsyncConfig {
+}
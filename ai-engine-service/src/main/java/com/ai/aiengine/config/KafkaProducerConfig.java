@@ -0,0 +1,45 @@
+package com.ai.aiengine.config;
+
+import com.ai.aiengine.kafka.ChatEnvelope;
+import com.ai.aiengine.kafka.ChatEnvelopeSerializer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.*;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Producer cho chat-response: value là ChatEnvelope nhị phân (ChatEnvelopeSerializer).
+ * Gom lô / nén chỉnh qua ai.kafka.producer.*: linger lớn hơn → lô to hơn, nén tốt hơn,
+ * đổi lại mỗi message chờ thêm tối đa chừng đó.
+ */
+@Configuration
+public class KafkaProducerConfig {
+
+    @Bean
+    public ProducerFactory<String, ChatEnvelope> producerFactory(
+            @Value("${spring.kafka.bootstrap-servers:localhost:9092}") String bootstrapServers,
+            @Value("${ai.kafka.producer.linger:5ms}") Duration linger,
+            @Value("${ai.kafka.producer.batch-size:64KB}") DataSize batchSize,
+            @Value("${ai.kafka.producer.compression:lz4}") String compression) {
+        Map<String, Object> configProps = new HashMap<>();
+        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ChatEnvelopeSerializer.class);
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, (int) linger.toMillis());
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, (int) batchSize.toBytes());
+        configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compression);
+        return new DefaultKafkaProducerFactory<>(configProps);
+    }
+
+    @Bean
+    public KafkaTemplate<String, ChatEnvelope> kafkaTemplate(ProducerFactory<String, ChatEnvelope> producerFactory) {
+        return new KafkaTemplate<>(producerFactory);
+    }
+}
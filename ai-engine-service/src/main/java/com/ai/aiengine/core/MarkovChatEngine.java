@@ -1,6 +1,9 @@
 package com.ai.aiengine.core;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A.I kiểu “Markov” cực dễ hiểu:
@@ -25,34 +28,108 @@ public class MarkovChatEngine {
 
     // Chứa thống kê:
     //   fromToken → (toToken → count)
-    private final Map<Integer, Map<Integer, Integer>> transitions = new HashMap<>();
+    // lưu bằng mảng nguyên thuỷ (TransitionStore bậc 1), freeze sang CSR sau khi học xong
+    private final TransitionStore transitions;
 
-    private final Random random = new Random(42);
+    // bảng chọn mẫu O(1) dựng khi freeze (null = cần freeze lại)
+    private volatile TokenSampler sampler;
+
+    // chỉ dùng khi freeze / ghi snapshot; ReentrantLock thay vì synchronized để virtual thread
+    // đang chờ không giữ chặt (pin) luồng mang
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public MarkovChatEngine() {
+        this.transitions = new TransitionStore(1);
+    }
+
+    private MarkovChatEngine(TransitionStore transitions, TokenSampler sampler) {
+        this.transitions = transitions;
+        this.sampler = sampler;
+    }
+
+    /**
+     * Mở engine đã biên dịch sẵn trong snapshot: đọc thẳng từ vùng map, không huấn luyện lại.
+     */
+    public static MarkovChatEngine fromSnapshot(ModelSnapshot snapshot) {
+        TransitionStore store = TransitionStore.read(snapshot, "markov");
+        if (store.order() != 1) {
+            throw new IllegalStateException("AI Engine chỉ hỗ trợ Markov bậc 1, snapshot có bậc " + store.order());
+        }
+        return new MarkovChatEngine(store, TokenSampler.read(store, snapshot, "markov.sampler"));
+    }
+
+    /** Ghi bảng chuyển trạng thái + bảng chọn mẫu vào snapshot. */
+    public void writeTo(ModelSnapshot.Writer out) throws IOException {
+        lock.lock();
+        try {
+            freeze();
+            transitions.writeTo(out, "markov");
+            sampler.writeTo(out, "markov.sampler");
+        } finally {
+            lock.unlock();
+        }
+    }
 
     /**
      * Huấn luyện từ 1 đoạn văn bản thô.
      * Dữ liệu càng nhiều → A.I càng nói giống "người" hơn.
      */
     public void train(SimpleTokenizer tokenizer, String text) {
+        sampler = null;
 
-        // Tách câu theo dấu . ! ?
-        String[] sentences = text.split("[\\.\\!\\?]+");
+        for (String sentence : units(text)) {
+            // Chuyển câu thành token
+            count(transitions, tokenizer.encode(sentence));
+        }
+    }
 
-        for (String sentence : sentences) {
+    /**
+     * Tách câu theo dấu . ! ? (bỏ câu rỗng). Mỗi câu là 1 dãy token riêng,
+     * ParallelTrainer cũng chia corpus theo các câu này.
+     */
+    List<String> units(String text) {
+        List<String> result = new ArrayList<>();
+        for (String sentence : text.split("[\\.\\!\\?]+")) {
             sentence = sentence.trim();
-            if (sentence.isEmpty()) continue;
+            if (!sentence.isEmpty()) result.add(sentence);
+        }
+        return result;
+    }
 
-            // Chuyển câu thành token
-            int[] tokens = tokenizer.encode(sentence);
+    /**
+     * Với mỗi cặp liên tiếp (A → B) trong tokens, tăng đếm trong store.
+     * Dùng chung cho train(...) và các shard của ParallelTrainer.
+     */
+    void count(TransitionStore store, int[] tokens) {
+        int[] window = new int[1];
+        for (int i = 0; i < tokens.length - 1; i++) {
+            window[0] = tokens[i];
+            store.add(store.stateKey(window), tokens[i + 1], 1);
+        }
+    }
 
-            // Với mỗi cặp liên tiếp (A → B), tăng đếm
-            for (int i = 0; i < tokens.length - 1; i++) {
-                int t1 = tokens[i];
-                int t2 = tokens[i + 1];
+    /** Kho đếm rỗng (bậc 1), để 1 worker đếm riêng rồi gộp lại bằng merge(...). */
+    TransitionStore newShard() {
+        return new TransitionStore(1);
+    }
 
-                Map<Integer, Integer> map = transitions.computeIfAbsent(t1, k -> new HashMap<>());
-                map.put(t2, map.getOrDefault(t2, 0) + 1);
-            }
+    /** Cộng đếm của 1 shard vào mô hình (gọi trên 1 luồng, theo thứ tự chunk). */
+    void merge(TransitionStore shard) {
+        sampler = null;
+        transitions.mergeFrom(shard);
+    }
+
+    /**
+     * Chốt mô hình: đổi sang CSR + dựng bảng alias cho mỗi token.
+     */
+    public void freeze() {
+        lock.lock();
+        try {
+            if (sampler != null) return;
+            transitions.freeze();
+            sampler = new TokenSampler(transitions);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -64,59 +141,61 @@ public class MarkovChatEngine {
     public String generate(SimpleTokenizer tokenizer,
                            String prompt,
                            int maxNewTokens) {
+        return generate(tokenizer, prompt, maxNewTokens, DecodingOptions.DEFAULT);
+    }
+
+    /**
+     * Như trên nhưng chọn được cách giải mã (temperature, top-k, top-p, ...).
+     * Số ngẫu nhiên lấy từ ThreadLocalRandom → các luồng không tranh nhau 1 Random chung.
+     */
+    public String generate(SimpleTokenizer tokenizer,
+                           String prompt,
+                           int maxNewTokens,
+                           DecodingOptions options) {
+        return generate(tokenizer, prompt, maxNewTokens, options, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Như trên với nguồn ngẫu nhiên do người gọi đưa vào (vd: new Random(seed) để tái lập kết quả).
+     * Sau khi đã freeze, hàm này chỉ đọc → gọi đồng thời từ nhiều luồng được.
+     */
+    public String generate(SimpleTokenizer tokenizer,
+                           String prompt,
+                           int maxNewTokens,
+                           DecodingOptions options,
+                           Random random) {
+
+        TokenSampler s = sampler;
+        if (s == null) {
+            freeze();
+            s = sampler;
+        }
 
         int[] encoded = tokenizer.encode(prompt);
-        List<Integer> output = new ArrayList<>();
+        int[] output = new int[Math.max(0, maxNewTokens)];
+        int produced = 0;
 
-        int currentToken;
+        int[] window = new int[1];
 
         if (encoded.length == 0) {
             // Nếu prompt rỗng → chọn đại 1 token trong bảng
-            currentToken = pickAnyToken();
+            if (!transitions.randomWindow(random, window)) window[0] = 0;
         } else {
-            currentToken = encoded[encoded.length - 1];
+            window[0] = encoded[encoded.length - 1];
         }
 
         // Sinh tiếp các token mới
         for (int i = 0; i < maxNewTokens; i++) {
 
-            Integer next = pickNext(currentToken);
-            if (next == null) break;
-
-            output.add(next);
-            currentToken = next;
-        }
-
-        return tokenizer.decode(output);
-    }
+            int sid = transitions.stateIndex(transitions.stateKey(window));
+            if (sid < 0) break;
+            int next = s.sample(sid, random, options);
+            if (next < 0) break;
 
-    /**
-     * Chọn token bất kỳ làm token bắt đầu.
-     */
-    private int pickAnyToken() {
-        if (transitions.isEmpty()) return 0;
-        List<Integer> keys = new ArrayList<>(transitions.keySet());
-        return keys.get(random.nextInt(keys.size()));
-    }
-
-    /**
-     * Chọn token tiếp theo dựa trên tần suất xuất hiện.
-     */
-    private Integer pickNext(int token) {
-        Map<Integer, Integer> freq = transitions.get(token);
-        if (freq == null || freq.isEmpty()) return null;
-
-        int total = freq.values().stream().mapToInt(i -> i).sum();
-        int r = random.nextInt(total);
-
-        int cumulative = 0;
-        for (Map.Entry<Integer, Integer> e : freq.entrySet()) {
-            cumulative += e.getValue();
-            if (r < cumulative) {
-                return e.getKey();
-            }
+            output[produced++] = next;
+            window[0] = next;
         }
 
-        return null;
+        return tokenizer.decode(output, produced);
     }
 }
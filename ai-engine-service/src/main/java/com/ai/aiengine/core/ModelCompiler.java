@@ -0,0 +1,141 @@
+package com.ai.aiengine.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Bước "biên dịch" offline cho AI Engine: huấn luyện từ training.txt rồi ghi ra file ModelSnapshot.
+ * AiEngineService chỉ cần map file này lúc khởi động, không phải huấn luyện lại.
+ *
+ * Chạy:
+ *   java -cp <classes> com.ai.aiengine.core.ModelCompiler data/training.txt data/model.bin 0
+ *
+ * (tham số thứ 3: số luồng huấn luyện, 0 = mọi core, 1 = tuần tự; kết quả giống hệt nhau)
+ *
+ * training.txt được đọc dần từng câu (không nạp cả file thành 1 String); bảng đếm bậc 1 vẫn
+ * nằm trên heap.
+ */
+public final class ModelCompiler {
+
+    public static final String DEFAULT_INPUT = "data/training.txt";
+    public static final String DEFAULT_OUTPUT = "data/model.bin";
+
+    private ModelCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String input = args.length > 0 ? args[0] : DEFAULT_INPUT;
+        Path output = Path.of(args.length > 1 ? args[1] : DEFAULT_OUTPUT);
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+        long t0 = System.nanoTime();
+        compile(input, output, parallelism);
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        System.out.println("Compiled " + input + " -> " + output
+                + " (" + Files.size(output) + " bytes, " + ms + " ms)");
+    }
+
+    /**
+     * Huấn luyện giống hệt AiEngineService rồi ghi snapshot (không có phần hỏi–đáp).
+     */
+    public static void compile(String input, Path output) throws IOException {
+        compile(input, output, 0);
+    }
+
+    /**
+     * @param parallelism số luồng huấn luyện (ParallelTrainer); 1 = tuần tự, <= 0 = mọi core
+     */
+    public static void compile(String input, Path output, int parallelism) throws IOException {
+        SimpleTokenizer tokenizer = new SimpleTokenizer();
+        MarkovChatEngine engine = new MarkovChatEngine();
+
+        train(tokenizer, engine, Path.of(input), parallelism);
+        engine.freeze();
+        tokenizer.freeze();
+
+        try (ModelSnapshot.Writer out = ModelSnapshot.create(output)) {
+            tokenizer.writeTo(out);
+            engine.writeTo(out);
+            out.finish();
+        }
+    }
+
+    /**
+     * Huấn luyện từ file, đọc từng câu; song song thì gom ParallelTrainer.batchSize() câu
+     * mỗi lần. Mô hình giống hệt train(..., Files.readString(input), ...).
+     */
+    public static void train(SimpleTokenizer tokenizer, MarkovChatEngine engine, Path input,
+                             int parallelism) throws IOException {
+        try (Reader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            if (ParallelTrainer.resolveParallelism(parallelism) == 1) {
+                forEachSentence(reader, sentence -> engine.train(tokenizer, sentence));
+                return;
+            }
+            ParallelTrainer trainer = new ParallelTrainer(parallelism);
+            try {
+                int batchSize = trainer.batchSize();
+                List<String> batch = new ArrayList<>(batchSize);
+                forEachSentence(reader, sentence -> {
+                    batch.add(sentence);
+                    if (batch.size() == batchSize) {
+                        trainer.train(tokenizer, engine, batch);
+                        batch.clear();
+                    }
+                });
+                if (!batch.isEmpty()) trainer.train(tokenizer, engine, batch);
+            } finally {
+                trainer.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Tách câu theo dấu . ! ? giống MarkovChatEngine.units(...) nhưng đọc dần từ reader,
+     * chỉ giữ 1 câu trong bộ nhớ.
+     */
+    static void forEachSentence(Reader reader, Consumer<String> action) throws IOException {
+        char[] buf = new char[8192];
+        StringBuilder sentence = new StringBuilder();
+        int n;
+        while ((n = reader.read(buf)) > 0) {
+            for (int i = 0; i < n; i++) {
+                char c = buf[i];
+                if (c == '.' || c == '!' || c == '?') {
+                    emit(sentence, action);
+                } else {
+                    sentence.append(c);
+                }
+            }
+        }
+        emit(sentence, action);
+    }
+
+    private static void emit(StringBuilder sentence, Consumer<String> action) {
+        String s = sentence.toString().trim();
+        sentence.setLength(0);
+        if (!s.isEmpty()) action.accept(s);
+    }
+
+    /**
+     * Huấn luyện: tuần tự khi parallelism = 1, còn lại dùng ParallelTrainer (chia theo câu).
+     */
+    public static void train(SimpleTokenizer tokenizer, MarkovChatEngine engine, String text,
+                             int parallelism) {
+        if (ParallelTrainer.resolveParallelism(parallelism) == 1) {
+            engine.train(tokenizer, text);
+            return;
+        }
+        ParallelTrainer trainer = new ParallelTrainer(parallelism);
+        try {
+            trainer.train(tokenizer, engine, List.of(text));
+        } finally {
+            trainer.shutdown();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.ai.aiengine.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Huấn luyện song song trên ForkJoinPool, cho ra mô hình GIỐNG HỆT khi huấn luyện tuần tự.
+ *
+ * Corpus được chia thành các chunk liên tiếp, rồi chạy 3 bước:
+ *
+ *   1) song song : mỗi chunk encode bằng 1 SimpleTokenizer cục bộ (id cục bộ)
+ *   2) tuần tự   : gộp từ vựng cục bộ vào tokenizer chung theo thứ tự chunk
+ *                  → id của từ đúng bằng thứ tự "gặp lần đầu" như bản tuần tự
+ *   3) song song : đổi sang id chung, mỗi chunk đếm n-gram vào 1 shard TransitionStore riêng,
+ *                  các shard gộp theo cây fork-join (trái trước, phải sau)
+ *                  → sid của state cũng đúng thứ tự gặp lần đầu
+ *
+ * Không có khoá nào trong lúc đếm: mỗi worker chỉ ghi vào shard của mình.
+ * Bước 2 và lần gộp cuối vào engine là tuần tự nhưng chỉ tỉ lệ với số từ / n-gram khác nhau,
+ * không phải số token.
+ */
+public final class ParallelTrainer {
+
+    /** Số đơn vị văn bản (vd: cặp hỏi–đáp) trong 1 chunk. */
+    public static final int DEFAULT_CHUNK = 1024;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    /**
+     * @param parallelism số luồng; <= 0 → số core của máy
+     */
+    public ParallelTrainer(int parallelism) {
+        this(parallelism, DEFAULT_CHUNK);
+    }
+
+    public ParallelTrainer(int parallelism, int chunkSize) {
+        this.pool = new ForkJoinPool(resolveParallelism(parallelism));
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    public static int resolveParallelism(int parallelism) {
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int parallelism() {
+        return pool.getParallelism();
+    }
+
+    /** Số đơn vị nên gom trước mỗi lần gọi train(...) khi đọc corpus kiểu streaming. */
+    public int batchSize() {
+        return chunkSize * parallelism() * 4;
+    }
+
+    /** Giải phóng các luồng của pool. */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Tương đương gọi engine.train(tokenizer, text) lần lượt cho từng text.
+     */
+    public void train(SimpleTokenizer tokenizer, MarkovChatEngine engine, List<String> texts) {
+        // đơn vị huấn luyện của engine (cả đoạn, hoặc từng câu) → chia chunk theo đơn vị
+        List<String> units = new ArrayList<>();
+        for (String text : texts) units.addAll(engine.units(text));
+        if (units.isEmpty()) return;
+
+        // 1) encode song song bằng tokenizer cục bộ
+        List<Encoded> encoded = map(split(units), chunk -> {
+            SimpleTokenizer local = new SimpleTokenizer();
+            List<int[]> sequences = new ArrayList<>(chunk.size());
+            for (String unit : chunk) {
+                sequences.add(local.encode(unit));
+            }
+            return new Encoded(local, sequences);
+        });
+
+        // 2) gộp từ vựng theo thứ tự chunk
+        int[][] idMaps = new int[encoded.size()][];
+        for (int c = 0; c < encoded.size(); c++) {
+            idMaps[c] = tokenizer.absorb(encoded.get(c).tokenizer);
+        }
+
+        // 3) đếm n-gram song song + gộp shard theo cây
+        TransitionStore merged = pool.invoke(new CountTask(engine, encoded, idMaps, 0, encoded.size()));
+        engine.merge(merged);
+    }
+
+    /**
+     * Chạy fn cho từng chunk trên pool; kết quả trả về theo đúng thứ tự chunk.
+     */
+    public <T, R> List<R> map(List<List<T>> chunks, Function<List<T>, R> fn) {
+        @SuppressWarnings("unchecked")
+        R[] results = (R[]) new Object[chunks.size()];
+        pool.invoke(new ForEach(0, chunks.size(), i -> results[i] = fn.apply(chunks.get(i))));
+        return Arrays.asList(results);
+    }
+
+    /** Chia danh sách thành các chunk liên tiếp (view, không copy). */
+    public <T> List<List<T>> split(List<T> items) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += chunkSize) {
+            chunks.add(items.subList(from, Math.min(items.size(), from + chunkSize)));
+        }
+        return chunks;
+    }
+
+    // ========= Task =========
+
+    private record Encoded(SimpleTokenizer tokenizer, List<int[]> sequences) {}
+
+    private static final class ForEach extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final IntConsumer body;
+
+        ForEach(int from, int to, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                body.accept(from);
+            } else if (to > from) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ForEach(from, mid, body), new ForEach(mid, to, body));
+            }
+        }
+    }
+
+    /** Đếm các chunk [from, to) rồi gộp: shard(trái) ← shard(phải), giữ đúng thứ tự. */
+    private static final class CountTask extends RecursiveTask<TransitionStore> {
+        private final MarkovChatEngine engine;
+        private final List<Encoded> encoded;
+        private final int[][] idMaps;
+        private final int from;
+        private final int to;
+
+        CountTask(MarkovChatEngine engine, List<Encoded> encoded, int[][] idMaps, int from, int to) {
+            this.engine = engine;
+            this.encoded = encoded;
+            this.idMaps = idMaps;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TransitionStore compute() {
+            if (to - from == 1) {
+                TransitionStore shard = engine.newShard();
+                int[] idMap = idMaps[from];
+                for (int[] tokens : encoded.get(from).sequences) {
+                    for (int i = 0; i < tokens.length; i++) tokens[i] = idMap[tokens[i]];
+                    engine.count(shard, tokens);
+                }
+                return shard;
+            }
+            int mid = (from + to) >>> 1;
+            CountTask left = new CountTask(engine, encoded, idMaps, from, mid);
+            left.fork();
+            TransitionStore right = new CountTask(engine, encoded, idMaps, mid, to).compute();
+            TransitionStore result = left.join();
+            result.mergeFrom(right);
+            return result;
+        }
+    }
+}
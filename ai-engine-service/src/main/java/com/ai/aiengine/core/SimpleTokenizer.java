@@ -1,6 +1,8 @@
 package com.ai.aiengine.core;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Bộ tách từ cực kỳ đơn giản:
@@ -9,43 +11,155 @@ import java.util.*;
  *
  * Ở mức độ demo, tokenizer này là đủ đơn giản.
  * Trong mô hình AI thật (GPT), tokenizer phức tạp hơn rất nhiều (BPE).
+ *
+ * Hai giai đoạn:
+ * 1) Huấn luyện: encode(...) thêm từ mới vào wordToId / idToWord (chỉ 1 luồng được ghi).
+ * 2) Phục vụ (sau freeze() hoặc mở từ ModelSnapshot): bộ từ vựng là StringTable chỉ đọc,
+ *    encode(...) không ghi gì vào trạng thái chung → nhiều luồng request (Tomcat, Kafka)
+ *    gọi đồng thời được, không cần khoá; từ chưa có trong từ vựng thành <unk> (id 0).
  */
 public class SimpleTokenizer {
 
+    /** Token cho mọi từ chưa có trong từ vựng lúc phục vụ. */
+    public static final int UNK = 0;
+
+    // giai đoạn huấn luyện (rỗng sau freeze)
     private final Map<String, Integer> wordToId = new HashMap<>();
     private final List<String> idToWord = new ArrayList<>();
 
+    // != null sau freeze() hoặc khi mở từ snapshot → dùng bảng này thay cho wordToId / idToWord
+    private volatile StringTable vocabulary;
+    private final ReentrantLock lock = new ReentrantLock();
+
     public SimpleTokenizer() {
         // Thêm token đặc biệt (nếu cần)
         addWord("<unk>");
     }
 
+    private SimpleTokenizer(StringTable vocabulary) {
+        this.vocabulary = vocabulary;
+    }
+
+    public static SimpleTokenizer fromSnapshot(ModelSnapshot snapshot) {
+        return new SimpleTokenizer(StringTable.read(snapshot, "vocab"));
+    }
+
+    public void writeTo(ModelSnapshot.Writer out) throws IOException {
+        StringTable table = vocabulary != null ? vocabulary : StringTable.build(idToWord, true);
+        table.writeTo(out, "vocab");
+    }
+
+    /**
+     * Kết thúc giai đoạn huấn luyện: chuyển từ vựng sang StringTable chỉ đọc.
+     * Từ đây encode(...) an toàn khi gọi từ nhiều luồng và không làm từ vựng lớn thêm.
+     * Gọi nhiều lần không sao.
+     */
+    public void freeze() {
+        lock.lock();
+        try {
+            if (vocabulary != null) return;
+            StringTable table = StringTable.build(idToWord, true);
+            wordToId.clear();
+            idToWord.clear();
+            vocabulary = table;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isFrozen() {
+        return vocabulary != null;
+    }
+
+    /** Số từ trong bộ từ vựng. */
+    public int vocabularySize() {
+        StringTable table = vocabulary;
+        return table != null ? table.size() : idToWord.size();
+    }
+
     private int addWord(String w) {
-        if (!wordToId.containsKey(w)) {
-            int id = idToWord.size();
-            wordToId.put(w, id);
-            idToWord.add(w);
-            return id;
+        StringTable table = vocabulary;
+        if (table != null) {
+            int id = table.find(w);
+            return id < 0 ? UNK : id;
+        }
+        Integer id = wordToId.get(w);
+        if (id != null) return id;
+        int newId = idToWord.size();
+        wordToId.put(w, newId);
+        idToWord.add(w);
+        return newId;
+    }
+
+    /**
+     * Thêm (theo đúng thứ tự id) các từ của 1 tokenizer cục bộ vào bộ từ vựng này.
+     * Trả về bảng đổi id: idCụcBộ → id ở đây. Dùng để gộp các worker của ParallelTrainer:
+     * gộp lần lượt theo thứ tự chunk cho ra đúng thứ tự id như khi encode tuần tự.
+     */
+    int[] absorb(SimpleTokenizer local) {
+        int n = local.vocabularySize();
+        int[] map = new int[n];
+        for (int id = 0; id < n; id++) {
+            map[id] = addWord(local.word(id));
         }
-        return wordToId.get(w);
+        return map;
     }
 
     /**
      * Đổi câu chữ thành danh sách token (mỗi token là 1 số).
+     *
+     * Tương đương toLowerCase → bỏ dấu [,.?!;:] → tách theo khoảng trắng, nhưng quét 1 lượt
+     * không dùng regex. Sau freeze: chỉ tra StringTable (không tạo String cho từng từ).
      */
     public int[] encode(String text) {
-        text = text.toLowerCase()
-                .replaceAll("[,.?!;:]", ""); // bỏ dấu câu
+        StringTable table = vocabulary;
+        String lower = text.toLowerCase();
+        int n = lower.length();
 
-        String[] words = text.split("\\s+");
+        int[] ids = new int[Math.max(4, n / 4)];
+        int count = 0;
+        StringBuilder word = new StringBuilder(16);
+
+        for (int i = 0; i <= n; i++) {
+            char c = i < n ? lower.charAt(i) : ' ';
+            if (!isSpace(c)) {
+                if (!isPunctuation(c)) word.append(c);
+                continue;
+            }
+            trim(word);
+            if (word.length() == 0) continue;
 
-        int[] ids = new int[words.length];
-        for (int i = 0; i < words.length; i++) {
-            String w = words[i].trim();
-            if (w.isEmpty()) continue;
-            ids[i] = addWord(w);
+            int id;
+            if (table != null) {
+                id = table.find(word);
+                if (id < 0) id = UNK;
+            } else {
+                id = addWord(word.toString());
+            }
+            if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+            ids[count++] = id;
+            word.setLength(0);
         }
-        return ids;
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    // giống \s của regex Java
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c == ',' || c == '.' || c == '?' || c == '!' || c == ';' || c == ':';
+    }
+
+    // giống String.trim(): bỏ ký tự <= ' ' ở 2 đầu
+    private static void trim(StringBuilder sb) {
+        int end = sb.length();
+        while (end > 0 && sb.charAt(end - 1) <= ' ') end--;
+        sb.setLength(end);
+        int start = 0;
+        while (start < end && sb.charAt(start) <= ' ') start++;
+        if (start > 0) sb.delete(0, start);
     }
 
     /**
@@ -54,10 +168,29 @@ public class SimpleTokenizer {
     public String decode(List<Integer> ids) {
         StringBuilder sb = new StringBuilder();
         for (int id : ids) {
-            if (id < idToWord.size()) {
-                sb.append(idToWord.get(id)).append(" ");
+            if (id >= 0 && id < vocabularySize()) {
+                sb.append(word(id)).append(" ");
             }
         }
         return sb.toString().trim();
     }
+
+    /**
+     * Giống decode(List) nhưng nhận thẳng mảng int (không boxing).
+     */
+    public String decode(int[] ids, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            int id = ids[i];
+            if (id < 0 || id >= vocabularySize()) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(word(id));
+        }
+        return sb.toString();
+    }
+
+    private String word(int id) {
+        StringTable table = vocabulary;
+        return table != null ? table.get(id) : idToWord.get(id);
+    }
 }
@@ -0,0 +1,414 @@
+package com.ai.aiengine.core;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Kho lưu thống kê chuyển trạng thái của Markov n-gram, chỉ dùng kiểu nguyên thuỷ.
+ *
+ * State (cửa sổ "order" token) được nén thành 1 số long:
+ * - order 1: 32 bit / token, order 2: 31 bit / token, order 3: 21 bit / token
+ *   → key chính xác, giải nén lại được thành cửa sổ.
+ * - order > 3 hoặc token id quá lớn: băm cửa sổ thành 64 bit (bit cao = 1)
+ *   → xác suất đụng key không đáng kể, nhưng không giải nén được.
+ *
+ * Hai giai đoạn:
+ * 1) Huấn luyện (mutable):
+ *      stateKey → sid              (LongIntHashMap)
+ *      (sid << 32 | next) → count  (LongIntHashMap)
+ * 2) freeze(): đổi sang dạng CSR phẳng, chỉ đọc:
+ *      index (bảng băm stateKey → sid + 1)
+ *      offsets[sid] .. offsets[sid + 1]  → vùng của state trong
+ *      nextTokens[] / counts[]           (mảng song song, sắp theo count giảm dần,
+ *                                         cùng count thì theo token id → kết quả ổn định)
+ *    Các mảng frozen đều là buffer: trên heap (IntBuffer.wrap) hoặc map thẳng từ ModelSnapshot.
+ *
+ * Gọi add(...) sau khi đã freeze thì kho tự "thaw" về dạng mutable.
+ */
+public final class TransitionStore {
+
+    private final int order;
+    private final int bitsPerToken;
+    private final long tokenMask;
+
+    // ---- giai đoạn huấn luyện ----
+    private LongIntHashMap stateIds = new LongIntHashMap();   // stateKey → sid
+    private long[] mutableStateKeys = new long[16];
+    private LongIntHashMap pairCounts = new LongIntHashMap();
+    private int stateCount;
+
+    // ---- giai đoạn frozen (CSR) ----
+    private boolean frozen;
+    private LongBuffer indexKeys;
+    private IntBuffer indexSids;   // sid + 1, 0 = ô trống
+    private int indexMask;
+    private LongBuffer stateKeys;
+    private IntBuffer offsets;
+    private IntBuffer nextTokens;
+    private IntBuffer counts;
+
+    // thống kê bộ nhớ ngay trước khi freeze (để so sánh)
+    private long mutableBytesAtFreeze;
+
+    public TransitionStore(int order) {
+        this.order = Math.max(1, order);
+        this.bitsPerToken = switch (this.order) {
+            case 1 -> 32;
+            case 2 -> 31;
+            case 3 -> 21;
+            default -> 0; // băm
+        };
+        this.tokenMask = bitsPerToken == 0 ? 0 : (1L << bitsPerToken) - 1;
+    }
+
+    public int order() {
+        return order;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    public int stateCount() {
+        return stateCount;
+    }
+
+    /** Số n-gram khác nhau (state, next). */
+    public int ngramCount() {
+        return frozen ? nextTokens.limit() : pairCounts.size();
+    }
+
+    // ========= Key của state =========
+
+    /**
+     * Nén cửa sổ token thành key. Không cấp phát bộ nhớ.
+     */
+    public long stateKey(int[] window) {
+        if (bitsPerToken != 0) {
+            long key = 0;
+            boolean fits = true;
+            for (int i = 0; i < order; i++) {
+                long t = window[i] & 0xffffffffL;
+                if (t > tokenMask) {
+                    fits = false;
+                    break;
+                }
+                key = (key << bitsPerToken) | t;
+            }
+            if (fits) return key;
+        }
+        // băm cửa sổ, bật bit cao để không trùng với key nén
+        long h = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < order; i++) {
+            h = LongIntHashMap.mix(h ^ (window[i] & 0xffffffffL)) + 0x9E3779B97F4A7C15L * (i + 1);
+        }
+        return h | Long.MIN_VALUE;
+    }
+
+    /**
+     * Giải nén key thành cửa sổ token. Trả về false nếu key là key băm.
+     */
+    public boolean unpack(long key, int[] window) {
+        if (key < 0 || bitsPerToken == 0) return false;
+        for (int i = order - 1; i >= 0; i--) {
+            window[i] = (int) (key & tokenMask);
+            key >>>= bitsPerToken;
+        }
+        return true;
+    }
+
+    // ========= Huấn luyện =========
+
+    /** Tăng đếm cho (state → next). */
+    public void add(long stateKey, int next, int delta) {
+        if (frozen) thaw();
+        int sid = stateId(stateKey);
+        pairCounts.addTo(((long) sid << 32) | (next & 0xffffffffL), delta);
+    }
+
+    /**
+     * Cộng toàn bộ đếm của other (chưa freeze, cùng order) vào kho này.
+     * State mới của other được thêm theo đúng thứ tự sid của other → gộp các shard
+     * theo thứ tự chunk cho ra đúng thứ tự sid như khi huấn luyện tuần tự.
+     */
+    public void mergeFrom(TransitionStore other) {
+        if (other.order != order) {
+            throw new IllegalArgumentException("Khác order: " + other.order + " != " + order);
+        }
+        if (other.frozen) other.thaw();
+        if (frozen) thaw();
+
+        int[] sidMap = new int[other.stateCount];
+        for (int s = 0; s < other.stateCount; s++) {
+            sidMap[s] = stateId(other.mutableStateKeys[s]);
+        }
+        LongIntHashMap pairs = other.pairCounts;
+        for (int s = pairs.nextSlot(-1); s >= 0; s = pairs.nextSlot(s)) {
+            long k = pairs.keyAt(s);
+            int sid = sidMap[(int) (k >>> 32)];
+            pairCounts.addTo(((long) sid << 32) | (k & 0xffffffffL), pairs.valueAt(s));
+        }
+    }
+
+    private int stateId(long stateKey) {
+        int sid = stateIds.get(stateKey, -1);
+        if (sid < 0) {
+            sid = stateCount++;
+            stateIds.put(stateKey, sid);
+            if (sid == mutableStateKeys.length) {
+                mutableStateKeys = Arrays.copyOf(mutableStateKeys, Math.max(16, sid * 2));
+            }
+            mutableStateKeys[sid] = stateKey;
+        }
+        return sid;
+    }
+
+    /**
+     * Chuyển sang dạng CSR chỉ đọc. Gọi nhiều lần không sao.
+     */
+    public void freeze() {
+        if (frozen) return;
+        mutableBytesAtFreeze = estimatedBytes();
+
+        int n = pairCounts.size();
+        int[] off = new int[stateCount + 1];
+        for (int s = pairCounts.nextSlot(-1); s >= 0; s = pairCounts.nextSlot(s)) {
+            off[(int) (pairCounts.keyAt(s) >>> 32) + 1]++;
+        }
+        for (int i = 0; i < stateCount; i++) off[i + 1] += off[i];
+
+        // gom (count, next) của từng state vào đúng vùng, rồi sắp count giảm dần
+        long[] packed = new long[n];
+        int[] fill = Arrays.copyOf(off, stateCount);
+        for (int s = pairCounts.nextSlot(-1); s >= 0; s = pairCounts.nextSlot(s)) {
+            long k = pairCounts.keyAt(s);
+            int sid = (int) (k >>> 32);
+            long inverted = Integer.MAX_VALUE - pairCounts.valueAt(s);
+            packed[fill[sid]++] = (inverted << 32) | (k & 0xffffffffL);
+        }
+        int[] next = new int[n];
+        int[] cnt = new int[n];
+        for (int sid = 0; sid < stateCount; sid++) {
+            Arrays.sort(packed, off[sid], off[sid + 1]);
+        }
+        for (int i = 0; i < n; i++) {
+            next[i] = (int) packed[i];
+            cnt[i] = Integer.MAX_VALUE - (int) (packed[i] >>> 32);
+        }
+
+        // bảng băm chỉ đọc stateKey → sid + 1 (dò tuyến tính, giống LongIntHashMap)
+        long[] keys = Arrays.copyOf(mutableStateKeys, stateCount);
+        int cap = Integer.highestOneBit(Math.max(4, stateCount * 2 - 1)) << 1;
+        long[] slotKeys = new long[cap];
+        int[] slotSids = new int[cap];
+        for (int sid = 0; sid < stateCount; sid++) {
+            int pos = (int) LongIntHashMap.mix(keys[sid]) & (cap - 1);
+            while (slotSids[pos] != 0) pos = (pos + 1) & (cap - 1);
+            slotKeys[pos] = keys[sid];
+            slotSids[pos] = sid + 1;
+        }
+
+        setFrozen(LongBuffer.wrap(slotKeys), IntBuffer.wrap(slotSids), LongBuffer.wrap(keys),
+                IntBuffer.wrap(off), IntBuffer.wrap(next), IntBuffer.wrap(cnt));
+    }
+
+    private void setFrozen(LongBuffer indexKeys, IntBuffer indexSids, LongBuffer stateKeys,
+                           IntBuffer offsets, IntBuffer nextTokens, IntBuffer counts) {
+        this.indexKeys = indexKeys;
+        this.indexSids = indexSids;
+        this.indexMask = indexSids.limit() - 1;
+        this.stateKeys = stateKeys;
+        this.offsets = offsets;
+        this.nextTokens = nextTokens;
+        this.counts = counts;
+        this.stateCount = offsets.limit() - 1;
+        this.stateIds = null;
+        this.mutableStateKeys = null;
+        this.pairCounts = null;
+        this.frozen = true;
+    }
+
+    /** Quay lại dạng mutable để huấn luyện tiếp (copy từ buffer lên heap). */
+    private void thaw() {
+        LongIntHashMap ids = new LongIntHashMap(stateCount);
+        long[] keys = new long[Math.max(16, stateCount)];
+        LongIntHashMap pairs = new LongIntHashMap(nextTokens.limit());
+        for (int sid = 0; sid < stateCount; sid++) {
+            keys[sid] = stateKeys.get(sid);
+            ids.put(keys[sid], sid);
+            for (int i = offsets.get(sid); i < offsets.get(sid + 1); i++) {
+                pairs.put(((long) sid << 32) | (nextTokens.get(i) & 0xffffffffL), counts.get(i));
+            }
+        }
+        stateIds = ids;
+        mutableStateKeys = keys;
+        pairCounts = pairs;
+        indexKeys = null;
+        indexSids = null;
+        stateKeys = null;
+        offsets = null;
+        nextTokens = null;
+        counts = null;
+        frozen = false;
+    }
+
+    // ========= Snapshot =========
+
+    public void writeTo(ModelSnapshot.Writer out, String prefix) throws IOException {
+        freeze();
+        out.ints(prefix + ".order", new int[]{order}, 1);
+        out.longs(prefix + ".indexKeys", indexKeys);
+        out.ints(prefix + ".indexSids", indexSids);
+        out.longs(prefix + ".stateKeys", stateKeys);
+        out.ints(prefix + ".offsets", offsets);
+        out.ints(prefix + ".next", nextTokens);
+        out.ints(prefix + ".counts", counts);
+    }
+
+    /** Dựng kho frozen đọc thẳng từ các block đã map (không copy lên heap). */
+    public static TransitionStore read(ModelSnapshot snapshot, String prefix) {
+        TransitionStore store = new TransitionStore(snapshot.intValue(prefix + ".order", 0));
+        store.setFrozen(
+                snapshot.longs(prefix + ".indexKeys"),
+                snapshot.ints(prefix + ".indexSids"),
+                snapshot.longs(prefix + ".stateKeys"),
+                snapshot.ints(prefix + ".offsets"),
+                snapshot.ints(prefix + ".next"),
+                snapshot.ints(prefix + ".counts"));
+        return store;
+    }
+
+    // ========= Đọc (chỉ dùng khi đã freeze) =========
+
+    /** sid của state, -1 nếu chưa gặp. */
+    public int stateIndex(long stateKey) {
+        if (!frozen) return stateIds.get(stateKey, -1);
+        int pos = (int) LongIntHashMap.mix(stateKey) & indexMask;
+        int v;
+        while ((v = indexSids.get(pos)) != 0) {
+            if (indexKeys.get(pos) == stateKey) return v - 1;
+            pos = (pos + 1) & indexMask;
+        }
+        return -1;
+    }
+
+    public int begin(int sid) {
+        return offsets.get(sid);
+    }
+
+    public int end(int sid) {
+        return offsets.get(sid + 1);
+    }
+
+    public int tokenAt(int i) {
+        return nextTokens.get(i);
+    }
+
+    public int countAt(int i) {
+        return counts.get(i);
+    }
+
+    /**
+     * Chọn ngẫu nhiên 1 state và điền cửa sổ tương ứng.
+     * Với key băm (không giải nén được) → lặp lại 1 token tiếp theo của state đó.
+     */
+    public boolean randomWindow(Random random, int[] window) {
+        if (stateCount == 0) return false;
+        int sid = random.nextInt(stateCount);
+        if (!unpack(stateKeys.get(sid), window)) {
+            Arrays.fill(window, nextTokens.get(offsets.get(sid)));
+        }
+        return true;
+    }
+
+    // ========= Báo cáo bộ nhớ =========
+
+    /** Ước lượng số byte (heap hoặc vùng map) của dạng hiện tại. */
+    public long estimatedBytes() {
+        if (frozen) {
+            return 8L * indexKeys.limit() + 4L * indexSids.limit() + 8L * stateKeys.limit()
+                    + 4L * offsets.limit() + 4L * nextTokens.limit() + 4L * counts.limit();
+        }
+        return stateIds.estimatedBytes() + 16L + 8L * mutableStateKeys.length + pairCounts.estimatedBytes();
+    }
+
+    /**
+     * Ước lượng bộ nhớ của cách lưu cũ Map<String, Map<Integer,Integer>>
+     * (JVM 64-bit, compressed oops, compact strings) cho cùng dữ liệu.
+     */
+    public long estimatedLegacyBytes() {
+        freeze();
+        long bytes = 48 + 16 + 4L * tableSize(stateCount);   // HashMap ngoài
+        int[] window = new int[order];
+        for (int sid = 0; sid < stateCount; sid++) {
+            int chars = order - 1;                             // dấu ','
+            if (unpack(stateKeys.get(sid), window)) {
+                for (int t : window) chars += digits(t);
+            } else {
+                chars += 6 * order;
+            }
+            bytes += 24 + align(16 + chars);                  // String + byte[]
+            bytes += 32;                                       // HashMap.Node
+            int fanout = end(sid) - begin(sid);
+            bytes += 48 + 16 + 4L * tableSize(fanout);         // HashMap trong
+            for (int i = begin(sid); i < end(sid); i++) {
+                bytes += 32;                                   // HashMap.Node
+                if (tokenAt(i) > 127) bytes += 16;             // Integer key
+                if (countAt(i) > 127) bytes += 16;             // Integer value
+            }
+        }
+        return bytes;
+    }
+
+    public MemoryReport memoryReport() {
+        long legacy = estimatedLegacyBytes(); // đã freeze bên trong
+        return new MemoryReport(ngramCount(), stateCount, legacy, mutableBytesAtFreeze, estimatedBytes());
+    }
+
+    /**
+     * So sánh bộ nhớ: cách cũ (String key + HashMap lồng nhau),
+     * bảng băm nguyên thuỷ khi huấn luyện, và dạng CSR sau khi freeze.
+     */
+    public record MemoryReport(long ngrams, long states,
+                               long legacyBytes, long mutableBytes, long frozenBytes) {
+
+        public double bytesPerNgram(long bytes) {
+            return ngrams == 0 ? 0 : (double) bytes / ngrams;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "n-grams=%d, states=%d | legacy HashMap<String,...>: %d B (%.1f B/n-gram)"
+                            + " | primitive mutable: %d B (%.1f B/n-gram)"
+                            + " | frozen CSR: %d B (%.1f B/n-gram)",
+                    ngrams, states,
+                    legacyBytes, bytesPerNgram(legacyBytes),
+                    mutableBytes, bytesPerNgram(mutableBytes),
+                    frozenBytes, bytesPerNgram(frozenBytes));
+        }
+    }
+
+    private static int tableSize(int entries) {
+        int needed = (int) Math.ceil(entries / 0.75);
+        int cap = 16;
+        while (cap < needed) cap <<= 1;
+        return cap;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static int digits(int v) {
+        int d = 1;
+        while (v >= 10) {
+            v /= 10;
+            d++;
+        }
+        return d;
+    }
+}
@@ -0,0 +1,104 @@
+package com.ai.aiengine.kafka;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chế độ tải cao (ai.kafka.batch.enabled=true): mỗi lần poll lấy cả batch rồi chia cho pool worker.
+ *
+ *   poll (≤ max-poll-records) ─► nhóm theo partition ─► mỗi partition 1 task, chạy tuần tự trong task
+ *                                                        (giữ thứ tự theo partition / key)
+ *   chờ mọi task + mọi lần gửi trả lời xong ─► listener return ─► container commit offset (AckMode.BATCH)
+ *
+ * - Offset chỉ được commit sau khi batch xử lý xong → lỗi giữa chừng thì batch được đọc lại (at-least-once).
+ * - Pool có số worker và hàng đợi cố định; hàng đợi đầy thì luồng consumer tự chạy task (CallerRunsPolicy)
+ *   → poll tiếp theo bị chậm lại thay vì dồn hàng đợi vô hạn.
+ * - Thông lượng tăng theo số partition (concurrency consumer) và số core (workers).
+ */
+@Component
+@ConditionalOnProperty(name = "ai.kafka.batch.enabled", havingValue = "true")
+public class BatchChatRequestListener {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchChatRequestListener.class);
+
+    private final ChatRequestHandler handler;
+    private final ThreadPoolExecutor workers;
+
+    public BatchChatRequestListener(ChatRequestHandler handler,
+                                    @Value("${ai.kafka.batch.workers:0}") int workers) {
+        this.handler = handler;
+        int n = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        AtomicInteger seq = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(n),
+                r -> {
+                    Thread t = new Thread(r, "chat-request-worker-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        log.info("BatchChatRequestListener: {} workers", n);
+    }
+
+    // concurrency = số consumer (tối đa bằng số partition của topic)
+    @KafkaListener(topics = "chat-request", groupId = "ai-engine-group",
+            concurrency = "${ai.kafka.listener.concurrency:1}",
+            batch = "true",
+            properties = {"max.poll.records=${ai.kafka.batch.max-poll-records:500}",
+                    "value.deserializer=com.ai.aiengine.kafka.ChatEnvelopeDeserializer"})
+    public void handleBatch(List<ConsumerRecord<String, ChatEnvelope>> records) {
+        long start = System.nanoTime();
+
+        Map<Integer, List<ConsumerRecord<String, ChatEnvelope>>> byPartition = new LinkedHashMap<>();
+        for (ConsumerRecord<String, ChatEnvelope> record : records) {
+            byPartition.computeIfAbsent(record.partition(), p -> new ArrayList<>()).add(record);
+        }
+
+        if (byPartition.size() == 1) {
+            // 1 partition: không cần chuyển luồng
+            processPartition(records);
+        } else {
+            List<CompletableFuture<Void>> tasks = new ArrayList<>(byPartition.size());
+            for (List<ConsumerRecord<String, ChatEnvelope>> partition : byPartition.values()) {
+                tasks.add(CompletableFuture.runAsync(() -> processPartition(partition), workers));
+            }
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+        }
+
+        if (log.isDebugEnabled()) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            log.debug("Batch {} message / {} partition: {} ms, {} msg/s", records.size(), byPartition.size(),
+                    Math.round(seconds * 1000), Math.round(records.size() / Math.max(seconds, 1e-9)));
+        }
+    }
+
+    /** Xử lý tuần tự các message của 1 partition, chờ trả lời được gửi xong trước khi cho commit. */
+    private void processPartition(List<ConsumerRecord<String, ChatEnvelope>> records) {
+        List<CompletableFuture<?>> sends = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, ChatEnvelope> record : records) {
+            sends.add(handler.handle(record));
+        }
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).join();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,64 @@
+package com.ai.aiengine.kafka;
+
+import com.ai.aiengine.core.DecodingOptions;
+
+import java.util.UUID;
+
+/**
+ * 1 message trên chat-request / chat-response (câu hỏi hoặc câu trả lời) kèm metadata,
+ * ghi dạng nhị phân bởi ChatEnvelopeSerializer:
+ *
+ *   byte 0    MAGIC (0xFE: không bao giờ là byte UTF-8 → phân biệt với message chuỗi thô kiểu cũ)
+ *   byte 1    VERSION
+ *   byte 2    cờ: trường nào có mặt (SESSION, REPLY_TOPIC, DEADLINE, MAX_NEW, OPTIONS)
+ *   16 byte   correlationId (2 long, big-endian; 0/0 = không có)
+ *   [varlong  deadline, epoch millis]             nếu DEADLINE
+ *   [varint   maxNewTokens]                       nếu MAX_NEW
+ *   [byte strategy, float temperature, varint topK, float topP]   nếu OPTIONS
+ *   [varint độ dài + UTF-8  sessionId]            nếu SESSION
+ *   [varint độ dài + UTF-8  replyTopic]           nếu REPLY_TOPIC
+ *   UTF-8 text                                    phần còn lại
+ *
+ * Thay cho chuỗi thô + header correlationId / replyTopic dạng chuỗi (~70 byte header mỗi message):
+ * metadata chỉ tốn vài chục byte, đọc không cần parse JSON. Đổi bố cục → tăng VERSION.
+ * ChatEnvelopeDeserializer vẫn đọc được message chuỗi thô cũ (lấy metadata từ header).
+ *
+ * deadline dùng đồng hồ thật (epoch millis) vì đi qua tiến trình khác; 0 = không có.
+ * maxNewTokens 0 / options null = mặc định của bên nhận.
+ */
+public record ChatEnvelope(UUID correlationId,
+                           String replyTopic,
+                           String sessionId,
+                           long deadlineEpochMillis,
+                           int maxNewTokens,
+                           DecodingOptions options,
+                           String text) {
+
+    static final byte MAGIC = (byte) 0xFE;
+    static final byte VERSION = 1;
+
+    static final int SESSION = 1;
+    static final int REPLY_TOPIC = 1 << 1;
+    static final int DEADLINE = 1 << 2;
+    static final int MAX_NEW = 1 << 3;
+    static final int OPTIONS = 1 << 4;
+
+    public ChatEnvelope {
+        if (text == null) text = "";
+    }
+
+    /** Câu hỏi gửi AI Engine: trả lời về replyTopic, quá deadline thì bên nhận bỏ qua. */
+    public static ChatEnvelope request(UUID correlationId, String replyTopic, long deadlineEpochMillis, String text) {
+        return new ChatEnvelope(correlationId, replyTopic, null, deadlineEpochMillis, 0, null, text);
+    }
+
+    /** Câu trả lời cho request (chép correlationId). */
+    public static ChatEnvelope reply(ChatEnvelope request, String text) {
+        return new ChatEnvelope(request.correlationId, null, null, 0, 0, null, text);
+    }
+
+    /** Đã quá hạn tại thời điểm nowEpochMillis (không có hạn → false). */
+    public boolean expired(long nowEpochMillis) {
+        return deadlineEpochMillis > 0 && nowEpochMillis >= deadlineEpochMillis;
+    }
+}
@@ -0,0 +1,161 @@
+package com.ai.aiengine.kafka;
+
+import com.ai.aiengine.core.DecodingOptions;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.kafka.support.KafkaHeaders;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Đọc ChatEnvelope (xem bố cục ở ChatEnvelope) thẳng từ mảng byte Kafka đưa vào:
+ * chuỗi được giải mã tại chỗ (new String(mảng, offset, độ dài, UTF-8)), không chép ra bộ đệm trung gian.
+ *
+ * Message không bắt đầu bằng MAGIC là kiểu cũ (chuỗi thô + header correlationId / replyTopic):
+ * text = cả message, metadata lấy từ header → nâng cấp bên đọc trước bên ghi không mất message.
+ * VERSION lạ (bên ghi mới hơn) → SerializationException.
+ */
+public class ChatEnvelopeDeserializer implements Deserializer<ChatEnvelope> {
+
+    private static final DecodingOptions.Strategy[] STRATEGIES = DecodingOptions.Strategy.values();
+
+    @Override
+    public ChatEnvelope deserialize(String topic, byte[] data) {
+        return deserialize(topic, null, data);
+    }
+
+    @Override
+    public ChatEnvelope deserialize(String topic, Headers headers, byte[] data) {
+        if (data == null) return null;
+        return decode(data, 0, data.length, headers);
+    }
+
+    @Override
+    public ChatEnvelope deserialize(String topic, Headers headers, ByteBuffer data) {
+        if (data == null) return null;
+        if (!data.hasArray()) {
+            byte[] copy = new byte[data.remaining()];
+            data.duplicate().get(copy);
+            return decode(copy, 0, copy.length, headers);
+        }
+        return decode(data.array(), data.arrayOffset() + data.position(), data.remaining(), headers);
+    }
+
+    static ChatEnvelope decode(byte[] buf, int offset, int length, Headers headers) {
+        int end = offset + length;
+        if (length == 0 || buf[offset] != ChatEnvelope.MAGIC) {
+            return legacy(new String(buf, offset, length, StandardCharsets.UTF_8), headers);
+        }
+        if (length < 19) {
+            throw new SerializationException("Envelope quá ngắn: " + length + " byte");
+        }
+        if (buf[offset + 1] != ChatEnvelope.VERSION) {
+            throw new SerializationException("Phiên bản envelope không hỗ trợ: " + buf[offset + 1]);
+        }
+        Reader in = new Reader(buf, offset + 3, end);
+        int flags = buf[offset + 2];
+        long msb = in.long64();
+        long lsb = in.long64();
+        UUID id = msb == 0 && lsb == 0 ? null : new UUID(msb, lsb);
+        long deadline = (flags & ChatEnvelope.DEADLINE) != 0 ? in.varLong() : 0;
+        int maxNew = (flags & ChatEnvelope.MAX_NEW) != 0 ? (int) in.varLong() : 0;
+        DecodingOptions options = null;
+        if ((flags & ChatEnvelope.OPTIONS) != 0) {
+            int strategy = in.byte8();
+            if (strategy >= STRATEGIES.length) throw new SerializationException("strategy lạ: " + strategy);
+            double temperature = Float.intBitsToFloat(in.int32());
+            int topK = (int) in.varLong();
+            double topP = Float.intBitsToFloat(in.int32());
+            try {
+                options = new DecodingOptions(STRATEGIES[strategy], temperature, topK, topP);
+            } catch (IllegalArgumentException e) {
+                throw new SerializationException(e.getMessage());
+            }
+        }
+        String session = (flags & ChatEnvelope.SESSION) != 0 ? in.string() : null;
+        String replyTopic = (flags & ChatEnvelope.REPLY_TOPIC) != 0 ? in.string() : null;
+        String text = in.rest();
+        return new ChatEnvelope(id, replyTopic, session, deadline, maxNew, options, text);
+    }
+
+    private static ChatEnvelope legacy(String text, Headers headers) {
+        UUID id = null;
+        String replyTopic = null;
+        if (headers != null) {
+            Header correlation = headers.lastHeader(KafkaHeaders.CORRELATION_ID);
+            if (correlation != null) {
+                try {
+                    id = UUID.fromString(new String(correlation.value(), StandardCharsets.UTF_8));
+                } catch (IllegalArgumentException e) {
+                    // id không phải UUID (client khác) → coi như không có
+                }
+            }
+            Header replyTo = headers.lastHeader(KafkaHeaders.REPLY_TOPIC);
+            if (replyTo != null) replyTopic = new String(replyTo.value(), StandardCharsets.UTF_8);
+        }
+        return new ChatEnvelope(id, replyTopic, null, 0, 0, null, text);
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] buf, int pos, int end) {
+            this.buf = buf;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        int byte8() {
+            need(1);
+            return buf[pos++] & 0xFF;
+        }
+
+        int int32() {
+            need(4);
+            int v = 0;
+            for (int i = 0; i < 4; i++) v = (v << 8) | (buf[pos++] & 0xFF);
+            return v;
+        }
+
+        long long64() {
+            need(8);
+            long v = 0;
+            for (int i = 0; i < 8; i++) v = (v << 8) | (buf[pos++] & 0xFF);
+            return v;
+        }
+
+        long varLong() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = byte8();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new SerializationException("varint quá dài");
+        }
+
+        String string() {
+            long n = varLong();
+            if (n > end - pos) throw new SerializationException("Chuỗi vượt quá message: " + n + " byte");
+            String s = new String(buf, pos, (int) n, StandardCharsets.UTF_8);
+            pos += (int) n;
+            return s;
+        }
+
+        String rest() {
+            String s = new String(buf, pos, end - pos, StandardCharsets.UTF_8);
+            pos = end;
+            return s;
+        }
+
+        private void need(int n) {
+            if (end - pos < n) throw new SerializationException("Envelope bị cắt");
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.ai.aiengine.kafka;
+
+import com.ai.aiengine.core.DecodingOptions;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ghi ChatEnvelope theo bố cục nhị phân (xem ChatEnvelope).
+ *
+ * Ghi thẳng vào 1 mảng byte lấy từ pool (mã hoá UTF-8 bằng tay, không qua String.getBytes / stream),
+ * xong chỉ chép 1 lần ra mảng đúng kích thước mà Kafka cần rồi trả mảng về pool.
+ * Pool là vài ô AtomicReference (lấy = getAndSet(null), trả = compareAndSet(null, ...)): không khoá,
+ * không cấp phát khi lấy / trả, dùng được cả khi gọi từ virtual thread (ThreadLocal thì mỗi virtual
+ * thread 1 bộ đệm mới). Ô trống → cấp phát mảng mới; mảng lớn hơn MAX_POOLED không giữ lại.
+ */
+public class ChatEnvelopeSerializer implements Serializer<ChatEnvelope> {
+
+    private static final int INITIAL = 512;
+    private static final int MAX_POOLED = 64 * 1024;
+    private static final int SLOTS =
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+
+    private final AtomicReferenceArray<byte[]> pool = new AtomicReferenceArray<>(SLOTS);
+
+    @Override
+    public byte[] serialize(String topic, ChatEnvelope envelope) {
+        if (envelope == null) return null;
+
+        String session = envelope.sessionId();
+        String replyTopic = envelope.replyTopic();
+        String text = envelope.text();
+        // 1 char UTF-16 → tối đa 3 byte UTF-8 (cặp surrogate 2 char → 4 byte)
+        int max = 3 + 16 + 10 + 5 + 14 + 5 + 3 * length(session) + 5 + 3 * length(replyTopic) + 3 * text.length();
+
+        int slot = Thread.currentThread().hashCode() & (SLOTS - 1);
+        byte[] buf = pool.getAndSet(slot, null);
+        if (buf == null || buf.length < max) buf = new byte[Math.max(INITIAL, max)];
+
+        int pos = encode(envelope, buf);
+        byte[] out = Arrays.copyOf(buf, pos);
+        if (buf.length <= MAX_POOLED) pool.compareAndSet(slot, null, buf);
+        return out;
+    }
+
+    /** Ghi envelope vào buf (đủ chỗ), trả về số byte đã ghi. */
+    static int encode(ChatEnvelope e, byte[] buf) {
+        DecodingOptions options = e.options();
+        int flags = (e.sessionId() != null ? ChatEnvelope.SESSION : 0)
+                | (e.replyTopic() != null ? ChatEnvelope.REPLY_TOPIC : 0)
+                | (e.deadlineEpochMillis() > 0 ? ChatEnvelope.DEADLINE : 0)
+                | (e.maxNewTokens() > 0 ? ChatEnvelope.MAX_NEW : 0)
+                | (options != null && options != DecodingOptions.DEFAULT ? ChatEnvelope.OPTIONS : 0);
+
+        int pos = 0;
+        buf[pos++] = ChatEnvelope.MAGIC;
+        buf[pos++] = ChatEnvelope.VERSION;
+        buf[pos++] = (byte) flags;
+        UUID id = e.correlationId();
+        pos = putLong(buf, pos, id == null ? 0 : id.getMostSignificantBits());
+        pos = putLong(buf, pos, id == null ? 0 : id.getLeastSignificantBits());
+        if ((flags & ChatEnvelope.DEADLINE) != 0) pos = putVarLong(buf, pos, e.deadlineEpochMillis());
+        if ((flags & ChatEnvelope.MAX_NEW) != 0) pos = putVarLong(buf, pos, e.maxNewTokens());
+        if ((flags & ChatEnvelope.OPTIONS) != 0) {
+            buf[pos++] = (byte) options.strategy().ordinal();
+            pos = putInt(buf, pos, Float.floatToIntBits((float) options.temperature()));
+            pos = putVarLong(buf, pos, options.topK());
+            pos = putInt(buf, pos, Float.floatToIntBits((float) options.topP()));
+        }
+        if ((flags & ChatEnvelope.SESSION) != 0) pos = putString(buf, pos, e.sessionId());
+        if ((flags & ChatEnvelope.REPLY_TOPIC) != 0) pos = putString(buf, pos, e.replyTopic());
+        return putUtf8(buf, pos, e.text());
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private static int putLong(byte[] buf, int pos, long v) {
+        for (int shift = 56; shift >= 0; shift -= 8) buf[pos++] = (byte) (v >>> shift);
+        return pos;
+    }
+
+    private static int putInt(byte[] buf, int pos, int v) {
+        for (int shift = 24; shift >= 0; shift -= 8) buf[pos++] = (byte) (v >>> shift);
+        return pos;
+    }
+
+    // LEB128 không dấu: 7 bit mỗi byte, bit cao = còn byte sau
+    private static int putVarLong(byte[] buf, int pos, long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+        return pos;
+    }
+
+    // độ dài (varint) + UTF-8; độ dài chưa biết trước → chừa 1 byte, dài hơn 127 byte thì dời phần đã ghi
+    private static int putString(byte[] buf, int pos, String s) {
+        int start = pos + 1;
+        int end = putUtf8(buf, start, s);
+        int n = end - start;
+        if (n < 0x80) {
+            buf[pos] = (byte) n;
+            return end;
+        }
+        int lengthBytes = (32 - Integer.numberOfLeadingZeros(n) + 6) / 7;
+        System.arraycopy(buf, start, buf, pos + lengthBytes, n);
+        putVarLong(buf, pos, n);
+        return pos + lengthBytes + n;
+    }
+
+    private static int putUtf8(byte[] buf, int pos, String s) {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?';   // surrogate lẻ: như String.getBytes(UTF_8)
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,101 @@
+package com.ai.aiengine.kafka;
+
+import com.ai.aiengine.core.DecodingOptions;
+import com.ai.aiengine.service.AiEngineService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Xử lý 1 câu hỏi từ chat-request (dùng chung cho listener từng message và listener batch):
+ * sinh trả lời rồi gửi lại qua topic trả lời, đều dạng ChatEnvelope
+ * - topic lấy từ replyTopic của request (không có thì dùng ai.kafka.reply-topic)
+ * - correlationId được chép sang trả lời để chat-service ghép đúng request
+ * - maxNewTokens / options của request (nếu có) được dùng khi sinh câu
+ * Request không có correlationId (client cũ, gửi kiểu fire-and-forget) thì chỉ sinh trả lời và log.
+ * Request đã quá deadline (chat-service đã trả timeout) thì bỏ qua, không sinh câu: đếm ở ai.engine.expired.
+ *
+ * Timer ai.engine.stage (tag stage: generate, kafka_send) chỉ đo 1 phần request (ai.metrics.sample-rate).
+ */
+@Component
+public class ChatRequestHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatRequestHandler.class);
+
+    private static final CompletableFuture<Void> NOTHING_SENT = CompletableFuture.completedFuture(null);
+
+    private final AiEngineService aiEngineService;
+    private final KafkaTemplate<String, ChatEnvelope> kafkaTemplate;
+    private final String defaultReplyTopic;
+    private final double sampleRate;
+    private final Timer generateTimer;
+    private final Timer sendTimer;
+    private final Counter expired;
+
+    public ChatRequestHandler(AiEngineService aiEngineService,
+                              KafkaTemplate<String, ChatEnvelope> kafkaTemplate,
+                              @Value("${ai.kafka.reply-topic:chat-response}") String defaultReplyTopic,
+                              MeterRegistry registry,
+                              @Value("${ai.metrics.sample-rate:0.01}") double sampleRate) {
+        this.aiEngineService = aiEngineService;
+        this.kafkaTemplate = kafkaTemplate;
+        this.defaultReplyTopic = defaultReplyTopic;
+        this.sampleRate = sampleRate;
+        this.generateTimer = stageTimer(registry, "generate");
+        this.sendTimer = stageTimer(registry, "kafka_send");
+        this.expired = Counter.builder("ai.engine.expired").register(registry);
+    }
+
+    private static Timer stageTimer(MeterRegistry registry, String stage) {
+        return Timer.builder("ai.engine.stage")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Trả về future của lần gửi trả lời (đã xong ngay nếu không cần gửi).
+     * Message không có value (tombstone, deserializer trả null) → bỏ qua, không làm hỏng cả batch.
+     */
+    public CompletableFuture<?> handle(ConsumerRecord<String, ChatEnvelope> record) {
+        ChatEnvelope request = record.value();
+        if (request == null) {
+            log.debug("Bỏ qua message không có nội dung ({}-{}@{})", record.topic(), record.partition(), record.offset());
+            return NOTHING_SENT;
+        }
+        log.debug("Nhận message từ chat-service: {}", request.text());
+
+        if (request.expired(System.currentTimeMillis())) {
+            log.debug("Bỏ qua request {} đã quá hạn", request.correlationId());
+            expired.increment();
+            return NOTHING_SENT;
+        }
+
+        boolean sampled = sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+        long start = sampled ? System.nanoTime() : 0;
+
+        DecodingOptions options = request.options() == null ? DecodingOptions.DEFAULT : request.options();
+        String reply = aiEngineService.generateReply(request.text(), options, request.maxNewTokens());
+        log.debug("AI trả lời: {}", reply);
+        if (sampled) generateTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        if (request.correlationId() == null) return NOTHING_SENT;
+
+        String topic = request.replyTopic() == null ? defaultReplyTopic : request.replyTopic();
+        ChatEnvelope out = ChatEnvelope.reply(request, reply);
+        if (!sampled) return kafkaTemplate.send(topic, out);
+        long sendStart = System.nanoTime();
+        return kafkaTemplate.send(topic, out)
+                .whenComplete((result, error) -> sendTimer.record(System.nanoTime() - sendStart, TimeUnit.NANOSECONDS));
+    }
+}
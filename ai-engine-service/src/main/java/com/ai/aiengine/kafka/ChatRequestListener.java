@@ -1,28 +1,30 @@
 package com.ai.aiengine.kafka;
 
-import com.ai.aiengine.service.AiEngineService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 
+/**
+ * Chế độ mặc định: nhận từng message một (ai.kafka.batch.enabled=false).
+ * Tải cao thì dùng BatchChatRequestListener.
+ */
 @Component
+@ConditionalOnProperty(name = "ai.kafka.batch.enabled", havingValue = "false", matchIfMissing = true)
 public class ChatRequestListener {
 
-    private final AiEngineService aiEngineService;
+    private final ChatRequestHandler handler;
 
-    public ChatRequestListener(AiEngineService aiEngineService) {
-        this.aiEngineService = aiEngineService;
+    public ChatRequestListener(ChatRequestHandler handler) {
+        this.handler = handler;
     }
 
-    @KafkaListener(topics = "chat-request", groupId = "ai-engine-group")
-    public void handleChatRequest(String userMessage) {
-        System.out.println("Nhận message từ chat-service: " + userMessage);
-
-        String reply = aiEngineService.generateReply(userMessage);
-
-        // Bước đơn giản: chưa trả kết quả về, chỉ log ra
-        System.out.println("AI trả lời: " + reply);
-
-        // Sau này muốn gửi lại qua topic khác:
-        // kafkaTemplate.send("chat-response", reply);
+    // Luồng consumer là virtual thread khi spring.threads.virtual.enabled=true;
+    // concurrency = số consumer (tối đa bằng số partition của topic)
+    @KafkaListener(topics = "chat-request", groupId = "ai-engine-group",
+            concurrency = "${ai.kafka.listener.concurrency:1}",
+            properties = "value.deserializer=com.ai.aiengine.kafka.ChatEnvelopeDeserializer")
+    public void handleChatRequest(ConsumerRecord<String, ChatEnvelope> record) {
+        handler.handle(record);
     }
-}
\ No newline at end of file
+}
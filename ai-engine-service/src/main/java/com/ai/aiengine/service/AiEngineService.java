@@ -1,39 +1,106 @@
 package com.ai.aiengine.service;
 
+import com.ai.aiengine.core.DecodingOptions;
 import com.ai.aiengine.core.MarkovChatEngine;
+import com.ai.aiengine.core.ModelCompiler;
+import com.ai.aiengine.core.ModelSnapshot;
 import com.ai.aiengine.core.SimpleTokenizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Sinh câu trả lời cho AI Engine:
+ * - Khởi động: nếu có file mô hình đã biên dịch (ai.model.snapshot) → map thẳng file đó,
+ *   không thì huấn luyện lại từ data/training.txt như cũ.
+ * - Sau khi khởi động, generateReply(...) chỉ đọc mô hình (không khoá, không Random chung)
+ *   nên chạy tốt trên virtual thread (spring.threads.virtual.enabled).
+ */
 @Service
 public class AiEngineService {
 
-    private final SimpleTokenizer tokenizer = new SimpleTokenizer();
-    private final MarkovChatEngine engine = new MarkovChatEngine();
+    private static final Logger log = LoggerFactory.getLogger(AiEngineService.class);
+
+    private final SimpleTokenizer tokenizer;
+    private final MarkovChatEngine engine;
+    private final int maxNewTokens;
     private boolean trained = false;
 
-    public AiEngineService() {
+    public AiEngineService(@Value("${ai.data.training:data/training.txt}") String trainingFile,
+                           @Value("${ai.model.snapshot:data/model.bin}") String snapshotFile,
+                           @Value("${ai.model.verify-checksum:false}") boolean verifyChecksum,
+                           @Value("${ai.training.parallelism:0}") int trainingParallelism,
+                           @Value("${ai.generation.max-new-tokens:20}") int maxNewTokens) {
+        this.maxNewTokens = Math.max(1, maxNewTokens);
+
+        // 0) Ưu tiên mô hình đã biên dịch sẵn (xem ModelCompiler)
+        ModelSnapshot snapshot = openSnapshot(snapshotFile, verifyChecksum);
+        if (snapshot != null) {
+            this.tokenizer = SimpleTokenizer.fromSnapshot(snapshot);
+            this.engine = MarkovChatEngine.fromSnapshot(snapshot);
+            this.trained = true;
+            return;
+        }
+
+        this.tokenizer = new SimpleTokenizer();
+        this.engine = new MarkovChatEngine();
+
         try {
-            // Đọc file training giống ChatService
-            String data = Files.readString(Path.of("data/training.txt"));
-            engine.train(tokenizer, data);
+            // Đọc dần file training theo câu (song song nếu ai.training.parallelism != 1)
+            ModelCompiler.train(tokenizer, engine, Path.of(trainingFile), trainingParallelism);
+            engine.freeze();
             trained = true;
-            System.out.println(">>> AiEngineService: trained from data/training.txt");
+            System.out.println(">>> AiEngineService: trained from " + trainingFile);
         } catch (Exception e) {
             System.err.println("WARNING: Cannot load training data in AiEngineService: " + e.getMessage());
+        } finally {
+            // hết giai đoạn huấn luyện: từ vựng chỉ đọc, request đồng thời không làm nó lớn thêm
+            tokenizer.freeze();
+        }
+    }
+
+    // Map file mô hình; null nếu không có hoặc hỏng (→ huấn luyện lại như cũ)
+    private static ModelSnapshot openSnapshot(String file, boolean verify) {
+        if (!Files.exists(Path.of(file))) return null;
+        try {
+            long t0 = System.nanoTime();
+            ModelSnapshot snapshot = ModelSnapshot.open(Path.of(file), verify);
+            if (!snapshot.has("markov.order") || !snapshot.has("vocab.offsets")) {
+                throw new IllegalStateException("thiếu phần vocab/markov");
+            }
+            System.out.println(">>> AiEngineService: mapped model " + file
+                    + " in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+            return snapshot;
+        } catch (Exception e) {
+            System.err.println("WARNING: Cannot open model snapshot " + file + ", retraining: " + e.getMessage());
+            return null;
         }
     }
 
     public String generateReply(String input) {
-        System.out.println("AI-ENGINE REQ = " + input);
+        return generateReply(input, DecodingOptions.DEFAULT);
+    }
+
+    public String generateReply(String input, DecodingOptions options) {
+        return generateReply(input, options, 0);
+    }
+
+    /** maxNewTokens ≤ 0 = ai.generation.max-new-tokens; lớn hơn cũng bị chặn ở mức đó. */
+    public String generateReply(String input, DecodingOptions options, int maxNewTokens) {
+        log.debug("AI-ENGINE REQ = {}", input);
 
         if (!trained) {
             return "Hi, mình là AI Engine, hiện chưa được huấn luyện dữ liệu (data/training.txt).";
         }
 
-        String answer = engine.generate(tokenizer, input, 20);
+        int limit = maxNewTokens > 0 ? Math.min(maxNewTokens, this.maxNewTokens) : this.maxNewTokens;
+        String answer = engine.generate(tokenizer, input, limit, options);
 
         if (answer == null || answer.isBlank()) {
             return "Mình chưa nghĩ ra câu trả lời phù hợp, bạn thử hỏi cách khác nhé.";
@@ -41,4 +108,13 @@ public class AiEngineService {
 
         return answer;
     }
+
+    /**
+     * generateReply(...) chạy trên applicationTaskExecutor của Spring Boot
+     * (virtual thread khi spring.threads.virtual.enabled=true).
+     */
+    @Async
+    public CompletableFuture<String> generateReplyAsync(String input, DecodingOptions options) {
+        return CompletableFuture.completedFuture(generateReply(input, options));
+    }
 }
@@ -0,0 +1,88 @@
+package com.ai.chatservice.bench;
+
+import com.ai.chatservice.service.ChatMetrics;
+import com.ai.chatservice.service.ChatService;
+import com.ai.chatservice.service.ConversationLog;
+import com.ai.chatservice.service.ModelHolder;
+import com.ai.chatservice.service.SessionStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChatService.chat(...) end to end (không qua HTTP): bộ nhớ hỏi–đáp → RetrievalIndex → Markov,
+ * có / không có cache câu trả lời. Câu hỏi: 1/3 đã lưu, 1/3 gần giống, 1/3 lạ.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatServiceBenchmark {
+
+    private static final int PROMPTS = 1024;
+
+    @Param({"10000", "1000000"})
+    int tokens;
+
+    /** chat.cache.max-size: 0 = tắt cache. */
+    @Param({"0", "10000"})
+    int cacheSize;
+
+    /** chat.metrics.sample-rate: đo chi phí instrumentation trên đường chat. */
+    @Param({"0", "0.01", "1"})
+    double sampleRate;
+
+    private Path file;
+    private ChatService chat;
+    private String[] prompts;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticCorpus corpus = new SyntheticCorpus(SyntheticCorpus.vocabularyFor(tokens), 42);
+        List<String[]> pairs = corpus.pairs(tokens);
+        file = Files.createTempFile("bench-conversations", ".jsonl");
+        SyntheticCorpus.writeJsonl(pairs, file);
+
+        ModelHolder models = new ModelHolder(file.toString(), null, false, 1, e -> { });
+        models.reload(file.toString(), null).join();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ChatMetrics metrics = new ChatMetrics(registry, models, sampleRate);
+        // chat_log tắt: benchmark không có DB
+        ConversationLog log = new ConversationLog(null, registry, false, 1, 1, Duration.ofSeconds(1),
+                ConversationLog.Overflow.DROP, false);
+        SessionStore sessions = new SessionStore(32, DataSize.ofMegabytes(64), Duration.ofMinutes(30), registry);
+        chat = new ChatService(models, metrics, log, sessions, 0.6, cacheSize, Duration.ofMinutes(10), 4,
+                30, 200, Duration.ZERO);
+
+        prompts = new String[PROMPTS];
+        for (int i = 0; i < PROMPTS; i++) {
+            String known = pairs.get(i * 7919 % pairs.size())[0];
+            prompts[i] = switch (i % 3) {
+                case 0 -> known;
+                case 1 -> known + " " + corpus.word();
+                default -> corpus.sentence(2, 8);
+            };
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String chat() {
+        next = (next + 1) & (PROMPTS - 1);
+        return chat.chat(prompts[next]);
+    }
+}
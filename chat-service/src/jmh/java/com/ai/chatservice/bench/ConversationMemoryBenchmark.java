@@ -0,0 +1,73 @@
+package com.ai.chatservice.bench;
+
+import com.ai.chatservice.core.ConversationMemory;
+import com.ai.chatservice.core.MarkovChatEngine;
+import com.ai.chatservice.core.SimpleTokenizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConversationMemory: nạp conversations.jsonl (đọc + huấn luyện Markov) và tra câu trả lời trực tiếp.
+ * Nửa số câu tra là câu hỏi đã lưu, nửa là câu lạ (miss).
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class ConversationMemoryBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"10000", "1000000"})
+    int tokens;
+
+    private Path file;
+    private ConversationMemory memory;
+    private String[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticCorpus corpus = new SyntheticCorpus(SyntheticCorpus.vocabularyFor(tokens), 42);
+        List<String[]> pairs = corpus.pairs(tokens);
+        file = Files.createTempFile("bench-conversations", ".jsonl");
+        SyntheticCorpus.writeJsonl(pairs, file);
+
+        memory = load();
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = i % 2 == 0 ? pairs.get(i * 7919 % pairs.size())[0] : corpus.sentence(2, 8) + " nhỉ";
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public ConversationMemory load() throws IOException {
+        SimpleTokenizer tokenizer = new SimpleTokenizer();
+        MarkovChatEngine engine = new MarkovChatEngine(2);
+        ConversationMemory loaded = new ConversationMemory(tokenizer);
+        loaded.load(file.toString(), engine);
+        return loaded;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public String findDirectReply() {
+        next = (next + 1) & (QUERIES - 1);
+        return memory.findDirectReply(queries[next]);
+    }
+}
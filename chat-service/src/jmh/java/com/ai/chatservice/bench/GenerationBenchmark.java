@@ -0,0 +1,59 @@
+package com.ai.chatservice.bench;
+
+import com.ai.chatservice.core.DecodingOptions;
+import com.ai.chatservice.core.MarkovChatEngine;
+import com.ai.chatservice.core.SimpleTokenizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MarkovChatEngine.generate(...) 30 từ trên mô hình đã freeze, theo bậc n-gram và cách giải mã.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerationBenchmark {
+
+    private static final int PROMPTS = 1024;
+
+    @Param({"10000", "1000000"})
+    int tokens;
+
+    @Param({"1", "2", "3"})
+    int order;
+
+    @Param({"ALIAS", "CUMULATIVE", "GREEDY"})
+    String strategy;
+
+    private SimpleTokenizer tokenizer;
+    private MarkovChatEngine engine;
+    private DecodingOptions options;
+    private String[] prompts;
+    private final Random random = new Random(7);
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticCorpus corpus = new SyntheticCorpus(SyntheticCorpus.vocabularyFor(tokens), 42);
+        tokenizer = new SimpleTokenizer();
+        engine = new MarkovChatEngine(order);
+        String text = corpus.text(tokens);
+        engine.train(tokenizer, text);
+        engine.freeze();
+        tokenizer.freeze();
+        options = DecodingOptions.of(strategy, null, null, null);
+
+        prompts = corpus.prompts(text, PROMPTS, 4);
+    }
+
+    @Benchmark
+    public String generate() {
+        next = (next + 1) & (PROMPTS - 1);
+        return engine.generate(tokenizer, prompts[next], 30, options, random);
+    }
+}
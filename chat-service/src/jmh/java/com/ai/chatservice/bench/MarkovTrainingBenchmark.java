@@ -0,0 +1,63 @@
+package com.ai.chatservice.bench;
+
+import com.ai.chatservice.core.MarkovChatEngine;
+import com.ai.chatservice.core.SimpleTokenizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Huấn luyện trọn 1 corpus vào mô hình mới (mỗi lần đo 1 lần train, không có JIT ấm giữa chừng
+ * nên dùng SingleShotTime + nhiều lần lặp). Tokenizer đã biết sẵn từ vựng → chỉ đo phần đếm n-gram.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MarkovTrainingBenchmark {
+
+    @Param({"10000", "1000000"})
+    int tokens;
+
+    @Param({"1", "2", "3"})
+    int order;
+
+    private SimpleTokenizer tokenizer;
+    private String text;
+    private List<String[]> pairs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticCorpus corpus = new SyntheticCorpus(SyntheticCorpus.vocabularyFor(tokens), 42);
+        text = corpus.text(tokens);
+        pairs = corpus.pairs(tokens);
+        tokenizer = new SimpleTokenizer();
+        tokenizer.encode(text);
+        for (String[] p : pairs) tokenizer.encode(p[0] + " " + p[1]);
+    }
+
+    @Benchmark
+    public MarkovChatEngine train() {
+        MarkovChatEngine engine = new MarkovChatEngine(order);
+        engine.train(tokenizer, text);
+        return engine;
+    }
+
+    @Benchmark
+    public MarkovChatEngine trainPair() {
+        MarkovChatEngine engine = new MarkovChatEngine(order);
+        for (String[] p : pairs) engine.trainPair(tokenizer, p[0], p[1]);
+        return engine;
+    }
+
+    /** train rồi freeze sang CSR: chi phí trọn vẹn để có mô hình phục vụ được. */
+    @Benchmark
+    public MarkovChatEngine trainAndFreeze() {
+        MarkovChatEngine engine = train();
+        engine.freeze();
+        return engine;
+    }
+}
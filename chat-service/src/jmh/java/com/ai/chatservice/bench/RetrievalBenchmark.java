@@ -0,0 +1,102 @@
+package com.ai.chatservice.bench;
+
+import com.ai.chatservice.core.RetrievalIndex;
+import com.ai.chatservice.core.SimpleTokenizer;
+import com.ai.chatservice.core.StringTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RetrievalIndex: dựng chỉ mục và search(...) theo số câu hỏi đã lưu, trên dữ liệu tổng hợp:
+ * từ vựng 50k từ phân phối Zipf (vài từ rất phổ biến như "bạn", "là"), câu 3–12 từ.
+ * Câu truy vấn = 1 câu đã lưu bị bỏ 1 từ và thêm 1 từ lạ.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class RetrievalBenchmark {
+
+    private static final int VOCABULARY = 50_000;
+    private static final int QUERIES = 1024;
+
+    @Param({"10000", "100000", "1000000"})
+    int patterns;
+
+    private SimpleTokenizer tokenizer;
+    private List<String> questions;
+    private RetrievalIndex index;
+    private String[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        double[] zipf = zipfCumulative(VOCABULARY, 1.0);
+
+        questions = new ArrayList<>(patterns);
+        tokenizer = new SimpleTokenizer();
+        for (int i = 0; i < patterns; i++) {
+            int length = 3 + random.nextInt(10);
+            StringBuilder sb = new StringBuilder();
+            for (int w = 0; w < length; w++) {
+                if (w > 0) sb.append(' ');
+                sb.append('w').append(sampleZipf(zipf, random));
+            }
+            String q = sb.toString();
+            questions.add(q);
+            tokenizer.encode(q);
+        }
+        tokenizer.freeze();
+        index = build();
+
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String[] words = questions.get(random.nextInt(patterns)).split(" ");
+            int drop = random.nextInt(words.length);
+            StringBuilder sb = new StringBuilder("lạ").append(i);
+            for (int w = 0; w < words.length; w++) {
+                if (w != drop) sb.append(' ').append(words[w]);
+            }
+            queries[i] = sb.toString();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public RetrievalIndex build() {
+        return RetrievalIndex.build(tokenizer, StringTable.build(questions, false));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public RetrievalIndex.Match search() {
+        next = (next + 1) & (QUERIES - 1);
+        return index.search(queries[next]);
+    }
+
+    private static double[] zipfCumulative(int n, double s) {
+        double[] c = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, s);
+            c[i] = sum;
+        }
+        for (int i = 0; i < n; i++) c[i] /= sum;
+        return c;
+    }
+
+    private static int sampleZipf(double[] cumulative, Random random) {
+        int i = Arrays.binarySearch(cumulative, random.nextDouble());
+        return i >= 0 ? i : -i - 1;
+    }
+}
@@ -0,0 +1,125 @@
+package com.ai.chatservice.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Dữ liệu tổng hợp cho benchmark: từ ghép từ các âm tiết tiếng Việt, tần suất theo Zipf
+ * (vài từ rất phổ biến, đuôi dài từ hiếm), câu hỏi 2–8 từ, câu trả lời 4–20 từ.
+ * Cùng seed → cùng dữ liệu, kết quả các lần chạy so sánh được với nhau.
+ */
+final class SyntheticCorpus {
+
+    private static final String[] SYLLABLES = {
+            "xin", "chào", "bạn", "mình", "là", "bot", "hôm", "nay", "trời", "đẹp", "quá", "không",
+            "có", "gì", "đi", "học", "làm", "việc", "ăn", "cơm", "nhà", "người", "thời", "tiết",
+            "nắng", "mưa", "vui", "buồn", "thích", "muốn", "biết", "hỏi", "trả", "lời", "sao", "nào"
+    };
+
+    private final String[] vocabulary;
+    private final double[] cumulative;
+    private final Random random;
+
+    SyntheticCorpus(int vocabularySize, long seed) {
+        this.random = new Random(seed);
+        this.vocabulary = new String[vocabularySize];
+        for (int i = 0; i < vocabularySize; i++) {
+            // 1 âm tiết cho từ phổ biến, 2 âm tiết (+ số) cho đuôi dài
+            String a = SYLLABLES[i % SYLLABLES.length];
+            vocabulary[i] = i < SYLLABLES.length ? a
+                    : a + SYLLABLES[(i / SYLLABLES.length) % SYLLABLES.length] + (i / (SYLLABLES.length * SYLLABLES.length));
+        }
+        this.cumulative = new double[vocabularySize];
+        double sum = 0;
+        for (int i = 0; i < vocabularySize; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < vocabularySize; i++) cumulative[i] /= sum;
+    }
+
+    /** Từ vựng hợp lý cho số token: ~ căn bậc 2 (luật Heaps), trong [200, 200k]. */
+    static int vocabularyFor(int tokens) {
+        return (int) Math.max(200, Math.min(200_000, 20 * Math.sqrt(tokens)));
+    }
+
+    String word() {
+        int i = Arrays.binarySearch(cumulative, random.nextDouble());
+        return vocabulary[i >= 0 ? i : Math.min(-i - 1, vocabulary.length - 1)];
+    }
+
+    String sentence(int minWords, int maxWords) {
+        int n = minWords + random.nextInt(maxWords - minWords + 1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(word());
+        }
+        return sb.toString();
+    }
+
+    /** Văn bản liền khoảng tokens từ, chia câu. */
+    String text(int tokens) {
+        StringBuilder sb = new StringBuilder(tokens * 6);
+        int written = 0;
+        while (written < tokens) {
+            int n = Math.min(tokens - written, 4 + random.nextInt(17));
+            for (int i = 0; i < n; i++) sb.append(word()).append(' ');
+            sb.setCharAt(sb.length() - 1, '.');
+            sb.append(' ');
+            written += n;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * count đoạn ngắn (khoảng words từ) cắt từ chỗ ngẫu nhiên trong text
+     * → prompt có n-gram đã học, mô hình bậc cao vẫn sinh được.
+     */
+    String[] prompts(String text, int count, int words) {
+        String[] prompts = new String[count];
+        for (int i = 0; i < count; i++) {
+            int start = text.indexOf(' ', random.nextInt(Math.max(1, text.length() - 200))) + 1;
+            int end = start;
+            for (int w = 0; w < words && end >= 0; w++) end = text.indexOf(' ', end + 1);
+            prompts[i] = text.substring(start, end < 0 ? text.length() : end);
+        }
+        return prompts;
+    }
+
+    /** Các cặp (hỏi, đáp) tổng cộng khoảng tokens từ. */
+    List<String[]> pairs(int tokens) {
+        List<String[]> pairs = new ArrayList<>();
+        int written = 0;
+        while (written < tokens) {
+            String user = sentence(2, 8);
+            String assistant = sentence(4, 20);
+            pairs.add(new String[]{user, assistant});
+            written += count(user) + count(assistant);
+        }
+        return pairs;
+    }
+
+    /** Ghi các cặp ra file theo định dạng conversations.jsonl. */
+    static void writeJsonl(List<String[]> pairs, Path file) throws IOException {
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (String[] p : pairs) {
+                w.write("{\"messages\":[{\"role\":\"user\",\"content\":\"" + p[0]
+                        + "\"},{\"role\":\"assistant\",\"content\":\"" + p[1] + "\"}]}\n");
+            }
+        }
+    }
+
+    private static int count(String sentence) {
+        int n = 1;
+        for (int i = 0; i < sentence.length(); i++) if (sentence.charAt(i) == ' ') n++;
+        return n;
+    }
+}
@@ -0,0 +1,74 @@
+package com.ai.chatservice.bench;
+
+import com.ai.chatservice.core.SimpleTokenizer;
+import com.ai.chatservice.core.Utf8Buffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SimpleTokenizer trên đường request: encode / normalize / decode (String hoặc byte UTF-8) 1 câu,
+ * tokenizer đã học từ vựng của corpus `tokens` từ rồi freeze (như lúc phục vụ).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    private static final int SENTENCES = 1024;
+
+    @Param({"10000", "1000000"})
+    int tokens;
+
+    private SimpleTokenizer tokenizer;
+    private String[] sentences;
+    private int[][] encoded;
+    private int next;
+    private final Utf8Buffer buffer = new Utf8Buffer();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticCorpus corpus = new SyntheticCorpus(SyntheticCorpus.vocabularyFor(tokens), 42);
+        tokenizer = new SimpleTokenizer();
+        tokenizer.encode(corpus.text(tokens));
+        tokenizer.freeze();
+
+        sentences = new String[SENTENCES];
+        encoded = new int[SENTENCES][];
+        for (int i = 0; i < SENTENCES; i++) {
+            sentences[i] = corpus.sentence(3, 15) + "?";
+            encoded[i] = tokenizer.encode(sentences[i]);
+        }
+    }
+
+    private int nextIndex() {
+        return next = (next + 1) & (SENTENCES - 1);
+    }
+
+    @Benchmark
+    public int[] encode() {
+        return tokenizer.encode(sentences[nextIndex()]);
+    }
+
+    @Benchmark
+    public String normalize() {
+        return tokenizer.normalize(sentences[nextIndex()]);
+    }
+
+    @Benchmark
+    public String decode() {
+        int[] ids = encoded[nextIndex()];
+        return tokenizer.decode(ids, ids.length);
+    }
+
+    /** decode thẳng ra byte UTF-8 vào 1 bộ đệm dùng lại (đường ghi response), không tạo String. */
+    @Benchmark
+    public int decodeToBuffer() {
+        int[] ids = encoded[nextIndex()];
+        buffer.reset();
+        return tokenizer.decodeTo(ids, ids.length, buffer);
+    }
+}
@@ -0,0 +1,104 @@
+package com.ai.chatservice.load;
+
+import com.ai.chatservice.core.ConversationMemory;
+import com.ai.chatservice.core.DecodingOptions;
+import com.ai.chatservice.core.MarkovChatEngine;
+import com.ai.chatservice.core.SimpleTokenizer;
+import com.ai.chatservice.kafka.ChatEnvelope;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.WakeupException;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Đường Kafka chạy trọn trong 1 tiến trình (--target=kafka không có --bootstrap):
+ *
+ *   KafkaTarget ──chat-request──► broker nhúng (EmbeddedKafkaKraftBroker) ──► workers "AI Engine"
+ *        ▲                                                                        │ MarkovChatEngine.generate
+ *        └──────────────────────────chat-response (correlationId) ◄───────────────┘
+ *
+ * Workers làm đúng việc của ChatRequestHandler bên ai-engine-service: sinh trả lời tối đa 20 từ,
+ * gửi ChatEnvelope về replyTopic của request, chép correlationId. Mô hình huấn luyện từ cùng corpus.
+ */
+final class EmbeddedEngine implements AutoCloseable {
+
+    private static final int MAX_NEW_TOKENS = 20;
+
+    private final EmbeddedKafkaKraftBroker broker;
+    private final SimpleTokenizer tokenizer = new SimpleTokenizer();
+    private final MarkovChatEngine engine;
+    private final KafkaProducer<String, ChatEnvelope> producer;
+    private final List<KafkaConsumer<String, ChatEnvelope>> consumers = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final String replyTopic;
+
+    EmbeddedEngine(Path corpus, int order, String requestTopic, String replyTopic, int workerCount)
+            throws IOException, InterruptedException {
+        this.replyTopic = replyTopic;
+        this.engine = new MarkovChatEngine(order);
+        new ConversationMemory(tokenizer).load(corpus.toString(), engine);
+        engine.freeze();
+        tokenizer.freeze();
+
+        int n = Math.max(1, workerCount);
+        this.broker = new EmbeddedKafkaKraftBroker(1, n, requestTopic, replyTopic);
+        broker.afterPropertiesSet();
+        this.producer = KafkaTarget.producer(broker.getBrokersAsString());
+
+        CountDownLatch assigned = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            KafkaConsumer<String, ChatEnvelope> consumer = KafkaTarget.consumer(broker.getBrokersAsString(), "ai-engine");
+            consumer.subscribe(List.of(requestTopic));
+            consumers.add(consumer);
+            Thread worker = new Thread(() -> serve(consumer, assigned), "embedded-ai-engine-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        if (!assigned.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("AI Engine nhúng chưa nhận được partition nào");
+        }
+    }
+
+    String bootstrapServers() {
+        return broker.getBrokersAsString();
+    }
+
+    private void serve(KafkaConsumer<String, ChatEnvelope> consumer, CountDownLatch assigned) {
+        try {
+            KafkaTarget.awaitAssignment(consumer, Duration.ofSeconds(60));
+            assigned.countDown();
+            while (true) {
+                for (ConsumerRecord<String, ChatEnvelope> record : consumer.poll(Duration.ofMillis(100))) {
+                    ChatEnvelope request = record.value();
+                    String reply = engine.generate(tokenizer, request.text(), MAX_NEW_TOKENS, DecodingOptions.DEFAULT);
+                    if (request.correlationId() == null) continue;
+                    String topic = request.replyTopic() == null ? replyTopic : request.replyTopic();
+                    producer.send(new ProducerRecord<>(topic, ChatEnvelope.reply(request, reply)));
+                }
+            }
+        } catch (WakeupException e) {
+            // close()
+        } finally {
+            consumer.close();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        for (KafkaConsumer<String, ChatEnvelope> consumer : consumers) consumer.wakeup();
+        for (Thread worker : workers) worker.join(5_000);
+        producer.close(Duration.ofSeconds(5));
+        broker.destroy();
+    }
+}
@@ -0,0 +1,79 @@
+package com.ai.chatservice.load;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * POST câu hỏi lên chat-service bằng java.net.http.HttpClient (bất đồng bộ, HTTP/1.1, giữ kết nối).
+ * - path /api/chat/send, /api/chat/send-async: body JSON {"message": ...}
+ * - path /api/chat (đường qua Kafka của chat-service): body là câu hỏi dạng text
+ * Mã trả về >= 400 tính là lỗi, tên lỗi "HTTP <mã>" để báo cáo đếm theo từng mã.
+ */
+final class HttpTarget implements LoadTarget {
+
+    private final HttpClient client;
+    private final URI uri;
+    private final boolean json;
+    private final Duration timeout;
+
+    HttpTarget(String baseUrl, String path, Duration timeout) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+        this.uri = URI.create(baseUrl + path);
+        this.json = path.matches(".*/send(-async)?");
+        this.timeout = timeout;
+    }
+
+    @Override
+    public CompletableFuture<?> send(String prompt) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .header("Content-Type", json ? "application/json" : "text/plain; charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofString(json ? "{\"message\":" + quote(prompt) + "}" : prompt))
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).thenApply(response -> {
+            if (response.statusCode() >= 400) throw new HttpStatusException(response.statusCode());
+            return response;
+        });
+    }
+
+    @Override
+    public String describe() {
+        return "http POST " + uri;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    static final class HttpStatusException extends RuntimeException {
+        HttpStatusException(int status) {
+            super("HTTP " + status, null, false, false);
+        }
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
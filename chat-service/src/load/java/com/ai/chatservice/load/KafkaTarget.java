@@ -0,0 +1,130 @@
+package com.ai.chatservice.load;
+
+import com.ai.chatservice.kafka.ChatEnvelope;
+import com.ai.chatservice.kafka.ChatEnvelopeDeserializer;
+import com.ai.chatservice.kafka.ChatEnvelopeSerializer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Đóng vai KafkaChatClient của chat-service: gửi câu hỏi lên chat-request (ChatEnvelope: correlationId + replyTopic),
+ * 1 luồng đọc chat-response và hoàn thành đúng future theo correlationId.
+ * Producer gom lô / nén như mặc định của chat-service (linger 5ms, batch 64KB, lz4).
+ * Trả lời đến sau khi request đã hết giờ thì bỏ qua.
+ */
+final class KafkaTarget implements LoadTarget {
+
+    private final String bootstrapServers;
+    private final String requestTopic;
+    private final KafkaProducer<String, ChatEnvelope> producer;
+    private final KafkaConsumer<String, ChatEnvelope> consumer;
+    private final String replyTopic;
+    private final ConcurrentHashMap<UUID, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+    private final Thread replyReader;
+    private volatile boolean running = true;
+
+    KafkaTarget(String bootstrapServers, String requestTopic, String replyTopic) throws InterruptedException {
+        this.bootstrapServers = bootstrapServers;
+        this.requestTopic = requestTopic;
+        this.replyTopic = replyTopic;
+        this.producer = producer(bootstrapServers);
+        this.consumer = consumer(bootstrapServers, "load-generator-" + UUID.randomUUID());
+        consumer.subscribe(List.of(replyTopic));
+        // chờ nhận partition trước khi gửi, không thì các trả lời đầu tiên bị lỡ (auto.offset.reset=latest)
+        awaitAssignment(consumer, Duration.ofSeconds(30));
+        this.replyReader = new Thread(this::readReplies, "load-reply-reader");
+        replyReader.setDaemon(true);
+        replyReader.start();
+    }
+
+    @Override
+    public CompletableFuture<?> send(String prompt) {
+        UUID id = UUID.randomUUID();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        pending.put(id, future);
+        future.whenComplete((reply, error) -> pending.remove(id));
+
+        ProducerRecord<String, ChatEnvelope> record =
+                new ProducerRecord<>(requestTopic, ChatEnvelope.request(id, replyTopic, 0, prompt));
+        try {
+            producer.send(record, (metadata, error) -> {
+                if (error != null) future.completeExceptionally(error);
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void readReplies() {
+        try {
+            while (running) {
+                for (ConsumerRecord<String, ChatEnvelope> record : consumer.poll(Duration.ofMillis(100))) {
+                    UUID id = record.value().correlationId();
+                    CompletableFuture<String> future = id == null ? null : pending.get(id);
+                    if (future != null) future.complete(record.value().text());
+                }
+            }
+        } catch (WakeupException e) {
+            // close()
+        } finally {
+            consumer.close();
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "kafka " + requestTopic + " → " + replyTopic + " @ " + bootstrapServers;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        consumer.wakeup();
+        replyReader.join(5_000);
+        producer.close(Duration.ofSeconds(5));
+    }
+
+    static KafkaProducer<String, ChatEnvelope> producer(String bootstrapServers) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, 64 * 1024);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        return new KafkaProducer<>(props, new StringSerializer(), new ChatEnvelopeSerializer());
+    }
+
+    static KafkaConsumer<String, ChatEnvelope> consumer(String bootstrapServers, String groupId) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        return new KafkaConsumer<>(props, new StringDeserializer(), new ChatEnvelopeDeserializer());
+    }
+
+    /** Poll tới khi consumer được gán partition (gọi từ luồng sở hữu consumer). */
+    static void awaitAssignment(KafkaConsumer<?, ?> consumer, Duration max) {
+        long deadline = System.nanoTime() + max.toNanos();
+        while (consumer.assignment().isEmpty()) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Consumer chưa được gán partition sau " + max);
+            }
+            consumer.poll(Duration.ofMillis(100));
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.ai.chatservice.load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bộ tạo tải cục bộ để kiểm tra sức chịu tải trước mỗi bản phát hành:
+ *
+ *   PromptMix (câu hỏi trong corpus + câu chưa gặp) ──► LoadTarget
+ *                                                       ├─ http : POST /api/chat/send (chat-service đang chạy)
+ *                                                       └─ kafka: chat-request → chat-response
+ *                                                                 (broker nhúng + AI Engine nhúng, hoặc --bootstrap)
+ *
+ * Hai kiểu phát tải:
+ * - closed: concurrency luồng, mỗi luồng gửi → chờ trả lời → gửi tiếp; có rate thì giữ nhịp theo lịch
+ * - open  : gửi theo lịch cố định rate req/s, không chờ trả lời (tối đa concurrency request đang bay)
+ * Độ trễ ghi vào HdrHistogram (µs) theo 2 cách:
+ * - corrected: tính từ thời điểm request LẼ RA được gửi theo lịch → đã sửa coordinated omission
+ *   (hệ thống nghẽn làm các request sau gửi muộn thì khoảng chờ đó vẫn được tính vào độ trễ)
+ * - raw: tính từ lúc gửi thật, để so
+ * closed không có rate thì không có lịch → 2 cách cho cùng số.
+ * Request lỗi / hết timeout không vào histogram, được đếm theo loại lỗi. Hết giờ chạy mà còn chậm hơn lịch
+ * thì dừng luôn, số request chưa kịp gửi được báo là "behind schedule".
+ *
+ * Chạy (profile load, xem pom.xml):
+ *   ./mvnw -Pload test-compile exec:exec -Dload.args="--target=http --mode=open --rate=200 --duration=60s"
+ *   ./mvnw -Pload test-compile exec:exec -Dload.args="--target=kafka --mode=closed --concurrency=32 --slo-p99=250ms"
+ * Có --slo-p99 / --max-error-rate thì thoát với mã 1 khi vượt ngưỡng (dùng làm cổng kiểm tra trước release).
+ */
+public final class LoadGenerator {
+
+    /** Tham số dòng lệnh dạng --tên=giá-trị. */
+    record Options(String target, String mode, String url, String path, String bootstrap,
+                   String requestTopic, String replyTopic, int engineWorkers, int engineOrder,
+                   int concurrency, double rate, Duration duration, Duration warmup, Duration timeout,
+                   Duration reportInterval, Path corpus, double unseen, long seed, Path hgrm,
+                   Duration sloP99, double maxErrorRate) {
+
+        static Options parse(String[] args) {
+            Map<String, String> m = new HashMap<>();
+            for (String arg : args) {
+                if (!arg.startsWith("--")) throw new IllegalArgumentException("Tham số không hợp lệ: " + arg);
+                int eq = arg.indexOf('=');
+                m.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+            }
+            Options o = new Options(
+                    m.getOrDefault("target", "http"),
+                    m.getOrDefault("mode", "closed"),
+                    m.getOrDefault("url", "http://localhost:8080"),
+                    m.getOrDefault("path", "/api/chat/send"),
+                    m.getOrDefault("bootstrap", ""),
+                    m.getOrDefault("request-topic", "chat-request"),
+                    m.getOrDefault("reply-topic", "chat-response"),
+                    Integer.parseInt(m.getOrDefault("engine-workers", "2")),
+                    Integer.parseInt(m.getOrDefault("engine-order", "2")),
+                    Integer.parseInt(m.getOrDefault("concurrency", "16")),
+                    Double.parseDouble(m.getOrDefault("rate", "0")),
+                    duration(m.getOrDefault("duration", "30s")),
+                    duration(m.getOrDefault("warmup", "5s")),
+                    duration(m.getOrDefault("timeout", "10s")),
+                    duration(m.getOrDefault("report-interval", "5s")),
+                    Path.of(m.getOrDefault("corpus", "data/conversations.jsonl")),
+                    Double.parseDouble(m.getOrDefault("unseen", "0.2")),
+                    Long.parseLong(m.getOrDefault("seed", "42")),
+                    m.containsKey("hgrm") ? Path.of(m.get("hgrm")) : null,
+                    m.containsKey("slo-p99") ? duration(m.get("slo-p99")) : null,
+                    Double.parseDouble(m.getOrDefault("max-error-rate", "0.01")));
+            if (!o.target.equals("http") && !o.target.equals("kafka")) {
+                throw new IllegalArgumentException("--target phải là http hoặc kafka");
+            }
+            if (!o.mode.equals("closed") && !o.mode.equals("open")) {
+                throw new IllegalArgumentException("--mode phải là closed hoặc open");
+            }
+            if (o.mode.equals("open") && o.rate <= 0) {
+                throw new IllegalArgumentException("--mode=open cần --rate > 0");
+            }
+            if (o.concurrency < 1) throw new IllegalArgumentException("--concurrency phải >= 1");
+            return o;
+        }
+
+        // 500ms, 30s, 2m
+        static Duration duration(String s) {
+            if (s.endsWith("ms")) return Duration.ofMillis(Long.parseLong(s.substring(0, s.length() - 2)));
+            if (s.endsWith("s")) return Duration.ofMillis((long) (Double.parseDouble(s.substring(0, s.length() - 1)) * 1000));
+            if (s.endsWith("m")) return Duration.ofSeconds(Long.parseLong(s.substring(0, s.length() - 1)) * 60);
+            return Duration.ofSeconds(Long.parseLong(s));
+        }
+    }
+
+    private final Options options;
+    private final LoadTarget target;
+    private final PromptMix prompts;
+
+    // độ trễ µs; Recorder cho phép nhiều luồng ghi trong khi luồng báo cáo lấy từng khoảng
+    private final Recorder corrected = new Recorder(3);
+    private final Recorder raw = new Recorder(3);
+    private final Histogram correctedTotal = new Histogram(3);
+    private final Histogram rawTotal = new Histogram(3);
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder ok = new LongAdder();
+    private final LongAdder behind = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    private long measureStart;
+    private long end;
+
+    LoadGenerator(Options options, LoadTarget target, PromptMix prompts) {
+        this.options = options;
+        this.target = target;
+        this.prompts = prompts;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        PromptMix prompts = PromptMix.load(options.corpus(), options.unseen());
+        System.out.printf("Prompts: %d từ %s, %.0f%% câu chưa gặp%n",
+                prompts.size(), options.corpus(), prompts.unseenRatio() * 100);
+
+        EmbeddedEngine embedded = null;
+        LoadTarget target;
+        if (options.target().equals("http")) {
+            target = new HttpTarget(options.url(), options.path(), options.timeout());
+        } else {
+            String bootstrap = options.bootstrap();
+            if (bootstrap.isEmpty()) {
+                embedded = new EmbeddedEngine(options.corpus(), options.engineOrder(),
+                        options.requestTopic(), options.replyTopic(), options.engineWorkers());
+                bootstrap = embedded.bootstrapServers();
+                System.out.println("Embedded Kafka broker + AI Engine x" + options.engineWorkers() + " at " + bootstrap);
+            }
+            target = new KafkaTarget(bootstrap, options.requestTopic(), options.replyTopic());
+        }
+
+        Report report;
+        try {
+            report = new LoadGenerator(options, target, prompts).run();
+        } finally {
+            target.close();
+            if (embedded != null) embedded.close();
+        }
+        report.print(System.out);
+        if (options.hgrm() != null) {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(options.hgrm()))) {
+                report.corrected().outputPercentileDistribution(out, 1000.0);
+            }
+            System.out.println("Corrected percentile distribution (ms): " + options.hgrm());
+        }
+        if (!report.withinSlo(options)) System.exit(1);
+    }
+
+    Report run() throws InterruptedException {
+        long start = System.nanoTime();
+        measureStart = start + options.warmup().toNanos();
+        end = measureStart + options.duration().toNanos();
+        System.out.println("== " + target.describe() + ", " + describeLoad()
+                + ", " + options.duration().toSeconds() + " s (+" + options.warmup().toSeconds() + " s warmup)");
+
+        Thread reporter = new Thread(this::reportIntervals, "load-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        SplittableRandom random = new SplittableRandom(options.seed());
+        if (options.mode().equals("open")) {
+            runOpen(start, random);
+        } else {
+            runClosed(start, random);
+        }
+        long finished = System.nanoTime();
+        reporter.interrupt();
+        reporter.join();
+        drainIntervals();
+
+        Map<String, Long> errorCounts = new HashMap<>();
+        errors.forEach((k, v) -> errorCounts.put(k, v.sum()));
+        return new Report(sent.sum(), ok.sum(), behind.sum(), errorCounts,
+                Math.max(1, finished - measureStart),
+                correctedTotal, rawTotal);
+    }
+
+    private String describeLoad() {
+        return options.mode().equals("open")
+                ? String.format("open loop %.0f req/s (max %d in flight)", options.rate(), options.concurrency())
+                : String.format("closed loop x%d%s", options.concurrency(),
+                        options.rate() > 0 ? String.format(" paced at %.0f req/s", options.rate()) : "");
+    }
+
+    // mỗi luồng: gửi → chờ → gửi tiếp; có rate thì luồng i giữ lịch riêng (rate / concurrency req/s, lệch pha nhau)
+    private void runClosed(long start, SplittableRandom random) throws InterruptedException {
+        long interval = options.rate() > 0 ? (long) (1e9 * options.concurrency() / options.rate()) : 0;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < options.concurrency(); i++) {
+            SplittableRandom rnd = random.split();
+            long first = start + (interval * i) / options.concurrency();
+            Thread worker = new Thread(() -> {
+                long next = first;
+                while (true) {
+                    long intended;
+                    if (interval > 0) {
+                        intended = next;
+                        next += interval;
+                        if (intended >= end) break;
+                        if (System.nanoTime() >= end) {
+                            // chậm hơn lịch: phần lịch còn lại không kịp gửi
+                            behind.add((end - intended + interval - 1) / interval);
+                            break;
+                        }
+                        sleepUntil(intended);
+                    } else {
+                        intended = System.nanoTime();
+                        if (intended >= end) break;
+                    }
+                    dispatch(prompts.next(rnd), intended).join();
+                }
+            }, "load-worker-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+    }
+
+    // 1 luồng phát theo lịch start + k / rate; quá concurrency request đang bay thì chờ (vẫn tính từ lịch)
+    private void runOpen(long start, SplittableRandom random) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(options.concurrency());
+        double interval = 1e9 / options.rate();
+        for (long k = 0; ; k++) {
+            long intended = start + (long) (k * interval);
+            if (intended >= end) break;
+            sleepUntil(intended);
+            inFlight.acquire();
+            if (System.nanoTime() >= end) {
+                inFlight.release();
+                behind.add((long) ((end - intended) / interval) + 1);
+                break;
+            }
+            dispatch(prompts.next(random), intended).whenComplete((r, e) -> inFlight.release());
+        }
+        if (!inFlight.tryAcquire(options.concurrency(), options.timeout().toMillis() + 1_000, TimeUnit.MILLISECONDS)) {
+            System.out.println("Some requests were still in flight at the end of the run");
+        }
+    }
+
+    private CompletableFuture<Void> dispatch(String prompt, long intended) {
+        long sentAt = System.nanoTime();
+        boolean measured = intended >= measureStart;
+        if (measured) sent.increment();
+        CompletableFuture<?> reply;
+        try {
+            reply = target.send(prompt);
+        } catch (RuntimeException e) {
+            reply = CompletableFuture.failedFuture(e);
+        }
+        return reply.orTimeout(options.timeout().toMillis(), TimeUnit.MILLISECONDS).handle((r, error) -> {
+            if (!measured) return null;
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                String kind = cause instanceof TimeoutException ? "timeout"
+                        : cause instanceof HttpTarget.HttpStatusException ? cause.getMessage()
+                        : cause.getClass().getSimpleName();
+                errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+                return null;
+            }
+            long now = System.nanoTime();
+            corrected.recordValue(Math.max(0, (now - intended) / 1_000));
+            raw.recordValue(Math.max(0, (now - sentAt) / 1_000));
+            ok.increment();
+            return null;
+        });
+    }
+
+    private static void sleepUntil(long deadline) {
+        long wait;
+        while ((wait = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private void reportIntervals() {
+        long intervalNanos = options.reportInterval().toNanos();
+        long lastOk = 0;
+        long lastAt = System.nanoTime();
+        try {
+            while (true) {
+                TimeUnit.NANOSECONDS.sleep(intervalNanos);
+                Histogram interval = drainIntervals();
+                long now = System.nanoTime();
+                if (now <= measureStart) continue;
+                long okNow = ok.sum();
+                double seconds = (now - Math.max(lastAt, measureStart)) / 1e9;
+                System.out.printf("[%5.0f s] %8.1f req/s  p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms  errors %d%n",
+                        (now - measureStart) / 1e9, (okNow - lastOk) / seconds,
+                        interval.getValueAtPercentile(50) / 1000.0, interval.getValueAtPercentile(99) / 1000.0,
+                        interval.getMaxValue() / 1000.0, errorCount());
+                lastOk = okNow;
+                lastAt = now;
+            }
+        } catch (InterruptedException e) {
+            // hết giờ chạy
+        }
+    }
+
+    // chuyển phần đã ghi từ Recorder sang histogram tổng, trả về phần (corrected) của khoảng vừa rồi
+    private synchronized Histogram drainIntervals() {
+        Histogram interval = corrected.getIntervalHistogram();
+        correctedTotal.add(interval);
+        rawTotal.add(raw.getIntervalHistogram());
+        return interval;
+    }
+
+    private long errorCount() {
+        long n = 0;
+        for (LongAdder a : errors.values()) n += a.sum();
+        return n;
+    }
+
+    /** Kết quả cả lần chạy (chỉ phần sau warmup). */
+    record Report(long sent, long ok, long behind, Map<String, Long> errors, long nanos,
+                  Histogram corrected, Histogram raw) {
+
+        long errorTotal() {
+            return errors.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        double throughput() {
+            return ok / (nanos / 1e9);
+        }
+
+        double errorRate() {
+            return sent == 0 ? 0 : (double) errorTotal() / sent;
+        }
+
+        boolean withinSlo(Options options) {
+            boolean pass = true;
+            if (options.sloP99() != null && corrected.getValueAtPercentile(99) > options.sloP99().toNanos() / 1_000) {
+                System.out.println("SLO FAILED: corrected p99 above " + options.sloP99().toMillis() + " ms");
+                pass = false;
+            }
+            if (errorRate() > options.maxErrorRate()) {
+                System.out.printf("SLO FAILED: error rate %.2f%% above %.2f%%%n", errorRate() * 100, options.maxErrorRate() * 100);
+                pass = false;
+            }
+            return pass;
+        }
+
+        void print(PrintStream out) {
+            out.printf("requests %d  ok %d  errors %d (%.2f%%)  throughput %.1f req/s%n",
+                    sent, ok, errorTotal(), errorRate() * 100, throughput());
+            errors.forEach((kind, n) -> out.printf("  %-24s %d%n", kind, n));
+            if (behind > 0) out.printf("  behind schedule: %d requests not sent before the end of the run%n", behind);
+            out.printf("latency (ms)  %9s %9s %9s %9s %9s %9s%n", "p50", "p90", "p99", "p99.9", "p99.99", "max");
+            row(out, "corrected", corrected);
+            row(out, "raw", raw);
+        }
+
+        private static void row(PrintStream out, String name, Histogram h) {
+            out.printf("  %-11s %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n", name,
+                    h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+                    h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0,
+                    h.getValueAtPercentile(99.99) / 1000.0, h.getMaxValue() / 1000.0);
+        }
+    }
+}
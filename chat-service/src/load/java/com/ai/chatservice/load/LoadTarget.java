@@ -0,0 +1,18 @@
+package com.ai.chatservice.load;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Đích của bộ tạo tải: gửi 1 câu hỏi, future xong khi nhận đủ trả lời
+ * (lỗi nếu request hỏng; timeout do LoadGenerator đặt).
+ */
+interface LoadTarget extends AutoCloseable {
+
+    CompletableFuture<?> send(String prompt);
+
+    /** Mô tả ngắn cho dòng tiêu đề của báo cáo. */
+    String describe();
+
+    @Override
+    void close() throws Exception;
+}
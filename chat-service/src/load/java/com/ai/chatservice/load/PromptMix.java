@@ -0,0 +1,65 @@
+package com.ai.chatservice.load;
+
+import com.ai.chatservice.core.ConversationStreamLoader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Câu hỏi cho bộ tạo tải:
+ * - phần lớn là câu user có sẵn trong corpus (trả lời thẳng / từ cache như khi chạy thật)
+ * - tỉ lệ unseen là câu chưa gặp: 2–8 từ của corpus ghép ngẫu nhiên + 1 từ lạ, nên không trùng câu nào
+ *   đã học và không trúng cache → đi hết đường retrieval + sinh Markov
+ */
+final class PromptMix {
+
+    private final String[] seen;
+    private final String[] words;
+    private final double unseen;
+
+    private PromptMix(List<String> seen, Set<String> words, double unseen) {
+        this.seen = seen.toArray(new String[0]);
+        this.words = words.toArray(new String[0]);
+        this.unseen = Math.max(0, Math.min(1, unseen));
+    }
+
+    static PromptMix load(Path corpus, double unseen) throws IOException {
+        List<String> prompts = new ArrayList<>();
+        Set<String> words = new LinkedHashSet<>();
+        ConversationStreamLoader.loadPipelined(corpus, 64, pair -> {
+            prompts.add(pair.user());
+            for (String w : pair.user().trim().split("\\s+")) {
+                if (!w.isEmpty()) words.add(w);
+            }
+        });
+        if (prompts.isEmpty()) {
+            throw new IllegalArgumentException("Không có câu hỏi nào trong " + corpus);
+        }
+        return new PromptMix(prompts, words, unseen);
+    }
+
+    int size() {
+        return seen.length;
+    }
+
+    double unseenRatio() {
+        return unseen;
+    }
+
+    String next(SplittableRandom random) {
+        if (words.length == 0 || random.nextDouble() >= unseen) {
+            return seen[random.nextInt(seen.length)];
+        }
+        StringBuilder sb = new StringBuilder();
+        int n = 2 + random.nextInt(7);
+        for (int i = 0; i < n; i++) {
+            sb.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return sb.append('z').append(Long.toString(random.nextLong() & Long.MAX_VALUE, 36)).toString();
+    }
+}
@@ -1,41 +1,218 @@
 package com.ai.chatservice.api;
 
+import com.ai.chatservice.core.DecodingOptions;
+import com.ai.chatservice.core.GenerationBudget;
+import com.ai.chatservice.service.AdaptiveLimiter;
+import com.ai.chatservice.service.AdmissionControl;
 import com.ai.chatservice.service.ChatService;
-import org.springframework.kafka.core.KafkaTemplate;
+import com.ai.chatservice.service.ConversationLog;
+import com.ai.chatservice.service.KafkaChatClient;
+import com.ai.chatservice.service.OverloadedException;
+import com.ai.chatservice.service.SessionStore;
+import com.fasterxml.jackson.annotation.JsonAlias;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * API REST để chat với A.I:
- * - Gửi { "message": "xin chào" }
+ * - Gửi { "message": "xin chào" } ("prompt" cũng được)
+ *   (tuỳ chọn: "strategy":"ALIAS|CUMULATIVE|GREEDY", "temperature", "topK", "topP";
+ *    "maxNew" số từ sinh tối đa, "deadlineMs" thời gian sinh tối đa (0 = không giới hạn), hết giờ trả phần đã sinh;
+ *    "sessionId" để nhóm các lượt của 1 cuộc trò chuyện trong chat_log và dùng các lượt trước làm ngữ cảnh,
+ *    tối đa 64 ký tự, dài hơn → 400)
  * - Nhận về: câu trả lời do A.I sinh ra
+ * - POST /api/chat/stream (cùng body): text/event-stream, mỗi event "token" là 1 phần câu trả lời
+ *   ngay khi vừa sinh, kết thúc bằng event "done"; client ngắt kết nối → dừng sinh
+ * - POST /api/chat (body là câu hỏi dạng text): hỏi AI Engine qua Kafka (chat-request → chat-response),
+ *   trả về câu trả lời của AI Engine; quá chat.kafka.reply-timeout → 504
+ * - GET /api/chat/kafka-stats: số request đang chờ, timeout, độ trễ p50 / p99 của vòng Kafka
+ * - GET /api/chat/session-stats: số session đang giữ ngữ cảnh, bộ nhớ dùng, số session bị loại
+ * - GET /api/chat/admission-stats: giới hạn hiện tại, số request đang chạy / đang chờ / bị từ chối
+ *
+ * Quá tải (AdmissionControl): /send, /send-async, /stream và /api/chat trả 429 (hàng đợi đầy) hoặc 503 (chờ quá lâu)
+ * kèm header Retry-After thay vì để request dồn ứ.
  */
 @RestController
 @RequestMapping("/api/chat")
 @CrossOrigin
 public class ChatController {
 
+    private static final long STREAM_TIMEOUT_MS = 60_000;
+
     private final ChatService chat;
 
-    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final KafkaChatClient kafkaChat;
+
+    private final SessionStore sessions;
 
-    private static final String CHAT_REQUEST_TOPIC = "chat-request";
+    private final AdmissionControl admission;
 
-    public ChatController(ChatService chat, KafkaTemplate<String, String> kafkaTemplate) {
+    public ChatController(ChatService chat, KafkaChatClient kafkaChat, SessionStore sessions,
+                          AdmissionControl admission) {
         this.chat = chat;
-        this.kafkaTemplate = kafkaTemplate;
+        this.kafkaChat = kafkaChat;
+        this.sessions = sessions;
+        this.admission = admission;
     }
 
     @PostMapping("/send")
     public String send(@RequestBody ChatRequest req) {
-        return chat.chat(req.message);
+        checkSessionId(req.sessionId);
+        GenerationBudget budget = chat.budget(req.maxNew, req.deadlineMs);
+        DecodingOptions options = DecodingOptions.of(req.strategy, req.temperature, req.topK, req.topP);
+        try (AdaptiveLimiter.Permit permit = admit(req.sessionId, req.message, options, budget)) {
+            return chat.chat(req.sessionId, req.message, options, budget);
+        }
+    }
+
+    /**
+     * Giống /send nhưng sinh câu trả lời trên executor async (virtual thread nếu bật),
+     * luồng Tomcat được trả về ngay.
+     */
+    @PostMapping("/send-async")
+    public CompletableFuture<String> sendAsync(@RequestBody ChatRequest req) {
+        checkSessionId(req.sessionId);
+        // hạn tính từ lúc nhận request, gồm cả thời gian chờ executor
+        GenerationBudget budget = chat.budget(req.maxNew, req.deadlineMs);
+        DecodingOptions options = DecodingOptions.of(req.strategy, req.temperature, req.topK, req.topP);
+        AdaptiveLimiter.Permit permit = admit(req.sessionId, req.message, options, budget);
+        if (permit == null) return chat.chatAsync(req.sessionId, req.message, options, budget);
+        try {
+            return chat.chatAsync(req.sessionId, req.message, options, budget)
+                    .whenComplete((reply, error) -> permit.close());
+        } catch (RuntimeException e) {
+            permit.close();
+            throw e;
+        }
+    }
+
+    // sessionId được ghi vào cột session_id của chat_log → không nhận ID dài hơn cột
+    private static void checkSessionId(String sessionId) {
+        if (sessionId != null && sessionId.length() > ConversationLog.MAX_SESSION_ID) {
+            throw new IllegalArgumentException("sessionId dài tối đa " + ConversationLog.MAX_SESSION_ID + " ký tự");
+        }
+    }
+
+    // chờ chỗ trong lane của request, không quá hạn sinh câu của nó
+    private AdaptiveLimiter.Permit admit(String sessionId, String message, DecodingOptions options,
+                                         GenerationBudget budget) {
+        return admission.send(chat.lane(sessionId, message, options, budget), budget.deadlineNanos());
+    }
+
+    /**
+     * Streaming qua SSE: việc sinh chạy trên executor async, từng từ được gửi ngay khi sinh.
+     * Giữ 1 chỗ trong lane của AdmissionControl như /send-async tới khi sinh xong.
+     * Gửi lỗi (client đã đóng) / timeout / lỗi kết nối → đặt cờ cancelled, vòng sinh dừng ở từ kế tiếp.
+     */
+    @PostMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestBody ChatRequest req) {
+        DecodingOptions options = DecodingOptions.of(req.strategy, req.temperature, req.topK, req.topP);
+        GenerationBudget budget = chat.budget(req.maxNew, req.deadlineMs);
+        // cùng việc sinh câu như /send → cùng lane, nhả chỗ khi sinh xong (kể cả client ngắt giữa chừng)
+        AdaptiveLimiter.Permit permit = admit(null, req.message, options, budget);
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        emitter.onCompletion(() -> cancelled.set(true));
+        emitter.onTimeout(() -> cancelled.set(true));
+        emitter.onError(e -> cancelled.set(true));
+
+        CompletableFuture<Void> generation;
+        try {
+            generation = chat.chatStreamAsync(req.message, options, budget, token -> {
+                if (cancelled.get()) return false;
+                try {
+                    emitter.send(SseEmitter.event().name("token").data(token));
+                    return true;
+                } catch (IOException | IllegalStateException e) {
+                    cancelled.set(true);
+                    return false;
+                }
+            });
+        } catch (RuntimeException e) {
+            if (permit != null) permit.close();
+            throw e;
+        }
+        generation.whenComplete((ignored, error) -> {
+            if (permit != null) permit.close();
+            if (error != null) {
+                emitter.completeWithError(error);
+                return;
+            }
+            if (cancelled.get()) return;
+            try {
+                emitter.send(SseEmitter.event().name("done").data(""));
+                emitter.complete();
+            } catch (IOException | IllegalStateException e) {
+                // client đã đóng kết nối
+            }
+        });
+        return emitter;
     }
 
-    public record ChatRequest(String message) {}
+    public record ChatRequest(String sessionId,
+                              @JsonAlias("prompt") String message,
+                              String strategy,
+                              Double temperature,
+                              Integer topK,
+                              Double topP,
+                              Integer maxNew,
+                              Long deadlineMs) {}
 
+    // Tham số giải mã / giới hạn sinh câu sai → 400 thay vì 500
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String badRequest(IllegalArgumentException e) {
+        return e.getMessage();
+    }
+
+    // Quá tải → 429 (hàng đợi đầy) / 503 (chờ quá lâu) kèm Retry-After
+    @ExceptionHandler(OverloadedException.class)
+    public ResponseEntity<String> overloaded(OverloadedException e) {
+        HttpStatus status = e.reason() == OverloadedException.Reason.QUEUE_FULL
+                ? HttpStatus.TOO_MANY_REQUESTS
+                : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status)
+                .header("Retry-After", Long.toString(e.retryAfterSeconds()))
+                .body("Hệ thống đang bận, bạn thử lại sau " + e.retryAfterSeconds() + " giây nhé.");
+    }
+
+    // AI Engine không trả lời kịp → 504
+    @ExceptionHandler(TimeoutException.class)
+    @ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+    public String timeout(TimeoutException e) {
+        return "AI Engine chưa trả lời kịp, bạn thử lại sau nhé.";
+    }
+
+    /**
+     * Gửi câu hỏi lên Kafka rồi trả CompletableFuture: luồng servlet được nhả ngay,
+     * response được ghi khi ChatResponseListener nhận trả lời (hoặc khi timeout).
+     */
     @PostMapping
-    public String sendMessage(@RequestBody String userMessage) {
-        // Gửi message lên Kafka
-        kafkaTemplate.send(CHAT_REQUEST_TOPIC, userMessage);
-        return "Đã gửi câu hỏi tới AI Engine: " + userMessage;
+    public CompletableFuture<String> sendMessage(@RequestBody String userMessage) {
+        return kafkaChat.ask(userMessage);
+    }
+
+    @GetMapping("/kafka-stats")
+    public KafkaChatClient.Stats kafkaStats() {
+        return kafkaChat.stats();
+    }
+
+    @GetMapping("/session-stats")
+    public SessionStore.Stats sessionStats() {
+        return sessions.stats();
+    }
+
+    @GetMapping("/admission-stats")
+    public List<AdaptiveLimiter.Stats> admissionStats() {
+        return admission.stats();
     }
 }
@@ -10,7 +10,7 @@ public class HomeController {
     public String home() {
         return """
       Chat-Service đang chạy. Hãy gọi POST /api/chat/send với JSON:
-      {"prompt":"Xin chào bot","maxNew":20}
+      {"message":"Xin chào bot","maxNew":20,"deadlineMs":200}
       """;
     }
 }
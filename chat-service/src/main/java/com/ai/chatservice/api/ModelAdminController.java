@@ -0,0 +1,121 @@
+package com.ai.chatservice.api;
+
+import com.ai.chatservice.service.ChatService;
+import com.ai.chatservice.service.ModelHolder;
+import com.ai.chatservice.service.OnlineLearner;
+import com.ai.chatservice.service.ResponseCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+/**
+ * API quản trị mô hình:
+ * - GET  /api/admin/model         → trạng thái (ready, loading, version, nguồn, lỗi lần nạp trước)
+ * - POST /api/admin/model/reload  → nạp lại ở nền, trả 202 ngay; request chat vẫn chạy trên model cũ
+ *   tới khi model mới dựng xong rồi được đổi nguyên khối
+ *     body (tuỳ chọn): {"conversations":"new.jsonl"} hoặc {"snapshot":"model-v2.bin"}
+ *     đường dẫn tính từ chat.admin.model-dir, trỏ ra ngoài thư mục đó → 400
+ * - GET  /api/admin/model/learning → số liệu học thêm online (số lô, độ trễ, phần đã học)
+ * - GET  /api/admin/model/cache    → thống kê cache câu trả lời (hit / miss / eviction...)
+ *
+ * Các lệnh ghi (reload) phải gửi header X-Admin-Token = chat.admin.token;
+ * chưa cấu hình token thì reload bị tắt (403).
+ */
+@RestController
+@RequestMapping("/api/admin/model")
+public class ModelAdminController {
+
+    private final ModelHolder models;
+    private final OnlineLearner learner;
+    private final ChatService chatService;
+    private final byte[] adminToken;
+    private final Path modelDir;
+
+    public ModelAdminController(ModelHolder models,
+                                OnlineLearner learner,
+                                ChatService chatService,
+                                @Value("${chat.admin.token:}") String adminToken,
+                                @Value("${chat.admin.model-dir:data}") String modelDir) {
+        this.models = models;
+        this.learner = learner;
+        this.chatService = chatService;
+        this.adminToken = adminToken.getBytes(StandardCharsets.UTF_8);
+        this.modelDir = Path.of(modelDir).toAbsolutePath().normalize();
+    }
+
+    @GetMapping
+    public ModelHolder.Status status() {
+        return models.status();
+    }
+
+    @GetMapping("/learning")
+    public OnlineLearner.Stats learning() {
+        return learner.stats();
+    }
+
+    @GetMapping("/cache")
+    public ResponseEntity<ResponseCache.Stats> cache() {
+        ResponseCache.Stats stats = chatService.cacheStats();
+        return stats == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(stats);
+    }
+
+    @PostMapping("/reload")
+    public ResponseEntity<ModelHolder.Status> reload(@RequestHeader(value = "X-Admin-Token", required = false) String token,
+                                                     @RequestBody(required = false) ReloadRequest req) {
+        if (!authorized(token)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        models.reload(req == null ? null : insideModelDir(req.conversations),
+                req == null ? null : insideModelDir(req.snapshot));
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(models.status());
+    }
+
+    public record ReloadRequest(String conversations, String snapshot) {}
+
+    // so sánh thời gian hằng (không lộ độ dài tiền tố khớp qua thời gian phản hồi)
+    private boolean authorized(String token) {
+        return adminToken.length > 0 && token != null
+                && MessageDigest.isEqual(adminToken, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Đường dẫn trong modelDir (đã theo symlink); null giữ nguyên (dùng file mặc định). */
+    private String insideModelDir(String requested) {
+        if (requested == null) return null;
+        Path path = modelDir.resolve(requested).normalize();
+        try {
+            // file chưa có thì nạp sẽ báo lỗi; chỉ cần chặn đường dẫn thoát khỏi modelDir
+            Path root = modelDir;
+            if (Files.exists(path)) {
+                path = path.toRealPath();
+                root = modelDir.toRealPath();
+            }
+            if (!path.startsWith(root)) {
+                throw new IllegalArgumentException("Đường dẫn nằm ngoài thư mục model: " + requested);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return path.toString();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String badRequest(IllegalArgumentException e) {
+        return e.getMessage();
+    }
+
+    // Đang có 1 lần nạp khác → 409
+    @ExceptionHandler(IllegalStateException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public String conflict(IllegalStateException e) {
+        return e.getMessage();
+    }
+}
@@ -0,0 +1,47 @@
+package com.ai.chatservice.api;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Thông tin luồng / bộ nhớ của tiến trình, để so sánh 2 chế độ
+ * (platform thread mặc định và spring.threads.virtual.enabled=true) khi chạy tải:
+ *   GET /api/runtime
+ */
+@RestController
+public class RuntimeController {
+
+    private final boolean virtualThreadsEnabled;
+
+    public RuntimeController(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreadsEnabled) {
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+    }
+
+    @GetMapping("/api/runtime")
+    public RuntimeInfo runtime() {
+        Thread current = Thread.currentThread();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        return new RuntimeInfo(
+                virtualThreadsEnabled,
+                current.isVirtual(),
+                current.toString(),
+                threads.getThreadCount(),       // chỉ đếm platform thread
+                threads.getPeakThreadCount(),
+                heap.getUsed(),
+                heap.getCommitted());
+    }
+
+    public record RuntimeInfo(boolean virtualThreadsEnabled,
+                              boolean requestOnVirtualThread,
+                              String requestThread,
+                              int platformThreads,
+                              int peakPlatformThreads,
+                              long heapUsedBytes,
+                              long heapCommittedBytes) {}
+}
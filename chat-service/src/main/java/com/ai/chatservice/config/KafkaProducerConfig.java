@@ -1,28 +1,45 @@
 package com.ai.chatservice.config;
 
+import com.ai.chatservice.kafka.ChatEnvelope;
+import com.ai.chatservice.kafka.ChatEnvelopeSerializer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.core.*;
+import org.springframework.util.unit.DataSize;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Producer cho chat-request: value là ChatEnvelope nhị phân (ChatEnvelopeSerializer).
+ * Gom lô / nén chỉnh qua chat.kafka.producer.*: linger lớn hơn → lô to hơn, nén tốt hơn,
+ * đổi lại mỗi message chờ thêm tối đa chừng đó.
+ */
 @Configuration
 public class KafkaProducerConfig {
 
     @Bean
-    public ProducerFactory<String, String> producerFactory() {
+    public ProducerFactory<String, ChatEnvelope> producerFactory(
+            @Value("${spring.kafka.bootstrap-servers:localhost:9092}") String bootstrapServers,
+            @Value("${chat.kafka.producer.linger:5ms}") Duration linger,
+            @Value("${chat.kafka.producer.batch-size:64KB}") DataSize batchSize,
+            @Value("${chat.kafka.producer.compression:lz4}") String compression) {
         Map<String, Object> configProps = new HashMap<>();
-        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ChatEnvelopeSerializer.class);
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, (int) linger.toMillis());
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, (int) batchSize.toBytes());
+        configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compression);
         return new DefaultKafkaProducerFactory<>(configProps);
     }
 
     @Bean
-    public KafkaTemplate<String, String> kafkaTemplate() {
-        return new KafkaTemplate<>(producerFactory());
+    public KafkaTemplate<String, ChatEnvelope> kafkaTemplate(ProducerFactory<String, ChatEnvelope> producerFactory) {
+        return new KafkaTemplate<>(producerFactory);
     }
 }
@@ -1,11 +1,11 @@
 package com.ai.chatservice.core;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.*;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Ghi nhớ các cặp (user -> assistant) từ file training.
@@ -16,6 +16,12 @@ import java.util.regex.Pattern;
  *   sẽ lưu vào map để trả lời trực tiếp khi người dùng hỏi giống y chang.
  * - Đồng thời gọi MarkovChatEngine.trainPair(...) để engine Markov học luôn
  *   cả context user + assistant.
+ * - Có thể ghi vào / mở từ ModelSnapshot: khi đó câu hỏi và câu trả lời nằm trong
+ *   2 StringTable map thẳng từ file, không dựng lại HashMap.
+ * - Học thêm online (learnOnline) trong lúc đang phục vụ: câu trả lời mới nằm ở 1 map riêng
+ *   (ConcurrentHashMap), phần gốc ở trên không bị sửa.
+ * - Hỏi không trùng hẳn: buildIndex() dựng RetrievalIndex (BM25) trên các câu hỏi đã lưu,
+ *   findNearest(...) trả về câu hỏi gần nhất + độ giống để ChatService quyết định có dùng không.
  */
 public class ConversationMemory {
 
@@ -25,10 +31,73 @@ public class ConversationMemory {
     // value: danh sách các câu trả lời assistant có thể dùng
     private final Map<String, List<String>> userToReplies = new HashMap<>();
 
-    private final Random rnd = new Random(123);
+    // dạng chỉ đọc từ snapshot: câu hỏi k có các câu trả lời replies[replyOffsets[k] .. replyOffsets[k + 1])
+    private final StringTable snapshotKeys;
+    private final IntBuffer replyOffsets;
+    private final StringTable snapshotReplies;
+
+    /** Số câu trả lời học thêm tối đa giữ cho mỗi câu hỏi (giữ các câu mới nhất). */
+    public static final int MAX_LEARNED_REPLIES = 32;
+
+    // câu hỏi đã chuẩn hoá → các câu trả lời học online (list bất biến, thay nguyên list khi thêm)
+    private final ConcurrentHashMap<String, List<String>> learnedReplies = new ConcurrentHashMap<>();
+
+    // dựng 1 lần lúc nạp model (buildIndex), null = chưa dựng
+    private volatile RetrievalIndex index;
 
     public ConversationMemory(SimpleTokenizer tokenizer) {
         this.tokenizer = tokenizer;
+        this.snapshotKeys = null;
+        this.replyOffsets = null;
+        this.snapshotReplies = null;
+    }
+
+    private ConversationMemory(SimpleTokenizer tokenizer, StringTable keys,
+                               IntBuffer replyOffsets, StringTable replies) {
+        this.tokenizer = tokenizer;
+        this.snapshotKeys = keys;
+        this.replyOffsets = replyOffsets;
+        this.snapshotReplies = replies;
+    }
+
+    /**
+     * Mở bộ nhớ hỏi–đáp từ snapshot. Snapshot không có phần này (vd của ai-engine) → bộ nhớ rỗng.
+     */
+    public static ConversationMemory fromSnapshot(SimpleTokenizer tokenizer, ModelSnapshot snapshot) {
+        if (!snapshot.has("memory.replyOffsets")) return new ConversationMemory(tokenizer);
+        return new ConversationMemory(tokenizer,
+                StringTable.read(snapshot, "memory.keys"),
+                snapshot.ints("memory.replyOffsets"),
+                StringTable.read(snapshot, "memory.replies"));
+    }
+
+    /**
+     * Ghi các cặp hỏi–đáp vào snapshot (câu hỏi sắp theo thứ tự chữ cái → file ổn định).
+     */
+    public void writeTo(ModelSnapshot.Writer out) throws IOException {
+        StringTable keys = snapshotKeys;
+        IntBuffer offsets = replyOffsets;
+        StringTable replies = snapshotReplies;
+        if (keys == null) {
+            List<String> keyList = new ArrayList<>(new TreeSet<>(userToReplies.keySet()));
+            List<String> replyList = new ArrayList<>();
+            int[] off = new int[keyList.size() + 1];
+            for (int k = 0; k < keyList.size(); k++) {
+                replyList.addAll(userToReplies.get(keyList.get(k)));
+                off[k + 1] = replyList.size();
+            }
+            keys = StringTable.build(keyList, true);
+            offsets = IntBuffer.wrap(off);
+            replies = StringTable.build(replyList, false);
+        }
+        keys.writeTo(out, "memory.keys");
+        out.ints("memory.replyOffsets", offsets);
+        replies.writeTo(out, "memory.replies");
+    }
+
+    /** Số câu hỏi (đã chuẩn hoá) khác nhau đang nhớ. */
+    public int size() {
+        return snapshotKeys != null ? snapshotKeys.size() : userToReplies.size();
     }
 
     /**
@@ -42,91 +111,185 @@ public class ConversationMemory {
      *  {"messages":[ ... ]}
      *  ...
      *
+     * File được đọc kiểu streaming (ConversationStreamLoader): luồng phụ parse JSON,
+     * luồng hiện tại nhận từng cặp (user, assistant) để ghi nhớ + cho Markov học.
+     *
      * @param filePath đường dẫn file (vd: "data/training.jsonl")
      * @param engine   MarkovChatEngine để train thêm (có thể null nếu không dùng)
      */
     public void load(String filePath, MarkovChatEngine engine) throws IOException {
+        if (snapshotKeys != null) {
+            throw new IllegalStateException("ConversationMemory mở từ snapshot là chỉ đọc");
+        }
+
+        ConversationStreamLoader.Stats stats = ConversationStreamLoader.loadPipelined(
+                Path.of(filePath), 64, pair -> learn(pair.user(), pair.assistant(), engine));
+
+        System.out.println("ConversationMemory loaded " + stats.conversations() + " conversations.");
+        System.out.println("Distinct user patterns: " + userToReplies.size());
+        System.out.println("Load stats: " + stats);
+    }
 
-        // Đọc hết file thành 1 chuỗi (vì mỗi block có thể nhiều dòng)
-        String all = Files.readString(Path.of(filePath), StandardCharsets.UTF_8);
-
-        // 1) Tìm từng khối {"messages":[ ... ]}
-        Pattern convPat = Pattern.compile(
-                "\\{\\\"messages\\\":\\[(.+?)]}",
-                Pattern.DOTALL
-        );
-        Matcher mConv = convPat.matcher(all);
-
-        int convCount = 0;
-
-        while (mConv.find()) {
-            convCount++;
-            String block = mConv.group(1); // phần bên trong [... ] của messages
-
-            // 2) Trong mỗi block, tìm từng message:
-            //    {"role":"xxx","content":"yyy"}
-            Pattern msgPat = Pattern.compile(
-                    "\\{\\\"role\\\":\\\"(system|user|assistant)\\\",\\\"content\\\":\\\"(.*?)\\\"}",
-                    Pattern.DOTALL
-            );
-            Matcher mMsg = msgPat.matcher(block);
-
-            String lastUser = null;
-
-            while (mMsg.find()) {
-                String role = mMsg.group(1);      // system / user / assistant
-                String content = unescape(mMsg.group(2)).trim(); // text thực tế
-
-                if ("user".equals(role)) {
-                    // gặp user -> ghi nhớ, chờ assistant phía sau
-                    lastUser = content;
-
-                } else if ("assistant".equals(role) && lastUser != null) {
-                    // khi gặp assistant và đã có user ngay trước đó
-                    // => tạo cặp (user -> assistant)
-
-                    // 1) lưu để trả lời trực tiếp
-                    String key = tokenizer.normalize(lastUser);
-                    userToReplies
-                            .computeIfAbsent(key, k -> new ArrayList<>())
-                            .add(content);
-
-                    // 2) cho Markov học luôn context user+assistant
-                    if (engine != null) {
-                        engine.trainPair(tokenizer, lastUser, content);
+    /**
+     * Như load(filePath, engine) nhưng huấn luyện song song trên trainer:
+     * các cặp được gom thành lô (trainer.batchSize()) rồi xử lý bằng learnAll(...).
+     * Kết quả (bộ nhớ hỏi–đáp, từ vựng, mô hình Markov) giống hệt bản tuần tự.
+     */
+    public void load(String filePath, MarkovChatEngine engine, ParallelTrainer trainer) throws IOException {
+        if (snapshotKeys != null) {
+            throw new IllegalStateException("ConversationMemory mở từ snapshot là chỉ đọc");
+        }
+
+        int batchSize = trainer.batchSize();
+        List<ConversationStreamLoader.Pair> batch = new ArrayList<>(batchSize);
+        ConversationStreamLoader.Stats stats = ConversationStreamLoader.loadPipelined(
+                Path.of(filePath), 64, pair -> {
+                    batch.add(pair);
+                    if (batch.size() == batchSize) {
+                        learnAll(batch, engine, trainer);
+                        batch.clear();
                     }
+                });
+        learnAll(batch, engine, trainer);
 
-                    // nếu mỗi block chỉ 1 cặp user/assistant thì reset
-                    lastUser = null;
-                }
-                // role = system thì bỏ qua
+        System.out.println("ConversationMemory loaded " + stats.conversations() + " conversations"
+                + " (parallel x" + trainer.parallelism() + ").");
+        System.out.println("Distinct user patterns: " + userToReplies.size());
+        System.out.println("Load stats: " + stats);
+    }
+
+    /**
+     * Ghi nhớ 1 lô cặp, tương đương gọi learn(...) lần lượt:
+     * - mỗi chunk dựng map hỏi–đáp riêng trên pool, gộp lại theo thứ tự chunk
+     *   (thứ tự câu trả lời trong từng danh sách giữ nguyên)
+     * - Markov học qua ParallelTrainer
+     */
+    public void learnAll(List<ConversationStreamLoader.Pair> pairs, MarkovChatEngine engine,
+                         ParallelTrainer trainer) {
+        if (snapshotKeys != null) {
+            throw new IllegalStateException("ConversationMemory mở từ snapshot là chỉ đọc");
+        }
+        if (pairs.isEmpty()) return;
+
+        List<Map<String, List<String>>> parts = trainer.map(trainer.split(pairs), chunk -> {
+            Map<String, List<String>> part = new LinkedHashMap<>();
+            for (ConversationStreamLoader.Pair p : chunk) {
+                part.computeIfAbsent(tokenizer.normalize(p.user()), k -> new ArrayList<>())
+                        .add(p.assistant());
+            }
+            return part;
+        });
+        for (Map<String, List<String>> part : parts) {
+            for (Map.Entry<String, List<String>> e : part.entrySet()) {
+                userToReplies
+                        .computeIfAbsent(e.getKey(), k -> new ArrayList<>())
+                        .addAll(e.getValue());
             }
         }
 
-        System.out.println("ConversationMemory loaded " + convCount + " conversations.");
-        System.out.println("Distinct user patterns: " + userToReplies.size());
+        if (engine != null) {
+            List<String> texts = new ArrayList<>(pairs.size());
+            for (ConversationStreamLoader.Pair p : pairs) {
+                texts.add(MarkovChatEngine.pairText(p.user(), p.assistant()));
+            }
+            trainer.train(tokenizer, engine, texts);
+        }
     }
 
     /**
-     * Giải mã các escape đơn giản từ JSON:
-     *   \\n  -> xuống dòng
-     *   \\\" -> "
-     * (đủ dùng cho file training do chính mình tạo)
+     * Ghi nhớ 1 cặp (user -> assistant):
+     * 1) lưu để trả lời trực tiếp
+     * 2) cho Markov học luôn context user+assistant
      */
-    private String unescape(String s) {
-        return s
-                .replace("\\n", "\n")
-                .replace("\\\"", "\"");
+    public void learn(String user, String assistant, MarkovChatEngine engine) {
+        if (snapshotKeys != null) {
+            throw new IllegalStateException("ConversationMemory mở từ snapshot là chỉ đọc");
+        }
+        String key = tokenizer.normalize(user);
+        userToReplies
+                .computeIfAbsent(key, k -> new ArrayList<>())
+                .add(assistant);
+
+        if (engine != null) {
+            engine.trainPair(tokenizer, user, assistant);
+        }
+    }
+
+    /**
+     * Học thêm (online) 1 micro-batch cặp hỏi–đáp trong lúc đang phục vụ, kể cả khi mở từ snapshot:
+     * 1) câu trả lời vào map học thêm (mỗi câu hỏi tối đa MAX_LEARNED_REPLIES câu mới nhất)
+     * 2) Markov học qua engine.learn(...)
+     * Chi phí tỉ lệ với số cặp trong lô. Các lô phải được áp lần lượt (1 luồng ghi).
+     *
+     * @return số n-gram khác nhau Markov đã học trong lô (0 nếu engine null)
+     */
+    public int learnOnline(List<ConversationStreamLoader.Pair> pairs, MarkovChatEngine engine) {
+        List<String> texts = new ArrayList<>(pairs.size());
+        for (ConversationStreamLoader.Pair p : pairs) {
+            learnedReplies.merge(tokenizer.normalize(p.user()), List.of(p.assistant()), (old, added) -> {
+                List<String> replies = new ArrayList<>(old.size() + 1);
+                replies.addAll(old.size() < MAX_LEARNED_REPLIES ? old : old.subList(1, old.size()));
+                replies.addAll(added);
+                return List.copyOf(replies);
+            });
+            texts.add(MarkovChatEngine.pairText(p.user(), p.assistant()));
+        }
+        return engine == null ? 0 : engine.learn(tokenizer, texts);
+    }
+
+    /** Số câu hỏi có câu trả lời học thêm online. */
+    public int learnedSize() {
+        return learnedReplies.size();
+    }
+
+    /**
+     * Dựng chỉ mục tìm câu hỏi gần giống trên các câu hỏi đang nhớ (không gồm phần học thêm online).
+     * Gọi sau khi tokenizer đã freeze; trả về chỉ mục vừa dựng.
+     */
+    public RetrievalIndex buildIndex() {
+        StringTable questions = snapshotKeys;
+        if (questions == null) {
+            questions = StringTable.build(new ArrayList<>(userToReplies.keySet()), false);
+        }
+        RetrievalIndex built = RetrievalIndex.build(tokenizer, questions);
+        index = built;
+        return built;
+    }
+
+    /** Ước lượng số byte của chỉ mục tìm câu gần giống, 0 nếu chưa dựng. */
+    public long indexBytes() {
+        RetrievalIndex i = index;
+        return i == null ? 0 : i.estimatedBytes();
+    }
+
+    /**
+     * Câu hỏi đã lưu giống userInput nhất (BM25), null nếu chưa dựng chỉ mục hoặc không có câu nào
+     * chung từ. Lấy câu trả lời bằng findDirectReply(match.question()).
+     */
+    public RetrievalIndex.Match findNearest(String userInput) {
+        RetrievalIndex i = index;
+        return i == null ? null : i.search(userInput);
     }
 
     /**
      * Tìm câu trả lời "chuẩn" nếu user hỏi giống hệt như trong training.
-     * - Nếu tìm thấy nhiều câu trả lời cho 1 câu hỏi, sẽ chọn ngẫu nhiên 1 câu.
+     * - Nếu tìm thấy nhiều câu trả lời cho 1 câu hỏi (gốc + học thêm), sẽ chọn ngẫu nhiên 1 câu.
      */
     public String findDirectReply(String userInput) {
         String key = tokenizer.normalize(userInput);
-        List<String> replies = userToReplies.get(key);
-        if (replies == null || replies.isEmpty()) return null;
-        return replies.get(rnd.nextInt(replies.size()));
+        List<String> learned = learnedReplies.isEmpty() ? List.of() : learnedReplies.getOrDefault(key, List.of());
+
+        if (snapshotKeys != null) {
+            int k = snapshotKeys.find(key);
+            int from = k < 0 ? 0 : replyOffsets.get(k);
+            int count = k < 0 ? 0 : replyOffsets.get(k + 1) - from;
+            if (count + learned.size() == 0) return null;
+            int pick = ThreadLocalRandom.current().nextInt(count + learned.size());
+            return pick < count ? snapshotReplies.get(from + pick) : learned.get(pick - count);
+        }
+        List<String> replies = userToReplies.getOrDefault(key, List.of());
+        if (replies.size() + learned.size() == 0) return null;
+        int pick = ThreadLocalRandom.current().nextInt(replies.size() + learned.size());
+        return pick < replies.size() ? replies.get(pick) : learned.get(pick - replies.size());
     }
 }
@@ -0,0 +1,303 @@
+package com.ai.chatservice.core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Đọc file hội thoại theo kiểu dòng chảy (streaming), không đọc cả file vào bộ nhớ:
+ *
+ *   file ──(JsonTokenizer)──► cặp (user, assistant) ──(hàng đợi giới hạn)──► sink
+ *
+ * - Mỗi giá trị gốc là 1 object {"messages":[{"role":...,"content":...}, ...]},
+ *   có thể nằm trên 1 dòng (JSONL) hoặc trải nhiều dòng.
+ * - Trong 1 block: gặp "user" thì nhớ lại, gặp "assistant" ngay sau đó thì tạo 1 cặp.
+ * - Chế độ pipeline: luồng phụ parse, luồng gọi (sink) huấn luyện; hàng đợi có giới hạn
+ *   nên bộ nhớ đỉnh không phụ thuộc kích thước file.
+ */
+public final class ConversationStreamLoader {
+
+    private static final int BATCH = 256;
+    private static final long PROGRESS_EVERY_BYTES = 64L << 20;
+
+    /** 1 cặp hỏi–đáp đã parse. */
+    public record Pair(String user, String assistant) {}
+
+    /** Thống kê sau khi đọc xong. */
+    public record Stats(long conversations, long pairs, long bytes, long nanos) {
+
+        public double megabytesPerSecond() {
+            return nanos == 0 ? 0 : (bytes / 1048576.0) / (nanos / 1e9);
+        }
+
+        public double pairsPerSecond() {
+            return nanos == 0 ? 0 : pairs / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d conversations, %d pairs, %.1f MB in %d ms (%.1f MB/s, %.0f pairs/s)",
+                    conversations, pairs, bytes / 1048576.0, nanos / 1_000_000,
+                    megabytesPerSecond(), pairsPerSecond());
+        }
+    }
+
+    private ConversationStreamLoader() {
+    }
+
+    /**
+     * Đọc tuần tự trên luồng hiện tại, gọi sink cho từng cặp.
+     */
+    public static Stats load(Path file, Consumer<Pair> sink) throws IOException {
+        long t0 = System.nanoTime();
+        try (CountingInputStream counter = open(file);
+             JsonTokenizer json = tokenizer(counter)) {
+            long[] counts = parse(json, counter, sink, t0);
+            return new Stats(counts[0], counts[1], counter.count, System.nanoTime() - t0);
+        }
+    }
+
+    /**
+     * Pipeline 2 luồng: luồng "conversation-parser" đọc + parse, luồng gọi chạy sink.
+     * Các cặp được gom theo lô BATCH qua hàng đợi tối đa queueBatches lô.
+     */
+    public static Stats loadPipelined(Path file, int queueBatches, Consumer<Pair> sink) throws IOException {
+        long t0 = System.nanoTime();
+        BlockingQueue<List<Pair>> queue = new ArrayBlockingQueue<>(Math.max(1, queueBatches));
+        List<Pair> endMarker = List.of();
+        long[] counts = new long[2];
+        long[] bytes = new long[1];
+        Throwable[] failure = new Throwable[1];
+
+        Thread parser = new Thread(() -> {
+            try (CountingInputStream counter = open(file);
+                 JsonTokenizer json = tokenizer(counter)) {
+                BatchingSink batches = new BatchingSink(queue);
+                long[] c = parse(json, counter, batches, t0);
+                batches.flush();
+                counts[0] = c[0];
+                counts[1] = c[1];
+                bytes[0] = counter.count;
+                put(queue, endMarker);
+            } catch (Throwable e) {
+                failure[0] = e;
+                // bỏ các lô chưa xử lý, báo kết thúc để luồng tiêu thụ không chờ mãi
+                queue.clear();
+                putQuietly(queue, endMarker);
+            }
+        }, "conversation-parser");
+        parser.setDaemon(true);
+        parser.start();
+
+        try {
+            while (true) {
+                List<Pair> batch = queue.take();
+                if (batch == endMarker) break;
+                for (Pair p : batch) sink.accept(p);
+            }
+            parser.join();
+        } catch (InterruptedException e) {
+            parser.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Bị ngắt khi đang load " + file);
+        } catch (RuntimeException e) {
+            parser.interrupt();
+            throw e;
+        }
+
+        if (failure[0] instanceof IOException io) throw io;
+        if (failure[0] != null) throw new IOException("Lỗi khi đọc " + file, failure[0]);
+        return new Stats(counts[0], counts[1], bytes[0], System.nanoTime() - t0);
+    }
+
+    /**
+     * Parse 1 đoạn JSON (vd: value của 1 message Kafka) cùng định dạng với file,
+     * trả về các cặp trong đó.
+     */
+    public static List<Pair> parse(String json) throws IOException {
+        List<Pair> pairs = new ArrayList<>(2);
+        try (JsonTokenizer tokens = new JsonTokenizer(new StringReader(json))) {
+            JsonTokenizer.Token t;
+            while ((t = tokens.next()) != JsonTokenizer.Token.END_DOCUMENT) {
+                if (t == JsonTokenizer.Token.BEGIN_OBJECT) {
+                    parseConversation(tokens, pairs::add);
+                } else {
+                    tokens.skipValue(t);
+                }
+            }
+        }
+        return pairs;
+    }
+
+    // ========= Parse =========
+
+    /** Trả về {số block, số cặp}. */
+    private static long[] parse(JsonTokenizer json, CountingInputStream counter,
+                                Consumer<Pair> sink, long t0) throws IOException {
+        long conversations = 0;
+        long pairs = 0;
+        long nextProgress = PROGRESS_EVERY_BYTES;
+
+        JsonTokenizer.Token t;
+        while ((t = json.next()) != JsonTokenizer.Token.END_DOCUMENT) {
+            if (t != JsonTokenizer.Token.BEGIN_OBJECT) {
+                json.skipValue(t);
+                continue;
+            }
+            conversations++;
+            pairs += parseConversation(json, sink);
+
+            if (counter.count >= nextProgress) {
+                nextProgress += PROGRESS_EVERY_BYTES;
+                long nanos = System.nanoTime() - t0;
+                System.out.println("ConversationStreamLoader: "
+                        + new Stats(conversations, pairs, counter.count, nanos));
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Dừng load giữa chừng");
+            }
+        }
+        return new long[]{conversations, pairs};
+    }
+
+    /** Đọc phần còn lại của 1 object gốc (đã qua dấu '{'), trả về số cặp tạo ra. */
+    private static int parseConversation(JsonTokenizer json, Consumer<Pair> sink) throws IOException {
+        int pairs = 0;
+        JsonTokenizer.Token t;
+        while ((t = json.next()) != JsonTokenizer.Token.END_OBJECT) {
+            expect(json, t, JsonTokenizer.Token.STRING);
+            boolean isMessages = json.textEquals("messages");
+            JsonTokenizer.Token value = json.next();
+            if (!isMessages || value != JsonTokenizer.Token.BEGIN_ARRAY) {
+                json.skipValue(value);
+                continue;
+            }
+
+            String lastUser = null;
+            while ((t = json.next()) != JsonTokenizer.Token.END_ARRAY) {
+                if (t == JsonTokenizer.Token.END_DOCUMENT) {
+                    throw new IOException("JSON lỗi ở dòng " + json.line() + ": hết file giữa \"messages\"");
+                }
+                if (t != JsonTokenizer.Token.BEGIN_OBJECT) {
+                    json.skipValue(t);
+                    continue;
+                }
+                String role = null;
+                String content = null;
+                while ((t = json.next()) != JsonTokenizer.Token.END_OBJECT) {
+                    expect(json, t, JsonTokenizer.Token.STRING);
+                    boolean isRole = json.textEquals("role");
+                    boolean isContent = !isRole && json.textEquals("content");
+                    JsonTokenizer.Token v = json.next();
+                    if (v == JsonTokenizer.Token.STRING && isRole) {
+                        role = json.text();
+                    } else if (v == JsonTokenizer.Token.STRING && isContent) {
+                        content = json.text().trim();
+                    } else {
+                        json.skipValue(v);
+                    }
+                }
+                if (content == null) continue;
+
+                if ("user".equals(role)) {
+                    // gặp user -> ghi nhớ, chờ assistant phía sau
+                    lastUser = content;
+                } else if ("assistant".equals(role) && lastUser != null) {
+                    sink.accept(new Pair(lastUser, content));
+                    pairs++;
+                    lastUser = null;
+                }
+                // role = system thì bỏ qua
+            }
+        }
+        return pairs;
+    }
+
+    private static void expect(JsonTokenizer json, JsonTokenizer.Token actual,
+                               JsonTokenizer.Token expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("JSON lỗi ở dòng " + json.line() + ": cần " + expected + " nhưng gặp " + actual);
+        }
+    }
+
+    // ========= I/O =========
+
+    private static CountingInputStream open(Path file) throws IOException {
+        return new CountingInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+    }
+
+    private static JsonTokenizer tokenizer(InputStream in) {
+        return new JsonTokenizer(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    private static void put(BlockingQueue<List<Pair>> queue, List<Pair> batch) throws InterruptedIOException {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Dừng load giữa chừng");
+        }
+    }
+
+    private static void putQuietly(BlockingQueue<List<Pair>> queue, List<Pair> batch) {
+        while (!queue.offer(batch)) {
+            queue.clear();
+        }
+    }
+
+    /** Gom cặp thành lô BATCH rồi đẩy vào hàng đợi (chặn khi hàng đợi đầy). */
+    private static final class BatchingSink implements Consumer<Pair> {
+        private final BlockingQueue<List<Pair>> queue;
+        private List<Pair> batch = new ArrayList<>(BATCH);
+
+        BatchingSink(BlockingQueue<List<Pair>> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void accept(Pair pair) {
+            batch.add(pair);
+            if (batch.size() == BATCH) flush();
+        }
+
+        void flush() {
+            if (batch.isEmpty()) return;
+            try {
+                queue.put(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Dừng load giữa chừng", e);
+            }
+            batch = new ArrayList<>(BATCH);
+        }
+    }
+
+    /** Đếm số byte đã đọc (để báo tiến độ / thông lượng). */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
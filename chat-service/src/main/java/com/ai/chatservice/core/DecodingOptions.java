@@ -0,0 +1,49 @@
+package com.ai.chatservice.core;
+
+/**
+ * Tuỳ chọn giải mã khi sinh câu (mỗi request có thể chọn riêng).
+ *
+ * - strategy    : ALIAS (O(1)), CUMULATIVE (tìm nhị phân O(log k)) hoặc GREEDY (luôn lấy token hay gặp nhất)
+ * - temperature : 1 = giữ nguyên tần suất, < 1 = "chắc chắn" hơn, > 1 = "bay" hơn, 0 = greedy;
+ *                 khác 1 (và 0) thì mỗi token tốn O(k), k = số ứng viên sau topK, với mọi strategy
+ *                 (trọng số count^(1/T) tính lại mỗi lần, không có bảng dựng sẵn cho từng T)
+ * - topK        : chỉ chọn trong k token hay gặp nhất (0 = không giới hạn)
+ * - topP        : chỉ chọn trong nhóm token nhỏ nhất có tổng xác suất ≥ p (1 = không giới hạn)
+ */
+public record DecodingOptions(Strategy strategy, double temperature, int topK, double topP) {
+
+    public enum Strategy { ALIAS, CUMULATIVE, GREEDY }
+
+    public static final DecodingOptions DEFAULT = new DecodingOptions(Strategy.ALIAS, 1.0, 0, 1.0);
+
+    public DecodingOptions {
+        if (strategy == null) strategy = Strategy.ALIAS;
+        if (!(temperature >= 0)) {
+            throw new IllegalArgumentException("temperature phải >= 0: " + temperature);
+        }
+        if (topK < 0) {
+            throw new IllegalArgumentException("topK phải >= 0: " + topK);
+        }
+        if (!(topP > 0 && topP <= 1)) {
+            throw new IllegalArgumentException("topP phải nằm trong (0, 1]: " + topP);
+        }
+    }
+
+    /**
+     * Tạo từ các tham số có thể null (vd lấy từ JSON request); null → giá trị mặc định.
+     */
+    public static DecodingOptions of(String strategy, Double temperature, Integer topK, Double topP) {
+        if (strategy == null && temperature == null && topK == null && topP == null) return DEFAULT;
+        Strategy s;
+        try {
+            s = strategy == null ? DEFAULT.strategy : Strategy.valueOf(strategy.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("strategy không hợp lệ: " + strategy);
+        }
+        return new DecodingOptions(
+                s,
+                temperature == null ? DEFAULT.temperature : temperature,
+                topK == null ? DEFAULT.topK : topK,
+                topP == null ? DEFAULT.topP : topP);
+    }
+}
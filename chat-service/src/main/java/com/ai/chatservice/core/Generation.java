@@ -0,0 +1,27 @@
+package com.ai.chatservice.core;
+
+/**
+ * Kết quả 1 lần sinh câu: số từ đã sinh + lý do dừng.
+ */
+public record Generation(int produced, Stop stop) {
+
+    public enum Stop {
+        /** Gặp END (cuối đoạn trong dữ liệu huấn luyện) hoặc không còn ngữ cảnh nào. */
+        END,
+        /** Gặp token hết câu (SimpleTokenizer.SENTENCE_END_WORD). */
+        SENTENCE_END,
+        /** Bắt đầu lặp vòng (1 từ 3 lần liền, hoặc 1 cụm 2..MAX_PERIOD từ 2 lần liền); bản lặp đã bị bỏ. */
+        REPETITION,
+        /** Đủ maxNewTokens. */
+        MAX_TOKENS,
+        /** Hết giờ (GenerationBudget.deadlineNanos): câu trả lời là phần sinh được tới lúc đó. */
+        DEADLINE,
+        /** onToken trả false (client đã ngắt). */
+        CANCELLED
+    }
+
+    /** Câu bị cắt ngang vì hết giờ, không phải tự kết thúc. */
+    public boolean truncated() {
+        return stop == Stop.DEADLINE;
+    }
+}
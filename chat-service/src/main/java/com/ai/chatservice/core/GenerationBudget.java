@@ -0,0 +1,41 @@
+package com.ai.chatservice.core;
+
+import java.time.Duration;
+
+/**
+ * Giới hạn của 1 lần sinh câu (mỗi request có thể đặt riêng).
+ *
+ * - maxNewTokens  : số từ sinh tối đa
+ * - deadlineNanos : mốc System.nanoTime() phải dừng; hết giờ thì trả phần đã sinh được
+ *                   (NO_DEADLINE = không giới hạn thời gian)
+ */
+public record GenerationBudget(int maxNewTokens, long deadlineNanos) {
+
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    public GenerationBudget {
+        if (maxNewTokens < 0) {
+            throw new IllegalArgumentException("maxNewTokens phải >= 0: " + maxNewTokens);
+        }
+    }
+
+    /** Chỉ giới hạn số từ. */
+    public static GenerationBudget tokens(int maxNewTokens) {
+        return new GenerationBudget(maxNewTokens, NO_DEADLINE);
+    }
+
+    /** Giới hạn số từ + thời gian tính từ bây giờ (null / 0 / âm = không giới hạn thời gian). */
+    public static GenerationBudget of(int maxNewTokens, Duration timeout) {
+        if (timeout == null || timeout.isZero() || timeout.isNegative()) return tokens(maxNewTokens);
+        return new GenerationBudget(maxNewTokens, System.nanoTime() + timeout.toNanos());
+    }
+
+    public boolean hasDeadline() {
+        return deadlineNanos != NO_DEADLINE;
+    }
+
+    /** Đã quá hạn tại thời điểm now (System.nanoTime()). */
+    public boolean expired(long now) {
+        return deadlineNanos != NO_DEADLINE && now - deadlineNanos >= 0;
+    }
+}
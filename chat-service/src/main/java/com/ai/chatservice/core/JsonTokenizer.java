@@ -0,0 +1,215 @@
+package com.ai.chatservice.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Bộ đọc JSON kiểu "kéo" (pull), đọc dần từng token từ Reader:
+ * - Chỉ giữ 1 bộ đệm ký tự cố định + chuỗi đang đọc → bộ nhớ không phụ thuộc kích thước file.
+ * - Hỗ trợ đủ escape của JSON: \" \\ \/ \b \f \n \r \t \\uXXXX (kể cả cặp surrogate).
+ * - Đọc được nhiều giá trị liên tiếp (JSONL, hoặc object trải trên nhiều dòng).
+ *
+ * Dấu ',' và ':' được bỏ qua khi đọc token (người gọi tự biết đang ở key hay value).
+ */
+public final class JsonTokenizer implements Closeable {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY,
+        STRING, NUMBER, TRUE, FALSE, NULL, END_DOCUMENT
+    }
+
+    private final Reader in;
+    private final char[] buf;
+    private int pos;
+    private int limit;
+    private long offset;   // số ký tự đã đọc trước buf[0] (để báo lỗi)
+    private int line = 1;
+
+    private final StringBuilder text = new StringBuilder();
+
+    public JsonTokenizer(Reader in) {
+        this(in, 1 << 14);
+    }
+
+    public JsonTokenizer(Reader in, int bufferChars) {
+        this.in = in;
+        this.buf = new char[bufferChars];
+    }
+
+    /**
+     * Token kế tiếp. Với STRING / NUMBER, nội dung lấy bằng text() hoặc textEquals(...).
+     */
+    public Token next() throws IOException {
+        int c;
+        while (true) {
+            c = read();
+            if (c == -1) return Token.END_DOCUMENT;
+            if (c == '\n') line++;
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n' && c != ',' && c != ':' && c != '\uFEFF') break;
+        }
+        switch (c) {
+            case '{': return Token.BEGIN_OBJECT;
+            case '}': return Token.END_OBJECT;
+            case '[': return Token.BEGIN_ARRAY;
+            case ']': return Token.END_ARRAY;
+            case '"':
+                readString();
+                return Token.STRING;
+            case 't':
+                expectLiteral("rue");
+                return Token.TRUE;
+            case 'f':
+                expectLiteral("alse");
+                return Token.FALSE;
+            case 'n':
+                expectLiteral("ull");
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber((char) c);
+                    return Token.NUMBER;
+                }
+                throw error("ký tự không hợp lệ '" + (char) c + "'");
+        }
+    }
+
+    /** Nội dung của STRING / NUMBER vừa đọc. */
+    public String text() {
+        return text.toString();
+    }
+
+    /** So sánh STRING vừa đọc với s mà không tạo String mới. */
+    public boolean textEquals(String s) {
+        if (text.length() != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (text.charAt(i) != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Bỏ qua trọn 1 giá trị (kể cả object / array lồng nhau) mà token đầu là first.
+     */
+    public void skipValue(Token first) throws IOException {
+        if (first != Token.BEGIN_OBJECT && first != Token.BEGIN_ARRAY) return;
+        int depth = 1;
+        while (depth > 0) {
+            Token t = next();
+            switch (t) {
+                case BEGIN_OBJECT, BEGIN_ARRAY -> depth++;
+                case END_OBJECT, END_ARRAY -> depth--;
+                case END_DOCUMENT -> throw error("hết file giữa chừng");
+                default -> { }
+            }
+        }
+    }
+
+    /** Vị trí (ký tự) đang đọc trong luồng. */
+    public long position() {
+        return offset + pos;
+    }
+
+    public int line() {
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // ========= Nội bộ =========
+
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            // chép nhanh đoạn không có escape trong bộ đệm hiện tại
+            int start = pos;
+            while (pos < limit) {
+                char ch = buf[pos];
+                if (ch == '"' || ch == '\\') break;
+                if (ch == '\n') line++;
+                pos++;
+            }
+            text.append(buf, start, pos - start);
+            if (pos == limit) {
+                if (!fill()) throw error("chuỗi chưa đóng");
+                continue;
+            }
+            char ch = buf[pos++];
+            if (ch == '"') return;
+            readEscape();
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int e = read();
+        switch (e) {
+            case '"' -> text.append('"');
+            case '\\' -> text.append('\\');
+            case '/' -> text.append('/');
+            case 'b' -> text.append('\b');
+            case 'f' -> text.append('\f');
+            case 'n' -> text.append('\n');
+            case 'r' -> text.append('\r');
+            case 't' -> text.append('\t');
+            case 'u' -> {
+                int v = 0;
+                for (int i = 0; i < 4; i++) {
+                    int h = read();
+                    int d = Character.digit(h, 16);
+                    if (h == -1 || d < 0) throw error("\\u cần 4 chữ số hex");
+                    v = (v << 4) | d;
+                }
+                // cặp surrogate \\uD83D\\uDE00 tự ghép lại vì ta nối từng char UTF-16
+                text.append((char) v);
+            }
+            case -1 -> throw error("hết file giữa escape");
+            default -> throw error("escape không hợp lệ '\\" + (char) e + "'");
+        }
+    }
+
+    private void readNumber(char first) throws IOException {
+        text.setLength(0);
+        text.append(first);
+        while (true) {
+            if (pos == limit && !fill()) return;
+            char ch = buf[pos];
+            if ((ch >= '0' && ch <= '9') || ch == '.' || ch == 'e' || ch == 'E' || ch == '+' || ch == '-') {
+                text.append(ch);
+                pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void expectLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) throw error("literal không hợp lệ");
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        int n;
+        do {
+            n = in.read(buf, 0, buf.length);
+        } while (n == 0);
+        if (n < 0) return false;
+        limit = n;
+        return true;
+    }
+
+    private IOException error(String msg) {
+        return new IOException("JSON lỗi ở dòng " + line + " (ký tự " + position() + "): " + msg);
+    }
+}
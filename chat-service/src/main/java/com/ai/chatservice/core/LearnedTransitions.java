@@ -0,0 +1,203 @@
+package com.ai.chatservice.core;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lớp "học thêm" (online) đặt chồng lên 1 TransitionStore đã freeze.
+ *
+ * Mỗi state được học thêm giữ 1 phân phối ĐÃ GỘP (đếm gốc + đếm mới), sắp count giảm dần
+ * như 1 vùng CSR, kèm mảng cumulative → chọn mẫu O(log k), lúc đọc không phải gộp gì.
+ *
+ * - Ghi (1 luồng, từng micro-batch): chỉ dựng lại các state có trong lô, mỗi state O(k)
+ *   → chi phí tỉ lệ với lô, không đụng tới phần còn lại của mô hình (không thaw / freeze lại).
+ * - Đọc: ConcurrentHashMap.get không khoá; State bất biến, cập nhật = thay nguyên object.
+ *
+ * Sid của cây trong lô và trong kho gốc khác nhau → state được nhận diện bằng key băm 64 bit
+ * của chính ngữ cảnh (contextKey), tính dần từ token mới nhất về trước giống đường đi trong cây:
+ * lúc sinh câu, key bậc d+1 = extend(key bậc d, token kế trước).
+ */
+final class LearnedTransitions {
+
+    static final long EMPTY_CONTEXT = 0x9E3779B97F4A7C15L;
+
+    private final ConcurrentHashMap<Long, State> states = new ConcurrentHashMap<>();
+    // false = chưa học gì → generate(...) không phải tra map (không boxing key)
+    private volatile boolean active;
+
+    /** Key của ngữ cảnh dài hơn 1 token: thêm token (cũ hơn) vào trước ngữ cảnh của key. */
+    static long extend(long key, int token) {
+        return LongIntHashMap.mix(key ^ (token & 0xffffffffL)) + EMPTY_CONTEXT;
+    }
+
+    /** Key của ngữ cảnh window[0, length) (cũ → mới). */
+    static long contextKey(int[] window, int length) {
+        long key = EMPTY_CONTEXT;
+        for (int i = length - 1; i >= 0; i--) key = extend(key, window[i]);
+        return key;
+    }
+
+    /** Đã học thêm gì chưa (chưa → không cần tính key khi sinh câu). */
+    boolean isActive() {
+        return active;
+    }
+
+    /** Phân phối đã gộp của state, null nếu state chưa được học thêm. */
+    State get(long contextKey) {
+        return active ? states.get(contextKey) : null;
+    }
+
+    /** Số state đã được học thêm. */
+    int stateCount() {
+        return states.size();
+    }
+
+    /**
+     * Cộng đếm của 1 lô (kho nhỏ đã freeze) vào lớp này.
+     * Phân phối cũ của state lấy từ lần học trước, nếu chưa có thì từ vùng CSR của base.
+     */
+    void apply(TransitionStore batch, TransitionStore base) {
+        int[] window = new int[batch.order()];
+        for (int sid = 1; sid < batch.stateCount(); sid++) {
+            int length = batch.context(sid, window);
+            long key = contextKey(window, length);
+            LongIntHashMap merged = new LongIntHashMap();
+
+            State previous = states.get(key);
+            if (previous != null) {
+                for (int i = 0; i < previous.tokens.length; i++) {
+                    merged.addTo(previous.tokens[i], previous.counts[i]);
+                }
+            } else {
+                int baseSid = base.find(window, 0, length);
+                if (baseSid >= 0) {
+                    for (int i = base.begin(baseSid); i < base.end(baseSid); i++) {
+                        merged.addTo(base.tokenAt(i), base.countAt(i));
+                    }
+                }
+            }
+            for (int i = batch.begin(sid); i < batch.end(sid); i++) {
+                merged.addTo(batch.tokenAt(i), batch.countAt(i));
+            }
+            states.put(key, State.of(merged));
+        }
+        active = !states.isEmpty();
+    }
+
+    long estimatedBytes() {
+        long bytes = 0;
+        for (State s : states.values()) {
+            bytes += 64 + 12L * s.tokens.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Phân phối token kế tiếp của 1 state: tokens/counts sắp count giảm dần (cùng count thì
+     * theo token id), cumulative[i] = tổng count từ 0 đến i.
+     */
+    static final class State {
+        private final int[] tokens;
+        private final int[] counts;
+        private final int[] cumulative;
+
+        private State(int[] tokens, int[] counts, int[] cumulative) {
+            this.tokens = tokens;
+            this.counts = counts;
+            this.cumulative = cumulative;
+        }
+
+        private static State of(LongIntHashMap tokenCounts) {
+            int n = tokenCounts.size();
+            long[] packed = new long[n];
+            int j = 0;
+            for (int s = tokenCounts.nextSlot(-1); s >= 0; s = tokenCounts.nextSlot(s)) {
+                long inverted = Integer.MAX_VALUE - tokenCounts.valueAt(s);
+                packed[j++] = (inverted << 32) | (tokenCounts.keyAt(s) & 0xffffffffL);
+            }
+            Arrays.sort(packed);
+
+            int[] tokens = new int[n];
+            int[] counts = new int[n];
+            int[] cumulative = new int[n];
+            int sum = 0;
+            for (int i = 0; i < n; i++) {
+                tokens[i] = (int) packed[i];
+                counts[i] = Integer.MAX_VALUE - (int) (packed[i] >>> 32);
+                sum += counts[i];
+                cumulative[i] = sum;
+            }
+            return new State(tokens, counts, cumulative);
+        }
+
+        /**
+         * Chọn token kế tiếp, cùng ý nghĩa tuỳ chọn như TokenSampler.sample(...).
+         * Không có bảng alias: ALIAS dùng tìm nhị phân trên cumulative.
+         */
+        int sample(Random random, DecodingOptions options) {
+            int k = tokens.length;
+            if (k == 0) return -1;
+
+            if (options.strategy() == DecodingOptions.Strategy.GREEDY || options.temperature() == 0) {
+                return tokens[0];
+            }
+
+            if (options.temperature() != 1.0) {
+                return sampleTempered(random, options);
+            }
+
+            int limit = k;
+            if (options.topK() > 0) limit = Math.min(limit, options.topK());
+            if (options.topP() < 1.0) {
+                long threshold = (long) Math.ceil(options.topP() * cumulative[k - 1]);
+                limit = Math.min(limit, firstAtLeast(k, threshold) + 1);
+            }
+
+            int r = random.nextInt(cumulative[limit - 1]);
+            return tokens[firstAtLeast(limit, r + 1L)];
+        }
+
+        private int sampleTempered(Random random, DecodingOptions options) {
+            double invT = 1.0 / options.temperature();
+            double max = counts[0];
+            int limit = options.topK() > 0 ? Math.min(tokens.length, options.topK()) : tokens.length;
+
+            double sum = 0;
+            for (int i = 0; i < limit; i++) {
+                sum += Math.pow(counts[i] / max, invT);
+            }
+            if (options.topP() < 1.0) {
+                double target = options.topP() * sum;
+                double acc = 0;
+                int i = 0;
+                while (i < limit) {
+                    acc += Math.pow(counts[i] / max, invT);
+                    i++;
+                    if (acc >= target) break;
+                }
+                limit = i;
+                sum = acc;
+            }
+
+            double r = random.nextDouble() * sum;
+            double acc = 0;
+            for (int i = 0; i < limit; i++) {
+                acc += Math.pow(counts[i] / max, invT);
+                if (r < acc) return tokens[i];
+            }
+            return tokens[limit - 1];
+        }
+
+        /** Vị trí đầu tiên trong [0, to) có cumulative >= value (giả sử tồn tại). */
+        private int firstAtLeast(int to, long value) {
+            int lo = 0, hi = to - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cumulative[mid] >= value) hi = mid;
+                else lo = mid + 1;
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.ai.chatservice.core;
+
+import java.util.Arrays;
+
+/**
+ * Bảng băm long → int kiểu "open addressing" (dò tuyến tính):
+ * - Không boxing, không tạo Node cho mỗi phần tử.
+ * - key = 0 được lưu riêng ở ô cuối (keys[capacity]), vì 0 dùng để đánh dấu ô trống.
+ *
+ * Duyệt tuần tự:
+ *   for (int s = map.nextSlot(-1); s >= 0; s = map.nextSlot(s)) { map.keyAt(s); map.valueAt(s); }
+ */
+public final class LongIntHashMap {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private boolean hasZeroKey;
+    private int size;
+    private int maxFill;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expected) {
+        allocate(tableSizeFor(expected));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Số ô của bảng (không tính ô dành cho key = 0). */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public int get(long key, int missing) {
+        if (key == 0) return hasZeroKey ? values[mask + 1] : missing;
+        int pos = (int) mix(key) & mask;
+        long cur;
+        while ((cur = keys[pos]) != 0) {
+            if (cur == key) return values[pos];
+            pos = (pos + 1) & mask;
+        }
+        return missing;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) return hasZeroKey;
+        int pos = (int) mix(key) & mask;
+        long cur;
+        while ((cur = keys[pos]) != 0) {
+            if (cur == key) return true;
+            pos = (pos + 1) & mask;
+        }
+        return false;
+    }
+
+    public void put(long key, int value) {
+        int slot = insertSlot(key);
+        values[slot] = value;
+    }
+
+    /**
+     * Cộng delta vào giá trị hiện tại (mặc định 0), trả về giá trị mới.
+     */
+    public int addTo(long key, int delta) {
+        int slot = insertSlot(key);
+        return values[slot] += delta;
+    }
+
+    /**
+     * Trả về giá trị của key; nếu chưa có thì gán value và trả về value.
+     */
+    public int putIfAbsent(long key, int value) {
+        int before = size;
+        int slot = insertSlot(key);
+        if (size != before) values[slot] = value;
+        return values[slot];
+    }
+
+    /**
+     * Xoá key, trả về giá trị cũ (missing nếu không có).
+     * Dồn các phần tử phía sau lên (backward shift) nên không cần đánh dấu "đã xoá".
+     */
+    public int remove(long key, int missing) {
+        if (key == 0) {
+            if (!hasZeroKey) return missing;
+            hasZeroKey = false;
+            size--;
+            return values[mask + 1];
+        }
+        int pos = (int) mix(key) & mask;
+        long cur;
+        while ((cur = keys[pos]) != 0) {
+            if (cur == key) {
+                int old = values[pos];
+                shiftKeys(pos);
+                size--;
+                return old;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return missing;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        Arrays.fill(values, 0);
+        hasZeroKey = false;
+        size = 0;
+    }
+
+    // ========= Duyệt =========
+
+    /** Ô kế tiếp có dữ liệu sau slot (truyền -1 để bắt đầu), -1 nếu hết. */
+    public int nextSlot(int slot) {
+        for (int i = slot + 1; i <= mask; i++) {
+            if (keys[i] != 0) return i;
+        }
+        if (slot <= mask && hasZeroKey) return mask + 1;
+        return -1;
+    }
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public int valueAt(int slot) {
+        return values[slot];
+    }
+
+    /** Ước lượng số byte trên heap (2 mảng + header). */
+    public long estimatedBytes() {
+        return 16L + 8L * keys.length + 16L + 4L * values.length + 40L;
+    }
+
+    // ========= Nội bộ =========
+
+    private int insertSlot(long key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                values[mask + 1] = 0;
+                size++;
+            }
+            return mask + 1;
+        }
+        int pos = (int) mix(key) & mask;
+        long cur;
+        while ((cur = keys[pos]) != 0) {
+            if (cur == key) return pos;
+            pos = (pos + 1) & mask;
+        }
+        keys[pos] = key;
+        values[pos] = 0;
+        if (++size >= maxFill) {
+            rehash((mask + 1) * 2);
+            return insertSlotAfterRehash(key);
+        }
+        return pos;
+    }
+
+    // Ô pos vừa trống: kéo các phần tử cùng chuỗi dò phía sau lên lấp chỗ
+    private void shiftKeys(int pos) {
+        while (true) {
+            int last = pos;
+            long k;
+            while (true) {
+                pos = (pos + 1) & mask;
+                if ((k = keys[pos]) == 0) {
+                    keys[last] = 0;
+                    values[last] = 0;
+                    return;
+                }
+                int home = (int) mix(k) & mask;
+                // k được phép dời về last nếu last nằm giữa home và pos (theo vòng)
+                if (last <= pos ? (last >= home || home > pos) : (last >= home && home > pos)) break;
+            }
+            keys[last] = k;
+            values[last] = values[pos];
+        }
+    }
+
+    private int insertSlotAfterRehash(long key) {
+        int pos = (int) mix(key) & mask;
+        while (keys[pos] != key) pos = (pos + 1) & mask;
+        return pos;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        int oldMask = mask;
+        boolean zero = hasZeroKey;
+        int zeroValue = zero ? oldValues[oldMask + 1] : 0;
+
+        allocate(newCapacity);
+        for (int i = 0; i <= oldMask; i++) {
+            long k = oldKeys[i];
+            if (k == 0) continue;
+            int pos = (int) mix(k) & mask;
+            while (keys[pos] != 0) pos = (pos + 1) & mask;
+            keys[pos] = k;
+            values[pos] = oldValues[i];
+        }
+        hasZeroKey = zero;
+        values[mask + 1] = zeroValue;
+        // size giữ nguyên
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity + 1];
+        values = new int[capacity + 1];
+        mask = capacity - 1;
+        maxFill = Math.max(1, (int) (capacity * LOAD_FACTOR));
+    }
+
+    private static int tableSizeFor(int expected) {
+        long needed = (long) Math.ceil(Math.max(2, expected) / LOAD_FACTOR);
+        int cap = Integer.highestOneBit((int) Math.min(needed, 1 << 30));
+        if (cap < needed) cap <<= 1;
+        return Math.max(16, cap);
+    }
+
+    /** Hàm trộn bit (finalizer của MurmurHash3). */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
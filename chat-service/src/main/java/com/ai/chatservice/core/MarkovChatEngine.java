@@ -1,21 +1,74 @@
 package com.ai.chatservice.core;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
 
 /**
  * Markov n-gram (bậc 1,2,3...)
  * - order = 1  → giống bản cũ
- * - order = 2/3→ nhìn 2/3 token trước để đoán token sau
+ * - order = 2/3→ nhìn tối đa 2/3 token trước để đoán token sau
+ *
+ * Mọi bậc 1..order nằm chung 1 cây ngữ cảnh (TransitionStore). Khi sinh, ngữ cảnh dài nhất đã gặp
+ * được dùng; chưa gặp thì lùi về ngữ cảnh ngắn hơn (bỏ token cũ nhất) — "stupid backoff" ở dạng
+ * chọn mẫu: lấy từ phân phối của bậc cao nhất có dữ liệu, tìm trong 1 lượt đi từ gốc cây.
+ * → câu hỏi có 2 từ cuối chưa từng đi cùng nhau vẫn có câu trả lời (từ bậc 1),
+ *   câu dừng khi gặp END (cuối đoạn trong dữ liệu huấn luyện), token hết câu, bắt đầu lặp vòng,
+ *   đủ số từ hoặc hết giờ (GenerationBudget) — lý do dừng trả về trong Generation.
  */
 public class MarkovChatEngine {
 
+    /** Cụm lặp dài nhất được phát hiện (xem sample(...)). */
+    static final int MAX_PERIOD = 6;
+
     private final int order; // bậc Markov
-    // stateKey (ví dụ "12,35") → (nextToken → count)
-    private final Map<String, Map<Integer, Integer>> transitions = new HashMap<>();
-    private final Random random = new Random(42);
+    // id token hết câu của tokenizer đã huấn luyện (-1 = không có, vd snapshot cũ)
+    private volatile int sentenceEnd = -1;
+    // cây ngữ cảnh bậc 1..order → (nextToken → count), xem TransitionStore
+    private final TransitionStore transitions;
+    // bảng chọn mẫu dựng khi freeze (null = cần freeze lại)
+    private volatile TokenSampler sampler;
+    // học thêm online sau khi freeze (xem learn(...)); chồng lên transitions khi sinh câu
+    private final LearnedTransitions learned = new LearnedTransitions();
+    // chỉ dùng khi freeze / ghi snapshot; ReentrantLock thay vì synchronized để virtual thread
+    // đang chờ không giữ chặt (pin) luồng mang
+    private final ReentrantLock lock = new ReentrantLock();
 
     public MarkovChatEngine(int order) {
         this.order = Math.max(1, order); // không cho nhỏ hơn 1
+        this.transitions = new TransitionStore(this.order);
+    }
+
+    private MarkovChatEngine(TransitionStore transitions, TokenSampler sampler) {
+        this.order = transitions.order();
+        this.transitions = transitions;
+        this.sampler = sampler;
+    }
+
+    /**
+     * Mở engine đã biên dịch sẵn trong snapshot: đọc thẳng từ vùng map, không huấn luyện lại.
+     */
+    public static MarkovChatEngine fromSnapshot(ModelSnapshot snapshot) {
+        TransitionStore store = TransitionStore.read(snapshot, "markov");
+        MarkovChatEngine engine = new MarkovChatEngine(store, TokenSampler.read(store, snapshot, "markov.sampler"));
+        if (snapshot.has("markov.sentenceEnd")) engine.sentenceEnd = snapshot.intValue("markov.sentenceEnd", 0);
+        return engine;
+    }
+
+    /** Ghi bảng chuyển trạng thái + bảng chọn mẫu vào snapshot. */
+    public void writeTo(ModelSnapshot.Writer out) throws IOException {
+        lock.lock();
+        try {
+            freeze();
+            transitions.writeTo(out, "markov");
+            sampler.writeTo(out, "markov.sampler");
+            out.ints("markov.sentenceEnd", new int[]{sentenceEnd}, 1);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -23,25 +76,49 @@ public class MarkovChatEngine {
      * Có thể gọi nhiều lần với các đoạn text khác nhau.
      */
     public void train(SimpleTokenizer tokenizer, String text) {
-        int[] tokens = tokenizer.encode(text);
-        if (tokens.length <= order) return;
+        sampler = null;
+        sentenceEnd = tokenizer.sentenceEnd();
+        count(transitions, tokenizer.encodeSentences(text));
+    }
 
-        // Khởi tạo cửa sổ đầu tiên
-        int[] window = new int[order];
-        System.arraycopy(tokens, 0, window, 0, order);
+    /** Id token hết câu mà mô hình đã học (ParallelTrainer gọi sau khi gộp từ vựng). */
+    void sentenceEnd(int id) {
+        sentenceEnd = id;
+    }
 
-        for (int i = order; i < tokens.length; i++) {
-            String state = stateKey(window);
-            int next = tokens[i];
+    /**
+     * Đếm mọi (ngữ cảnh 1..order token → token kế) của 1 dãy token vào store, sau token cuối là END.
+     * Ngữ cảnh bậc d+1 đi tiếp từ nút bậc d nên mỗi vị trí chỉ tốn order lần tra cạnh.
+     * Dùng chung cho train(...) và các shard của ParallelTrainer.
+     */
+    void count(TransitionStore store, int[] tokens) {
+        for (int i = 1; i <= tokens.length; i++) {
+            int next = i < tokens.length ? tokens[i] : TransitionStore.END;
+            int sid = TransitionStore.ROOT;
+            for (int d = 1; d <= Math.min(order, i); d++) {
+                sid = store.node(sid, tokens[i - d]);
+                store.add(sid, next, 1);
+            }
+        }
+    }
 
-            Map<Integer, Integer> freq =
-                    transitions.computeIfAbsent(state, k -> new HashMap<>());
-            freq.put(next, freq.getOrDefault(next, 0) + 1);
+    /** Kho đếm rỗng cùng order, để 1 worker đếm riêng rồi gộp lại bằng merge(...). */
+    TransitionStore newShard() {
+        return new TransitionStore(order);
+    }
 
-            // Trượt cửa sổ: bỏ phần tử đầu, thêm next vào cuối
-            System.arraycopy(window, 1, window, 0, order - 1);
-            window[order - 1] = next;
-        }
+    /** Cộng đếm của 1 shard vào mô hình (gọi trên 1 luồng, theo thứ tự chunk). */
+    void merge(TransitionStore shard) {
+        sampler = null;
+        transitions.mergeFrom(shard);
+    }
+
+    /**
+     * Đơn vị huấn luyện của train(text): cả đoạn là 1 dãy token.
+     * ParallelTrainer chia corpus theo các đơn vị này.
+     */
+    List<String> units(String text) {
+        return List.of(text);
     }
 
     /**
@@ -52,10 +129,108 @@ public class MarkovChatEngine {
     public void trainPair(SimpleTokenizer tokenizer,
                           String userText,
                           String assistantText) {
+        train(tokenizer, pairText(userText, assistantText));
+    }
+
+    /** Văn bản huấn luyện của 1 cặp (user, assistant). */
+    static String pairText(String userText, String assistantText) {
         // Có thể thêm token đặc biệt giữa 2 bên cho rõ ràng
         // VD: "<sep>" nhưng ở đây mình ghép thẳng cho đơn giản
-        String combined = userText + " " + assistantText;
-        train(tokenizer, combined);
+        return userText + " " + assistantText;
+    }
+
+    /**
+     * Học thêm (online) 1 micro-batch văn bản trong lúc vẫn phục vụ:
+     * đếm lô vào 1 kho nhỏ rồi cộng vào lớp LearnedTransitions, kho chính (CSR / vùng map)
+     * giữ nguyên → chi phí tỉ lệ với kích thước lô, không phải mô hình.
+     * Từ mới được thêm vào vùng từ vựng học thêm của tokenizer.
+     * Các lô được áp lần lượt (có khoá); generate(...) đồng thời không bị chặn.
+     * Chỉ dùng khi đã huấn luyện xong; phần học thêm không được ghi vào snapshot.
+     *
+     * @return số n-gram (state, next) khác nhau trong lô
+     */
+    public int learn(SimpleTokenizer tokenizer, List<String> texts) {
+        lock.lock();
+        try {
+            freeze();
+            TransitionStore batch = newShard();
+            for (String text : texts) {
+                for (String unit : units(text)) {
+                    count(batch, tokenizer.encodeSentencesAndLearn(unit));
+                }
+            }
+            if (batch.ngramCount() == 0) return 0;
+            batch.freeze();
+            learned.apply(batch, transitions);
+            return batch.ngramCount();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Số state đã được học thêm online. */
+    public int learnedStateCount() {
+        return learned.stateCount();
+    }
+
+    /** Ước lượng số byte heap của phần học thêm. */
+    public long learnedBytes() {
+        return learned.estimatedBytes();
+    }
+
+    /**
+     * Chốt mô hình sau khi huấn luyện: đổi bảng đếm sang dạng CSR gọn, chỉ đọc.
+     * generate(...) tự gọi nếu quên; train(...) sau đó vẫn dùng được (tự mở lại).
+     */
+    public void freeze() {
+        lock.lock();
+        try {
+            if (sampler != null) return;
+            transitions.freeze();
+            sampler = new TokenSampler(transitions);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Số state (ngữ cảnh mọi bậc, kể cả gốc cây) của kho chính, không gồm phần học thêm. */
+    public int stateCount() {
+        lock.lock();
+        try {
+            return transitions.stateCount();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Số n-gram khác nhau (state, từ kế tiếp) của kho chính. */
+    public int transitionCount() {
+        lock.lock();
+        try {
+            return transitions.ngramCount();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Ước lượng số byte của kho chính (heap, hoặc vùng mmap nếu nạp từ snapshot). */
+    public long estimatedBytes() {
+        lock.lock();
+        try {
+            return transitions.estimatedBytes();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Báo cáo bộ nhớ (byte / n-gram) trước và sau khi freeze. */
+    public TransitionStore.MemoryReport memoryReport() {
+        lock.lock();
+        try {
+            return transitions.memoryReport();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -64,83 +239,232 @@ public class MarkovChatEngine {
     public String generate(SimpleTokenizer tokenizer,
                            String prompt,
                            int maxNewTokens) {
+        return generate(tokenizer, prompt, maxNewTokens, DecodingOptions.DEFAULT);
+    }
 
-        int[] encoded = tokenizer.encode(prompt);
-        List<Integer> output = new ArrayList<>();
+    /**
+     * Như trên nhưng chọn được cách giải mã (alias / cumulative / greedy,
+     * temperature, top-k, top-p) cho từng request.
+     * Số ngẫu nhiên lấy từ ThreadLocalRandom → các luồng không tranh nhau 1 Random chung.
+     */
+    public String generate(SimpleTokenizer tokenizer,
+                           String prompt,
+                           int maxNewTokens,
+                           DecodingOptions options) {
+        return generate(tokenizer, prompt, maxNewTokens, options, ThreadLocalRandom.current());
+    }
 
-        int[] window = new int[order];
+    /**
+     * Như trên với nguồn ngẫu nhiên do người gọi đưa vào (vd: new Random(seed) để tái lập kết quả).
+     * Sau khi đã freeze, hàm này chỉ đọc → gọi đồng thời từ nhiều luồng được.
+     */
+    public String generate(SimpleTokenizer tokenizer,
+                           String prompt,
+                           int maxNewTokens,
+                           DecodingOptions options,
+                           Random random) {
 
-        if (encoded.length >= order) {
-            // Dùng đúng order token cuối của câu hỏi
-            System.arraycopy(
-                    encoded,
-                    encoded.length - order,
-                    window,
-                    0,
-                    order
-            );
-        } else if (encoded.length > 0) {
-            // Nếu ít token hơn order → lặp lại token cuối cho đủ
-            Arrays.fill(window, encoded[encoded.length - 1]);
-        } else {
-            // Prompt rỗng → chọn state bất kỳ
-            String any = pickAnyState();
-            if (any == null) return "";
-            String[] parts = any.split(",");
-            for (int i = 0; i < order; i++) {
-                window[i] = Integer.parseInt(parts[i]);
-            }
-        }
+        int[] output = new int[Math.max(0, maxNewTokens)];
+        int produced = generateIds(tokenizer, prompt, maxNewTokens, options, random, output);
+        return tokenizer.decode(output, produced);
+    }
 
-        for (int i = 0; i < maxNewTokens; i++) {
-            String state = stateKey(window);
-            Integer next = pickNext(state);
-            if (next == null) break;
+    /**
+     * Như generate(...) nhưng chỉ ghi id các từ vào out (chưa decode), trả về số từ đã sinh.
+     * out cần dài ít nhất maxNewTokens.
+     */
+    public int generateIds(SimpleTokenizer tokenizer,
+                           String prompt,
+                           int maxNewTokens,
+                           DecodingOptions options,
+                           Random random,
+                           int[] out) {
+        return generateIds(tokenizer.encode(prompt), maxNewTokens, options, random, out);
+    }
 
-            output.add(next);
+    /**
+     * Như generateIds(...) nhưng bắt đầu từ dãy token đã mã hoá sẵn (vd: ngữ cảnh các lượt trước + câu hỏi);
+     * cửa sổ khởi đầu là (tối đa) order token cuối của seed.
+     */
+    public int generateIds(int[] seed,
+                           int maxNewTokens,
+                           DecodingOptions options,
+                           Random random,
+                           int[] out) {
+        return generateIds(seed, GenerationBudget.tokens(maxNewTokens), options, random, out).produced();
+    }
 
-            // Trượt cửa sổ
-            System.arraycopy(window, 1, window, 0, order - 1);
-            window[order - 1] = next;
-        }
+    /**
+     * Như trên với giới hạn số từ + thời gian của request; hết giờ thì out giữ phần đã sinh được
+     * (Generation.stop() = DEADLINE). out cần dài ít nhất budget.maxNewTokens().
+     */
+    public Generation generateIds(int[] seed,
+                                  GenerationBudget budget,
+                                  DecodingOptions options,
+                                  Random random,
+                                  int[] out) {
+        return sample(seed, budget, options, random, out, null);
+    }
 
-        return tokenizer.decode(output);
+    /**
+     * Bản streaming: mỗi từ được đưa cho onToken ngay khi vừa sinh (trừ từ làm lộ ra vòng lặp, xem sample(...)),
+     * không gom cả câu. onToken trả false (vd: client đã ngắt kết nối) → dừng sinh luôn.
+     *
+     * @return số từ đã sinh
+     */
+    public int generate(SimpleTokenizer tokenizer,
+                        String prompt,
+                        int maxNewTokens,
+                        DecodingOptions options,
+                        Random random,
+                        Predicate<String> onToken) {
+        return generate(tokenizer, prompt, GenerationBudget.tokens(maxNewTokens), options, random, onToken).produced();
     }
 
-    // ========= Helpers =========
+    /**
+     * Bản streaming với giới hạn của request. Từ được đưa ra ngay (không giữ lại chờ phát hiện lặp
+     * → từ đầu tiên tới client sớm nhất có thể); khi phát hiện lặp vòng thì dừng, phần đầu của bản lặp
+     * có thể đã được gửi (Generation.produced() = số từ đã gửi).
+     */
+    public Generation generate(SimpleTokenizer tokenizer,
+                               String prompt,
+                               GenerationBudget budget,
+                               DecodingOptions options,
+                               Random random,
+                               Predicate<String> onToken) {
+        int[] produced = new int[1];
+        Generation result = sample(tokenizer.encode(prompt), budget, options, random,
+                new int[budget.maxNewTokens()], next -> {
+                    String word = tokenizer.word(next);
+                    if (word == null) return true;
+                    produced[0]++;
+                    return onToken.test(word);
+                });
+        return new Generation(produced[0], result.stop());
+    }
+
+    /**
+     * Vòng sinh chung: các id vừa lấy mẫu ghi vào history, dừng khi
+     * - gặp END / không còn ngữ cảnh nào                       → END
+     * - gặp token hết câu (trừ khi là token đầu tiên: câu hỏi vừa hết câu thì câu trả lời mới bắt đầu)
+     *                                                          → SENTENCE_END
+     * - 1 từ lặp 3 lần liền, hoặc p từ cuối (2 ≤ p ≤ MAX_PERIOD) trùng p từ ngay trước → REPETITION,
+     *   bản lặp cuối bị bỏ ("ừ ừ" vẫn giữ: tiếng Việt hay láy 2 lần)
+     * - đủ maxNewTokens → MAX_TOKENS; hết giờ (kiểm tra trước mỗi từ) → DEADLINE
+     * onToken != null: mỗi từ được đưa ra ngay sau khi qua kiểm tra lặp (từ hoàn tất vòng lặp thì không),
+     * phần lặp đã gửi trước đó không rút lại được; onToken trả false → CANCELLED.
+     */
+    private Generation sample(int[] encoded,
+                              GenerationBudget budget,
+                              DecodingOptions options,
+                              Random random,
+                              int[] history,
+                              IntPredicate onToken) {
 
-    // Chuyển cửa sổ token thành key chuỗi: "id1,id2,..."
-    private String stateKey(int[] window) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < window.length; i++) {
-            if (i > 0) sb.append(',');
-            sb.append(window[i]);
+        TokenSampler s = sampler;
+        if (s == null) {
+            freeze();
+            s = sampler;
         }
-        return sb.toString();
-    }
+        int eos = sentenceEnd;
+
+        // window[0, length): tối đa order token gần nhất (cũ → mới)
+        int[] window = new int[order];
+        int length = Math.min(order, encoded.length);
+        if (length > 0) {
+            System.arraycopy(encoded, encoded.length - length, window, 0, length);
+        } else {
+            // Prompt rỗng → chọn ngữ cảnh bất kỳ
+            length = transitions.randomContext(random, window);
+            if (length == 0) return new Generation(0, Generation.Stop.END);
+        }
+
+        int maxNewTokens = budget.maxNewTokens();
+        int produced = 0;   // history[0, produced)
+        boolean skippedEos = false;
+        Generation.Stop stop = Generation.Stop.MAX_TOKENS;
 
-    // Chọn state bất kỳ
-    private String pickAnyState() {
-        if (transitions.isEmpty()) return null;
-        List<String> keys = new ArrayList<>(transitions.keySet());
-        return keys.get(random.nextInt(keys.size()));
+        while (produced < maxNewTokens) {
+            if (budget.expired(System.nanoTime())) {
+                stop = Generation.Stop.DEADLINE;
+                break;
+            }
+            int next = next(s, window, length, random, options);
+            if (next < 0) {
+                stop = Generation.Stop.END;
+                break;
+            }
+            if (next == eos) {
+                if (produced > 0 || skippedEos) {
+                    stop = Generation.Stop.SENTENCE_END;
+                    break;
+                }
+                skippedEos = true;   // vẫn đưa vào cửa sổ: từ tiếp theo là từ mở đầu câu
+            } else {
+                history[produced++] = next;
+                int period = repetition(history, produced);
+                if (period > 0) {
+                    produced -= period;
+                    stop = Generation.Stop.REPETITION;
+                    break;
+                }
+                if (onToken != null && !onToken.test(next)) {
+                    return new Generation(produced, Generation.Stop.CANCELLED);
+                }
+            }
+
+            // Trượt cửa sổ
+            if (length < order) {
+                window[length++] = next;
+            } else {
+                System.arraycopy(window, 1, window, 0, order - 1);
+                window[order - 1] = next;
+            }
+        }
+        return new Generation(produced, stop);
     }
 
-    // Chọn token tiếp theo dựa trên tần suất xuất hiện
-    private Integer pickNext(String state) {
-        Map<Integer, Integer> freq = transitions.get(state);
-        if (freq == null || freq.isEmpty()) return null;
+    // Độ dài cụm vừa lặp ở cuối history[0, n) (0 = không lặp), xem sample(...)
+    private static int repetition(int[] history, int n) {
+        if (n >= 3 && history[n - 1] == history[n - 2] && history[n - 2] == history[n - 3]) return 1;
+        for (int p = 2; p <= MAX_PERIOD && 2 * p <= n; p++) {
+            if (Arrays.equals(history, n - p, n, history, n - 2 * p, n - p)) return p;
+        }
+        return 0;
+    }
 
-        int total = freq.values().stream().mapToInt(i -> i).sum();
-        int r = random.nextInt(total);
+    /**
+     * Backoff trong 1 lượt: đi từ gốc theo token mới nhất rồi lùi dần, nhớ nút sâu nhất có
+     * (phần học thêm cùng bậc thì thay cho kho chính vì đã gộp sẵn đếm gốc).
+     * Trả về token kế tiếp, END (-1) nếu hết câu hoặc không bậc nào có dữ liệu.
+     */
+    private int next(TokenSampler s, int[] window, int length, Random random, DecodingOptions options) {
+        boolean learning = learned.isActive();
+        long key = LearnedTransitions.EMPTY_CONTEXT;
+        int sid = TransitionStore.ROOT;
+        int bestSid = -1;
+        LearnedTransitions.State best = null;
 
-        int cumulative = 0;
-        for (Map.Entry<Integer, Integer> e : freq.entrySet()) {
-            cumulative += e.getValue();
-            if (r < cumulative) {
-                return e.getKey();
+        for (int d = 1; d <= length; d++) {
+            int token = window[length - d];
+            if (sid >= 0) sid = transitions.child(sid, token);
+            LearnedTransitions.State learnedState = null;
+            if (learning) {
+                key = LearnedTransitions.extend(key, token);
+                learnedState = learned.get(key);
+            }
+            if (learnedState != null) {
+                best = learnedState;
+                bestSid = -1;
+            } else if (sid >= 0) {
+                best = null;
+                bestSid = sid;
+            } else if (!learning) {
+                break;  // không có ngữ cảnh bậc d thì cũng không có bậc cao hơn
             }
         }
-        return null;
+
+        if (best != null) return best.sample(random, options);
+        return bestSid >= 0 ? s.sample(bestSid, random, options) : TransitionStore.END;
     }
 }
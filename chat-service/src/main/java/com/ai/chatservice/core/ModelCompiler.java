@@ -0,0 +1,99 @@
+package com.ai.chatservice.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Bước "biên dịch" offline: huấn luyện từ conversations.jsonl rồi ghi ra file ModelSnapshot.
+ * Service chỉ cần map file này lúc khởi động, không phải huấn luyện lại.
+ *
+ * Chạy:
+ *   java -cp target/classes com.ai.chatservice.core.ModelCompiler \
+ *        data/conversations.jsonl data/model.bin 2 0 [memoryMB]
+ *
+ * (tham số: file hội thoại, file đầu ra, bậc Markov, số luồng huấn luyện — mặc định như ChatService;
+ *  số luồng 0 = mọi core, 1 = tuần tự. Kết quả giống hệt nhau với mọi số luồng.
+ *  memoryMB > 0 → huấn luyện ngoài bộ nhớ (OutOfCoreTrainer) với bảng gom tối đa memoryMB MB,
+ *  cho corpus lớn hơn heap; snapshot khi đó không có bộ nhớ hỏi–đáp.)
+ */
+public final class ModelCompiler {
+
+    public static final String DEFAULT_INPUT = "data/conversations.jsonl";
+    public static final String DEFAULT_OUTPUT = "data/model.bin";
+    public static final int DEFAULT_ORDER = 2;
+
+    private ModelCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String input = args.length > 0 ? args[0] : DEFAULT_INPUT;
+        Path output = Path.of(args.length > 1 ? args[1] : DEFAULT_OUTPUT);
+        int order = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ORDER;
+        int parallelism = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        long memoryMb = args.length > 4 ? Long.parseLong(args[4]) : 0;
+
+        long t0 = System.nanoTime();
+        if (memoryMb > 0) {
+            compileOutOfCore(input, output, order, memoryMb << 20);
+        } else {
+            compile(input, output, order, parallelism);
+        }
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        System.out.println("Compiled " + input + " -> " + output
+                + " (" + Files.size(output) + " bytes, " + ms + " ms)");
+    }
+
+    /**
+     * Huấn luyện giống hệt ChatService (ConversationMemory.load + Markov bậc order) rồi ghi snapshot.
+     */
+    public static void compile(String input, Path output, int order) throws IOException {
+        compile(input, output, order, 0);
+    }
+
+    /**
+     * @param parallelism số luồng huấn luyện (ParallelTrainer); 1 = tuần tự, <= 0 = mọi core
+     */
+    public static void compile(String input, Path output, int order, int parallelism) throws IOException {
+        SimpleTokenizer tokenizer = new SimpleTokenizer();
+        MarkovChatEngine engine = new MarkovChatEngine(order);
+        ConversationMemory memory = new ConversationMemory(tokenizer);
+
+        train(memory, input, engine, parallelism);
+        engine.freeze();
+        tokenizer.freeze();
+        System.out.println("Markov memory: " + engine.memoryReport());
+
+        try (ModelSnapshot.Writer out = ModelSnapshot.create(output)) {
+            tokenizer.writeTo(out);
+            engine.writeTo(out);
+            memory.writeTo(out);
+            out.finish();
+        }
+    }
+
+    /**
+     * Chỉ Markov + từ vựng, đếm qua các run trên đĩa: heap của bảng đếm ≤ memoryBudget byte.
+     */
+    public static void compileOutOfCore(String input, Path output, int order, long memoryBudget) throws IOException {
+        OutOfCoreTrainer.Stats stats = OutOfCoreTrainer.compile(input, output, order, memoryBudget);
+        System.out.println("Out-of-core training: " + stats);
+    }
+
+    /**
+     * Load + huấn luyện: tuần tự khi parallelism = 1, còn lại dùng ParallelTrainer.
+     */
+    public static void train(ConversationMemory memory, String input, MarkovChatEngine engine,
+                             int parallelism) throws IOException {
+        if (ParallelTrainer.resolveParallelism(parallelism) == 1) {
+            memory.load(input, engine);
+            return;
+        }
+        ParallelTrainer trainer = new ParallelTrainer(parallelism);
+        try {
+            memory.load(input, engine, trainer);
+        } finally {
+            trainer.shutdown();
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.ai.chatservice.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * File mô hình nhị phân (đã "biên dịch" sẵn) để khởi động tức thì.
+ *
+ * Bố cục (little-endian):
+ *
+ *   [header 32 byte]
+ *     magic "AICHATMD" | version | blockCount | directoryOffset (long) | directoryLength | directoryCrc
+ *   [block 1][block 2]...        mỗi block là 1 mảng nguyên thuỷ, bắt đầu ở biên 8 byte
+ *   [directory]                  mỗi block: tên, kiểu, offset, độ dài, CRC32C
+ *
+ * Khi mở, mỗi block được map thẳng bằng FileChannel.map(READ_ONLY) → không copy lên heap,
+ * nhiều JVM trên cùng máy dùng chung page cache của hệ điều hành.
+ * Kiểm tra CRC của toàn bộ dữ liệu là tuỳ chọn (verify = true sẽ đọc hết file 1 lần).
+ */
+public final class ModelSnapshot {
+
+    // 2: khối markov là cây ngữ cảnh mọi bậc (TransitionStore), không còn đọc được khối của bản 1
+    public static final int VERSION = 2;
+
+    private static final byte[] MAGIC = "AICHATMD".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_BYTES = 32;
+
+    private static final byte TYPE_BYTE = 1;
+    private static final byte TYPE_INT = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_LONG = 8;
+
+    private final Path path;
+    private final Map<String, ByteBuffer> blocks;
+
+    private ModelSnapshot(Path path, Map<String, ByteBuffer> blocks) {
+        this.path = path;
+        this.blocks = blocks;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public boolean has(String name) {
+        return blocks.containsKey(name);
+    }
+
+    public ByteBuffer bytes(String name) {
+        return block(name).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public IntBuffer ints(String name) {
+        return bytes(name).asIntBuffer();
+    }
+
+    public LongBuffer longs(String name) {
+        return bytes(name).asLongBuffer();
+    }
+
+    public FloatBuffer floats(String name) {
+        return bytes(name).asFloatBuffer();
+    }
+
+    /** Đọc block int có đúng 1 phần tử (vd: order của mô hình). */
+    public int intValue(String name, int index) {
+        return ints(name).get(index);
+    }
+
+    private ByteBuffer block(String name) {
+        ByteBuffer b = blocks.get(name);
+        if (b == null) {
+            throw new IllegalStateException("Snapshot " + path + " thiếu block: " + name);
+        }
+        return b;
+    }
+
+    // ========= Đọc =========
+
+    /**
+     * Mở file snapshot và map từng block vào bộ nhớ.
+     *
+     * @param verify true → tính lại CRC32C của mọi block (chậm hơn, đọc hết file)
+     */
+    public static ModelSnapshot open(Path path, boolean verify) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Không phải file mô hình: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Phiên bản snapshot " + version + " không hỗ trợ (cần " + VERSION + ")");
+            }
+            int blockCount = header.getInt();
+            long dirOffset = header.getLong();
+            int dirLength = header.getInt();
+            int dirCrc = header.getInt();
+
+            ByteBuffer dir = ch.map(FileChannel.MapMode.READ_ONLY, dirOffset, dirLength)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (crc(dir.duplicate()) != dirCrc) {
+                throw new IOException("Directory của snapshot bị hỏng (sai CRC): " + path);
+            }
+
+            Map<String, ByteBuffer> blocks = new LinkedHashMap<>();
+            for (int i = 0; i < blockCount; i++) {
+                byte[] nameBytes = new byte[dir.getShort()];
+                dir.get(nameBytes);
+                String name = new String(nameBytes, StandardCharsets.UTF_8);
+                dir.get(); // kiểu phần tử (chỉ để tham khảo / debug)
+                long offset = dir.getLong();
+                long length = dir.getLong();
+                int blockCrc = dir.getInt();
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Block " + name + " lớn hơn 2GB, chưa hỗ trợ");
+                }
+                ByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                if (verify && crc(mapped.duplicate()) != blockCrc) {
+                    throw new IOException("Block " + name + " bị hỏng (sai CRC): " + path);
+                }
+                blocks.put(name, mapped);
+            }
+            return new ModelSnapshot(path, blocks);
+        }
+    }
+
+    private static int crc(ByteBuffer buf) {
+        CRC32C crc = new CRC32C();
+        crc.update(buf);
+        return (int) crc.getValue();
+    }
+
+    // ========= Ghi =========
+
+    public static Writer create(Path path) throws IOException {
+        return new Writer(path);
+    }
+
+    /**
+     * Ghi lần lượt từng block; finish() ghi directory + header rồi đổi tên file tạm thành file thật
+     * → tiến trình đang đọc file cũ không bao giờ thấy file dở dang.
+     * close() mà chưa finish() (vd do lỗi) thì xoá file tạm.
+     */
+    public static final class Writer implements Closeable {
+
+        private final Path target;
+        private final Path temp;
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private final List<Entry> entries = new ArrayList<>();
+        private final Set<String> names = new HashSet<>();
+        private long position = HEADER_BYTES;
+        private CRC32C crc;
+        private boolean finished;
+
+        private record Entry(String name, byte type, long offset, long length, int crc) {}
+
+        private Writer(Path target) throws IOException {
+            this.target = target.toAbsolutePath();
+            Path dir = this.target.getParent();
+            if (dir != null) Files.createDirectories(dir);
+            this.temp = this.target.resolveSibling(this.target.getFileName() + ".tmp");
+            this.ch = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            ch.position(HEADER_BYTES);
+        }
+
+        public Writer bytes(String name, byte[] data, int length) throws IOException {
+            long start = begin(name);
+            int written = 0;
+            while (written < length) {
+                if (!buf.hasRemaining()) flush();
+                int n = Math.min(buf.remaining(), length - written);
+                buf.put(data, written, n);
+                written += n;
+            }
+            return end(name, TYPE_BYTE, start);
+        }
+
+        /** Ghi nguyên vẹn 1 block lấy từ snapshot khác / ByteBuffer có sẵn. */
+        public Writer bytes(String name, ByteBuffer data) throws IOException {
+            long start = begin(name);
+            ByteBuffer src = data.duplicate();
+            while (src.hasRemaining()) {
+                if (!buf.hasRemaining()) flush();
+                int n = Math.min(buf.remaining(), src.remaining());
+                ByteBuffer part = src.slice();
+                part.limit(n);
+                buf.put(part);
+                src.position(src.position() + n);
+            }
+            return end(name, TYPE_BYTE, start);
+        }
+
+        public Writer ints(String name, int[] data, int length) throws IOException {
+            long start = begin(name);
+            for (int i = 0; i < length; i++) {
+                if (buf.remaining() < 4) flush();
+                buf.putInt(data[i]);
+            }
+            return end(name, TYPE_INT, start);
+        }
+
+        public Writer ints(String name, IntBuffer data) throws IOException {
+            long start = begin(name);
+            for (int i = 0; i < data.limit(); i++) {
+                if (buf.remaining() < 4) flush();
+                buf.putInt(data.get(i));
+            }
+            return end(name, TYPE_INT, start);
+        }
+
+        public Writer floats(String name, FloatBuffer data) throws IOException {
+            long start = begin(name);
+            for (int i = 0; i < data.limit(); i++) {
+                if (buf.remaining() < 4) flush();
+                buf.putFloat(data.get(i));
+            }
+            return end(name, TYPE_FLOAT, start);
+        }
+
+        public Writer longs(String name, LongBuffer data) throws IOException {
+            long start = begin(name);
+            for (int i = 0; i < data.limit(); i++) {
+                if (buf.remaining() < 8) flush();
+                buf.putLong(data.get(i));
+            }
+            return end(name, TYPE_LONG, start);
+        }
+
+        /**
+         * Chép nguyên 1 file tạm (mảng nguyên thuỷ little-endian, vd do OutOfCoreTrainer ghi ra)
+         * thành 1 block, qua bộ đệm 64 KB → không cần giữ mảng trên heap.
+         */
+        public Writer intsFrom(String name, Path file) throws IOException {
+            return copy(name, TYPE_INT, file);
+        }
+
+        public Writer longsFrom(String name, Path file) throws IOException {
+            return copy(name, TYPE_LONG, file);
+        }
+
+        public Writer floatsFrom(String name, Path file) throws IOException {
+            return copy(name, TYPE_FLOAT, file);
+        }
+
+        private Writer copy(String name, byte type, Path file) throws IOException {
+            long start = begin(name);
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (true) {
+                    if (!buf.hasRemaining()) flush();
+                    if (in.read(buf) < 0) break;
+                }
+            }
+            return end(name, type, start);
+        }
+
+        private long begin(String name) throws IOException {
+            if (!names.add(name)) throw new IllegalArgumentException("Block trùng tên: " + name);
+            // căn biên 8 byte để các view int/long/float không bị lệch
+            while ((position + buf.position()) % 8 != 0) {
+                if (!buf.hasRemaining()) flushRaw();
+                buf.put((byte) 0);
+            }
+            flushRaw();
+            crc = new CRC32C();
+            return position;
+        }
+
+        private Writer end(String name, byte type, long start) throws IOException {
+            flush();
+            entries.add(new Entry(name, type, start, position - start, (int) crc.getValue()));
+            crc = null;
+            return this;
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            if (crc != null) crc.update(buf.duplicate());
+            write();
+        }
+
+        private void flushRaw() throws IOException {
+            buf.flip();
+            write();
+        }
+
+        private void write() throws IOException {
+            while (buf.hasRemaining()) position += ch.write(buf);
+            buf.clear();
+        }
+
+        public void finish() throws IOException {
+            if (finished) return;
+            try {
+                long dirOffset = position;
+                int dirSize = 0;
+                for (Entry e : entries) {
+                    dirSize += 2 + e.name.getBytes(StandardCharsets.UTF_8).length + 1 + 8 + 8 + 4;
+                }
+                ByteBuffer dir = ByteBuffer.allocate(dirSize).order(ByteOrder.LITTLE_ENDIAN);
+                for (Entry e : entries) {
+                    byte[] nameBytes = e.name.getBytes(StandardCharsets.UTF_8);
+                    dir.putShort((short) nameBytes.length).put(nameBytes).put(e.type)
+                            .putLong(e.offset).putLong(e.length).putInt(e.crc);
+                }
+                dir.flip();
+                int dirCrc = crc(dir.duplicate());
+                int dirLength = dir.remaining();
+                while (dir.hasRemaining()) ch.write(dir);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.put(MAGIC).putInt(VERSION).putInt(entries.size())
+                        .putLong(dirOffset).putInt(dirLength).putInt(dirCrc);
+                header.flip();
+                ch.position(0);
+                while (header.hasRemaining()) ch.write(header);
+                ch.force(true);
+            } finally {
+                ch.close();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (finished) return;
+            ch.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+}
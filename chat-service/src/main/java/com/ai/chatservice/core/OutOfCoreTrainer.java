@@ -0,0 +1,648 @@
+package com.ai.chatservice.core;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+/**
+ * Huấn luyện Markov "ngoài bộ nhớ" cho corpus lớn hơn heap, ra thẳng file ModelSnapshot:
+ *
+ *   corpus ──(ConversationStreamLoader)──► (ngữ cảnh, token kế) ──► bảng gom trong heap
+ *                                                                   │ đầy memoryBudget
+ *                                                                   ▼
+ *                                              run đã sắp trên đĩa (run-0, run-1, ...)
+ *                                                                   │ trộn k đường (≤ fanIn run / lượt)
+ *                                                                   ▼
+ *                      cây ngữ cảnh CSR + bảng chọn mẫu ghi dần ra file tạm ──► ModelSnapshot
+ *
+ * - Bản ghi = đường đi trong cây (token mới nhất → cũ nhất, thiếu thì đệm PAD) + token kế + count.
+ *   Sắp theo đường đi → thứ tự duyệt cây trước–sau (cha luôn trước con), nên lượt trộn cuối gán
+ *   sid và ghi offsets / nextTokens / counts / stateKeys tuần tự, không cần giữ cây trên heap.
+ * - Bảng băm edgeKey → sid dựng trên file map (READ_WRITE) ngoài heap.
+ * - Heap đỉnh ≈ memoryBudget + từ vựng (StringTable.Builder) + fanIn bộ đệm đọc 64 KB.
+ *   Bộ nhớ hỏi–đáp (ConversationMemory) không được dựng: snapshot ra chỉ có từ vựng + Markov.
+ * Mô hình cho ra giống hệt huấn luyện trong heap (cùng từ vựng, cùng phân phối mọi ngữ cảnh),
+ * chỉ khác cách đánh số sid.
+ */
+public final class OutOfCoreTrainer {
+
+    /** Số run tối đa trộn trong 1 lượt. */
+    public static final int DEFAULT_FAN_IN = 64;
+
+    private static final int PAD = -1;
+    private static final int IO_BUFFER = 1 << 16;
+
+    /** Thống kê 1 lần huấn luyện; ngrams = số lần đếm (ngữ cảnh, token kế). */
+    public record Stats(long units, long ngrams, long distinct, int runs, int mergePasses,
+                        long spilledBytes, long countNanos, long mergeNanos) {
+
+        public double ngramsPerSecond() {
+            long nanos = countNanos + mergeNanos;
+            return nanos == 0 ? 0 : ngrams / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d units, %d n-grams (%d distinct), %d runs / %d merge passes, %.1f MB spilled,"
+                            + " count %d ms + merge %d ms (%.0f n-grams/s)",
+                    units, ngrams, distinct, runs, mergePasses, spilledBytes / 1048576.0,
+                    countNanos / 1_000_000, mergeNanos / 1_000_000, ngramsPerSecond());
+        }
+    }
+
+    private final int order;
+    private final int width;        // order (đường đi) + token kế + count
+    private final int maxRecords;
+    private final int fanIn;
+    private final Path workDir;
+
+    // bảng gom: bản ghi r nằm ở records[r * width .. (r + 1) * width)
+    private final int[] records;
+    private final int[] slots;      // r + 1, 0 = trống
+    private final int[] sortIndex;
+    private int size;
+
+    private final List<Path> runs = new ArrayList<>();
+    private int runSeq;
+    private long units;
+    private long ngrams;
+    private long spilledBytes;
+    private long countNanos;
+    private int spillCount;
+
+    /**
+     * @param memoryBudget số byte tối đa cho bảng gom trong heap
+     * @param workDir      thư mục cho các run / file tạm (xoá khi xong)
+     */
+    public OutOfCoreTrainer(int order, long memoryBudget, Path workDir) {
+        this(order, memoryBudget, workDir, DEFAULT_FAN_IN);
+    }
+
+    public OutOfCoreTrainer(int order, long memoryBudget, Path workDir, int fanIn) {
+        this.order = Math.max(1, order);
+        this.width = this.order + 2;
+        // mỗi bản ghi: width int + ô băm (≤ 2 ô / bản ghi) + 1 int chỉ số khi sắp
+        long perRecord = 4L * width + 8 + 4;
+        this.maxRecords = (int) Math.max(16, Math.min(1 << 28, memoryBudget / perRecord));
+        this.fanIn = Math.max(2, fanIn);
+        this.workDir = workDir;
+        this.records = new int[maxRecords * width];
+        this.slots = new int[Integer.highestOneBit(maxRecords * 2 - 1) << 1];
+        this.sortIndex = new int[maxRecords];
+    }
+
+    /**
+     * Huấn luyện từ file hội thoại (cùng cách ghép cặp như MarkovChatEngine.trainPair) rồi ghi snapshot
+     * gồm từ vựng + Markov.
+     */
+    public static Stats compile(String input, Path output, int order, long memoryBudget) throws IOException {
+        Path parent = output.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path work = Files.createTempDirectory(parent, "ooc-");
+        try {
+            SimpleTokenizer tokenizer = new SimpleTokenizer();
+            OutOfCoreTrainer trainer = new OutOfCoreTrainer(order, memoryBudget, work);
+            trainer.load(Path.of(input), tokenizer);
+            return trainer.finish(tokenizer, output);
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /** Đọc kiểu streaming mọi cặp (user, assistant) của file và đếm. */
+    public void load(Path file, SimpleTokenizer tokenizer) throws IOException {
+        UncheckedIOException[] failure = new UncheckedIOException[1];
+        ConversationStreamLoader.loadPipelined(file, 64, pair -> {
+            if (failure[0] != null) return;
+            try {
+                train(tokenizer, MarkovChatEngine.pairText(pair.user(), pair.assistant()));
+            } catch (IOException e) {
+                failure[0] = new UncheckedIOException(e);
+            }
+        });
+        if (failure[0] != null) throw failure[0].getCause();
+    }
+
+    /** Đếm 1 đoạn văn bản (tương đương MarkovChatEngine.train). */
+    public void train(SimpleTokenizer tokenizer, String text) throws IOException {
+        long t0 = System.nanoTime();
+        count(tokenizer.encodeSentences(text));
+        units++;
+        countNanos += System.nanoTime() - t0;
+    }
+
+    /** Giống MarkovChatEngine.count(...): mọi ngữ cảnh 1..order token → token kế, sau token cuối là END. */
+    void count(int[] tokens) throws IOException {
+        int[] path = new int[order];
+        for (int i = 1; i <= tokens.length; i++) {
+            int next = i < tokens.length ? tokens[i] : TransitionStore.END;
+            Arrays.fill(path, PAD);
+            for (int d = 1; d <= Math.min(order, i); d++) {
+                path[d - 1] = tokens[i - d];
+                add(path, next);
+            }
+        }
+    }
+
+    // ========= Bảng gom + spill =========
+
+    private void add(int[] path, int next) throws IOException {
+        ngrams++;
+        int mask = slots.length - 1;
+        int pos = hash(path, next) & mask;
+        int v;
+        while ((v = slots[pos]) != 0) {
+            int base = (v - 1) * width;
+            if (sameKey(records, base, path, next)) {
+                int c = base + order + 1;
+                records[c] = saturatedAdd(records[c], 1);
+                return;
+            }
+            pos = (pos + 1) & mask;
+        }
+        int base = size * width;
+        System.arraycopy(path, 0, records, base, order);
+        records[base + order] = next;
+        records[base + order + 1] = 1;
+        slots[pos] = ++size;
+        if (size == maxRecords) spill();
+    }
+
+    /** Sắp bảng gom theo khoá rồi ghi thành 1 run, làm rỗng bảng. */
+    private void spill() throws IOException {
+        if (size == 0) return;
+        for (int r = 0; r < size; r++) sortIndex[r] = r;
+        sort(sortIndex, 0, size - 1);
+        Path run = newRun();
+        try (RunWriter out = new RunWriter(run, width)) {
+            for (int i = 0; i < size; i++) {
+                out.write(records, sortIndex[i] * width);
+            }
+        }
+        spilledBytes += Files.size(run);
+        runs.add(run);
+        spillCount++;
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    private Path newRun() {
+        return workDir.resolve("run-" + (runSeq++) + ".bin");
+    }
+
+    // ========= Trộn + ghi mô hình =========
+
+    /**
+     * Spill phần còn lại, trộn các run (nhiều lượt nếu quá fanIn run) và ghi snapshot
+     * (từ vựng của tokenizer + Markov). tokenizer được freeze.
+     */
+    public Stats finish(SimpleTokenizer tokenizer, Path output) throws IOException {
+        long t0 = System.nanoTime();
+        spill();
+        int passes = 0;
+        while (runs.size() > fanIn) {
+            List<Path> merged = new ArrayList<>();
+            for (int from = 0; from < runs.size(); from += fanIn) {
+                List<Path> group = runs.subList(from, Math.min(runs.size(), from + fanIn));
+                Path run = newRun();
+                try (RunWriter out = new RunWriter(run, width)) {
+                    merge(group, out::write);
+                }
+                for (Path p : group) Files.delete(p);
+                merged.add(run);
+            }
+            runs.clear();
+            runs.addAll(merged);
+            passes++;
+        }
+
+        TrieWriter trie = new TrieWriter();
+        try {
+            merge(runs, trie::accept);
+            passes++;
+            trie.finish();
+
+            tokenizer.freeze();
+            try (ModelSnapshot.Writer out = ModelSnapshot.create(output)) {
+                tokenizer.writeTo(out);
+                trie.writeTo(out);
+                out.ints("markov.sentenceEnd", new int[]{tokenizer.sentenceEnd()}, 1);
+                out.finish();
+            }
+        } finally {
+            trie.deleteFiles();
+        }
+        for (Path p : runs) Files.deleteIfExists(p);
+        runs.clear();
+        return new Stats(units, ngrams, trie.ngrams, spillCount, passes, spilledBytes, countNanos,
+                System.nanoTime() - t0);
+    }
+
+    private interface RecordSink {
+        void accept(int[] record, int offset) throws IOException;
+    }
+
+    /** Trộn k đường các run đã sắp, cộng count của các bản ghi cùng khoá rồi đưa cho sink. */
+    private void merge(List<Path> group, RecordSink sink) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, group.size()),
+                (a, b) -> compareKeys(a.current, 0, b.current, 0));
+        List<RunReader> readers = new ArrayList<>(group.size());
+        try {
+            for (Path p : group) {
+                RunReader r = new RunReader(p, width);
+                readers.add(r);
+                if (r.next()) queue.add(r);
+            }
+            int[] pending = new int[width];
+            boolean hasPending = false;
+            while (!queue.isEmpty()) {
+                RunReader r = queue.poll();
+                if (hasPending && compareKeys(pending, 0, r.current, 0) == 0) {
+                    pending[order + 1] = saturatedAdd(pending[order + 1], r.current[order + 1]);
+                } else {
+                    if (hasPending) sink.accept(pending, 0);
+                    System.arraycopy(r.current, 0, pending, 0, width);
+                    hasPending = true;
+                }
+                if (r.next()) queue.add(r);
+            }
+            if (hasPending) sink.accept(pending, 0);
+        } finally {
+            for (RunReader r : readers) r.close();
+        }
+    }
+
+    /**
+     * Nhận bản ghi theo thứ tự duyệt cây, ghi dần các mảng của TransitionStore / TokenSampler ra file tạm
+     * (little-endian, đúng bố cục block của snapshot).
+     */
+    private final class TrieWriter {
+        final Path offsetsFile = workDir.resolve("offsets.bin");
+        final Path nextFile = workDir.resolve("next.bin");
+        final Path countsFile = workDir.resolve("counts.bin");
+        final Path stateKeysFile = workDir.resolve("stateKeys.bin");
+        final Path cumulativeFile = workDir.resolve("cumulative.bin");
+        final Path aliasProbFile = workDir.resolve("aliasProb.bin");
+        final Path aliasIdxFile = workDir.resolve("aliasIdx.bin");
+        final Path indexKeysFile = workDir.resolve("indexKeys.bin");
+        final Path indexSidsFile = workDir.resolve("indexSids.bin");
+
+        final LeWriter offsets;
+        final LeWriter next;
+        final LeWriter counts;
+        final LeWriter stateKeys;
+        final LeWriter cumulative;
+        final LeWriter aliasProb;
+        final LeWriter aliasIdx;
+
+        // sid + đường đi của các nút đang mở theo từng độ sâu (gốc ở 0)
+        final int[] stack = new int[order + 1];
+        final int[] stackPath = new int[order];
+        final int[] nodePath = new int[order];
+        int depth;          // độ sâu nút đang mở, 0 = mới có gốc
+        int nodes;
+        long ngrams;
+
+        // token kế tiếp của nút đang mở
+        long[] packed = new long[64];
+        int fanout;
+        final TokenSampler.Scratch scratch = new TokenSampler.Scratch(64);
+        int[] nodeNext = new int[64];
+        int[] nodeCumulative = new int[64];
+        float[] nodeAliasProb = new float[64];
+        int[] nodeAliasIdx = new int[64];
+
+        TrieWriter() throws IOException {
+            offsets = new LeWriter(offsetsFile);
+            next = new LeWriter(nextFile);
+            counts = new LeWriter(countsFile);
+            stateKeys = new LeWriter(stateKeysFile);
+            cumulative = new LeWriter(cumulativeFile);
+            aliasProb = new LeWriter(aliasProbFile);
+            aliasIdx = new LeWriter(aliasIdxFile);
+            // gốc: sid 0, không có token kế
+            stack[0] = TransitionStore.ROOT;
+            offsets.putInt(0);
+            stateKeys.putLong(-1L);
+            nodes = 1;
+        }
+
+        void accept(int[] record, int offset) throws IOException {
+            if (depth == 0 || compareKeys(record, offset, nodePath, 0, order) != 0) {
+                endNode();
+                startNode(record, offset);
+            }
+            if (fanout == packed.length) packed = Arrays.copyOf(packed, fanout * 2);
+            long inverted = Integer.MAX_VALUE - record[offset + order + 1];
+            packed[fanout++] = (inverted << 32) | (record[offset + order] & 0xffffffffL);
+        }
+
+        private void startNode(int[] record, int offset) throws IOException {
+            int d = 0;
+            while (d < order && record[offset + d] != PAD) d++;
+            if (d == 0) throw new IllegalStateException("Bản ghi không có ngữ cảnh");
+            // cha (đường đi d - 1 token đầu) phải là nút đang mở ở độ sâu d - 1
+            if (d - 1 > depth || compareKeys(record, offset, stackPath, 0, d - 1) != 0) {
+                throw new IllegalStateException("Thiếu ngữ cảnh cha của 1 bản ghi (run không đúng thứ tự?)");
+            }
+            int sid = nodes++;
+            stack[d] = sid;
+            stackPath[d - 1] = record[offset + d - 1];
+            depth = d;
+            System.arraycopy(record, offset, nodePath, 0, order);
+            offsets.putInt((int) Math.min(Integer.MAX_VALUE, ngrams));
+            stateKeys.putLong(TransitionStore.edgeKey(stack[d - 1], record[offset + d - 1]));
+        }
+
+        // sắp các token kế của nút vừa xong theo count giảm dần (giống TransitionStore.freeze) rồi ghi ra
+        private void endNode() throws IOException {
+            if (fanout == 0) return;
+            int k = fanout;
+            Arrays.sort(packed, 0, k);
+            if (k > nodeNext.length) {
+                int n = Math.max(k, nodeNext.length * 2);
+                nodeNext = new int[n];
+                nodeCumulative = new int[n];
+                nodeAliasProb = new float[n];
+                nodeAliasIdx = new int[n];
+            }
+            scratch.ensure(k);
+            for (int j = 0; j < k; j++) {
+                nodeNext[j] = (int) packed[j];
+                scratch.counts[j] = Integer.MAX_VALUE - (int) (packed[j] >>> 32);
+            }
+            TokenSampler.build(scratch.counts, k, nodeCumulative, nodeAliasProb, nodeAliasIdx, 0, scratch);
+            for (int j = 0; j < k; j++) {
+                next.putInt(nodeNext[j]);
+                counts.putInt(scratch.counts[j]);
+                cumulative.putInt(nodeCumulative[j]);
+                aliasProb.putFloat(nodeAliasProb[j]);
+                aliasIdx.putInt(nodeAliasIdx[j]);
+            }
+            ngrams += k;
+            if (ngrams > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Quá nhiều n-gram cho 1 block snapshot: " + ngrams);
+            }
+            fanout = 0;
+        }
+
+        void finish() throws IOException {
+            endNode();
+            offsets.putInt((int) ngrams);
+            for (LeWriter w : List.of(offsets, next, counts, stateKeys, cumulative, aliasProb, aliasIdx)) {
+                w.close();
+            }
+            buildIndex();
+        }
+
+        // bảng băm chỉ đọc edgeKey → sid + 1, giống TransitionStore.freeze nhưng trên file map
+        private void buildIndex() throws IOException {
+            long cap = Long.highestOneBit(Math.max(4, (long) nodes * 2 - 1)) << 1;
+            if (cap * 8 > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Quá nhiều state cho 1 block snapshot: " + nodes);
+            }
+            int mask = (int) cap - 1;
+            try (FileChannel keysCh = openMapped(indexKeysFile);
+                 FileChannel sidsCh = openMapped(indexSidsFile);
+                 FileChannel stateCh = FileChannel.open(stateKeysFile, StandardOpenOption.READ)) {
+                LongBuffer slotKeys = map(keysCh, cap * 8).asLongBuffer();
+                IntBuffer slotSids = map(sidsCh, cap * 4).asIntBuffer();
+                LongBuffer keys = stateCh.map(FileChannel.MapMode.READ_ONLY, 0, stateCh.size())
+                        .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+                for (int sid = 1; sid < nodes; sid++) {
+                    long key = keys.get(sid);
+                    int pos = (int) LongIntHashMap.mix(key) & mask;
+                    while (slotSids.get(pos) != 0) pos = (pos + 1) & mask;
+                    slotKeys.put(pos, key);
+                    slotSids.put(pos, sid + 1);
+                }
+            }
+        }
+
+        void writeTo(ModelSnapshot.Writer out) throws IOException {
+            // cùng tên block với TransitionStore.writeTo + TokenSampler.writeTo
+            out.ints("markov.order", new int[]{order}, 1);
+            out.longsFrom("markov.indexKeys", indexKeysFile);
+            out.intsFrom("markov.indexSids", indexSidsFile);
+            out.longsFrom("markov.stateKeys", stateKeysFile);
+            out.intsFrom("markov.offsets", offsetsFile);
+            out.intsFrom("markov.next", nextFile);
+            out.intsFrom("markov.counts", countsFile);
+            out.intsFrom("markov.sampler.cumulative", cumulativeFile);
+            out.floatsFrom("markov.sampler.aliasProb", aliasProbFile);
+            out.intsFrom("markov.sampler.aliasIdx", aliasIdxFile);
+        }
+
+        void deleteFiles() throws IOException {
+            for (LeWriter w : List.of(offsets, next, counts, stateKeys, cumulative, aliasProb, aliasIdx)) {
+                w.close();
+            }
+            for (Path p : List.of(offsetsFile, nextFile, countsFile, stateKeysFile, cumulativeFile,
+                    aliasProbFile, aliasIdxFile, indexKeysFile, indexSidsFile)) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    private static FileChannel openMapped(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static ByteBuffer map(FileChannel ch, long bytes) throws IOException {
+        MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        return mapped.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // ========= Khoá: đường đi (order int) rồi token kế =========
+
+    private boolean sameKey(int[] recs, int base, int[] path, int next) {
+        for (int i = 0; i < order; i++) {
+            if (recs[base + i] != path[i]) return false;
+        }
+        return recs[base + order] == next;
+    }
+
+    private int compareKeys(int[] a, int ao, int[] b, int bo) {
+        return compareKeys(a, ao, b, bo, order + 1);
+    }
+
+    // PAD (-1) nhỏ hơn mọi token → đường đi ngắn (nút cha) đứng trước các nút con
+    private static int compareKeys(int[] a, int ao, int[] b, int bo, int length) {
+        for (int i = 0; i < length; i++) {
+            int c = Integer.compare(a[ao + i], b[bo + i]);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    private int hash(int[] path, int next) {
+        long h = next;
+        for (int i = 0; i < order; i++) {
+            h = h * 0x9E3779B97F4A7C15L + path[i];
+        }
+        return (int) LongIntHashMap.mix(h);
+    }
+
+    private static int saturatedAdd(int a, int b) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) a + b);
+    }
+
+    // quicksort chỉ số bản ghi theo khoá (không boxing), đoạn ngắn dùng insertion sort
+    private void sort(int[] idx, int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            int pivot = medianOf3(idx[lo], idx[mid], idx[hi]);
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (compareRecords(idx[i], pivot) < 0) i++;
+                while (compareRecords(idx[j], pivot) > 0) j--;
+                if (i <= j) {
+                    int t = idx[i];
+                    idx[i] = idx[j];
+                    idx[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            // đệ quy nửa nhỏ, lặp nửa lớn → độ sâu stack O(log n)
+            if (j - lo < hi - i) {
+                sort(idx, lo, j);
+                lo = i;
+            } else {
+                sort(idx, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            int v = idx[i];
+            int j = i - 1;
+            while (j >= lo && compareRecords(idx[j], v) > 0) {
+                idx[j + 1] = idx[j];
+                j--;
+            }
+            idx[j + 1] = v;
+        }
+    }
+
+    private int medianOf3(int a, int b, int c) {
+        if (compareRecords(a, b) > 0) { int t = a; a = b; b = t; }
+        if (compareRecords(b, c) > 0) { b = c; }
+        return compareRecords(a, b) > 0 ? a : b;
+    }
+
+    private int compareRecords(int a, int b) {
+        return compareKeys(records, a * width, records, b * width);
+    }
+
+    // ========= File =========
+
+    /** Ghi run: mỗi bản ghi width int (big-endian, chỉ dùng nội bộ). */
+    private static final class RunWriter implements Closeable {
+        private final DataOutputStream out;
+        private final int width;
+
+        RunWriter(Path file, int width) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), IO_BUFFER));
+            this.width = width;
+        }
+
+        void write(int[] record, int offset) throws IOException {
+            for (int i = 0; i < width; i++) out.writeInt(record[offset + i]);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class RunReader implements Closeable {
+        private final DataInputStream in;
+        private final int[] current;
+        private long remaining;
+
+        RunReader(Path file, int width) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER));
+            this.current = new int[width];
+            this.remaining = Files.size(file) / (4L * width);
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) return false;
+            for (int i = 0; i < current.length; i++) current[i] = in.readInt();
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /** Ghi mảng nguyên thuỷ little-endian ra file qua bộ đệm 64 KB. */
+    private static final class LeWriter implements Closeable {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(IO_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        private boolean closed;
+
+        LeWriter(Path file) throws IOException {
+            this.ch = openMapped(file);
+        }
+
+        void putInt(int v) throws IOException {
+            if (buf.remaining() < 4) flush();
+            buf.putInt(v);
+        }
+
+        void putFloat(float v) throws IOException {
+            if (buf.remaining() < 4) flush();
+            buf.putFloat(v);
+        }
+
+        void putLong(long v) throws IOException {
+            if (buf.remaining() < 8) flush();
+            buf.putLong(v);
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                flush();
+            } finally {
+                ch.close();
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.ai.chatservice.core;
+
+import java.util.Arrays;
+
+/**
+ * Chỉ mục tìm câu hỏi đã lưu gần giống nhất với câu người dùng hỏi (inverted index + BM25).
+ *
+ *   termOffsets[t] .. termOffsets[t + 1] → vùng của từ t trong
+ *   postings[] / termFreqs[]              (doc id tăng dần, tf của từ trong doc)
+ *
+ * - Từ = token id của SimpleTokenizer (đã freeze), doc = 1 câu hỏi đã chuẩn hoá.
+ * - doc id được đánh theo độ dài câu tăng dần: câu ngắn đứng đầu mọi danh sách.
+ * - Tìm kiếm top-1 kiểu MaxScore (không khoá, không cấp phát theo số doc):
+ *     1) sắp các từ của câu hỏi theo điểm tối đa (maxScore) tăng dần: từ phổ biến trước;
+ *        chấm trước vài doc của từ hiếm nhất để có ngay 1 điểm tốt nhất làm ngưỡng
+ *     2) duyệt trộn danh sách của các từ "thiết yếu"; từ nào cộng dồn maxScore với các từ
+ *        phổ biến hơn nó vẫn <= điểm tốt nhất hiện tại thì thôi duyệt, chỉ tra nhị phân
+ *        khi cận trên của doc còn vượt được điểm tốt nhất
+ *     3) tổng số posting duyệt tối đa MAX_POSTINGS → thời gian có trần; vì câu ngắn đứng đầu
+ *        danh sách nên phần bị bỏ là các câu dài (BM25 thấp hơn với cùng số từ khớp)
+ *
+ * similarity = BM25(câu hỏi, doc) / BM25(câu hỏi, doc lý tưởng chỉ gồm đúng các từ đó),
+ * cắt về [0, 1]; từ lạ (không có trong từ vựng) làm giảm similarity → dùng làm ngưỡng.
+ */
+public final class RetrievalIndex {
+
+    /** Số phần tử posting tối đa duyệt tuần tự cho 1 lần tìm. */
+    public static final int MAX_POSTINGS = 1 << 14;
+    // số doc của từ hiếm nhất được chấm đủ điểm trước để có ngưỡng cắt ban đầu
+    private static final int SEED_POSTINGS = 256;
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    /** Câu hỏi gần nhất: id trong bảng câu hỏi, chuỗi câu hỏi, điểm BM25, độ giống [0, 1]. */
+    public record Match(int id, String question, double score, double similarity) {}
+
+    private final SimpleTokenizer tokenizer;
+    private final StringTable questions;
+    private final int termCount;
+    private final int[] termOffsets;
+    private final int[] postings;
+    private final byte[] termFreqs;
+    private final float[] idf;
+    private final float[] maxScore;    // điểm BM25 lớn nhất của từ trên mọi doc (cận trên)
+    private final int[] docQuestion;   // doc id → id trong questions
+    private final float[] docNorm;     // k1 * (1 - b + b * len / avgLen)
+    private final float avgLength;
+
+    private RetrievalIndex(SimpleTokenizer tokenizer, StringTable questions, int termCount, int[] termOffsets,
+                           int[] postings, byte[] termFreqs, float[] idf, float[] maxScore, int[] docQuestion, float[] docNorm,
+                           float avgLength) {
+        this.tokenizer = tokenizer;
+        this.questions = questions;
+        this.termCount = termCount;
+        this.termOffsets = termOffsets;
+        this.postings = postings;
+        this.termFreqs = termFreqs;
+        this.idf = idf;
+        this.maxScore = maxScore;
+        this.docQuestion = docQuestion;
+        this.docNorm = docNorm;
+        this.avgLength = avgLength;
+    }
+
+    /**
+     * Dựng chỉ mục cho mọi câu hỏi trong bảng (gọi sau khi tokenizer đã freeze).
+     */
+    public static RetrievalIndex build(SimpleTokenizer tokenizer, StringTable questions) {
+        int n = questions.size();
+        int termCount = tokenizer.vocabularySize();
+
+        // 1) encode từng câu → các từ khác nhau (đã sắp) + tf, nối liền vào 1 mảng
+        int[] qOffsets = new int[n + 1];
+        int[] qTerms = new int[Math.max(16, n * 4)];
+        byte[] qTf = new byte[qTerms.length];
+        int[] lengths = new int[n];
+        long totalLength = 0;
+        int maxLength = 0;
+        for (int q = 0; q < n; q++) {
+            int[] tokens = tokenizer.encode(questions.get(q));
+            Arrays.sort(tokens);
+            int pos = qOffsets[q];
+            if (pos + tokens.length > qTerms.length) {
+                qTerms = Arrays.copyOf(qTerms, Math.max(qTerms.length * 2, pos + tokens.length));
+                qTf = Arrays.copyOf(qTf, qTerms.length);
+            }
+            for (int i = 0; i < tokens.length; i++) {
+                int t = tokens[i];
+                if (t == SimpleTokenizer.UNK || t >= termCount) continue;
+                if (pos > qOffsets[q] && qTerms[pos - 1] == t) {
+                    if (qTf[pos - 1] < Byte.MAX_VALUE) qTf[pos - 1]++;
+                } else {
+                    qTerms[pos] = t;
+                    qTf[pos++] = 1;
+                }
+            }
+            qOffsets[q + 1] = pos;
+            lengths[q] = tokens.length;
+            totalLength += tokens.length;
+            maxLength = Math.max(maxLength, tokens.length);
+        }
+
+        // 2) doc id theo độ dài tăng dần (đếm phân phối, giữ thứ tự id khi cùng độ dài)
+        int[] byLength = new int[maxLength + 2];
+        for (int q = 0; q < n; q++) byLength[lengths[q] + 1]++;
+        for (int l = 0; l <= maxLength; l++) byLength[l + 1] += byLength[l];
+        int[] docQuestion = new int[n];
+        for (int q = 0; q < n; q++) docQuestion[byLength[lengths[q]]++] = q;
+
+        float avgLength = n == 0 ? 1 : Math.max(1, (float) totalLength / n);
+        float[] docNorm = new float[n];
+        for (int d = 0; d < n; d++) {
+            docNorm[d] = K1 * (1 - B + B * lengths[docQuestion[d]] / avgLength);
+        }
+
+        // 3) df → termOffsets, rồi đổ posting theo doc id tăng dần
+        int[] termOffsets = new int[termCount + 1];
+        for (int i = 0; i < qOffsets[n]; i++) termOffsets[qTerms[i] + 1]++;
+        for (int t = 0; t < termCount; t++) termOffsets[t + 1] += termOffsets[t];
+        int[] fill = Arrays.copyOf(termOffsets, termCount);
+        int[] postings = new int[qOffsets[n]];
+        byte[] termFreqs = new byte[qOffsets[n]];
+        for (int d = 0; d < n; d++) {
+            int q = docQuestion[d];
+            for (int i = qOffsets[q]; i < qOffsets[q + 1]; i++) {
+                int p = fill[qTerms[i]]++;
+                postings[p] = d;
+                termFreqs[p] = qTf[i];
+            }
+        }
+
+        float[] idf = new float[termCount];
+        float[] maxScore = new float[termCount];
+        for (int t = 0; t < termCount; t++) {
+            idf[t] = idf(n, termOffsets[t + 1] - termOffsets[t]);
+            for (int p = termOffsets[t]; p < termOffsets[t + 1]; p++) {
+                int tf = termFreqs[p];
+                maxScore[t] = Math.max(maxScore[t], idf[t] * tf * (K1 + 1) / (tf + docNorm[postings[p]]));
+            }
+        }
+        return new RetrievalIndex(tokenizer, questions, termCount, termOffsets, postings, termFreqs,
+                idf, maxScore, docQuestion, docNorm, avgLength);
+    }
+
+    private static float idf(int docs, int df) {
+        return (float) Math.log(1 + (docs - df + 0.5) / (df + 0.5));
+    }
+
+    public int size() {
+        return docQuestion.length;
+    }
+
+    /**
+     * Câu hỏi đã lưu giống text nhất, null nếu không câu nào có chung từ nào.
+     */
+    public Match search(String text) {
+        int[] tokens = tokenizer.encode(text);
+        if (tokens.length == 0 || docQuestion.length == 0) return null;
+
+        // các từ khác nhau có trong chỉ mục; từ lạ chỉ tính vào điểm lý tưởng
+        Arrays.sort(tokens);
+        int[] terms = new int[tokens.length];
+        int k = 0;
+        double ideal = 0;
+        float queryNorm = K1 * (1 - B + B * tokens.length / avgLength);
+        float unknownIdf = idf(docQuestion.length, 0);
+        for (int i = 0; i < tokens.length; i++) {
+            int t = tokens[i];
+            boolean known = t != SimpleTokenizer.UNK && t < termCount && df(t) > 0;
+            if (i > 0 && t == tokens[i - 1] && known) continue;
+            ideal += (known ? idf[t] : unknownIdf) * (K1 + 1) / (1 + queryNorm);
+            if (known) terms[k++] = t;
+        }
+        if (k == 0) return null;
+
+        // sắp theo điểm tối đa tăng dần (từ phổ biến trước); upTo[i] = tổng điểm tối đa của 0..i-1
+        sortByMaxScore(terms, k);
+        double[] upTo = new double[k + 1];
+        int[] cursor = new int[k];
+        int[] end = new int[k];
+        for (int i = 0; i < k; i++) {
+            upTo[i + 1] = upTo[i] + maxScore[terms[i]];
+            cursor[i] = termOffsets[terms[i]];
+            end[i] = termOffsets[terms[i] + 1];
+        }
+
+        // mồi: chấm đủ điểm các doc đầu danh sách của từ hiếm nhất → bestScore cao ngay từ đầu,
+        // các từ phổ biến sớm thành "không thiết yếu"
+        int bestDoc = -1;
+        double bestScore = 0;
+        int rarest = k - 1;
+        for (int p = cursor[rarest]; p < Math.min(end[rarest], cursor[rarest] + SEED_POSTINGS); p++) {
+            int doc = postings[p];
+            double score = termScore(terms[rarest], termFreqs[p], doc);
+            for (int i = rarest - 1; i >= 0 && score + upTo[i + 1] > bestScore; i--) {
+                int q = Arrays.binarySearch(postings, termOffsets[terms[i]], end[i], doc);
+                if (q >= 0) score += termScore(terms[i], termFreqs[q], doc);
+            }
+            if (score > bestScore || (score == bestScore && doc < bestDoc)) {
+                bestScore = score;
+                bestDoc = doc;
+            }
+        }
+
+        int essential = 0;   // từ 0..essential-1 một mình không vượt được bestScore → không duyệt
+        while (essential < k && upTo[essential + 1] <= bestScore) essential++;
+        int budget = MAX_POSTINGS;
+        while (budget > 0) {
+            int doc = Integer.MAX_VALUE;
+            for (int i = essential; i < k; i++) {
+                if (cursor[i] < end[i]) doc = Math.min(doc, postings[cursor[i]]);
+            }
+            if (doc == Integer.MAX_VALUE) break;
+
+            double score = 0;
+            for (int i = essential; i < k; i++) {
+                if (cursor[i] < end[i] && postings[cursor[i]] == doc) {
+                    score += termScore(terms[i], termFreqs[cursor[i]], doc);
+                    cursor[i]++;
+                    budget--;
+                }
+            }
+            // từ không thiết yếu: chỉ tra (nhị phân, tiến cursor) khi cận trên còn vượt được bestScore
+            for (int i = essential - 1; i >= 0 && score + upTo[i + 1] > bestScore; i--) {
+                int p = gallop(cursor[i], end[i], doc);
+                cursor[i] = p >= 0 ? p + 1 : -p - 1;
+                if (p >= 0) score += termScore(terms[i], termFreqs[p], doc);
+            }
+            // cùng điểm thì giữ doc id nhỏ hơn (câu ngắn hơn) → kết quả ổn định
+            if (score > bestScore || (score == bestScore && doc < bestDoc)) {
+                bestScore = score;
+                bestDoc = doc;
+                while (essential < k && upTo[essential + 1] <= bestScore) essential++;
+            }
+        }
+        if (bestDoc < 0) return null;
+
+        int id = docQuestion[bestDoc];
+        return new Match(id, questions.get(id), bestScore, Math.min(1.0, bestScore / ideal));
+    }
+
+    /**
+     * Tìm doc trong postings[from, to) (tăng dần) bằng bước nhảy gấp đôi rồi tìm nhị phân:
+     * O(log khoảng cách) vì doc chỉ tăng dần. Trả về như Arrays.binarySearch.
+     */
+    private int gallop(int from, int to, int doc) {
+        int step = 1;
+        int hi = from;
+        while (hi < to && postings[hi] < doc) {
+            from = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        return Arrays.binarySearch(postings, from, Math.min(hi + 1, to), doc);
+    }
+
+    private void sortByMaxScore(int[] terms, int k) {
+        for (int i = 1; i < k; i++) {
+            int t = terms[i];
+            int j = i - 1;
+            while (j >= 0 && maxScore[terms[j]] > maxScore[t]) {
+                terms[j + 1] = terms[j];
+                j--;
+            }
+            terms[j + 1] = t;
+        }
+    }
+
+    private int df(int term) {
+        return termOffsets[term + 1] - termOffsets[term];
+    }
+
+    private double termScore(int term, int tf, int doc) {
+        return idf[term] * tf * (K1 + 1) / (tf + docNorm[doc]);
+    }
+
+    /** Ước lượng số byte heap của chỉ mục (không tính bảng câu hỏi). */
+    public long estimatedBytes() {
+        return 4L * termOffsets.length + 5L * postings.length + 4L * idf.length + 8L * docQuestion.length;
+    }
+}
@@ -1,6 +1,10 @@
 package com.ai.chatservice.core;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Bộ tách từ cực kỳ đơn giản:
@@ -9,66 +13,341 @@ import java.util.*;
  *
  * Ở mức độ demo, tokenizer này là đủ đơn giản.
  * Trong mô hình AI thật (GPT), tokenizer phức tạp hơn rất nhiều (BPE).
+ *
+ * Từ vựng luôn là byte UTF-8 nối liền trong 1 arena + bảng offset (StringTable), không giữ String
+ * cho từng từ; decodeTo(...) chép thẳng byte của các từ vào Utf8Buffer.
+ *
+ * Hai giai đoạn:
+ * 1) Huấn luyện: encode(...) thêm từ mới vào StringTable.Builder (chỉ 1 luồng được ghi).
+ * 2) Phục vụ (sau freeze() hoặc mở từ ModelSnapshot): bộ từ vựng là StringTable chỉ đọc,
+ *    encode(...) không ghi gì vào trạng thái chung → nhiều luồng request (Tomcat, Kafka)
+ *    gọi đồng thời được, không cần khoá; từ chưa có trong từ vựng thành <unk> (id 0).
+ * 3) Học thêm online (encodeAndLearn): từ mới nhận id tiếp sau StringTable, nằm trong 1 vùng
+ *    riêng có giới hạn (MAX_LEARNED_WORDS); đọc vẫn không khoá.
  */
 public class SimpleTokenizer {
 
-    private final Map<String, Integer> wordToId = new HashMap<>();
-    private final List<String> idToWord = new ArrayList<>();
+    /** Token cho mọi từ chưa có trong từ vựng lúc phục vụ. */
+    public static final int UNK = 0;
+
+    /**
+     * Từ đặc biệt đánh dấu hết câu (sau từ cuối của câu kết thúc bằng . ? !), id 1 trong từ vựng.
+     * Chỉ encodeSentences(...) (dùng khi huấn luyện) sinh ra token này; Markov học nó như 1 từ
+     * rồi dừng câu trả lời khi gặp (xem MarkovChatEngine).
+     * Là dấu "." nên không văn bản nào encode ra được (dấu câu bị bỏ khi tách từ).
+     */
+    public static final String SENTENCE_END_WORD = ".";
+
+    // từ hết câu của snapshot cũ: là từ thường với encode(...) → chặn khi tra từ điển
+    private static final String LEGACY_SENTENCE_END_WORD = "</s>";
+
+    /** Số từ mới tối đa học thêm online sau freeze; quá mức thì từ mới thành <unk>. */
+    public static final int MAX_LEARNED_WORDS = 1 << 17;
+
+    // giai đoạn huấn luyện (null sau freeze)
+    private StringTable.Builder words;
+
+    // != null sau freeze() hoặc khi mở từ snapshot → dùng bảng này thay cho wordToId / idToWord
+    private volatile StringTable vocabulary;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // giai đoạn học thêm: từ mới có id = vocabulary.size() + i, ghi dưới lock, đọc không khoá
+    // (mảng được gán volatile trước khi id xuất hiện trong learnedIds); giữ byte UTF-8 để decode
+    private final ConcurrentHashMap<String, Integer> learnedIds = new ConcurrentHashMap<>();
+    private volatile byte[][] learnedWords = new byte[0][];
+    private volatile int learnedCount;
+
+    // id của SENTENCE_END_WORD, -1 nếu từ vựng không có
+    private final int sentenceEnd;
 
     public SimpleTokenizer() {
+        words = new StringTable.Builder();
         // Thêm token đặc biệt (nếu cần)
         addWord("<unk>");
+        sentenceEnd = addWord(SENTENCE_END_WORD);
     }
 
-    private int addWord(String w) {
-        Integer id = wordToId.get(w);
-        if (id != null) return id;
-        int newId = idToWord.size();
-        wordToId.put(w, newId);
-        idToWord.add(w);
-        return newId;
+    private SimpleTokenizer(StringTable vocabulary) {
+        this.vocabulary = vocabulary;
+        // snapshot cũ (trước khi có token hết câu) → không có, id 1 là từ thường
+        String second = vocabulary.size() > 1 ? vocabulary.get(1) : null;
+        this.sentenceEnd = SENTENCE_END_WORD.equals(second) || LEGACY_SENTENCE_END_WORD.equals(second) ? 1 : -1;
+    }
+
+    public static SimpleTokenizer fromSnapshot(ModelSnapshot snapshot) {
+        return new SimpleTokenizer(StringTable.read(snapshot, "vocab"));
+    }
+
+    public void writeTo(ModelSnapshot.Writer out) throws IOException {
+        StringTable table = vocabulary;
+        if (table == null) {
+            table = words.build(true);
+        } else if (learnedCount > 0) {
+            List<String> all = new ArrayList<>(vocabularySize());
+            for (int id = 0; id < vocabularySize(); id++) all.add(word(id));
+            table = StringTable.build(all, true);
+        }
+        table.writeTo(out, "vocab");
+    }
+
+    /**
+     * Kết thúc giai đoạn huấn luyện: chuyển từ vựng sang StringTable chỉ đọc.
+     * Từ đây encode(...) an toàn khi gọi từ nhiều luồng và không làm từ vựng lớn thêm.
+     * Gọi nhiều lần không sao.
+     */
+    public void freeze() {
+        lock.lock();
+        try {
+            if (vocabulary != null) return;
+            vocabulary = words.build(true);
+            words = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isFrozen() {
+        return vocabulary != null;
+    }
+
+    /** Số từ trong bộ từ vựng. */
+    public int vocabularySize() {
+        StringTable table = vocabulary;
+        return table != null ? table.size() + learnedCount : words.size();
+    }
+
+    /** Số từ đã học thêm sau freeze. */
+    public int learnedWordCount() {
+        return learnedCount;
+    }
+
+    /** Số byte (heap hoặc vùng map) của từ vựng, gồm cả phần học thêm. */
+    public long estimatedBytes() {
+        StringTable table = vocabulary;
+        if (table == null) return words.estimatedBytes();
+        long bytes = table.estimatedBytes();
+        byte[][] learned = learnedWords;
+        for (int i = 0; i < learnedCount; i++) bytes += 16 + learned[i].length + 8;
+        return bytes;
+    }
+
+    private int addWord(CharSequence w) {
+        StringTable table = vocabulary;
+        if (table != null) {
+            int id = table.find(w);
+            return id < 0 ? UNK : id;
+        }
+        return words.add(w);
+    }
+
+    /**
+     * Thêm (theo đúng thứ tự id) các từ của 1 tokenizer cục bộ vào bộ từ vựng này.
+     * Trả về bảng đổi id: idCụcBộ → id ở đây. Dùng để gộp các worker của ParallelTrainer:
+     * gộp lần lượt theo thứ tự chunk cho ra đúng thứ tự id như khi encode tuần tự.
+     */
+    int[] absorb(SimpleTokenizer local) {
+        int n = local.vocabularySize();
+        int[] map = new int[n];
+        for (int id = 0; id < n; id++) {
+            map[id] = addWord(local.word(id));
+        }
+        return map;
     }
 
     /**
      * Đổi câu chữ thành danh sách token (mỗi token là 1 số).
+     *
+     * Tương đương toLowerCase → bỏ dấu [,.?!;:] → tách theo khoảng trắng, nhưng quét 1 lượt
+     * không dùng regex. Sau freeze: chỉ tra StringTable (không tạo String cho từng từ).
      */
     public int[] encode(String text) {
-        text = text.toLowerCase()
-                .replaceAll("[,.?!;:]", ""); // bỏ dấu câu đơn giản
+        return encode(text, false, false);
+    }
+
+    /**
+     * Như encode(...) nhưng sau freeze thì từ chưa có được thêm vào vùng học thêm
+     * (dùng cho học online, xem MarkovChatEngine.learn). Trước freeze giống hệt encode(...).
+     */
+    public int[] encodeAndLearn(String text) {
+        return encode(text, true, false);
+    }
+
+    /**
+     * Như encode(...) nhưng thêm token sentenceEnd() sau mỗi câu (từ kết thúc bằng . ? !),
+     * để Markov học được chỗ hết câu. Dùng cho văn bản huấn luyện; câu hỏi lúc phục vụ vẫn dùng encode(...).
+     */
+    public int[] encodeSentences(String text) {
+        return encode(text, false, true);
+    }
 
-        String[] words = text.split("\\s+");
-        List<Integer> ids = new ArrayList<>();
+    /** encodeSentences(...) cho học online (từ mới vào vùng học thêm như encodeAndLearn). */
+    public int[] encodeSentencesAndLearn(String text) {
+        return encode(text, true, true);
+    }
+
+    /** Id của token hết câu, -1 nếu từ vựng không có (snapshot cũ). */
+    public int sentenceEnd() {
+        return sentenceEnd;
+    }
 
-        for (String raw : words) {
-            String w = raw.trim();
-            if (w.isEmpty()) continue;
-            ids.add(addWord(w));
+    private int[] encode(String text, boolean learn, boolean sentences) {
+        StringTable table = vocabulary;
+        String lower = text.toLowerCase();
+        int n = lower.length();
+
+        int[] ids = new int[Math.max(4, n / 4)];
+        int count = 0;
+        StringBuilder word = new StringBuilder(16);
+        boolean endOfSentence = false;   // ký tự cuối (không tính khoảng trắng) là . ? !
+        int eos = sentences ? sentenceEnd : -1;
+
+        for (int i = 0; i <= n; i++) {
+            char c = i < n ? lower.charAt(i) : ' ';
+            if (!isSpace(c)) {
+                if (!isPunctuation(c)) {
+                    word.append(c);
+                    endOfSentence = false;
+                } else {
+                    endOfSentence = c == '.' || c == '?' || c == '!';
+                }
+                continue;
+            }
+            trim(word);
+            if (word.length() > 0) {
+                int id;
+                if (table != null) {
+                    id = table.find(word);
+                    // chữ "</s>" trong câu hỏi không được thành token hết câu của snapshot cũ
+                    if (sentenceEnd >= 0 && id == sentenceEnd) id = UNK;
+                    else if (id < 0) id = learn ? learnWord(word.toString()) : learnedId(word);
+                } else {
+                    id = addWord(word);
+                }
+                if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+                ids[count++] = id;
+                word.setLength(0);
+            }
+            // "đẹp quá!", "đẹp quá !" → ... quá </s>; không mở đầu bằng </s>, không lặp 2 lần liền
+            if (endOfSentence && eos >= 0 && count > 0 && ids[count - 1] != eos) {
+                if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+                ids[count++] = eos;
+            }
+            endOfSentence = false;
         }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    private int learnedId(CharSequence w) {
+        if (learnedCount == 0) return UNK;
+        Integer id = learnedIds.get(w.toString());
+        return id == null ? UNK : id;
+    }
 
-        int[] arr = new int[ids.size()];
-        for (int i = 0; i < ids.size(); i++) {
-            arr[i] = ids.get(i);
+    private int learnWord(String w) {
+        Integer id = learnedIds.get(w);
+        if (id != null) return id;
+        lock.lock();
+        try {
+            id = learnedIds.get(w);
+            if (id != null) return id;
+            int n = learnedCount;
+            if (n >= MAX_LEARNED_WORDS) return UNK;
+            byte[][] learned = learnedWords;
+            if (n == learned.length) learned = Arrays.copyOf(learned, Math.max(16, n * 2));
+            learned[n] = w.getBytes(StandardCharsets.UTF_8);
+            learnedWords = learned;
+            learnedCount = n + 1;
+            int newId = vocabulary.size() + n;
+            learnedIds.put(w, newId);
+            return newId;
+        } finally {
+            lock.unlock();
         }
-        return arr;
+    }
+
+    // giống \s của regex Java
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c == ',' || c == '.' || c == '?' || c == '!' || c == ';' || c == ':';
+    }
+
+    // giống String.trim(): bỏ ký tự <= ' ' ở 2 đầu
+    private static void trim(StringBuilder sb) {
+        int end = sb.length();
+        while (end > 0 && sb.charAt(end - 1) <= ' ') end--;
+        sb.setLength(end);
+        int start = 0;
+        while (start < end && sb.charAt(start) <= ' ') start++;
+        if (start > 0) sb.delete(0, start);
+    }
+
+    /**
+     * Đổi ids[0, length) thành câu chữ (các từ cách nhau 1 dấu cách, bỏ id ngoài từ điển).
+     * Chép byte UTF-8 của các từ vào 1 mảng đúng cỡ rồi tạo 1 String, không tạo String cho từng từ.
+     */
+    public String decode(int[] ids, int length) {
+        Utf8Buffer out = new Utf8Buffer(Math.max(16, length * 8));
+        decodeTo(ids, length, out);
+        return out.toString();
     }
 
     /**
-     * Đổi danh sách token thành câu chữ.
+     * Như decode(...) nhưng ghi byte UTF-8 vào cuối out (không reset). Trả về số byte đã ghi.
      */
-    public String decode(List<Integer> ids) {
-        StringBuilder sb = new StringBuilder();
-        for (int id : ids) {
-            if (id < 0 || id >= idToWord.size()) continue;
-            sb.append(idToWord.get(id)).append(" ");
+    public int decodeTo(int[] ids, int length, Utf8Buffer out) {
+        int start = out.length();
+        int size = vocabularySize();
+        StringTable table = vocabulary;
+        for (int i = 0; i < length; i++) {
+            int id = ids[i];
+            if (id < 0 || id >= size) continue;
+            if (out.length() > start) out.append((byte) ' ');
+            appendWord(table, id, out);
         }
-        return sb.toString().trim();
+        return out.length() - start;
+    }
+
+    private void appendWord(StringTable table, int id, Utf8Buffer out) {
+        if (table == null) {
+            words.appendTo(id, out);
+        } else if (id < table.size()) {
+            table.appendTo(id, out);
+        } else {
+            byte[] w = learnedWords[id - table.size()];
+            out.append(w, 0, w.length);
+        }
+    }
+
+    /** Từ ứng với id, null nếu id không có trong từ điển. */
+    public String word(int id) {
+        if (id < 0 || id >= vocabularySize()) return null;
+        StringTable table = vocabulary;
+        if (table == null) return words.get(id);
+        return id < table.size() ? table.get(id) : new String(learnedWords[id - table.size()], StandardCharsets.UTF_8);
     }
 
     // Thêm hàm normalize để dùng chung cho map hỏi–đáp
+    // Tương đương toLowerCase → bỏ [,.?!;:] → gộp \s+ thành 1 dấu cách → trim, nhưng quét 1 lượt
+    // không dùng regex (được gọi ở mỗi request: tra bộ nhớ hỏi–đáp, khoá của cache câu trả lời).
     public String normalize(String text) {
-        return text.toLowerCase()
-                .replaceAll("[,.?!;:]", "")
-                .replaceAll("\\s+", " ")
-                .trim();
+        String lower = text.toLowerCase();
+        StringBuilder sb = new StringBuilder(lower.length());
+        boolean space = false;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (isPunctuation(c)) continue;
+            if (isSpace(c)) {
+                if (!space) sb.append(' ');
+                space = true;
+            } else {
+                sb.append(c);
+                space = false;
+            }
+        }
+        trim(sb);
+        return sb.toString();
     }
 }
@@ -0,0 +1,293 @@
+package com.ai.chatservice.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bảng chuỗi chỉ đọc, lưu liền 1 khối byte UTF-8:
+ *
+ *   bytes   : "xin" "chào" "bạn" ...      (nối liền, không có dấu phân cách)
+ *   offsets : [0, 3, 8, 12, ...]          chuỗi id nằm ở bytes[offsets[id] .. offsets[id + 1])
+ *   slots   : bảng băm (id + 1, 0 = trống) → tìm id từ chuỗi, không cần HashMap<String,...>
+ *
+ * Cả 3 đều là buffer nên dùng được trên heap hoặc map thẳng từ ModelSnapshot.
+ * find(...) băm trực tiếp từ các ký tự của CharSequence → không cấp phát bộ nhớ.
+ * appendTo(...) chép thẳng byte UTF-8 của 1 chuỗi vào Utf8Buffer, không tạo String.
+ *
+ * Builder: cùng bố cục nhưng nới được, dùng lúc huấn luyện thay cho HashMap<String, Integer>
+ * + List<String> (~20 byte / từ thay vì ~100) và build() không phải mã hoá lại từng từ.
+ */
+public final class StringTable {
+
+    private final IntBuffer offsets;
+    private final ByteBuffer bytes;
+    private final IntBuffer slots; // capacity 0 = không có chỉ mục
+    private final int mask;
+
+    private StringTable(IntBuffer offsets, ByteBuffer bytes, IntBuffer slots) {
+        this.offsets = offsets;
+        this.bytes = bytes;
+        this.slots = slots;
+        this.mask = slots.limit() - 1;
+    }
+
+    /**
+     * Dựng bảng từ danh sách chuỗi (id = vị trí trong list).
+     *
+     * @param indexed true → dựng thêm bảng băm để find(...) được
+     */
+    public static StringTable build(List<String> strings, boolean indexed) {
+        int n = strings.size();
+        byte[][] encoded = new byte[n][];
+        int[] off = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            off[i + 1] = Math.addExact(off[i], encoded[i].length);
+        }
+        byte[] arena = new byte[off[n]];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(encoded[i], 0, arena, off[i], encoded[i].length);
+        }
+
+        return new StringTable(IntBuffer.wrap(off), ByteBuffer.wrap(arena), IntBuffer.wrap(index(off, arena, n, indexed)));
+    }
+
+    // bảng băm (id + 1) cho n chuỗi đầu của arena, dò tuyến tính
+    private static int[] index(int[] off, byte[] arena, int n, boolean indexed) {
+        if (!indexed) return new int[0];
+        int cap = Integer.highestOneBit(Math.max(4, n * 2 - 1)) << 1;
+        int[] table = new int[cap];
+        for (int i = 0; i < n; i++) {
+            int pos = hash(arena, off[i], off[i + 1]) & (cap - 1);
+            while (table[pos] != 0) pos = (pos + 1) & (cap - 1);
+            table[pos] = i + 1;
+        }
+        return table;
+    }
+
+    public static StringTable read(ModelSnapshot snapshot, String prefix) {
+        return new StringTable(
+                snapshot.ints(prefix + ".offsets"),
+                snapshot.bytes(prefix + ".bytes"),
+                snapshot.ints(prefix + ".slots"));
+    }
+
+    public void writeTo(ModelSnapshot.Writer out, String prefix) throws IOException {
+        out.ints(prefix + ".offsets", offsets);
+        out.bytes(prefix + ".bytes", bytes);
+        out.ints(prefix + ".slots", slots);
+    }
+
+    public int size() {
+        return offsets.limit() - 1;
+    }
+
+    /** Tổng số byte UTF-8 của mọi chuỗi. */
+    public int byteSize() {
+        return bytes.limit();
+    }
+
+    /**
+     * id của chuỗi, -1 nếu không có (hoặc bảng không có chỉ mục).
+     */
+    public int find(CharSequence s) {
+        if (mask < 0) return -1;
+        int pos = hash(s) & mask;
+        int v;
+        while ((v = slots.get(pos)) != 0) {
+            int id = v - 1;
+            if (matches(bytes, offsets.get(id), offsets.get(id + 1), s)) return id;
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+
+    /** Số byte UTF-8 của chuỗi id. */
+    public int byteLength(int id) {
+        return offsets.get(id + 1) - offsets.get(id);
+    }
+
+    /** Chép byte UTF-8 của chuỗi id vào cuối out. */
+    public void appendTo(int id, Utf8Buffer out) {
+        int from = offsets.get(id);
+        out.append(bytes, from, offsets.get(id + 1) - from);
+    }
+
+    public String get(int id) {
+        int from = offsets.get(id);
+        int len = offsets.get(id + 1) - from;
+        byte[] tmp = new byte[len];
+        bytes.get(from, tmp, 0, len);
+        return new String(tmp, StandardCharsets.UTF_8);
+    }
+
+    /** Ước lượng byte (heap hoặc vùng map) của bảng. */
+    public long estimatedBytes() {
+        return 4L * offsets.limit() + bytes.limit() + 4L * slots.limit();
+    }
+
+    // ========= Dựng dần =========
+
+    /**
+     * Bảng chuỗi nới được (1 luồng ghi): add(...) trả về id cũ nếu chuỗi đã có,
+     * không thì mã hoá thẳng các ký tự vào cuối arena. Không giữ String nào.
+     */
+    public static final class Builder {
+
+        private byte[] arena = new byte[1024];
+        private ByteBuffer view = ByteBuffer.wrap(arena);
+        private int[] offsets = new int[64];
+        private int[] slots = new int[128];   // id + 1, 0 = trống
+        private int size;
+
+        public int size() {
+            return size;
+        }
+
+        /** id của s, -1 nếu chưa có. */
+        public int find(CharSequence s) {
+            int pos = slot(s);
+            return slots[pos] - 1;
+        }
+
+        /** id của s, thêm mới nếu chưa có. */
+        public int add(CharSequence s) {
+            int pos = slot(s);
+            if (slots[pos] != 0) return slots[pos] - 1;
+
+            int id = size;
+            if (id + 2 > offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            int p = offsets[id];
+            int n = s.length();
+            for (int i = 0; i < n; i++) {
+                int cp = codePointAt(s, i, n);
+                if (Character.isSupplementaryCodePoint(cp)) i++;
+                int len = utf8Length(cp);
+                if (p + len > arena.length) {
+                    arena = Arrays.copyOf(arena, Math.max(arena.length * 2, p + len));
+                    view = ByteBuffer.wrap(arena);
+                }
+                for (int k = 0; k < len; k++) arena[p++] = utf8Byte(cp, len, k);
+            }
+            offsets[id + 1] = p;
+            slots[pos] = id + 1;
+            size++;
+            if (size * 2 > slots.length) {
+                slots = index(offsets, arena, size, true);
+            }
+            return id;
+        }
+
+        public String get(int id) {
+            return new String(arena, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+        }
+
+        public int byteLength(int id) {
+            return offsets[id + 1] - offsets[id];
+        }
+
+        public void appendTo(int id, Utf8Buffer out) {
+            out.append(arena, offsets[id], offsets[id + 1] - offsets[id]);
+        }
+
+        /** Bảng chỉ đọc với đúng các chuỗi hiện có (copy gọn arena, không mã hoá lại). */
+        public StringTable build(boolean indexed) {
+            int[] off = Arrays.copyOf(offsets, size + 1);
+            byte[] bytes = Arrays.copyOf(arena, off[size]);
+            return new StringTable(IntBuffer.wrap(off), ByteBuffer.wrap(bytes), IntBuffer.wrap(index(off, bytes, size, indexed)));
+        }
+
+        public long estimatedBytes() {
+            return arena.length + 4L * offsets.length + 4L * slots.length + 64;
+        }
+
+        // ô của s: ô đang chứa s, hoặc ô trống đầu tiên trên đường dò
+        private int slot(CharSequence s) {
+            int mask = slots.length - 1;
+            int pos = hash(s) & mask;
+            int v;
+            while ((v = slots[pos]) != 0) {
+                if (matches(view, offsets[v - 1], offsets[v], s)) return pos;
+                pos = (pos + 1) & mask;
+            }
+            return pos;
+        }
+    }
+
+    // ========= UTF-8 không cấp phát =========
+
+    /** So sánh bytes[p, end) với s (mã hoá UTF-8 từng ký tự, không tạo byte[]). */
+    private static boolean matches(ByteBuffer bytes, int p, int end, CharSequence s) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            int cp = codePointAt(s, i, n);
+            if (Character.isSupplementaryCodePoint(cp)) i++;
+            int len = utf8Length(cp);
+            if (p + len > end) return false;
+            if (len == 1) {
+                if (bytes.get(p) != (byte) cp) return false;
+            } else {
+                for (int k = 0; k < len; k++) {
+                    if (bytes.get(p + k) != utf8Byte(cp, len, k)) return false;
+                }
+            }
+            p += len;
+        }
+        return p == end;
+    }
+
+    /** FNV-1a trên các byte UTF-8 của s. */
+    static int hash(CharSequence s) {
+        int h = 0x811c9dc5;
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            int cp = codePointAt(s, i, n);
+            if (Character.isSupplementaryCodePoint(cp)) i++;
+            int len = utf8Length(cp);
+            for (int k = 0; k < len; k++) {
+                h = (h ^ (utf8Byte(cp, len, k) & 0xff)) * 0x01000193;
+            }
+        }
+        return h ^ (h >>> 16);
+    }
+
+    static int hash(byte[] utf8, int from, int to) {
+        int h = 0x811c9dc5;
+        for (int i = from; i < to; i++) {
+            h = (h ^ (utf8[i] & 0xff)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    // surrogate lẻ được String.getBytes(UTF_8) đổi thành '?', làm y hệt để băm khớp nhau
+    private static int codePointAt(CharSequence s, int i, int n) {
+        char c = s.charAt(i);
+        if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+            return Character.toCodePoint(c, s.charAt(i + 1));
+        }
+        return Character.isSurrogate(c) ? '?' : c;
+    }
+
+    private static int utf8Length(int cp) {
+        if (cp < 0x80) return 1;
+        if (cp < 0x800) return 2;
+        if (cp < 0x10000) return 3;
+        return 4;
+    }
+
+    private static byte utf8Byte(int cp, int len, int k) {
+        if (len == 1) return (byte) cp;
+        if (k == 0) {
+            return (byte) (switch (len) {
+                case 2 -> 0xC0 | (cp >> 6);
+                case 3 -> 0xE0 | (cp >> 12);
+                default -> 0xF0 | (cp >> 18);
+            });
+        }
+        return (byte) (0x80 | ((cp >> (6 * (len - 1 - k))) & 0x3F));
+    }
+}
@@ -0,0 +1,233 @@
+package com.ai.chatservice.core;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Bộ chọn token tiếp theo, dựng 1 lần cho mọi state khi mô hình được freeze.
+ *
+ * Trong mỗi state, các token đã được TransitionStore sắp theo count giảm dần, nên:
+ * - cumulative[i] = tổng count từ đầu state đến i → tìm nhị phân O(log k),
+ *   top-k / top-p chỉ là cắt bớt phần đuôi của vùng.
+ * - aliasProb[] / aliasIdx[] = bảng alias (Vose) → chọn O(1) khi không cắt bớt.
+ *
+ * Khi temperature != 1 phải tính lại trọng số count^(1/T) nên tốn O(k) (k = số ứng viên
+ * sau top-k), nhưng vẫn không cấp phát bộ nhớ cho mỗi token.
+ *
+ * Các bảng là buffer nên cũng map thẳng được từ ModelSnapshot.
+ */
+public final class TokenSampler {
+
+    private final TransitionStore store;
+    private final IntBuffer cumulative;
+    private final FloatBuffer aliasProb;
+    private final IntBuffer aliasIdx;
+
+    private TokenSampler(TransitionStore store, IntBuffer cumulative, FloatBuffer aliasProb, IntBuffer aliasIdx) {
+        this.store = store;
+        this.cumulative = cumulative;
+        this.aliasProb = aliasProb;
+        this.aliasIdx = aliasIdx;
+    }
+
+    public TokenSampler(TransitionStore store) {
+        store.freeze();
+        this.store = store;
+
+        int n = store.ngramCount();
+        int[] cumulative = new int[n];
+        float[] aliasProb = new float[n];
+        int[] aliasIdx = new int[n];
+
+        int maxFanout = 0;
+        for (int sid = 0; sid < store.stateCount(); sid++) {
+            maxFanout = Math.max(maxFanout, store.end(sid) - store.begin(sid));
+        }
+        // bộ đệm tạm dùng chung khi dựng bảng alias
+        Scratch scratch = new Scratch(maxFanout);
+
+        for (int sid = 0; sid < store.stateCount(); sid++) {
+            int begin = store.begin(sid);
+            int k = store.end(sid) - begin;
+            for (int j = 0; j < k; j++) scratch.counts[j] = store.countAt(begin + j);
+            build(scratch.counts, k, cumulative, aliasProb, aliasIdx, begin, scratch);
+        }
+        this.cumulative = IntBuffer.wrap(cumulative);
+        this.aliasProb = FloatBuffer.wrap(aliasProb);
+        this.aliasIdx = IntBuffer.wrap(aliasIdx);
+    }
+
+    public void writeTo(ModelSnapshot.Writer out, String prefix) throws IOException {
+        out.ints(prefix + ".cumulative", cumulative);
+        out.floats(prefix + ".aliasProb", aliasProb);
+        out.ints(prefix + ".aliasIdx", aliasIdx);
+    }
+
+    /** Đọc bảng chọn mẫu đã dựng sẵn từ snapshot (không dựng lại). */
+    public static TokenSampler read(TransitionStore store, ModelSnapshot snapshot, String prefix) {
+        return new TokenSampler(store,
+                snapshot.ints(prefix + ".cumulative"),
+                snapshot.floats(prefix + ".aliasProb"),
+                snapshot.ints(prefix + ".aliasIdx"));
+    }
+
+    /** Bộ đệm tạm khi dựng bảng của 1 state có tối đa capacity token kế tiếp. */
+    static final class Scratch {
+        int[] counts;
+        double[] scaled;
+        int[] small;
+        int[] large;
+
+        Scratch(int capacity) {
+            ensure(capacity);
+        }
+
+        void ensure(int capacity) {
+            if (counts != null && counts.length >= capacity) return;
+            int n = Math.max(16, capacity);
+            counts = counts == null ? new int[n] : Arrays.copyOf(counts, n);
+            scaled = new double[n];
+            small = new int[n];
+            large = new int[n];
+        }
+    }
+
+    /**
+     * Dựng cumulative + bảng alias cho 1 state có counts[0, k) (đã sắp giảm dần),
+     * ghi vào các mảng đích từ vị trí out. Dùng chung cho freeze và OutOfCoreTrainer.
+     */
+    static void build(int[] counts, int k, int[] cumulative, float[] aliasProb, int[] aliasIdx, int out,
+                      Scratch scratch) {
+        long sum = 0;
+        for (int j = 0; j < k; j++) {
+            sum += counts[j];
+            if (sum > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Tổng count của 1 state vượt quá int");
+            }
+            cumulative[out + j] = (int) sum;
+        }
+        buildAlias(counts, k, sum, aliasProb, aliasIdx, out, scratch);
+    }
+
+    /** Dựng bảng alias cho counts[0, k) theo thuật toán Vose. */
+    private static void buildAlias(int[] counts, int k, long total, float[] aliasProb, int[] aliasIdx, int out,
+                                   Scratch scratch) {
+        if (k == 0) return;
+        double[] scaled = scratch.scaled;
+        int[] small = scratch.small;
+        int[] large = scratch.large;
+        int ns = 0, nl = 0;
+        for (int j = 0; j < k; j++) {
+            scaled[j] = (double) counts[j] * k / total;
+            if (scaled[j] < 1.0) small[ns++] = j;
+            else large[nl++] = j;
+        }
+        while (ns > 0 && nl > 0) {
+            int s = small[--ns];
+            int l = large[--nl];
+            aliasProb[out + s] = (float) scaled[s];
+            aliasIdx[out + s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+            if (scaled[l] < 1.0) small[ns++] = l;
+            else large[nl++] = l;
+        }
+        while (nl > 0) {
+            int l = large[--nl];
+            aliasProb[out + l] = 1.0f;
+            aliasIdx[out + l] = l;
+        }
+        while (ns > 0) { // chỉ còn do sai số làm tròn
+            int s = small[--ns];
+            aliasProb[out + s] = 1.0f;
+            aliasIdx[out + s] = s;
+        }
+    }
+
+    /**
+     * Chọn token tiếp theo cho state sid. Trả về -1 nếu state không có token nào.
+     */
+    public int sample(int sid, Random random, DecodingOptions options) {
+        int begin = store.begin(sid);
+        int end = store.end(sid);
+        int k = end - begin;
+        if (k == 0) return -1;
+
+        if (options.strategy() == DecodingOptions.Strategy.GREEDY || options.temperature() == 0) {
+            return store.tokenAt(begin);
+        }
+
+        if (options.temperature() != 1.0) {
+            return sampleTempered(begin, end, random, options);
+        }
+
+        int limit = k;
+        if (options.topK() > 0) limit = Math.min(limit, options.topK());
+        if (options.topP() < 1.0) {
+            long threshold = (long) Math.ceil(options.topP() * cumulative.get(end - 1));
+            limit = Math.min(limit, firstAtLeast(begin, end, threshold) - begin + 1);
+        }
+
+        if (limit == k && options.strategy() == DecodingOptions.Strategy.ALIAS) {
+            int j = random.nextInt(k);
+            int pick = random.nextFloat() < aliasProb.get(begin + j) ? j : aliasIdx.get(begin + j);
+            return store.tokenAt(begin + pick);
+        }
+
+        int r = random.nextInt(cumulative.get(begin + limit - 1));
+        return store.tokenAt(firstAtLeast(begin, begin + limit, r + 1L));
+    }
+
+    /**
+     * temperature != 1: trọng số (count / countMax)^(1/T), áp top-k rồi top-p trên phân phối đã đổi.
+     * Vì vùng đã sắp giảm dần nên thứ tự không đổi, chỉ cần vài vòng lặp tuyến tính.
+     */
+    private int sampleTempered(int begin, int end, Random random, DecodingOptions options) {
+        double invT = 1.0 / options.temperature();
+        double max = store.countAt(begin);
+        int limitEnd = options.topK() > 0 ? Math.min(end, begin + options.topK()) : end;
+
+        double sum = 0;
+        for (int i = begin; i < limitEnd; i++) {
+            sum += Math.pow(store.countAt(i) / max, invT);
+        }
+        if (options.topP() < 1.0) {
+            double target = options.topP() * sum;
+            double acc = 0;
+            int i = begin;
+            while (i < limitEnd) {
+                acc += Math.pow(store.countAt(i) / max, invT);
+                i++;
+                if (acc >= target) break;
+            }
+            limitEnd = i;
+            sum = acc;
+        }
+
+        double r = random.nextDouble() * sum;
+        double acc = 0;
+        for (int i = begin; i < limitEnd; i++) {
+            acc += Math.pow(store.countAt(i) / max, invT);
+            if (r < acc) return store.tokenAt(i);
+        }
+        return store.tokenAt(limitEnd - 1);
+    }
+
+    /** Vị trí đầu tiên trong [from, to) có cumulative >= value (giả sử tồn tại). */
+    private int firstAtLeast(int from, int to, long value) {
+        int lo = from, hi = to - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative.get(mid) >= value) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo;
+    }
+
+    /** Ước lượng số byte (heap hoặc vùng map) của các bảng chọn mẫu. */
+    public long estimatedBytes() {
+        return 12L * cumulative.limit();
+    }
+}
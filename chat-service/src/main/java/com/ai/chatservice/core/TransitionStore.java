@@ -0,0 +1,428 @@
+package com.ai.chatservice.core;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Kho lưu thống kê chuyển trạng thái của Markov n-gram mọi bậc 1..order trong 1 cây (trie) ngữ cảnh,
+ * chỉ dùng kiểu nguyên thuỷ.
+ *
+ * Mỗi nút (state, sid) là 1 ngữ cảnh, đi từ gốc theo token gần nhất rồi lùi dần về trước:
+ *
+ *   gốc (sid 0, ngữ cảnh rỗng) ─"đẹp"─► [đẹp] ─"trời"─► [trời đẹp] ─"nay"─► [nay trời đẹp]
+ *
+ * → ngữ cảnh bậc d+1 dùng chung đường đi với ngữ cảnh bậc d (hậu tố của nó), mỗi nút chỉ lưu
+ *   1 cạnh: key = (sid cha << 32) | token. Tra ngữ cảnh dài nhất = 1 lượt đi từ gốc xuống
+ *   (child(...)), dừng ở nút sâu nhất có → "stupid backoff" trong 1 lần duyệt, xem MarkovChatEngine.
+ * Mỗi nút (trừ gốc) có danh sách token kế tiếp + số lần gặp; END = hết câu (cuối đơn vị huấn luyện).
+ *
+ * Hai giai đoạn:
+ * 1) Huấn luyện (mutable):
+ *      edgeKey → sid               (LongIntHashMap)
+ *      (sid << 32 | next) → count  (LongIntHashMap)
+ * 2) freeze(): đổi sang dạng CSR phẳng, chỉ đọc:
+ *      index (bảng băm edgeKey → sid + 1)
+ *      offsets[sid] .. offsets[sid + 1]  → vùng của state trong
+ *      nextTokens[] / counts[]           (mảng song song, sắp theo count giảm dần,
+ *                                         cùng count thì theo token id → kết quả ổn định)
+ *    Các mảng frozen đều là buffer: trên heap (IntBuffer.wrap) hoặc map thẳng từ ModelSnapshot.
+ *
+ * Gọi node(...) / add(...) sau khi đã freeze thì kho tự "thaw" về dạng mutable.
+ */
+public final class TransitionStore {
+
+    /** Nút gốc (ngữ cảnh rỗng); không có token kế tiếp. */
+    public static final int ROOT = 0;
+
+    /** Token kế tiếp đặc biệt: hết câu. */
+    public static final int END = -1;
+
+    private static final long ROOT_KEY = -1L;
+
+    private final int order;
+
+    // ---- giai đoạn huấn luyện ----
+    private LongIntHashMap stateIds = new LongIntHashMap();   // edgeKey → sid
+    private long[] mutableStateKeys = new long[16];
+    private LongIntHashMap pairCounts = new LongIntHashMap();
+    private int stateCount;
+
+    // ---- giai đoạn frozen (CSR) ----
+    private boolean frozen;
+    private LongBuffer indexKeys;
+    private IntBuffer indexSids;   // sid + 1, 0 = ô trống
+    private int indexMask;
+    private LongBuffer stateKeys;
+    private IntBuffer offsets;
+    private IntBuffer nextTokens;
+    private IntBuffer counts;
+
+    // thống kê bộ nhớ ngay trước khi freeze (để so sánh)
+    private long mutableBytesAtFreeze;
+
+    public TransitionStore(int order) {
+        this.order = Math.max(1, order);
+        mutableStateKeys[ROOT] = ROOT_KEY;
+        stateCount = 1;
+    }
+
+    public int order() {
+        return order;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /** Số nút của cây, gồm cả gốc. */
+    public int stateCount() {
+        return stateCount;
+    }
+
+    /** Số n-gram khác nhau (state, next). */
+    public int ngramCount() {
+        return frozen ? nextTokens.limit() : pairCounts.size();
+    }
+
+    // ========= Cạnh của cây =========
+
+    /** Key của cạnh từ nút parent theo token (token = token cũ nhất của ngữ cảnh con). */
+    public static long edgeKey(int parent, int token) {
+        return ((long) parent << 32) | (token & 0xffffffffL);
+    }
+
+    /** Nút cha của sid (-1 với gốc). */
+    public int parentOf(int sid) {
+        return sid == ROOT ? -1 : (int) (keyOf(sid) >>> 32);
+    }
+
+    /** Token trên cạnh dẫn vào sid, tức token cũ nhất của ngữ cảnh. */
+    public int tokenOf(int sid) {
+        return (int) keyOf(sid);
+    }
+
+    private long keyOf(int sid) {
+        return frozen ? stateKeys.get(sid) : mutableStateKeys[sid];
+    }
+
+    /**
+     * Ghi ngữ cảnh của sid (cũ → mới) vào window, trả về độ dài (= bậc của nút, 0 với gốc).
+     * window cần dài ít nhất order.
+     */
+    public int context(int sid, int[] window) {
+        int length = 0;
+        for (int n = sid; n != ROOT; n = parentOf(n)) {
+            window[length++] = tokenOf(n);
+        }
+        return length;
+    }
+
+        // ========= Huấn luyện =========
+
+    /** Nút con của parent theo token, tạo mới nếu chưa có. */
+    public int node(int parent, int token) {
+        if (frozen) thaw();
+        return stateId(edgeKey(parent, token));
+    }
+
+    /** Tăng đếm cho (state → next). */
+    public void add(int sid, int next, int delta) {
+        if (frozen) thaw();
+        pairCounts.addTo(((long) sid << 32) | (next & 0xffffffffL), delta);
+    }
+
+    /**
+     * Cộng toàn bộ đếm của other (chưa freeze, cùng order) vào kho này.
+     * State mới của other được thêm theo đúng thứ tự sid của other → gộp các shard
+     * theo thứ tự chunk cho ra đúng thứ tự sid như khi huấn luyện tuần tự.
+     * Nút cha luôn có sid nhỏ hơn nút con nên sidMap của cha đã có khi gặp con.
+     */
+    public void mergeFrom(TransitionStore other) {
+        if (other.order != order) {
+            throw new IllegalArgumentException("Khác order: " + other.order + " != " + order);
+        }
+        if (other.frozen) other.thaw();
+        if (frozen) thaw();
+
+        int[] sidMap = new int[other.stateCount];
+        for (int s = 1; s < other.stateCount; s++) {
+            long k = other.mutableStateKeys[s];
+            sidMap[s] = stateId(edgeKey(sidMap[(int) (k >>> 32)], (int) k));
+        }
+        LongIntHashMap pairs = other.pairCounts;
+        for (int s = pairs.nextSlot(-1); s >= 0; s = pairs.nextSlot(s)) {
+            long k = pairs.keyAt(s);
+            int sid = sidMap[(int) (k >>> 32)];
+            pairCounts.addTo(((long) sid << 32) | (k & 0xffffffffL), pairs.valueAt(s));
+        }
+    }
+
+    private int stateId(long stateKey) {
+        int sid = stateIds.get(stateKey, -1);
+        if (sid < 0) {
+            sid = stateCount++;
+            stateIds.put(stateKey, sid);
+            if (sid == mutableStateKeys.length) {
+                mutableStateKeys = Arrays.copyOf(mutableStateKeys, Math.max(16, sid * 2));
+            }
+            mutableStateKeys[sid] = stateKey;
+        }
+        return sid;
+    }
+
+    /**
+     * Chuyển sang dạng CSR chỉ đọc. Gọi nhiều lần không sao.
+     */
+    public void freeze() {
+        if (frozen) return;
+        mutableBytesAtFreeze = estimatedBytes();
+
+        int n = pairCounts.size();
+        int[] off = new int[stateCount + 1];
+        for (int s = pairCounts.nextSlot(-1); s >= 0; s = pairCounts.nextSlot(s)) {
+            off[(int) (pairCounts.keyAt(s) >>> 32) + 1]++;
+        }
+        for (int i = 0; i < stateCount; i++) off[i + 1] += off[i];
+
+        // gom (count, next) của từng state vào đúng vùng, rồi sắp count giảm dần
+        long[] packed = new long[n];
+        int[] fill = Arrays.copyOf(off, stateCount);
+        for (int s = pairCounts.nextSlot(-1); s >= 0; s = pairCounts.nextSlot(s)) {
+            long k = pairCounts.keyAt(s);
+            int sid = (int) (k >>> 32);
+            long inverted = Integer.MAX_VALUE - pairCounts.valueAt(s);
+            packed[fill[sid]++] = (inverted << 32) | (k & 0xffffffffL);
+        }
+        int[] next = new int[n];
+        int[] cnt = new int[n];
+        for (int sid = 0; sid < stateCount; sid++) {
+            Arrays.sort(packed, off[sid], off[sid + 1]);
+        }
+        for (int i = 0; i < n; i++) {
+            next[i] = (int) packed[i];
+            cnt[i] = Integer.MAX_VALUE - (int) (packed[i] >>> 32);
+        }
+
+        // bảng băm chỉ đọc edgeKey → sid + 1 (dò tuyến tính, giống LongIntHashMap)
+        long[] keys = Arrays.copyOf(mutableStateKeys, stateCount);
+        int cap = Integer.highestOneBit(Math.max(4, stateCount * 2 - 1)) << 1;
+        long[] slotKeys = new long[cap];
+        int[] slotSids = new int[cap];
+        for (int sid = 1; sid < stateCount; sid++) {
+            int pos = (int) LongIntHashMap.mix(keys[sid]) & (cap - 1);
+            while (slotSids[pos] != 0) pos = (pos + 1) & (cap - 1);
+            slotKeys[pos] = keys[sid];
+            slotSids[pos] = sid + 1;
+        }
+
+        setFrozen(LongBuffer.wrap(slotKeys), IntBuffer.wrap(slotSids), LongBuffer.wrap(keys),
+                IntBuffer.wrap(off), IntBuffer.wrap(next), IntBuffer.wrap(cnt));
+    }
+
+    private void setFrozen(LongBuffer indexKeys, IntBuffer indexSids, LongBuffer stateKeys,
+                           IntBuffer offsets, IntBuffer nextTokens, IntBuffer counts) {
+        this.indexKeys = indexKeys;
+        this.indexSids = indexSids;
+        this.indexMask = indexSids.limit() - 1;
+        this.stateKeys = stateKeys;
+        this.offsets = offsets;
+        this.nextTokens = nextTokens;
+        this.counts = counts;
+        this.stateCount = offsets.limit() - 1;
+        this.stateIds = null;
+        this.mutableStateKeys = null;
+        this.pairCounts = null;
+        this.frozen = true;
+    }
+
+    /** Quay lại dạng mutable để huấn luyện tiếp (copy từ buffer lên heap). */
+    private void thaw() {
+        LongIntHashMap ids = new LongIntHashMap(stateCount);
+        long[] keys = new long[Math.max(16, stateCount)];
+        LongIntHashMap pairs = new LongIntHashMap(nextTokens.limit());
+        for (int sid = 0; sid < stateCount; sid++) {
+            keys[sid] = stateKeys.get(sid);
+            if (sid != ROOT) ids.put(keys[sid], sid);
+            for (int i = offsets.get(sid); i < offsets.get(sid + 1); i++) {
+                pairs.put(((long) sid << 32) | (nextTokens.get(i) & 0xffffffffL), counts.get(i));
+            }
+        }
+        stateIds = ids;
+        mutableStateKeys = keys;
+        pairCounts = pairs;
+        indexKeys = null;
+        indexSids = null;
+        stateKeys = null;
+        offsets = null;
+        nextTokens = null;
+        counts = null;
+        frozen = false;
+    }
+
+    // ========= Snapshot =========
+
+    public void writeTo(ModelSnapshot.Writer out, String prefix) throws IOException {
+        freeze();
+        out.ints(prefix + ".order", new int[]{order}, 1);
+        out.longs(prefix + ".indexKeys", indexKeys);
+        out.ints(prefix + ".indexSids", indexSids);
+        out.longs(prefix + ".stateKeys", stateKeys);
+        out.ints(prefix + ".offsets", offsets);
+        out.ints(prefix + ".next", nextTokens);
+        out.ints(prefix + ".counts", counts);
+    }
+
+    /** Dựng kho frozen đọc thẳng từ các block đã map (không copy lên heap). */
+    public static TransitionStore read(ModelSnapshot snapshot, String prefix) {
+        TransitionStore store = new TransitionStore(snapshot.intValue(prefix + ".order", 0));
+        store.setFrozen(
+                snapshot.longs(prefix + ".indexKeys"),
+                snapshot.ints(prefix + ".indexSids"),
+                snapshot.longs(prefix + ".stateKeys"),
+                snapshot.ints(prefix + ".offsets"),
+                snapshot.ints(prefix + ".next"),
+                snapshot.ints(prefix + ".counts"));
+        return store;
+    }
+
+    // ========= Đọc (chỉ dùng khi đã freeze) =========
+
+    /** Nút con của parent theo token, -1 nếu ngữ cảnh đó chưa gặp. */
+    public int child(int parent, int token) {
+        long key = edgeKey(parent, token);
+        if (!frozen) return stateIds.get(key, -1);
+        int pos = (int) LongIntHashMap.mix(key) & indexMask;
+        int v;
+        while ((v = indexSids.get(pos)) != 0) {
+            if (indexKeys.get(pos) == key) return v - 1;
+            pos = (pos + 1) & indexMask;
+        }
+        return -1;
+    }
+
+    /** Nút của ngữ cảnh window[from, to) (cũ → mới), -1 nếu chưa gặp. */
+    public int find(int[] window, int from, int to) {
+        int sid = ROOT;
+        for (int i = to - 1; i >= from && sid >= 0; i--) {
+            sid = child(sid, window[i]);
+        }
+        return sid;
+    }
+
+    public int begin(int sid) {
+        return offsets.get(sid);
+    }
+
+    public int end(int sid) {
+        return offsets.get(sid + 1);
+    }
+
+    public int tokenAt(int i) {
+        return nextTokens.get(i);
+    }
+
+    public int countAt(int i) {
+        return counts.get(i);
+    }
+
+    /**
+     * Chọn ngẫu nhiên 1 ngữ cảnh (không phải gốc) và điền vào window, trả về độ dài (0 nếu cây rỗng).
+     */
+    public int randomContext(Random random, int[] window) {
+        if (stateCount <= 1) return 0;
+        return context(1 + random.nextInt(stateCount - 1), window);
+    }
+
+    // ========= Báo cáo bộ nhớ =========
+
+    /** Ước lượng số byte (heap hoặc vùng map) của dạng hiện tại. */
+    public long estimatedBytes() {
+        if (frozen) {
+            return 8L * indexKeys.limit() + 4L * indexSids.limit() + 8L * stateKeys.limit()
+                    + 4L * offsets.limit() + 4L * nextTokens.limit() + 4L * counts.limit();
+        }
+        return stateIds.estimatedBytes() + 16L + 8L * mutableStateKeys.length + pairCounts.estimatedBytes();
+    }
+
+    /**
+     * Ước lượng bộ nhớ của cách lưu cũ Map<String, Map<Integer,Integer>> chỉ 1 bậc
+     * (JVM 64-bit, compressed oops, compact strings): chỉ các ngữ cảnh đủ order token, không có END.
+     */
+    public long estimatedLegacyBytes() {
+        freeze();
+        int[] window = new int[order];
+        int states = 0;
+        long bytes = 0;
+        for (int sid = 1; sid < stateCount; sid++) {
+            if (context(sid, window) != order) continue;
+            int chars = order - 1;                             // dấu ','
+            for (int t : window) chars += digits(t);
+            int fanout = 0;
+            for (int i = begin(sid); i < end(sid); i++) {
+                if (tokenAt(i) == END) continue;
+                fanout++;
+                bytes += 32;                                   // HashMap.Node
+                if (tokenAt(i) > 127) bytes += 16;             // Integer key
+                if (countAt(i) > 127) bytes += 16;             // Integer value
+            }
+            if (fanout == 0) continue;
+            states++;
+            bytes += 24 + align(16 + chars);                  // String + byte[]
+            bytes += 32;                                       // HashMap.Node
+            bytes += 48 + 16 + 4L * tableSize(fanout);         // HashMap trong
+        }
+        return bytes + 48 + 16 + 4L * tableSize(states);      // HashMap ngoài
+    }
+
+    public MemoryReport memoryReport() {
+        long legacy = estimatedLegacyBytes(); // đã freeze bên trong
+        return new MemoryReport(ngramCount(), stateCount, legacy, mutableBytesAtFreeze, estimatedBytes());
+    }
+
+    /**
+     * So sánh bộ nhớ: cách cũ (String key + HashMap lồng nhau, chỉ bậc order),
+     * bảng băm nguyên thuỷ khi huấn luyện, và cây CSR mọi bậc 1..order sau khi freeze.
+     */
+    public record MemoryReport(long ngrams, long states,
+                               long legacyBytes, long mutableBytes, long frozenBytes) {
+
+        public double bytesPerNgram(long bytes) {
+            return ngrams == 0 ? 0 : (double) bytes / ngrams;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "n-grams=%d, states=%d | legacy HashMap<String,...>: %d B (%.1f B/n-gram)"
+                            + " | primitive mutable: %d B (%.1f B/n-gram)"
+                            + " | frozen trie: %d B (%.1f B/n-gram)",
+                    ngrams, states,
+                    legacyBytes, bytesPerNgram(legacyBytes),
+                    mutableBytes, bytesPerNgram(mutableBytes),
+                    frozenBytes, bytesPerNgram(frozenBytes));
+        }
+    }
+
+    private static int tableSize(int entries) {
+        int needed = (int) Math.ceil(entries / 0.75);
+        int cap = 16;
+        while (cap < needed) cap <<= 1;
+        return cap;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static int digits(int v) {
+        int d = 1;
+        while (v >= 10) {
+            v /= 10;
+            d++;
+        }
+        return d;
+    }
+}
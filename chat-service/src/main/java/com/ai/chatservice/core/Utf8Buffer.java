@@ -0,0 +1,73 @@
+package com.ai.chatservice.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Bộ đệm byte UTF-8 dùng lại được: SimpleTokenizer.decodeTo(...) chép thẳng byte của từng từ
+ * từ StringTable vào đây, rồi đổi 1 lần thành String.
+ *
+ * Chưa có đường ghi byte thẳng ra response: câu trả lời vẫn là 1 String mỗi lượt (cache, chat_log,
+ * ngữ cảnh session đều giữ String), streaming vẫn là 1 String mỗi từ.
+ *
+ * Không thread-safe: mỗi luồng / request giữ 1 bộ đệm riêng, reset() trước khi dùng lại.
+ */
+public final class Utf8Buffer {
+
+    private byte[] bytes;
+    private int length;
+
+    public Utf8Buffer() {
+        this(256);
+    }
+
+    public Utf8Buffer(int capacity) {
+        this.bytes = new byte[Math.max(16, capacity)];
+    }
+
+    public void reset() {
+        length = 0;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /** Mảng bên dưới; chỉ [0, length()) là dữ liệu. */
+    public byte[] array() {
+        return bytes;
+    }
+
+    public Utf8Buffer append(byte b) {
+        ensure(1);
+        bytes[length++] = b;
+        return this;
+    }
+
+    public Utf8Buffer append(byte[] src, int from, int count) {
+        ensure(count);
+        System.arraycopy(src, from, bytes, length, count);
+        length += count;
+        return this;
+    }
+
+    /** Chép src[from, from + count) (đọc tuyệt đối, không đổi position của src). */
+    public Utf8Buffer append(ByteBuffer src, int from, int count) {
+        ensure(count);
+        src.get(from, bytes, length, count);
+        length += count;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.ai.chatservice.kafka;
+
+import com.ai.chatservice.service.KafkaChatClient;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Nhận trả lời của AI Engine trên topic chat-response và trả về đúng request đang chờ
+ * (theo correlationId trong ChatEnvelope, xem KafkaChatClient).
+ *
+ * Mỗi instance chat-service 1 groupId riêng (mặc định có ${random.uuid}) để nhận mọi trả lời;
+ * trả lời cho instance khác không khớp request nào nên bị bỏ qua.
+ * Message không có value (tombstone, deserializer trả null) cũng bị bỏ qua, đếm là unmatched.
+ */
+@Component
+public class ChatResponseListener {
+
+    private final KafkaChatClient client;
+
+    public ChatResponseListener(KafkaChatClient client) {
+        this.client = client;
+    }
+
+    @KafkaListener(topics = "${chat.kafka.reply-topic:chat-response}",
+            groupId = "${chat.kafka.reply-group-id:chat-replies}",
+            properties = "value.deserializer=com.ai.chatservice.kafka.ChatEnvelopeDeserializer")
+    public void onReply(ConsumerRecord<String, ChatEnvelope> record) {
+        ChatEnvelope reply = record.value();
+        if (reply == null) {
+            client.complete(null, null);
+            return;
+        }
+        client.complete(reply.correlationId(), reply.text());
+    }
+}
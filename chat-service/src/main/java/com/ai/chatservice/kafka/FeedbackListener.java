@@ -0,0 +1,92 @@
+package com.ai.chatservice.kafka;
+
+import com.ai.chatservice.core.ConversationStreamLoader;
+import com.ai.chatservice.service.ModelHolder;
+import com.ai.chatservice.service.OnlineLearner;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Nhận các cặp hỏi–đáp đã được chấp nhận từ topic feedback để học thêm online.
+ *
+ * Mỗi message có cùng định dạng với 1 dòng conversations.jsonl:
+ *   {"messages":[{"role":"user","content":"..."},{"role":"assistant","content":"..."}]}
+ *
+ * Listener chạy kiểu batch: mỗi lần poll (tối đa chat.learning.max-batch message) là 1 micro-batch.
+ * Mỗi instance chat-service giữ model riêng nên cần groupId riêng (mặc định có ${random.uuid})
+ * để instance nào cũng nhận đủ feedback.
+ *
+ * Container không tự chạy lúc khởi động: chỉ bắt đầu poll khi model đầu tiên đã nạp xong (ModelHolder báo
+ * ACCEPTING_TRAFFIC) → feedback đến trong lúc huấn luyện ban đầu nằm chờ trong Kafka thay vì bị thử lại
+ * vài lần rồi bỏ.
+ */
+@Component
+public class FeedbackListener {
+
+    private static final Logger log = LoggerFactory.getLogger(FeedbackListener.class);
+
+    static final String LISTENER_ID = "chat-feedback";
+
+    private final OnlineLearner learner;
+    private final ModelHolder models;
+    private final KafkaListenerEndpointRegistry registry;
+    private final boolean enabled;
+
+    public FeedbackListener(OnlineLearner learner,
+                            ModelHolder models,
+                            KafkaListenerEndpointRegistry registry,
+                            @Value("${chat.learning.enabled:false}") boolean enabled) {
+        this.learner = learner;
+        this.models = models;
+        this.registry = registry;
+        this.enabled = enabled;
+    }
+
+    /** Model đầu tiên sẵn sàng → bắt đầu nhận feedback (các lần báo sau không làm gì). */
+    @EventListener
+    public void onReadinessChange(AvailabilityChangeEvent<ReadinessState> event) {
+        if (!enabled || event.getState() != ReadinessState.ACCEPTING_TRAFFIC || !models.isReady()) return;
+        MessageListenerContainer container = registry.getListenerContainer(LISTENER_ID);
+        if (container != null && !container.isRunning()) {
+            container.start();
+            log.info("FeedbackListener: model ready, online learning started");
+        }
+    }
+
+    @KafkaListener(id = LISTENER_ID,
+            topics = "${chat.learning.topic:chat-feedback}",
+            groupId = "${chat.learning.group-id:chat-learning}",
+            autoStartup = "false",
+            batch = "true",
+            properties = "max.poll.records=${chat.learning.max-batch:500}")
+    public void onFeedback(List<ConsumerRecord<String, String>> records) {
+        List<ConversationStreamLoader.Pair> pairs = new ArrayList<>(records.size());
+        long oldest = System.currentTimeMillis();
+        int invalid = 0;
+
+        for (ConsumerRecord<String, String> record : records) {
+            try {
+                pairs.addAll(ConversationStreamLoader.parse(record.value()));
+                oldest = Math.min(oldest, record.timestamp());
+            } catch (IOException | RuntimeException e) {
+                invalid++;
+                log.debug("Bỏ qua feedback không hợp lệ (offset {}): {}", record.offset(), e.getMessage());
+            }
+        }
+
+        learner.apply(pairs, oldest, invalid);
+    }
+}
@@ -0,0 +1,269 @@
+package com.ai.chatservice.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Giới hạn số request chạy đồng thời, giới hạn tự chỉnh theo độ trễ đo được (AIMD):
+ * - request xong trong targetLatency và giới hạn đang được dùng (≥ 1/2) → limit += 1/limit
+ *   (≈ +1 sau mỗi "vòng" limit request)
+ * - request chậm hơn targetLatency hoặc bị hỏng (timeout...) → limit *= BACKOFF, tối đa 1 lần cho
+ *   các request bắt đầu trước lần giảm trước (cả loạt request chậm của cùng 1 đợt nghẽn chỉ giảm 1 lần)
+ * limit nằm trong [1, maxLimit].
+ *
+ * Hết chỗ → request chờ trong hàng đợi của lane mình (tối đa queueSize, tối đa maxWait):
+ * - hàng đợi đầy → OverloadedException QUEUE_FULL ngay (không tốn luồng chờ)
+ * - chờ quá maxWait (hoặc quá hạn của request) → OverloadedException TIMEOUT
+ * Lane ưu tiên: CHEAP (câu đã có sẵn: cache, trùng câu đã học) được vào trước GENERATE (retrieval + Markov),
+ * và phần reserve của limit chỉ dành cho CHEAP → câu trả lời rẻ không bị các request sinh câu dài chặn hết chỗ.
+ *
+ * Mọi trạng thái dưới 1 ReentrantLock (virtual thread chờ không giữ chặt luồng mang);
+ * khoá chỉ giữ vài phép so sánh nên không thành điểm nghẽn ở vài chục nghìn request/giây.
+ */
+public class AdaptiveLimiter {
+
+    /** Lane theo độ ưu tiên giảm dần. */
+    public enum Lane { CHEAP, GENERATE }
+
+    static final double BACKOFF = 0.9;
+    private static final double EWMA_WEIGHT = 0.1;
+    private static final Lane[] LANES = Lane.values();
+
+    private final String name;
+    private final int maxLimit;
+    private final long targetNanos;
+    private final int queueSize;
+    private final long maxWaitNanos;
+    private final double reserve;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition[] ready = new Condition[LANES.length];
+    private final int[] waiting = new int[LANES.length];
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+    private double latencyNanos;   // EWMA, cho Retry-After
+
+    private final LongAdder[] admitted = adders();
+    private final LongAdder[] queueFull = adders();
+    private final LongAdder[] timedOut = adders();
+
+    /**
+     * @param reserve phần của limit chỉ lane CHEAP được dùng (0..1)
+     */
+    public AdaptiveLimiter(String name, int initialLimit, int maxLimit, Duration targetLatency,
+                           int queueSize, Duration maxWait, double reserve) {
+        this.name = name;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        this.targetNanos = targetLatency.toNanos();
+        this.queueSize = Math.max(0, queueSize);
+        this.maxWaitNanos = Math.max(0, maxWait.toNanos());
+        this.reserve = Math.max(0, Math.min(1, reserve));
+        this.latencyNanos = targetNanos;
+        this.lastDecrease = System.nanoTime();
+        for (Lane lane : LANES) ready[lane.ordinal()] = lock.newCondition();
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] a = new LongAdder[LANES.length];
+        for (int i = 0; i < a.length; i++) a[i] = new LongAdder();
+        return a;
+    }
+
+    /** Như acquire(lane, deadline) không có hạn riêng của request. */
+    public Permit acquire(Lane lane) {
+        return acquire(lane, Long.MAX_VALUE);
+    }
+
+    /**
+     * Lấy 1 chỗ, chờ tối đa maxWait nhưng không quá deadlineNanos (System.nanoTime(), Long.MAX_VALUE = không có).
+     * Permit phải được trả (close / release) đúng 1 lần khi request xong.
+     *
+     * @throws OverloadedException hàng đợi đầy hoặc chờ quá lâu
+     */
+    public Permit acquire(Lane lane, long deadlineNanos) {
+        int l = lane.ordinal();
+        lock.lock();
+        try {
+            // có người đang chờ cùng lane → xếp hàng sau họ, không chen ngang
+            if (waiting[l] == 0 && canRun(lane)) return admit(lane);
+
+            long now = System.nanoTime();
+            long wait = deadlineNanos == Long.MAX_VALUE ? maxWaitNanos : Math.min(maxWaitNanos, deadlineNanos - now);
+            if (waiting[l] >= queueSize || wait <= 0) {
+                queueFull[l].increment();
+                throw overloaded(OverloadedException.Reason.QUEUE_FULL);
+            }
+            waiting[l]++;
+            boolean ok = false;
+            try {
+                while (!canRun(lane)) {
+                    if (wait <= 0) {
+                        timedOut[l].increment();
+                        throw overloaded(OverloadedException.Reason.TIMEOUT);
+                    }
+                    wait = ready[l].awaitNanos(wait);
+                }
+                ok = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                timedOut[l].increment();
+                throw overloaded(OverloadedException.Reason.TIMEOUT);
+            } finally {
+                waiting[l]--;
+                if (!ok) signalNext();   // lane thấp hơn có thể đang chờ mình rời hàng
+            }
+            Permit permit = admit(lane);
+            signalNext();
+            return permit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // gọi khi đang giữ lock
+    private boolean canRun(Lane lane) {
+        for (int i = 0; i < lane.ordinal(); i++) {
+            if (waiting[i] > 0) return false;   // lane ưu tiên hơn đang chờ
+        }
+        return inFlight < capacity(lane);
+    }
+
+    private int capacity(Lane lane) {
+        int total = (int) limit;
+        if (lane == Lane.CHEAP) return total;
+        return Math.max(1, (int) (total * (1 - reserve)));
+    }
+
+    private Permit admit(Lane lane) {
+        inFlight++;
+        admitted[lane.ordinal()].increment();
+        return new Permit(System.nanoTime());
+    }
+
+    // đánh thức 1 request của lane ưu tiên nhất còn chỗ (nó tự kiểm tra lại, rồi gọi tiếp signalNext)
+    private void signalNext() {
+        for (Lane lane : LANES) {
+            int l = lane.ordinal();
+            if (waiting[l] > 0) {
+                if (inFlight < capacity(lane)) ready[l].signal();
+                return;
+            }
+        }
+    }
+
+    private OverloadedException overloaded(OverloadedException.Reason reason) {
+        // ước lượng thời gian để hàng đợi hiện tại chạy hết, làm tròn lên giây
+        int queued = 0;
+        for (int w : waiting) queued += w;
+        double seconds = latencyNanos * (queued + 1) / limit / 1e9;
+        long retryAfter = Math.max(1, Math.min(60, (long) Math.ceil(seconds)));
+        return new OverloadedException(name, reason, retryAfter);
+    }
+
+    private void release(long startNanos, boolean dropped) {
+        long now = System.nanoTime();
+        long rtt = now - startNanos;
+        lock.lock();
+        try {
+            boolean busy = inFlight >= limit / 2;
+            inFlight--;
+            latencyNanos += EWMA_WEIGHT * (rtt - latencyNanos);
+            if (dropped || rtt > targetNanos) {
+                if (startNanos - lastDecrease >= 0) {
+                    limit = Math.max(1, limit * BACKOFF);
+                    lastDecrease = now;
+                }
+            } else if (busy) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            signalNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Chỗ đã lấy được; trả bằng close() (xong bình thường) hoặc release(true) nếu request hỏng. */
+    public final class Permit implements AutoCloseable {
+
+        private final long startNanos;
+        private boolean released;
+
+        private Permit(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        /** Trả chỗ; dropped = request hỏng / timeout (tính như quá tải). Gọi lần 2 không có tác dụng. */
+        public void release(boolean dropped) {
+            if (released) return;
+            released = true;
+            AdaptiveLimiter.this.release(startNanos, dropped);
+        }
+
+        @Override
+        public void close() {
+            release(false);
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public double limit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            long[] a = new long[LANES.length], f = new long[LANES.length], t = new long[LANES.length];
+            for (int i = 0; i < LANES.length; i++) {
+                a[i] = admitted[i].sum();
+                f[i] = queueFull[i].sum();
+                t[i] = timedOut[i].sum();
+            }
+            return new Stats(name, limit, inFlight, waiting.clone(), a, f, t, latencyNanos / 1e6);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Trạng thái hiện tại; các mảng theo thứ tự Lane (CHEAP, GENERATE). */
+    public record Stats(String name, double limit, int inFlight, int[] queued,
+                        long[] admitted, long[] queueFull, long[] timedOut, double latencyMillis) {}
+
+    /**
+     * Số đo: chat.admission.limit / in_flight (gauge, tag limiter), chat.admission.queued (gauge, tag lane),
+     * chat.admission.admitted / rejected (counter, tag lane, rejected thêm reason: queue_full, timeout).
+     */
+    public void register(MeterRegistry registry) {
+        Gauge.builder("chat.admission.limit", this, AdaptiveLimiter::limit).tag("limiter", name).register(registry);
+        Gauge.builder("chat.admission.in_flight", this, l -> l.stats().inFlight()).tag("limiter", name).register(registry);
+        for (Lane lane : LANES) {
+            int l = lane.ordinal();
+            String tag = lane.name().toLowerCase(Locale.ROOT);
+            Gauge.builder("chat.admission.queued", this, x -> x.stats().queued()[l])
+                    .tag("limiter", name).tag("lane", tag).register(registry);
+            FunctionCounter.builder("chat.admission.admitted", admitted[l], LongAdder::sum)
+                    .tag("limiter", name).tag("lane", tag).register(registry);
+            FunctionCounter.builder("chat.admission.rejected", queueFull[l], LongAdder::sum)
+                    .tag("limiter", name).tag("lane", tag).tag("reason", "queue_full").register(registry);
+            FunctionCounter.builder("chat.admission.rejected", timedOut[l], LongAdder::sum)
+                    .tag("limiter", name).tag("lane", tag).tag("reason", "timeout").register(registry);
+        }
+    }
+}
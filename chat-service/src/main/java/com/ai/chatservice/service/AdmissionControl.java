@@ -0,0 +1,66 @@
+package com.ai.chatservice.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Kiểm soát nhận request khi quá tải (xem AdaptiveLimiter), 1 bộ giới hạn cho mỗi đường:
+ * - send  : POST /api/chat/send, /send-async (sinh câu ngay trong chat-service, tốn CPU);
+ *           lane CHEAP cho câu trả lời có sẵn, GENERATE cho câu phải tìm / sinh (ChatService.lane(...))
+ * - kafka : POST /api/chat (KafkaChatClient.ask), tính từ lúc gửi tới khi có trả lời / timeout
+ *           → producer không dồn ứ bản ghi trong buffer khi AI Engine chậm lại
+ * chat.admission.enabled=false → không giới hạn gì.
+ */
+@Component
+public class AdmissionControl {
+
+    private final AdaptiveLimiter send;
+    private final AdaptiveLimiter kafka;
+
+    public AdmissionControl(@Value("${chat.admission.enabled:true}") boolean enabled,
+                            @Value("${chat.admission.send.initial-limit:16}") int sendInitial,
+                            @Value("${chat.admission.send.max-limit:512}") int sendMax,
+                            @Value("${chat.admission.send.target-latency:200ms}") Duration sendTarget,
+                            @Value("${chat.admission.send.queue-size:256}") int sendQueue,
+                            @Value("${chat.admission.send.max-wait:100ms}") Duration sendMaxWait,
+                            @Value("${chat.admission.send.cheap-reserve:0.2}") double cheapReserve,
+                            @Value("${chat.admission.kafka.initial-limit:64}") int kafkaInitial,
+                            @Value("${chat.admission.kafka.max-limit:4096}") int kafkaMax,
+                            @Value("${chat.admission.kafka.target-latency:1s}") Duration kafkaTarget,
+                            @Value("${chat.admission.kafka.queue-size:0}") int kafkaQueue,
+                            @Value("${chat.admission.kafka.max-wait:0ms}") Duration kafkaMaxWait,
+                            MeterRegistry registry) {
+        if (!enabled) {
+            this.send = null;
+            this.kafka = null;
+            return;
+        }
+        this.send = new AdaptiveLimiter("send", sendInitial, sendMax, sendTarget, sendQueue, sendMaxWait, cheapReserve);
+        this.kafka = new AdaptiveLimiter("kafka", kafkaInitial, kafkaMax, kafkaTarget, kafkaQueue, kafkaMaxWait, 0);
+        send.register(registry);
+        kafka.register(registry);
+    }
+
+    /**
+     * Chỗ cho 1 request /send, chờ không quá deadlineNanos (hạn sinh câu của request);
+     * null nếu tắt kiểm soát. Trả chỗ bằng close() khi xong.
+     *
+     * @throws OverloadedException quá tải
+     */
+    public AdaptiveLimiter.Permit send(AdaptiveLimiter.Lane lane, long deadlineNanos) {
+        return send == null ? null : send.acquire(lane, deadlineNanos);
+    }
+
+    /** Chỗ cho 1 câu hỏi gửi qua Kafka; null nếu tắt kiểm soát. */
+    public AdaptiveLimiter.Permit kafka() {
+        return kafka == null ? null : kafka.acquire(AdaptiveLimiter.Lane.GENERATE);
+    }
+
+    public List<AdaptiveLimiter.Stats> stats() {
+        return send == null ? List.of() : List.of(send.stats(), kafka.stats());
+    }
+}
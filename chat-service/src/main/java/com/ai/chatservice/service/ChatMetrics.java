@@ -0,0 +1,114 @@
+package com.ai.chatservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Số đo của đường chat qua Micrometer (xem /actuator/prometheus, /actuator/metrics):
+ * - chat.stage (timer + histogram, tag stage): normalize, direct_lookup, retrieval, generate, decode, kafka_send
+ * - chat.outcome (counter, tag outcome): cached, direct, nearest, markov, partial (Markov bị cắt vì hết giờ),
+ *   no_answer, not_ready
+ * - chat.model.vocabulary / states / transitions (gauge) và chat.model.bytes (tag part: markov, learned, retrieval, vocabulary)
+ *   của model đang phục vụ
+ *
+ * Timer chỉ đo 1 phần request (chat.metrics.sample-rate, mặc định 1%): request không được chọn nhận
+ * Span.NOOP, không gọi System.nanoTime() và không cấp phát gì. Counter thì luôn đếm (rẻ, không khoá).
+ */
+@Component
+public class ChatMetrics {
+
+    public enum Stage { NORMALIZE, DIRECT_LOOKUP, RETRIEVAL, GENERATE, DECODE, KAFKA_SEND }
+
+    public enum Outcome { CACHED, DIRECT, NEAREST, MARKOV, PARTIAL, NO_ANSWER, NOT_READY }
+
+    private final double sampleRate;
+    private final Timer[] timers;
+    private final Counter[] outcomes;
+
+    public ChatMetrics(MeterRegistry registry,
+                       ModelHolder models,
+                       @Value("${chat.metrics.sample-rate:0.01}") double sampleRate) {
+        this.sampleRate = sampleRate;
+
+        Stage[] stages = Stage.values();
+        this.timers = new Timer[stages.length];
+        for (Stage stage : stages) {
+            timers[stage.ordinal()] = Timer.builder("chat.stage")
+                    .tag("stage", stage.name().toLowerCase(Locale.ROOT))
+                    .description("Thời gian từng bước xử lý chat (chỉ request được lấy mẫu)")
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+
+        Outcome[] values = Outcome.values();
+        this.outcomes = new Counter[values.length];
+        for (Outcome outcome : values) {
+            outcomes[outcome.ordinal()] = Counter.builder("chat.outcome")
+                    .tag("outcome", outcome.name().toLowerCase(Locale.ROOT))
+                    .description("Nguồn của câu trả lời")
+                    .register(registry);
+        }
+
+        gauge(registry, "chat.model.vocabulary", null, models, m -> m.tokenizer().vocabularySize());
+        gauge(registry, "chat.model.states", null, models, m -> m.engine().stateCount());
+        gauge(registry, "chat.model.transitions", null, models, m -> m.engine().transitionCount());
+        gauge(registry, "chat.model.bytes", "markov", models, m -> m.engine().estimatedBytes());
+        gauge(registry, "chat.model.bytes", "learned", models, m -> m.engine().learnedBytes());
+        gauge(registry, "chat.model.bytes", "retrieval", models, m -> m.memory().indexBytes());
+        gauge(registry, "chat.model.bytes", "vocabulary", models, m -> m.tokenizer().estimatedBytes());
+    }
+
+    /** Span cho 1 request: được lấy mẫu thì đo thật, không thì NOOP. */
+    public Span span() {
+        if (sampleRate <= 0) return Span.NOOP;
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) return Span.NOOP;
+        return new Span(timers);
+    }
+
+    public void count(Outcome outcome) {
+        outcomes[outcome.ordinal()].increment();
+    }
+
+    private static void gauge(MeterRegistry registry, String name, String part,
+                              ModelHolder models, ToLongFunction<ChatModel> value) {
+        Gauge.Builder<ModelHolder> builder = Gauge.builder(name, models, h -> {
+            ChatModel model = h.current();
+            return model == null ? Double.NaN : value.applyAsLong(model);
+        });
+        if (part != null) builder.tag("part", part).baseUnit("bytes");
+        builder.register(registry);
+    }
+
+    /**
+     * Đo lần lượt các bước của 1 request: lap(stage) ghi thời gian từ mốc trước (hoặc lúc tạo) tới giờ.
+     * Chỉ dùng trong 1 luồng.
+     */
+    public static class Span {
+
+        public static final Span NOOP = new Span(null);
+
+        private final Timer[] timers;
+        private long last;
+
+        private Span(Timer[] timers) {
+            this.timers = timers;
+            this.last = timers == null ? 0 : System.nanoTime();
+        }
+
+        public void lap(Stage stage) {
+            if (timers == null) return;
+            long now = System.nanoTime();
+            timers[stage.ordinal()].record(now - last, TimeUnit.NANOSECONDS);
+            last = now;
+        }
+    }
+}
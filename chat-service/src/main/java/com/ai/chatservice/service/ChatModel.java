@@ -0,0 +1,141 @@
+package com.ai.chatservice.service;
+
+import com.ai.chatservice.core.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * 1 phiên bản mô hình hoàn chỉnh (tokenizer + Markov + bộ nhớ hỏi–đáp), đã freeze → chỉ đọc.
+ *
+ * Không bao giờ sửa sau khi dựng: nạp lại = dựng 1 ChatModel mới rồi ModelHolder đổi tham chiếu.
+ * Request đang chạy giữ tham chiếu tới bản cũ nên chạy xong trên đúng bản nó bắt đầu.
+ * Ngoại lệ duy nhất là phần học thêm online (OnlineLearner): nằm ở lớp riêng chồng lên,
+ * phần gốc vẫn không đổi và việc đọc vẫn không cần khoá.
+ */
+public final class ChatModel {
+
+    private final long version;
+    private final String source;
+    private final Instant loadedAt;
+    private final boolean trained;
+    private final SimpleTokenizer tokenizer;
+    private final MarkovChatEngine engine;
+    private final ConversationMemory memory;
+
+    private ChatModel(long version, String source, boolean trained,
+                      SimpleTokenizer tokenizer, MarkovChatEngine engine, ConversationMemory memory) {
+        this.version = version;
+        this.source = source;
+        this.loadedAt = Instant.now();
+        this.trained = trained;
+        this.tokenizer = tokenizer;
+        this.engine = engine;
+        this.memory = memory;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /** File đã dùng để dựng (snapshot hoặc conversations). */
+    public String source() {
+        return source;
+    }
+
+    public Instant loadedAt() {
+        return loadedAt;
+    }
+
+    /** false = không có dữ liệu huấn luyện (chỉ trả lời câu mặc định). */
+    public boolean trained() {
+        return trained;
+    }
+
+    public SimpleTokenizer tokenizer() {
+        return tokenizer;
+    }
+
+    public MarkovChatEngine engine() {
+        return engine;
+    }
+
+    public ConversationMemory memory() {
+        return memory;
+    }
+
+    /**
+     * Dựng mô hình như lúc khởi động:
+     * - có file snapshot (ModelCompiler) mở được → map thẳng file đó
+     * - không thì load conversations và huấn luyện (song song nếu parallelism != 1)
+     */
+    public static ChatModel load(long version, String conversationsFile, String snapshotFile,
+                                 boolean verifyChecksum, int trainingParallelism) {
+        // 0) Ưu tiên mô hình đã biên dịch sẵn (xem ModelCompiler)
+        ModelSnapshot snapshot = snapshotFile == null ? null : openSnapshot(snapshotFile, verifyChecksum);
+        if (snapshot != null) {
+            SimpleTokenizer tokenizer = SimpleTokenizer.fromSnapshot(snapshot);
+            ConversationMemory memory = ConversationMemory.fromSnapshot(tokenizer, snapshot);
+            buildIndex(memory);
+            return new ChatModel(version, snapshotFile, true, tokenizer,
+                    MarkovChatEngine.fromSnapshot(snapshot), memory);
+        }
+
+        SimpleTokenizer tokenizer = new SimpleTokenizer();
+        MarkovChatEngine engine = new MarkovChatEngine(ModelCompiler.DEFAULT_ORDER);
+        ConversationMemory memory = new ConversationMemory(tokenizer);
+        boolean trained = false;
+
+        try {
+            String file = conversationsFile;
+
+            if (!Files.exists(Path.of(file))) {
+                System.err.println("WARNING: conversations.jsonl not found, fallback Markov only.");
+            } else {
+                // 1) Load cặp hỏi–đáp (song song nếu chat.training.parallelism != 1, kết quả như nhau)
+                ModelCompiler.train(memory, file, engine, trainingParallelism);
+
+                // 2) Chốt mô hình Markov sang dạng CSR gọn + in báo cáo bộ nhớ
+                engine.freeze();
+                System.out.println(">>> Markov memory: " + engine.memoryReport());
+
+                trained = true;
+                System.out.println(">>> ChatModel v" + version + ": trained from " + file);
+            }
+        } catch (Exception e) {
+            System.err.println("WARNING: Cannot load training data: " + e.getMessage());
+        } finally {
+            // 3) Hết giai đoạn huấn luyện: từ vựng chỉ đọc, request đồng thời không làm nó lớn thêm
+            tokenizer.freeze();
+        }
+        if (trained) buildIndex(memory);
+        return new ChatModel(version, conversationsFile, trained, tokenizer, engine, memory);
+    }
+
+    // Chỉ mục câu hỏi gần giống (BM25) cho ChatService khi không trùng hẳn
+    private static void buildIndex(ConversationMemory memory) {
+        long t0 = System.nanoTime();
+        RetrievalIndex index = memory.buildIndex();
+        System.out.println(">>> Retrieval index: " + index.size() + " patterns, "
+                + index.estimatedBytes() / 1024 + " KB in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+    }
+
+    // Map file mô hình; null nếu không có hoặc hỏng (→ huấn luyện lại như cũ)
+    private static ModelSnapshot openSnapshot(String file, boolean verify) {
+        if (!Files.exists(Path.of(file))) return null;
+        try {
+            long t0 = System.nanoTime();
+            ModelSnapshot snapshot = ModelSnapshot.open(Path.of(file), verify);
+            if (!snapshot.has("markov.order") || !snapshot.has("vocab.offsets")) {
+                throw new IllegalStateException("thiếu phần vocab/markov");
+            }
+            System.out.println(">>> ChatModel: mapped model " + file
+                    + " in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+            return snapshot;
+        } catch (Exception e) {
+            System.err.println("WARNING: Cannot open model snapshot " + file + ", retraining: " + e.getMessage());
+            return null;
+        }
+    }
+}
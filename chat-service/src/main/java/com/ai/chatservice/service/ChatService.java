@@ -1,65 +1,416 @@
 package com.ai.chatservice.service;
 
-import com.ai.chatservice.core.*;
+import com.ai.chatservice.core.DecodingOptions;
+import com.ai.chatservice.core.Generation;
+import com.ai.chatservice.core.GenerationBudget;
+import com.ai.chatservice.core.RetrievalIndex;
+import com.ai.chatservice.core.SimpleTokenizer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
-import java.nio.file.Path;
-import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 /**
  * Service xử lý logic chat:
- * - Load conversations.jsonl khi khởi động
+ * - Mô hình (tokenizer + Markov + bộ nhớ hỏi–đáp) nằm trong ModelHolder, nạp ở nền lúc khởi động
+ *   và có thể nạp lại lúc đang chạy (xem ModelAdminController)
  * - Nếu câu hỏi trùng với dữ liệu → trả lại đúng câu trả lời đã học
+ * - Gần giống 1 câu hỏi đã học (RetrievalIndex, độ giống >= chat.retrieval.min-similarity)
+ *   → dùng câu trả lời của câu hỏi đó
  * - Ngược lại → dùng MarkovChatEngine để sinh câu bắt chước style
+ *
+ * Câu trả lời được cache (ResponseCache) theo (phiên bản model, câu hỏi đã chuẩn hoá, tuỳ chọn giải mã):
+ * mỗi khoá giữ vài phiên bản câu trả lời (chat.cache.variants) để bot không lặp 1 câu;
+ * nhiều request giống nhau cùng lúc chỉ tính 1 lần. Reload model → khoá mới, bản cũ tự hết hạn.
+ * Lúc miss request chỉ sinh 1 câu rồi trả về ngay; các phiên bản còn lại được sinh ở nền (fillVariants).
+ *
+ * chatStream(...) trả câu trả lời theo từng từ (cho SSE): câu đã có sẵn (bộ nhớ hỏi–đáp, cache)
+ * gửi 1 lần, câu phải sinh bằng Markov thì gửi từng từ ngay khi vừa sinh.
+ *
+ * Câu sinh bằng Markov bị giới hạn theo từng request (GenerationBudget): số từ tối đa
+ * (maxNew, mặc định chat.generation.max-new-tokens, trần chat.generation.max-new-limit) và thời gian
+ * (deadlineMs, mặc định chat.generation.deadline). Hết giờ → trả phần đã sinh (outcome partial, không cache;
+ * câu mặc định khi không có câu trả lời cũng không cache).
+ * Câu cũng tự dừng ở cuối câu hoặc khi bắt đầu lặp vòng.
+ *
+ * Có sessionId → các lượt trước (SessionStore, tối đa chat.session.context-tokens token) được dùng làm ngữ cảnh:
+ * seed cho Markov và tìm câu gần giống khi câu hỏi quá ngắn; lượt đó không đi qua cache.
+ *
+ * Mỗi lượt chat(...) được ghi vào PostgreSQL (bảng chat_log) qua ConversationLog, ghi nền theo lô.
+ *
+ * Số đo (thời gian từng bước, nguồn câu trả lời, kích thước model) qua ChatMetrics → Actuator.
+ *
+ * Mỗi request lấy model 1 lần ở đầu rồi dùng đến hết (reload giữa chừng không ảnh hưởng);
+ * chat(...) chỉ đọc mô hình (không khoá, không Random chung) nên chạy tốt trên platform thread
+ * lẫn virtual thread (spring.threads.virtual.enabled).
  */
 @Service
 public class ChatService {
 
-    private final SimpleTokenizer tokenizer = new SimpleTokenizer();
-    private final MarkovChatEngine engine = new MarkovChatEngine(2);
-    private final ConversationMemory memory = new ConversationMemory(tokenizer);
+    private static final Logger log = LoggerFactory.getLogger(ChatService.class);
 
-    private boolean trained = false;
+    private static final int CONTEXT_QUERY_TOKENS = 8;
+    private static final int[] NO_CONTEXT = new int[0];
 
-    public ChatService() {
-        try {
-            String file = "data/conversations.jsonl";
+    private static final String NO_ANSWER =
+            "Mình chưa nghĩ ra câu trả lời phù hợp từ dữ liệu đã học, bạn thử hỏi lại cách khác nha.";
 
-            if (!Files.exists(Path.of(file))) {
-                System.err.println("WARNING: conversations.jsonl not found, fallback Markov only.");
-                return;
-            }
+    private final ModelHolder models;
+    private final ChatMetrics metrics;
+    private final ConversationLog conversationLog;
+    private final SessionStore sessions;
+    private final double minSimilarity;
+    private final ResponseCache<CacheKey, List<String>> cache;   // null = tắt cache
+    private final int variants;
+    private final int maxNewTokens;
+    private final int maxNewLimit;
+    private final Duration deadline;
+    // sinh thêm phiên bản câu trả lời cho cache ở nền; hàng đợi đầy thì bỏ (cache vẫn có 1 câu)
+    private final ThreadPoolExecutor variantFiller;
 
-            // 1) Load cặp hỏi–đáp
-            memory.load(file, engine);
+    public ChatService(ModelHolder models,
+                       ChatMetrics metrics,
+                       ConversationLog conversationLog,
+                       SessionStore sessions,
+                       @Value("${chat.retrieval.min-similarity:0.6}") double minSimilarity,
+                       @Value("${chat.cache.max-size:10000}") int cacheSize,
+                       @Value("${chat.cache.ttl:10m}") Duration cacheTtl,
+                       @Value("${chat.cache.variants:4}") int variants,
+                       @Value("${chat.generation.max-new-tokens:30}") int maxNewTokens,
+                       @Value("${chat.generation.max-new-limit:200}") int maxNewLimit,
+                       @Value("${chat.generation.deadline:500ms}") Duration deadline) {
+        this.models = models;
+        this.metrics = metrics;
+        this.conversationLog = conversationLog;
+        this.sessions = sessions;
+        this.minSimilarity = minSimilarity;
+        this.cache = cacheSize > 0 ? new ResponseCache<>(cacheSize, cacheTtl) : null;
+        this.variants = Math.max(1, variants);
+        this.maxNewLimit = Math.max(1, maxNewLimit);
+        this.maxNewTokens = Math.min(Math.max(1, maxNewTokens), this.maxNewLimit);
+        this.deadline = deadline;
+        AtomicInteger seq = new AtomicInteger();
+        int fillers = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        this.variantFiller = new ThreadPoolExecutor(fillers, fillers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(256),
+                r -> {
+                    Thread t = new Thread(r, "cache-variants-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        variantFiller.shutdownNow();
+    }
 
-            trained = true;
-            System.out.println(">>> ChatService: trained from " + file);
+    /**
+     * Khoá cache: cùng model, cùng câu hỏi (đã chuẩn hoá), cùng cách giải mã, cùng số từ tối đa
+     * → cùng phân phối câu trả lời.
+     */
+    record CacheKey(long modelVersion, String prompt, DecodingOptions options, int maxNewTokens) {}
 
-        } catch (Exception e) {
-            System.err.println("WARNING: Cannot load training data: " + e.getMessage());
+    /**
+     * Giới hạn sinh câu cho 1 request, tính từ lúc gọi (gọi ở đầu request).
+     * null → mặc định chat.generation.*; deadlineMs = 0 → không giới hạn thời gian.
+     * Giá trị sai → IllegalArgumentException (400).
+     */
+    public GenerationBudget budget(Integer maxNew, Long deadlineMs) {
+        if (maxNew != null && (maxNew < 1 || maxNew > maxNewLimit)) {
+            throw new IllegalArgumentException("maxNew phải nằm trong [1, " + maxNewLimit + "]: " + maxNew);
         }
+        if (deadlineMs != null && deadlineMs < 0) {
+            throw new IllegalArgumentException("deadlineMs phải >= 0: " + deadlineMs);
+        }
+        return GenerationBudget.of(maxNew == null ? maxNewTokens : maxNew,
+                deadlineMs == null ? deadline : Duration.ofMillis(deadlineMs));
     }
 
     public String chat(String prompt) {
-        System.out.println("REQ = " + prompt);
+        return chat(prompt, DecodingOptions.DEFAULT);
+    }
+
+    /**
+     * Như chat(prompt) nhưng cho phép chọn cách giải mã khi phải dùng Markov.
+     */
+    public String chat(String prompt, DecodingOptions options) {
+        return chat(null, prompt, options);
+    }
+
+    /**
+     * Như chat(prompt, options), lượt hỏi–đáp được ghi vào chat_log (ConversationLog, ghi nền) kèm sessionId.
+     */
+    public String chat(String sessionId, String prompt, DecodingOptions options) {
+        return chat(sessionId, prompt, options, budget(null, null));
+    }
+
+    /** Như trên với giới hạn sinh câu của request (xem budget(...)). */
+    public String chat(String sessionId, String prompt, DecodingOptions options, GenerationBudget budget) {
+        // log qua SLF4J (mặc định tắt ở mức debug): System.out.println khoá PrintStream ở mỗi request
+        log.debug("REQ = {}", prompt);
+
+        long start = System.nanoTime();
+        Reply reply = reply(sessionId, prompt, options, budget);
+        metrics.count(reply.outcome());
+        conversationLog.append(sessionId, prompt, reply.text(), reply.outcome().name().toLowerCase(Locale.ROOT),
+                System.nanoTime() - start);
+        return reply.text();
+    }
+
+    private Reply reply(String sessionId, String prompt, DecodingOptions options, GenerationBudget budget) {
+        ChatModel model = models.current();
+        if (model == null) {
+            return new Reply("Mình đang nạp dữ liệu, bạn đợi vài giây rồi hỏi lại nhé!", ChatMetrics.Outcome.NOT_READY);
+        }
+        if (!model.trained()) {
+            return new Reply("Hi, mình là bot demo, hiện chưa được huấn luyện dữ liệu nên chưa trả lời hay được. Bạn hãy thêm file data/conversations.jsonl nhé!",
+                    ChatMetrics.Outcome.NOT_READY);
+        }
+
+        ChatMetrics.Span span = metrics.span();
+        int[] context = sessionId == null ? NO_CONTEXT : sessions.context(sessionId, model.version());
+        Reply reply;
+        if (cache == null || context.length > 0) {
+            // có ngữ cảnh → câu trả lời phụ thuộc các lượt trước, không dùng chung cache
+            reply = answer(model, prompt, context, options, budget, span);
+        } else {
+            reply = cached(model, prompt, options, budget, span);
+        }
+        if (sessionId != null) {
+            SimpleTokenizer tokenizer = model.tokenizer();
+            // câu mặc định (không có câu trả lời, câu dở dang vì hết giờ) không phải lượt hội thoại thật
+            // → không đưa vào ngữ cảnh, chỉ giữ câu hỏi
+            int[] replyTokens = isRealAnswer(reply.outcome()) ? tokenizer.encode(reply.text()) : NO_CONTEXT;
+            sessions.appendTurn(sessionId, model.version(), tokenizer.encode(prompt), replyTokens);
+        }
+        return reply;
+    }
+
+    private static boolean isRealAnswer(ChatMetrics.Outcome outcome) {
+        return switch (outcome) {
+            case DIRECT, NEAREST, MARKOV, CACHED -> true;
+            default -> false;
+        };
+    }
+
+    private Reply cached(ChatModel model, String prompt, DecodingOptions options, GenerationBudget budget,
+                         ChatMetrics.Span span) {
+
+        String normalized = model.tokenizer().normalize(prompt);
+        span.lap(ChatMetrics.Stage.NORMALIZE);
+        CacheKey key = new CacheKey(model.version(), normalized, options, budget.maxNewTokens());
+        Reply[] computed = new Reply[1];
+        List<String> pool = cache.get(key, k -> firstVariant(model, prompt, options, budget, span, computed));
+        if (pool == null) {
+            // câu dở dang / không có câu trả lời → không cache; luồng chờ chung thì tự sinh câu của mình
+            return computed[0] != null ? computed[0] : answer(model, prompt, NO_CONTEXT, options, budget, span);
+        }
+        if (computed[0] != null && variants > 1) {
+            // đã vào cache → luồng nền thêm các phiên bản khác vào đúng khoá đó
+            variantFiller.execute(() -> fillVariants(key, model, prompt, options, computed[0].text()));
+        }
+        // không tự tính (hit hoặc chờ chung với luồng khác) → tính là cached
+        return new Reply(pool.get(ThreadLocalRandom.current().nextInt(pool.size())),
+                computed[0] != null ? computed[0].outcome() : ChatMetrics.Outcome.CACHED);
+    }
+
+    /**
+     * Lane của request cho AdmissionControl: CHEAP nếu câu trả lời đã có sẵn (model chưa sẵn sàng, có trong cache,
+     * hoặc trùng hẳn câu đã học) — chỉ vài phép tra bảng băm; còn lại GENERATE (retrieval + Markov).
+     * Lượt có ngữ cảnh session không đi qua cache → luôn GENERATE.
+     * Chỉ hỏi thăm cache (contains): không tính hit, không đẩy khoá lên protected.
+     */
+    public AdaptiveLimiter.Lane lane(String sessionId, String prompt, DecodingOptions options, GenerationBudget budget) {
+        ChatModel model = models.current();
+        if (model == null || !model.trained()) return AdaptiveLimiter.Lane.CHEAP;
+        if (sessionId != null && sessions.context(sessionId, model.version()).length > 0) {
+            return AdaptiveLimiter.Lane.GENERATE;
+        }
+        if (cache != null) {
+            CacheKey key = new CacheKey(model.version(), model.tokenizer().normalize(prompt), options,
+                    budget.maxNewTokens());
+            if (cache.contains(key)) return AdaptiveLimiter.Lane.CHEAP;
+        }
+        return model.memory().findDirectReply(prompt) != null ? AdaptiveLimiter.Lane.CHEAP : AdaptiveLimiter.Lane.GENERATE;
+    }
+
+    /** Thống kê cache câu trả lời, null nếu cache tắt. */
+    public ResponseCache.Stats cacheStats() {
+        return cache == null ? null : cache.stats();
+    }
+
+    // Lúc miss: chỉ sinh câu đầu (được đo và đếm outcome, 1 request = 1 outcome);
+    // câu bị cắt vì hết giờ / câu mặc định khi không có câu trả lời → null (không cache: lượt sau
+    // lấy từ cache sẽ bị coi là câu trả lời thật, vào ngữ cảnh session và đếm là cached)
+    private List<String> firstVariant(ChatModel model, String prompt, DecodingOptions options, GenerationBudget budget,
+                                      ChatMetrics.Span span, Reply[] first) {
+        Reply reply = answer(model, prompt, NO_CONTEXT, options, budget, span);
+        first[0] = reply;
+        return isRealAnswer(reply.outcome()) ? List.of(reply.text()) : null;
+    }
 
-        if (!trained) {
-            return "Hi, mình là bot demo, hiện chưa được huấn luyện dữ liệu nên chưa trả lời hay được. Bạn hãy thêm file data/conversations.jsonl nhé!";
+    // Chạy ở nền: sinh thêm tới chat.cache.variants câu khác nhau (trùng nhau thì giữ 1) rồi thay pool của khoá.
+    // Mỗi câu có giới hạn mặc định (chat.generation.*); câu dở dang / không có câu trả lời thì bỏ.
+    private void fillVariants(CacheKey key, ChatModel model, String prompt, DecodingOptions options, String first) {
+        LinkedHashSet<String> pool = new LinkedHashSet<>();
+        pool.add(first);
+        for (int i = 1; i < variants; i++) {
+            Reply reply = answer(model, prompt, NO_CONTEXT, options, GenerationBudget.of(key.maxNewTokens(), deadline),
+                    ChatMetrics.Span.NOOP);
+            if (reply.outcome() != ChatMetrics.Outcome.PARTIAL && reply.outcome() != ChatMetrics.Outcome.NO_ANSWER) {
+                pool.add(reply.text());
+            }
         }
+        if (pool.size() > 1) cache.put(key, List.copyOf(pool));
+    }
 
+    /**
+     * Như chat(...) nhưng đưa câu trả lời cho onToken từng phần một.
+     * onToken trả false (client đã ngắt) → dừng, không sinh tiếp.
+     * Câu sinh kiểu streaming không được đưa vào cache (không gom cả câu trong bộ nhớ).
+     */
+    public void chatStream(String prompt, DecodingOptions options, Predicate<String> onToken) {
+        chatStream(prompt, options, budget(null, null), onToken);
+    }
+
+    /** Như trên với giới hạn sinh câu của request; hết giờ thì câu dừng ở từ đã gửi cuối cùng. */
+    public void chatStream(String prompt, DecodingOptions options, GenerationBudget budget, Predicate<String> onToken) {
+        log.debug("REQ (stream) = {}", prompt);
+
+        ChatModel model = models.current();
+        if (model == null || !model.trained()) {
+            Reply reply = reply(null, prompt, options, budget);
+            metrics.count(reply.outcome());
+            onToken.test(reply.text());
+            return;
+        }
+        if (cache != null) {
+            CacheKey key = new CacheKey(model.version(), model.tokenizer().normalize(prompt), options,
+                    budget.maxNewTokens());
+            List<String> pool = cache.getIfPresent(key);
+            if (pool != null) {
+                metrics.count(ChatMetrics.Outcome.CACHED);
+                onToken.test(pool.get(ThreadLocalRandom.current().nextInt(pool.size())));
+                return;
+            }
+        }
+
+        Reply known = knownAnswer(model, prompt, NO_CONTEXT, metrics.span());
+        if (known != null) {
+            metrics.count(known.outcome());
+            onToken.test(known.text());
+            return;
+        }
+
+        // thời gian sinh ở đây gồm cả gửi SSE → không ghi vào timer generate
+        Generation generation = model.engine().generate(model.tokenizer(), prompt, budget, options,
+                ThreadLocalRandom.current(), onToken);
+        if (generation.produced() == 0 && generation.stop() != Generation.Stop.CANCELLED) {
+            metrics.count(generation.truncated() ? ChatMetrics.Outcome.PARTIAL : ChatMetrics.Outcome.NO_ANSWER);
+            onToken.test(NO_ANSWER);
+        } else {
+            metrics.count(generation.truncated() ? ChatMetrics.Outcome.PARTIAL : ChatMetrics.Outcome.MARKOV);
+        }
+    }
+
+    /** Câu trả lời kèm nguồn của nó (cho metric chat.outcome). */
+    private record Reply(String text, ChatMetrics.Outcome outcome) {}
+
+    private Reply answer(ChatModel model, String prompt, int[] context, DecodingOptions options,
+                         GenerationBudget budget, ChatMetrics.Span span) {
+        Reply known = knownAnswer(model, prompt, context, span);
+        if (known != null) {
+            return known;
+        }
+
+        // 2) fallback: dùng Markov bậc 2 sinh câu mới (sinh id rồi decode riêng để đo từng bước),
+        //    cửa sổ đầu lấy từ ngữ cảnh + câu hỏi → câu hỏi ngắn vẫn nối tiếp được lượt trước
+        int[] seed = model.tokenizer().encode(prompt);
+        if (context.length > 0) {
+            int[] joined = Arrays.copyOf(context, context.length + seed.length);
+            System.arraycopy(seed, 0, joined, context.length, seed.length);
+            seed = joined;
+        }
+        int[] ids = new int[budget.maxNewTokens()];
+        Generation generation = model.engine().generateIds(seed, budget, options, ThreadLocalRandom.current(), ids);
+        span.lap(ChatMetrics.Stage.GENERATE);
+        String answer = model.tokenizer().decode(ids, generation.produced());
+        span.lap(ChatMetrics.Stage.DECODE);
+
+        // hết giờ trước cả từ đầu tiên vẫn là partial (không cache), không phải "không có câu trả lời"
+        if (generation.truncated()) {
+            return new Reply(answer.isBlank() ? NO_ANSWER : answer, ChatMetrics.Outcome.PARTIAL);
+        }
+        if (answer.isBlank()) {
+            return new Reply(NO_ANSWER, ChatMetrics.Outcome.NO_ANSWER);
+        }
+        return new Reply(answer, ChatMetrics.Outcome.MARKOV);
+    }
+
+    // Câu trả lời đã học cho prompt (trùng hẳn hoặc đủ giống), null nếu không có
+    private Reply knownAnswer(ChatModel model, String prompt, int[] context, ChatMetrics.Span span) {
         // 1) Thử tìm câu trả lời trực tiếp từ conversation memory
-        String direct = memory.findDirectReply(prompt);
+        String direct = model.memory().findDirectReply(prompt);
+        span.lap(ChatMetrics.Stage.DIRECT_LOOKUP);
         if (direct != null && !direct.isBlank()) {
-            return direct;
+            return new Reply(direct, ChatMetrics.Outcome.DIRECT);
         }
 
-        // 2) fallback: dùng Markov bậc 2 sinh câu mới
-        String answer = engine.generate(tokenizer, prompt, 30);
-        if (answer == null || answer.isBlank()) {
-            return "Mình chưa nghĩ ra câu trả lời phù hợp từ dữ liệu đã học, bạn thử hỏi lại cách khác nha.";
+        // 1b) Không trùng hẳn → câu hỏi đã lưu gần giống nhất, đủ giống thì dùng câu trả lời của nó
+        RetrievalIndex.Match match = model.memory().findNearest(prompt);
+        if ((match == null || match.similarity() < minSimilarity) && context.length > 0) {
+            // câu hỏi tiếp nối ("còn bạn thì sao?") → tìm lại với vài token cuối của ngữ cảnh
+            int n = Math.min(context.length, CONTEXT_QUERY_TOKENS);
+            String query = model.tokenizer().decode(Arrays.copyOfRange(context, context.length - n, context.length), n)
+                    + " " + prompt;
+            RetrievalIndex.Match withContext = model.memory().findNearest(query);
+            if (withContext != null && (match == null || withContext.similarity() > match.similarity())) {
+                match = withContext;
+            }
+        }
+        span.lap(ChatMetrics.Stage.RETRIEVAL);
+        if (match != null && match.similarity() >= minSimilarity) {
+            log.debug("Gần giống \"{}\" (score {}, similarity {})", match.question(), match.score(), match.similarity());
+            String nearest = model.memory().findDirectReply(match.question());
+            if (nearest != null && !nearest.isBlank()) {
+                return new Reply(nearest, ChatMetrics.Outcome.NEAREST);
+            }
         }
+        return null;
+    }
+
+    /**
+     * chat(...) chạy trên applicationTaskExecutor của Spring Boot: virtual thread khi
+     * spring.threads.virtual.enabled=true, còn lại là pool platform thread mặc định.
+     */
+    @Async
+    public CompletableFuture<String> chatAsync(String sessionId, String prompt, DecodingOptions options,
+                                               GenerationBudget budget) {
+        return CompletableFuture.completedFuture(chat(sessionId, prompt, options, budget));
+    }
 
-        return answer;
+    /** chatStream(...) trên applicationTaskExecutor (như chatAsync). */
+    @Async
+    public CompletableFuture<Void> chatStreamAsync(String prompt, DecodingOptions options, GenerationBudget budget,
+                                                   Predicate<String> onToken) {
+        chatStream(prompt, options, budget, onToken);
+        return CompletableFuture.completedFuture(null);
     }
 }
@@ -0,0 +1,208 @@
+package com.ai.chatservice.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lưu lịch sử hỏi–đáp vào bảng chat_log theo kiểu write-behind:
+ *
+ *   ChatService.chat ──append()──► hàng đợi có giới hạn (chat.log.capacity) ──► luồng conversation-log-writer
+ *                                                                               └─ JDBC batch INSERT
+ *
+ * - append() chỉ bỏ vào hàng đợi, không chạm DB → request không chờ PostgreSQL.
+ * - Luồng ghi gom tới flush-size bản ghi, hoặc chờ tối đa flush-interval kể từ bản ghi đầu của lô,
+ *   rồi ghi 1 lần bằng batchUpdate.
+ * - Hàng đợi đầy: overflow=DROP → bỏ bản ghi (đếm dropped), overflow=BLOCK → request chờ tới khi có chỗ.
+ * - Ghi lỗi (DB tạm mất) → bỏ cả lô, đếm failed, log cảnh báo; không thử lại để hàng đợi không dồn.
+ *   session_id / source dài hơn cột bị cắt ngay ở append() → 1 bản ghi không làm hỏng cả lô.
+ * - Tắt service: ghi nốt những gì còn trong hàng đợi.
+ * Số liệu: chat.log.queued / appended / written / dropped / failed qua Actuator.
+ */
+@Component
+public class ConversationLog {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationLog.class);
+
+    public enum Overflow { DROP, BLOCK }
+
+    /** Độ dài tối đa (ký tự) của cột session_id; API từ chối sessionId dài hơn. */
+    public static final int MAX_SESSION_ID = 64;
+    private static final int MAX_SOURCE = 16;
+
+    // Cú pháp chung cho PostgreSQL và H2 (MODE=PostgreSQL)
+    private static final String CREATE_TABLE = """
+            CREATE TABLE IF NOT EXISTS chat_log (
+                id             BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                created_at     TIMESTAMP NOT NULL,
+                session_id     VARCHAR(%d),
+                prompt         TEXT,
+                reply          TEXT,
+                source         VARCHAR(%d) NOT NULL,
+                latency_micros BIGINT NOT NULL
+            )""".formatted(MAX_SESSION_ID, MAX_SOURCE);
+
+    private static final String INSERT =
+            "INSERT INTO chat_log (created_at, session_id, prompt, reply, source, latency_micros) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbc;
+    private final boolean enabled;
+    private final boolean createTable;
+    private final ArrayBlockingQueue<Entry> queue;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+    private final Overflow overflow;
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    private volatile boolean running;
+    private Thread writer;
+
+    /** 1 lượt hỏi–đáp; source = nguồn câu trả lời (direct, nearest, markov, cached...). */
+    public record Entry(Instant at, String sessionId, String prompt, String reply, String source, long latencyMicros) {}
+
+    public ConversationLog(JdbcTemplate jdbc,
+                           MeterRegistry registry,
+                           @Value("${chat.log.enabled:true}") boolean enabled,
+                           @Value("${chat.log.capacity:10000}") int capacity,
+                           @Value("${chat.log.flush-size:500}") int flushSize,
+                           @Value("${chat.log.flush-interval:1s}") Duration flushInterval,
+                           @Value("${chat.log.overflow:DROP}") Overflow overflow,
+                           @Value("${chat.log.create-table:true}") boolean createTable) {
+        this.jdbc = jdbc;
+        this.enabled = enabled;
+        this.createTable = createTable;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.flushSize = Math.max(1, flushSize);
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.overflow = overflow;
+
+        Gauge.builder("chat.log.queued", queue, ArrayBlockingQueue::size).register(registry);
+        counter(registry, "chat.log.appended", appended);
+        counter(registry, "chat.log.written", written);
+        counter(registry, "chat.log.dropped", dropped);
+        counter(registry, "chat.log.failed", failed);
+        counter(registry, "chat.log.batches", batches);
+    }
+
+    private static void counter(MeterRegistry registry, String name, LongAdder adder) {
+        FunctionCounter.builder(name, adder, LongAdder::sum).register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        if (createTable) {
+            jdbc.execute(CREATE_TABLE);
+        }
+        running = true;
+        writer = new Thread(this::drain, "conversation-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Ghi nốt hàng đợi rồi dừng luồng ghi. */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 10_000);
+        }
+    }
+
+    /** Đưa 1 lượt hỏi–đáp vào hàng đợi ghi; không chờ DB. */
+    public void append(String sessionId, String prompt, String reply, String source, long latencyNanos) {
+        if (!enabled) return;
+        Entry entry = new Entry(Instant.now(), clip(sessionId, MAX_SESSION_ID), prompt, reply,
+                clip(source, MAX_SOURCE), latencyNanos / 1_000);
+        if (overflow == Overflow.BLOCK) {
+            try {
+                queue.put(entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped.increment();
+                return;
+            }
+        } else if (!queue.offer(entry)) {
+            dropped.increment();
+            return;
+        }
+        appended.increment();
+    }
+
+    // cắt cho vừa cột VARCHAR(max), không tách đôi cặp surrogate
+    private static String clip(String s, int max) {
+        if (s == null || s.length() <= max) return s;
+        int end = Character.isHighSurrogate(s.charAt(max - 1)) ? max - 1 : max;
+        return s.substring(0, end);
+    }
+
+    public Stats stats() {
+        return new Stats(queue.size(), appended.sum(), written.sum(), dropped.sum(), failed.sum(), batches.sum());
+    }
+
+    public record Stats(int queued, long appended, long written, long dropped, long failed, long batches) {}
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>(flushSize);
+        long pollMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos));
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                // gom thêm tới flushSize, hoặc tới hết flush-interval kể từ bản ghi đầu
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < flushSize) {
+                    queue.drainTo(batch, flushSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= flushSize || wait <= 0 || !running) break;
+                    Entry next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void write(List<Entry> batch) {
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        for (Entry e : batch) {
+            rows.add(new Object[]{Timestamp.from(e.at()), e.sessionId(), e.prompt(), e.reply(), e.source(), e.latencyMicros()});
+        }
+        try {
+            jdbc.batchUpdate(INSERT, rows);
+            written.add(rows.size());
+            batches.increment();
+        } catch (RuntimeException e) {
+            failed.add(rows.size());
+            log.warn("Không ghi được {} bản ghi chat_log: {}", rows.size(), e.getMessage());
+        }
+    }
+}
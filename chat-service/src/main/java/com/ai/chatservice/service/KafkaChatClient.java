@@ -0,0 +1,132 @@
+package com.ai.chatservice.service;
+
+import com.ai.chatservice.kafka.ChatEnvelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hỏi AI Engine qua Kafka theo kiểu request/reply bất đồng bộ:
+ *
+ *   ask() ──chat-request (ChatEnvelope: correlationId, replyTopic, deadline, câu hỏi)──► ai-engine
+ *   ChatResponseListener ◄──chat-response (ChatEnvelope: correlationId, câu trả lời)── ai-engine
+ *        └── complete(id, reply) → CompletableFuture của đúng request
+ *
+ * Message không có key: partitioner dính (sticky) gom các câu hỏi liền nhau vào cùng 1 lô.
+ *
+ * - Không luồng nào phải chờ: controller trả CompletableFuture, Spring MVC nhả luồng servlet.
+ * - Mỗi request có timeout (chat.kafka.reply-timeout); hết hạn / gửi lỗi / có trả lời đều xoá
+ *   khỏi bảng pending → không còn mục mồ côi. Trả lời không khớp request nào (đến muộn sau timeout, hoặc
+ *   của instance khác cùng đọc topic trả lời) chỉ được đếm rồi bỏ.
+ * - Độ trễ end-to-end (gửi → nhận trả lời) ghi vào LatencyHistogram để báo p50 / p99.
+ * - Số câu hỏi đang chờ trả lời bị giới hạn (AdmissionControl.kafka(), tự chỉnh theo độ trễ vòng Kafka):
+ *   quá giới hạn → OverloadedException ngay, không gửi thêm vào producer.
+ */
+@Service
+public class KafkaChatClient {
+
+    private static final Logger log = LoggerFactory.getLogger(KafkaChatClient.class);
+
+    private final KafkaTemplate<String, ChatEnvelope> kafkaTemplate;
+    private final ChatMetrics metrics;
+    private final AdmissionControl admission;
+    private final String requestTopic;
+    private final String replyTopic;
+    private final long timeoutMillis;
+
+    private final ConcurrentHashMap<UUID, Pending> pending = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder unmatchedReplies = new LongAdder();
+
+    private record Pending(CompletableFuture<String> future, long startNanos) {}
+
+    public KafkaChatClient(KafkaTemplate<String, ChatEnvelope> kafkaTemplate,
+                           ChatMetrics metrics,
+                           AdmissionControl admission,
+                           @Value("${chat.kafka.request-topic:chat-request}") String requestTopic,
+                           @Value("${chat.kafka.reply-topic:chat-response}") String replyTopic,
+                           @Value("${chat.kafka.reply-timeout:10s}") Duration timeout) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.requestTopic = requestTopic;
+        this.replyTopic = replyTopic;
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    /**
+     * Gửi câu hỏi, trả về future hoàn thành khi AI Engine trả lời
+     * (hoặc lỗi TimeoutException sau chat.kafka.reply-timeout).
+     *
+     * @throws OverloadedException quá nhiều câu hỏi đang chờ AI Engine
+     */
+    public CompletableFuture<String> ask(String message) {
+        AdaptiveLimiter.Permit permit = admission.kafka();
+        UUID id = UUID.randomUUID();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        pending.put(id, new Pending(future, System.nanoTime()));
+
+        // dọn mục pending dù kết thúc kiểu nào (trả lời, timeout, gửi lỗi)
+        future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((reply, error) -> {
+                    if (permit != null) permit.release(error != null);
+                    if (pending.remove(id) != null && error != null) {
+                        if (error instanceof TimeoutException) timeouts.increment();
+                        else failures.increment();
+                    }
+                });
+
+        // quá hạn chờ trả lời thì AI Engine bỏ qua câu hỏi, không sinh câu không ai đọc
+        ChatEnvelope request = ChatEnvelope.request(id, replyTopic, System.currentTimeMillis() + timeoutMillis, message);
+        sent.increment();
+        ChatMetrics.Span span = metrics.span();
+        try {
+            kafkaTemplate.send(requestTopic, request).whenComplete((result, error) -> {
+                span.lap(ChatMetrics.Stage.KAFKA_SEND);   // gửi → broker xác nhận
+                if (error != null) future.completeExceptionally(error);
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Gọi từ ChatResponseListener khi có trả lời. Không có request nào chờ id này
+     * (đã timeout, hoặc là trả lời cho instance khác) → bỏ qua.
+     */
+    public void complete(UUID correlationId, String reply) {
+        Pending p = correlationId == null ? null : pending.remove(correlationId);
+        if (p == null) {
+            unmatchedReplies.increment();
+            log.debug("Bỏ qua trả lời không có request chờ: {}", correlationId);
+            return;
+        }
+        latency.recordNanos(System.nanoTime() - p.startNanos);
+        completed.increment();
+        p.future.complete(reply);
+    }
+
+    public Stats stats() {
+        return new Stats(pending.size(), sent.sum(), completed.sum(), timeouts.sum(), failures.sum(),
+                unmatchedReplies.sum(), latency.snapshot());
+    }
+
+    /** Thống kê round trip; latency = gửi → nhận trả lời, chỉ tính request có trả lời kịp. */
+    public record Stats(int pending, long sent, long completed, long timeouts, long failures,
+                        long unmatchedReplies, LatencyHistogram.Snapshot latency) {}
+}
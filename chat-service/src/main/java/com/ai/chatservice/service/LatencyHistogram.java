@@ -0,0 +1,71 @@
+package com.ai.chatservice.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram độ trễ không khoá, sai số tương đối ~12.5% (kiểu HdrHistogram rút gọn):
+ * - < 16 µs: mỗi µs 1 ô
+ * - từ 16 µs: mỗi khoảng [2^e, 2^(e+1)) chia 8 ô đều nhau
+ * Ghi = 1 phép cộng atomic; đọc percentile = quét ~300 ô. Đủ để báo p50 / p99 mà không lưu từng mẫu.
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR = 16;
+    private static final int SUB_BUCKETS = 8;
+    private static final int BUCKETS = LINEAR + (63 - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1_000);
+        buckets.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    /** Cận trên (µs) của ô chứa percentile p (0..1); 0 nếu chưa có mẫu. */
+    public long percentileMicros(double p) {
+        long total = count.get();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(count.get(),
+                percentileMicros(0.50) / 1000.0,
+                percentileMicros(0.90) / 1000.0,
+                percentileMicros(0.99) / 1000.0,
+                max.get() / 1000.0);
+    }
+
+    /** Các mốc độ trễ tính bằng ms. */
+    public record Snapshot(long count, double p50Ms, double p90Ms, double p99Ms, double maxMs) {}
+
+    private static int index(long micros) {
+        if (micros < LINEAR) return (int) micros;
+        int exp = 63 - Long.numberOfLeadingZeros(micros);   // >= 4
+        int sub = (int) (micros >>> (exp - 3)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exp - 4) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < LINEAR) return index;
+        int exp = (index - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (index - LINEAR) % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << (exp - 3);
+        return lower + (1L << (exp - 3)) - 1;
+    }
+}
@@ -0,0 +1,176 @@
+package com.ai.chatservice.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Giữ phiên bản ChatModel đang phục vụ:
+ *
+ *   request ──current()──► AtomicReference<ChatModel>  ◄──set── luồng "model-loader"
+ *
+ * - Đọc: 1 lần get() volatile, không khoá. Request lấy model 1 lần rồi dùng đến hết.
+ * - Nạp (lần đầu lúc khởi động, hoặc reload từ admin): dựng model mới trên luồng nền,
+ *   xong mới đổi tham chiếu → không request nào thấy model dở dang, không cần dừng service.
+ * - Chưa có model đầu tiên → readiness = REFUSING_TRAFFIC (load balancer chưa gửi request tới).
+ */
+@Component
+public class ModelHolder {
+
+    private final String conversationsFile;
+    private final String snapshotFile;
+    private final boolean verifyChecksum;
+    private final int trainingParallelism;
+    private final ApplicationEventPublisher events;
+
+    private final AtomicReference<ChatModel> current = new AtomicReference<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "model-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // chỉ dùng khi đổi trạng thái readiness (hiếm), không nằm trên đường request
+    private final ReentrantLock readinessLock = new ReentrantLock();
+    private volatile String lastError;
+    private volatile Instant loadStartedAt;
+
+    public ModelHolder(@Value("${chat.data.conversations:data/conversations.jsonl}") String conversationsFile,
+                       @Value("${chat.model.snapshot:data/model.bin}") String snapshotFile,
+                       @Value("${chat.model.verify-checksum:false}") boolean verifyChecksum,
+                       @Value("${chat.training.parallelism:0}") int trainingParallelism,
+                       ApplicationEventPublisher events) {
+        this.conversationsFile = conversationsFile;
+        this.snapshotFile = snapshotFile;
+        this.verifyChecksum = verifyChecksum;
+        this.trainingParallelism = trainingParallelism;
+        this.events = events;
+    }
+
+    /**
+     * Model đầu tiên nạp ở nền ngay khi context đã dựng xong: service lên ngay,
+     * readiness báo "chưa sẵn sàng" tới khi nạp xong.
+     */
+    @EventListener(ApplicationStartedEvent.class)
+    public void loadInitialModel() {
+        submit(conversationsFile, snapshotFile, true);
+    }
+
+    /** Model đang phục vụ, null nếu model đầu tiên chưa nạp xong. */
+    public ChatModel current() {
+        return current.get();
+    }
+
+    public boolean isReady() {
+        return current.get() != null;
+    }
+
+    public boolean isLoading() {
+        return loading.get();
+    }
+
+    /**
+     * Dựng lại model ở nền từ file mới (null = dùng file cấu hình).
+     * Có snapshot mở được thì map snapshot, không thì huấn luyện từ conversations.
+     *
+     * @throws IllegalStateException nếu đang có 1 lần nạp khác chạy
+     */
+    public CompletableFuture<ChatModel> reload(String conversations, String snapshot) {
+        String conv = conversations != null ? conversations : conversationsFile;
+        // chỉ đưa conversations mới → huấn luyện từ file đó, không map snapshot cũ
+        String snap = snapshot != null ? snapshot : (conversations != null ? null : snapshotFile);
+        return submit(conv, snap, false);
+    }
+
+    private CompletableFuture<ChatModel> submit(String conversations, String snapshot, boolean initial) {
+        if (!loading.compareAndSet(false, true)) {
+            throw new IllegalStateException("Đang nạp model (bắt đầu lúc " + loadStartedAt + "), thử lại sau");
+        }
+        loadStartedAt = Instant.now();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                long t0 = System.nanoTime();
+                ChatModel model = ChatModel.load(versions.incrementAndGet(), conversations, snapshot,
+                        verifyChecksum, trainingParallelism);
+                // reload hỏng (vd: sai đường dẫn) thì giữ model cũ; lần đầu thì vẫn phục vụ câu mặc định
+                if (!model.trained() && !initial) {
+                    throw new IllegalStateException("Không dựng được model từ " + conversations
+                            + (snapshot != null ? " / " + snapshot : "") + ", giữ nguyên v" + versionOrZero());
+                }
+                current.set(model);
+                lastError = null;
+                System.out.println(">>> ModelHolder: serving model v" + model.version() + " from " + model.source()
+                        + " (" + (System.nanoTime() - t0) / 1_000_000 + " ms)");
+                updateReadiness();
+                return model;
+            } catch (RuntimeException e) {
+                lastError = e.getMessage();
+                System.err.println("WARNING: model reload failed: " + e.getMessage());
+                throw e;
+            } finally {
+                loading.set(false);
+            }
+        }, loader);
+    }
+
+    private long versionOrZero() {
+        ChatModel m = current.get();
+        return m == null ? 0 : m.version();
+    }
+
+    /**
+     * Spring Boot tự báo ACCEPTING_TRAFFIC khi khởi động xong; nếu model chưa nạp xong thì báo lại REFUSING.
+     */
+    @EventListener
+    public void onReadinessChange(AvailabilityChangeEvent<ReadinessState> event) {
+        if (event.getState() == ReadinessState.ACCEPTING_TRAFFIC && !isReady()) {
+            updateReadiness();
+        }
+    }
+
+    private void updateReadiness() {
+        readinessLock.lock();
+        try {
+            AvailabilityChangeEvent.publish(events, this,
+                    isReady() ? ReadinessState.ACCEPTING_TRAFFIC : ReadinessState.REFUSING_TRAFFIC);
+        } finally {
+            readinessLock.unlock();
+        }
+    }
+
+    /** Trạng thái để xem qua admin API. */
+    public Status status() {
+        ChatModel m = current.get();
+        return new Status(
+                m != null,
+                loading.get(),
+                m == null ? 0 : m.version(),
+                m == null ? null : m.source(),
+                m == null ? null : m.loadedAt(),
+                m != null && m.trained(),
+                lastError);
+    }
+
+    public record Status(boolean ready,
+                         boolean loading,
+                         long version,
+                         String source,
+                         Instant loadedAt,
+                         boolean trained,
+                         String lastError) {}
+}
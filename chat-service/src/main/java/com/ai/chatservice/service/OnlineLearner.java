@@ -0,0 +1,150 @@
+package com.ai.chatservice.service;
+
+import com.ai.chatservice.core.ConversationStreamLoader;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Học thêm online: áp từng micro-batch cặp hỏi–đáp (từ topic feedback) vào model đang phục vụ.
+ *
+ *   Kafka poll ──► FeedbackListener ──lô──► apply(...) ──► memory.learnOnline + engine.learn
+ *
+ * - Không dựng lại model: chỉ các state / câu hỏi có trong lô bị chạm → chi phí tỉ lệ với lô.
+ * - Request đang chạy không bị chặn (đọc không khoá), thấy dữ liệu mới ngay sau khi lô áp xong.
+ * - Độ trễ (staleness) = lúc áp xong − thời điểm message cũ nhất của lô được ghi vào Kafka;
+ *   vượt chat.learning.max-staleness-ms thì đếm vào staleBatches + log cảnh báo.
+ * - Số đo qua Actuator: chat.learning.batches / pairs / stale_batches (counter),
+ *   chat.learning.staleness (gauge, ms, tag: last / max).
+ * - Phần học thêm gắn với phiên bản model hiện tại: reload dựng model mới từ file thì bắt đầu lại.
+ */
+@Component
+public class OnlineLearner {
+
+    private static final Logger log = LoggerFactory.getLogger(OnlineLearner.class);
+
+    private final ModelHolder models;
+    private final long maxStalenessMs;
+
+    // các lô áp lần lượt, kể cả khi listener chạy nhiều consumer
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong pairs = new AtomicLong();
+    private final AtomicLong ngrams = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong staleBatches = new AtomicLong();
+    private final AtomicLong maxStaleness = new AtomicLong();
+    private volatile int lastBatchSize;
+    private volatile long lastApplyMicros;
+    private volatile long lastStalenessMs;
+    private volatile Instant lastAppliedAt;
+
+    public OnlineLearner(ModelHolder models,
+                         @Value("${chat.learning.max-staleness-ms:5000}") long maxStalenessMs,
+                         MeterRegistry registry) {
+        this.models = models;
+        this.maxStalenessMs = maxStalenessMs;
+
+        FunctionCounter.builder("chat.learning.batches", batches, AtomicLong::get).register(registry);
+        FunctionCounter.builder("chat.learning.pairs", pairs, AtomicLong::get).register(registry);
+        FunctionCounter.builder("chat.learning.stale_batches", staleBatches, AtomicLong::get).register(registry);
+        Gauge.builder("chat.learning.staleness", this, l -> l.lastStalenessMs)
+                .tag("value", "last").baseUnit("milliseconds").register(registry);
+        Gauge.builder("chat.learning.staleness", maxStaleness, AtomicLong::get)
+                .tag("value", "max").baseUnit("milliseconds").register(registry);
+    }
+
+    /**
+     * Áp 1 micro-batch vào model đang phục vụ.
+     *
+     * @param batch        các cặp đã parse
+     * @param oldestMillis thời điểm (epoch ms) message cũ nhất của lô được tạo
+     * @param invalid      số message trong lô không parse được (chỉ để thống kê)
+     * @throws IllegalStateException nếu model đầu tiên chưa nạp xong (không xảy ra qua FeedbackListener:
+     *                               listener chỉ chạy khi model đã sẵn sàng)
+     */
+    public void apply(List<ConversationStreamLoader.Pair> batch, long oldestMillis, int invalid) {
+        ChatModel model = models.current();
+        if (model == null) {
+            throw new IllegalStateException("Model chưa nạp xong, chưa học thêm được");
+        }
+        rejected.addAndGet(invalid);
+        if (batch.isEmpty()) return;
+
+        lock.lock();
+        try {
+            long t0 = System.nanoTime();
+            int learned = model.memory().learnOnline(batch, model.engine());
+            long micros = (System.nanoTime() - t0) / 1_000;
+
+            long staleness = Math.max(0, System.currentTimeMillis() - oldestMillis);
+            batches.incrementAndGet();
+            pairs.addAndGet(batch.size());
+            ngrams.addAndGet(learned);
+            maxStaleness.accumulateAndGet(staleness, Math::max);
+            lastBatchSize = batch.size();
+            lastApplyMicros = micros;
+            lastStalenessMs = staleness;
+            lastAppliedAt = Instant.now();
+
+            if (staleness > maxStalenessMs) {
+                staleBatches.incrementAndGet();
+                log.warn("Online learning chậm: lô {} cặp trễ {} ms (giới hạn {} ms)",
+                        batch.size(), staleness, maxStalenessMs);
+            }
+            log.debug("Online learning: {} cặp, {} n-gram, {} µs, trễ {} ms (model v{})",
+                    batch.size(), learned, micros, staleness, model.version());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Số liệu để xem qua admin API. */
+    public Stats stats() {
+        ChatModel m = models.current();
+        return new Stats(
+                batches.get(),
+                pairs.get(),
+                ngrams.get(),
+                rejected.get(),
+                lastBatchSize,
+                lastApplyMicros,
+                lastStalenessMs,
+                maxStaleness.get(),
+                maxStalenessMs,
+                staleBatches.get(),
+                lastAppliedAt,
+                m == null ? 0 : m.version(),
+                m == null ? 0 : m.memory().learnedSize(),
+                m == null ? 0 : m.engine().learnedStateCount(),
+                m == null ? 0 : m.tokenizer().learnedWordCount(),
+                m == null ? 0 : m.engine().learnedBytes());
+    }
+
+    public record Stats(long batches,
+                        long pairs,
+                        long ngrams,
+                        long rejected,
+                        int lastBatchSize,
+                        long lastApplyMicros,
+                        long lastStalenessMs,
+                        long maxStalenessMs,
+                        long stalenessLimitMs,
+                        long staleBatches,
+                        Instant lastAppliedAt,
+                        long modelVersion,
+                        int learnedPatterns,
+                        int learnedStates,
+                        int learnedWords,
+                        long learnedBytes) {}
+}
@@ -0,0 +1,33 @@
+package com.ai.chatservice.service;
+
+/**
+ * Request bị từ chối vì quá tải (AdaptiveLimiter): QUEUE_FULL → 429, TIMEOUT (chờ quá lâu) → 503,
+ * kèm Retry-After (giây). Không ghi stack trace: lúc quá tải cần từ chối thật rẻ.
+ */
+public class OverloadedException extends RuntimeException {
+
+    public enum Reason { QUEUE_FULL, TIMEOUT }
+
+    private final String limiter;
+    private final Reason reason;
+    private final long retryAfterSeconds;
+
+    public OverloadedException(String limiter, Reason reason, long retryAfterSeconds) {
+        super("Quá tải (" + limiter + ", " + reason + ")", null, false, false);
+        this.limiter = limiter;
+        this.reason = reason;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String limiter() {
+        return limiter;
+    }
+
+    public Reason reason() {
+        return reason;
+    }
+
+    public long retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
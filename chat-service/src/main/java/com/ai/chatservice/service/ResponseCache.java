@@ -0,0 +1,242 @@
+package com.ai.chatservice.service;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Cache có giới hạn kích thước + thời gian sống (TTL), loại bỏ kiểu segmented LRU (SLRU):
+ *
+ *   probation (mới vào, LRU)  ──hit lần 2──►  protected (~80% dung lượng, LRU)
+ *        ▲                                         │ đầy → đẩy phần tử cũ nhất về
+ *        └─────────────────────────────────────────┘
+ *   hết chỗ → loại phần tử cũ nhất của probation trước
+ *
+ * → câu hỏi chỉ gặp 1 lần không đẩy được các câu hay gặp (chào hỏi, FAQ) ra khỏi cache.
+ *
+ * - Chia SHARDS phần theo hash của key, mỗi phần 1 ReentrantLock → ít tranh chấp.
+ * - Singleflight: nhiều request cùng key cùng miss thì chỉ 1 luồng tính, các luồng khác chờ
+ *   chung 1 CompletableFuture.
+ * - Đếm hit / miss / eviction / expiration / số lần gộp (coalesced) để xem qua admin API.
+ */
+public final class ResponseCache<K, V> {
+
+    private static final int SHARDS = 16;
+
+    private final Shard<K, V>[] shards;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public ResponseCache(int maxSize, Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+        this.shards = new Shard[SHARDS];
+        int perShard = Math.max(1, (maxSize + SHARDS - 1) / SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard<>(perShard);
+        }
+    }
+
+    /**
+     * Giá trị của key; chưa có (hoặc hết hạn) thì tính bằng loader, mỗi key chỉ 1 luồng tính
+     * tại 1 thời điểm. Loader ném lỗi → mọi luồng đang chờ key đó nhận lỗi, không lưu gì.
+     */
+    public V get(K key, Function<K, V> loader) {
+        V cached = getIfPresent(key);
+        if (cached != null) return cached;
+
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException re) throw re;
+                throw e;
+            }
+        }
+
+        try {
+            // luồng khác vừa tính xong giữa lúc kiểm tra cache và lúc giữ chỗ → dùng luôn
+            V raced = getIfPresent(key);
+            if (raced != null) {
+                mine.complete(raced);
+                return raced;
+            }
+            misses.increment();
+            V value = loader.apply(key);
+            if (value != null) put(key, value);
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /** Giá trị còn hạn của key, null nếu không có (không tính là miss). */
+    public V getIfPresent(K key) {
+        Shard<K, V> shard = shard(key);
+        long now = System.nanoTime();
+        shard.lock.lock();
+        try {
+            Node<V> node = shard.probation.remove(key);
+            if (node != null) {
+                if (expired(node, now, shard, key)) return null;
+                // hit lần 2 → lên protected
+                shard.protect(key, node, evictions);
+            } else {
+                node = shard.protectedItems.remove(key);
+                if (node == null) return null;
+                if (expired(node, now, shard, key)) return null;
+                shard.protectedItems.put(key, node);   // chuyển lên cuối (dùng gần nhất)
+            }
+            hits.increment();
+            return node.value;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Key có giá trị còn hạn không, không tính hit và không đổi thứ tự LRU / không lên protected
+     * (cho việc chỉ hỏi thăm, vd: chọn lane, rồi mới get thật).
+     */
+    public boolean contains(K key) {
+        Shard<K, V> shard = shard(key);
+        long now = System.nanoTime();
+        shard.lock.lock();
+        try {
+            Node<V> node = shard.probation.get(key);
+            if (node == null) node = shard.protectedItems.get(key);
+            return node != null && node.expiresAt - now > 0;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    public void put(K key, V value) {
+        Shard<K, V> shard = shard(key);
+        Node<V> node = new Node<>(value, System.nanoTime() + ttlNanos);
+        shard.lock.lock();
+        try {
+            if (shard.protectedItems.remove(key) != null) {
+                shard.protectedItems.put(key, node);
+                return;
+            }
+            shard.probation.remove(key);
+            shard.probation.put(key, node);
+            shard.evictIfNeeded(evictions);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /** Xoá hết (vd: khi đổi cấu hình); thống kê giữ nguyên. */
+    public void clear() {
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.probation.clear();
+                shard.protectedItems.clear();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.probation.size() + shard.protectedItems.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    public Stats stats() {
+        return new Stats(size(), hits.sum(), misses.sum(), coalesced.sum(), evictions.sum(), expirations.sum());
+    }
+
+    /**
+     * hitRate tính cả request được gộp vào 1 lần tính đang chạy (không phải tự tính lại).
+     */
+    public record Stats(int size, long hits, long misses, long coalesced, long evictions, long expirations) {
+
+        public double hitRate() {
+            long total = hits + misses + coalesced;
+            return total == 0 ? 0 : (double) (hits + coalesced) / total;
+        }
+    }
+
+    private boolean expired(Node<V> node, long now, Shard<K, V> shard, K key) {
+        if (node.expiresAt - now > 0) return false;
+        shard.probation.remove(key);
+        shard.protectedItems.remove(key);
+        expirations.increment();
+        return true;
+    }
+
+    private Shard<K, V> shard(K key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+    }
+
+    private record Node<V>(V value, long expiresAt) {}
+
+    private static final class Shard<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        final int capacity;
+        final int protectedCapacity;
+        // cả 2 map theo thứ tự chèn, phần tử đầu = dùng lâu nhất; dùng lại = xoá rồi chèn lại
+        // (không dùng access-order: get() để hỏi thăm không được làm đổi thứ tự)
+        final LinkedHashMap<K, Node<V>> probation = new LinkedHashMap<>();
+        final LinkedHashMap<K, Node<V>> protectedItems = new LinkedHashMap<>();
+
+        Shard(int capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = Math.max(1, capacity * 4 / 5);
+        }
+
+        void protect(K key, Node<V> node, LongAdder evictions) {
+            protectedItems.put(key, node);
+            if (protectedItems.size() > protectedCapacity) {
+                Iterator<Map.Entry<K, Node<V>>> it = protectedItems.entrySet().iterator();
+                Map.Entry<K, Node<V>> oldest = it.next();
+                it.remove();
+                probation.put(oldest.getKey(), oldest.getValue());
+            }
+            evictIfNeeded(evictions);
+        }
+
+        void evictIfNeeded(LongAdder evictions) {
+            while (probation.size() + protectedItems.size() > capacity) {
+                Map<K, Node<V>> from = probation.isEmpty() ? protectedItems : probation;
+                Iterator<Map.Entry<K, Node<V>>> it = from.entrySet().iterator();
+                it.next();
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.ai.chatservice.service;
+
+import com.ai.chatservice.core.LongIntHashMap;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ngữ cảnh hội thoại theo session: mỗi session giữ contextTokens token gần nhất (câu hỏi + câu trả lời
+ * của các lượt trước) trong 1 vòng đệm (ring buffer) int.
+ *
+ * Lưu kiểu "mảng song song" để giữ được hàng triệu session idle:
+ * - session id → hash 64 bit → slot (LongIntHashMap), không giữ String của session
+ * - mỗi slot: key, contextTokens int token, vị trí ghi + độ dài, phiên bản model, lần dùng cuối,
+ *   prev/next của danh sách LRU  (~4·contextTokens + 56 byte)
+ * - chia SHARDS phần theo hash, mỗi phần 1 ReentrantLock; đọc / ghi / loại bỏ đều O(1)
+ *
+ * Giới hạn:
+ * - tổng bộ nhớ ≤ chat.session.max-bytes: đủ số session thì loại session dùng lâu nhất (LRU)
+ * - session không dùng quá chat.session.ttl thì hết hạn (loại dần từ cuối danh sách LRU)
+ * - token phụ thuộc từ vựng của model: model đổi phiên bản → ngữ cảnh cũ bị bỏ qua
+ * Hai session id trùng hash 64 bit sẽ dùng chung ngữ cảnh (xác suất không đáng kể).
+ */
+@Component
+public class SessionStore {
+
+    private static final int SHARDS = 16;
+    private static final int INITIAL_SLOTS = 64;
+    private static final int[] EMPTY = new int[0];
+
+    private final int ring;
+    private final long ttlNanos;
+    private final int maxSessions;
+    private final Shard[] shards;
+
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    public SessionStore(@Value("${chat.session.context-tokens:32}") int contextTokens,
+                        @Value("${chat.session.max-bytes:64MB}") DataSize maxBytes,
+                        @Value("${chat.session.ttl:30m}") Duration ttl,
+                        MeterRegistry registry) {
+        this.ring = Math.max(1, Math.min(contextTokens, 0xFFFF));
+        this.ttlNanos = ttl.toNanos();
+        this.maxSessions = (int) Math.max(SHARDS, Math.min(Integer.MAX_VALUE, maxBytes.toBytes() / bytesPerSession(ring)));
+        this.shards = new Shard[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(maxSessions / SHARDS);
+        }
+
+        Gauge.builder("chat.session.count", this, SessionStore::size).register(registry);
+        Gauge.builder("chat.session.bytes", this, SessionStore::bytes).baseUnit("bytes").register(registry);
+        FunctionCounter.builder("chat.session.evicted", evicted, LongAdder::sum).tag("reason", "lru").register(registry);
+        FunctionCounter.builder("chat.session.evicted", expired, LongAdder::sum).tag("reason", "ttl").register(registry);
+    }
+
+    /** Ước lượng byte cho 1 session: các mảng song song + ô trong bảng băm (tính cả phần dư khi nới). */
+    static long bytesPerSession(int ring) {
+        return 8 + 4L * ring + 4 + 4 + 8 + 8 + 24;
+    }
+
+    /**
+     * Token ngữ cảnh của session (cũ → mới), rỗng nếu chưa có, đã hết hạn hoặc thuộc model khác.
+     * Đánh dấu session vừa được dùng.
+     */
+    public int[] context(String sessionId, long modelVersion) {
+        long key = hash(sessionId);
+        Shard shard = shard(key);
+        long now = System.nanoTime();
+        shard.lock.lock();
+        try {
+            int slot = shard.find(key, now);
+            if (slot < 0 || shard.versions[slot] != (int) modelVersion) return EMPTY;
+            return shard.read(slot);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /** Ghi thêm 1 lượt (câu hỏi rồi câu trả lời) vào ngữ cảnh của session, tạo session nếu chưa có. */
+    public void appendTurn(String sessionId, long modelVersion, int[] user, int[] reply) {
+        long key = hash(sessionId);
+        Shard shard = shard(key);
+        long now = System.nanoTime();
+        shard.lock.lock();
+        try {
+            int slot = shard.find(key, now);
+            if (slot < 0) {
+                slot = shard.insert(key, now);
+            } else if (shard.versions[slot] != (int) modelVersion) {
+                shard.positions[slot] = 0;   // model mới → bỏ token theo từ vựng cũ
+            }
+            shard.versions[slot] = (int) modelVersion;
+            shard.write(slot, user);
+            shard.write(slot, reply);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /** Số session đang giữ (có thể gồm vài session đã hết hạn nhưng chưa bị dọn). */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.size;
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /** Số byte các mảng đang chiếm (đã cấp phát, không chỉ phần đang dùng). */
+    public long bytes() {
+        long bytes = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                bytes += shard.bytes();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return bytes;
+    }
+
+    public Stats stats() {
+        return new Stats(size(), maxSessions, bytes(), evicted.sum(), expired.sum());
+    }
+
+    public record Stats(int sessions, int maxSessions, long bytes, long evicted, long expired) {}
+
+    private Shard shard(long key) {
+        return shards[(int) (key ^ (key >>> 32)) & (SHARDS - 1)];
+    }
+
+    // FNV-1a 64 bit trên các ký tự rồi trộn bit
+    private static long hash(String sessionId) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < sessionId.length(); i++) {
+            h ^= sessionId.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private final class Shard {
+        final ReentrantLock lock = new ReentrantLock();
+        final int maxSlots;
+        final LongIntHashMap index = new LongIntHashMap();
+
+        long[] keys;
+        int[] tokens;       // slot * ring .. slot * ring + ring - 1
+        int[] positions;    // (vị trí ghi kế tiếp << 16) | số token đang có
+        int[] versions;
+        long[] touched;
+        int[] prev;
+        int[] next;         // cũng dùng làm danh sách slot trống
+
+        int allocated;      // số slot đã từng dùng
+        int free = -1;
+        int head = -1;      // dùng gần nhất
+        int tail = -1;      // dùng lâu nhất
+        int size;
+
+        Shard(int maxSlots) {
+            this.maxSlots = Math.max(1, maxSlots);
+            resize(Math.min(INITIAL_SLOTS, this.maxSlots));
+        }
+
+        int find(long key, long now) {
+            int slot = index.get(key, -1);
+            if (slot < 0) return -1;
+            if (now - touched[slot] > ttlNanos) {
+                remove(slot);
+                expired.increment();
+                return -1;
+            }
+            touched[slot] = now;
+            if (slot != head) {
+                unlink(slot);
+                linkFirst(slot);
+            }
+            return slot;
+        }
+
+        int insert(long key, long now) {
+            // cuối danh sách LRU đã hết hạn thì dọn luôn
+            while (tail >= 0 && now - touched[tail] > ttlNanos) {
+                remove(tail);
+                expired.increment();
+            }
+            if (size >= maxSlots) {
+                remove(tail);
+                evicted.increment();
+            }
+
+            int slot;
+            if (free >= 0) {
+                slot = free;
+                free = next[slot];
+            } else {
+                if (allocated == keys.length) resize(Math.min(maxSlots, keys.length * 2));
+                slot = allocated++;
+            }
+            keys[slot] = key;
+            positions[slot] = 0;
+            touched[slot] = now;
+            index.put(key, slot);
+            linkFirst(slot);
+            size++;
+            return slot;
+        }
+
+        int[] read(int slot) {
+            int pos = positions[slot];
+            int length = pos & 0xFFFF;
+            int write = pos >>> 16;
+            int[] out = new int[length];
+            int base = slot * ring;
+            int start = (write - length + ring) % ring;
+            for (int i = 0; i < length; i++) {
+                out[i] = tokens[base + (start + i) % ring];
+            }
+            return out;
+        }
+
+        void write(int slot, int[] ids) {
+            int pos = positions[slot];
+            int length = pos & 0xFFFF;
+            int write = pos >>> 16;
+            int base = slot * ring;
+            // dài hơn vòng đệm thì chỉ cần ring token cuối
+            for (int i = Math.max(0, ids.length - ring); i < ids.length; i++) {
+                tokens[base + write] = ids[i];
+                write = write + 1 == ring ? 0 : write + 1;
+                if (length < ring) length++;
+            }
+            positions[slot] = (write << 16) | length;
+        }
+
+        void remove(int slot) {
+            index.remove(keys[slot], -1);
+            unlink(slot);
+            next[slot] = free;
+            free = slot;
+            size--;
+        }
+
+        void linkFirst(int slot) {
+            prev[slot] = -1;
+            next[slot] = head;
+            if (head >= 0) prev[head] = slot;
+            head = slot;
+            if (tail < 0) tail = slot;
+        }
+
+        void unlink(int slot) {
+            int p = prev[slot];
+            int n = next[slot];
+            if (p >= 0) next[p] = n; else head = n;
+            if (n >= 0) prev[n] = p; else tail = p;
+        }
+
+        void resize(int slots) {
+            keys = keys == null ? new long[slots] : Arrays.copyOf(keys, slots);
+            tokens = tokens == null ? new int[slots * ring] : Arrays.copyOf(tokens, slots * ring);
+            positions = positions == null ? new int[slots] : Arrays.copyOf(positions, slots);
+            versions = versions == null ? new int[slots] : Arrays.copyOf(versions, slots);
+            touched = touched == null ? new long[slots] : Arrays.copyOf(touched, slots);
+            prev = prev == null ? new int[slots] : Arrays.copyOf(prev, slots);
+            next = next == null ? new int[slots] : Arrays.copyOf(next, slots);
+        }
+
+        long bytes() {
+            int slots = keys.length;
+            return 8L * slots + 4L * tokens.length + 4L * slots + 4L * slots + 8L * slots + 8L * slots
+                    + index.estimatedBytes();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.ai.chatservice.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackoffTest {
+
+	private static final DecodingOptions GREEDY = new DecodingOptions(DecodingOptions.Strategy.GREEDY, 1.0, 0, 1.0);
+
+	@Test
+	void unseenPairBacksOffToTheLastWord() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		MarkovChatEngine engine = new MarkovChatEngine(2);
+		engine.train(tokenizer, "hôm nay trời đẹp quá");
+		engine.train(tokenizer, "xin chào bạn");
+
+		// "chào trời" chưa từng đi cùng nhau → dùng bậc 1 [trời], dừng ở cuối câu đã học
+		assertEquals("đẹp quá", engine.generate(tokenizer, "chào trời", 10, GREEDY, new Random(1)));
+		assertEquals("trời đẹp quá", engine.generate(tokenizer, "hôm nay", 10, GREEDY, new Random(1)));
+	}
+
+	@Test
+	void longestContextWins() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		MarkovChatEngine engine = new MarkovChatEngine(3);
+		engine.train(tokenizer, "a x b");
+		engine.train(tokenizer, "a x b");
+		engine.train(tokenizer, "c x d");
+		engine.freeze();
+
+		// bậc 1 [x] nghiêng về b, nhưng [c x] đã gặp → d
+		assertEquals("d", engine.generate(tokenizer, "c x", 1, GREEDY, new Random(1)));
+		assertEquals("b", engine.generate(tokenizer, "z x", 1, GREEDY, new Random(1)));
+	}
+}
@@ -0,0 +1,50 @@
+package com.ai.chatservice.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationStreamLoaderTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void parsesMultiLineBlocksAndAllEscapes() throws IOException {
+		Path file = dir.resolve("conversations.jsonl");
+		Files.writeString(file, """
+				{"messages":[
+				  {"role":"system","content":"bỏ qua"},
+				  {"content":"xin \\"chào\\"\\n\\t\\u0062\\u1ea1n \\ud83d\\ude00 a\\/b\\\\c","role":"user"},
+				  {"role":"assistant","content":"  chào bạn  ","extra":{"x":[1,2,{"y":null}]}}
+				]}
+				{"id": 7, "messages": [{"role": "user", "content": "hỏi"}, {"role": "assistant", "content": "đáp"}]}
+				""", StandardCharsets.UTF_8);
+
+		List<ConversationStreamLoader.Pair> pairs = new ArrayList<>();
+		ConversationStreamLoader.Stats stats = ConversationStreamLoader.loadPipelined(file, 1, pairs::add);
+
+		assertEquals(2, stats.conversations());
+		assertEquals(2, stats.pairs());
+		assertEquals(Files.size(file), stats.bytes());
+		assertEquals("xin \"chào\"\n\tbạn 😀 a/b\\c", pairs.get(0).user());
+		assertEquals("chào bạn", pairs.get(0).assistant());
+		assertEquals(new ConversationStreamLoader.Pair("hỏi", "đáp"), pairs.get(1));
+	}
+
+	@Test
+	void reportsTruncatedInput() throws IOException {
+		Path file = dir.resolve("broken.jsonl");
+		Files.writeString(file, "{\"messages\":[{\"role\":\"user\",\"content\":\"xin", StandardCharsets.UTF_8);
+
+		assertThrows(IOException.class, () -> ConversationStreamLoader.loadPipelined(file, 1, p -> { }));
+	}
+}
@@ -0,0 +1,61 @@
+package com.ai.chatservice.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GenerationBudgetTest {
+
+	private static final DecodingOptions GREEDY = DecodingOptions.of("GREEDY", null, null, null);
+
+	@Test
+	void stopsAtTheEndOfASentence() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		MarkovChatEngine engine = new MarkovChatEngine(2);
+		engine.train(tokenizer, "xin chào bạn. bạn khỏe không?");
+
+		int[] out = new int[30];
+		Generation g = engine.generateIds(tokenizer.encode("xin chào"), GenerationBudget.tokens(30), GREEDY,
+				new Random(1), out);
+
+		assertEquals(Generation.Stop.SENTENCE_END, g.stop());
+		assertEquals("bạn", tokenizer.decode(out, g.produced()));
+	}
+
+	@Test
+	void repetitionStopsStreamingWithoutHoldingWordsBack() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		MarkovChatEngine engine = new MarkovChatEngine(1);
+		engine.train(tokenizer, "lên xuống lên xuống lên xuống lên xuống rồi");
+
+		int[] out = new int[30];
+		Generation g = engine.generateIds(tokenizer.encode("lên"), GenerationBudget.tokens(30), GREEDY,
+				new Random(1), out);
+		List<String> tokens = new ArrayList<>();
+		Generation streamed = engine.generate(tokenizer, "lên", GenerationBudget.tokens(30), GREEDY, new Random(1),
+				tokens::add);
+
+		assertEquals(Generation.Stop.REPETITION, g.stop());
+		assertEquals("xuống lên", tokenizer.decode(out, g.produced()));
+		// từ được gửi ngay nên phần đầu của bản lặp đã tới client; từ hoàn tất vòng lặp thì không
+		assertEquals(List.of("xuống", "lên", "xuống"), tokens);
+		assertEquals(Generation.Stop.REPETITION, streamed.stop());
+	}
+
+	@Test
+	void expiredDeadlineReturnsWhatWasGenerated() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		MarkovChatEngine engine = new MarkovChatEngine(2);
+		engine.train(tokenizer, "hôm nay trời nắng đẹp quá bạn có muốn đi dạo không");
+
+		Generation g = engine.generateIds(tokenizer.encode("hôm nay"),
+				new GenerationBudget(30, System.nanoTime() - 1), DecodingOptions.DEFAULT, new Random(1), new int[30]);
+
+		assertEquals(0, g.produced());
+		assertTrue(g.truncated());
+	}
+}
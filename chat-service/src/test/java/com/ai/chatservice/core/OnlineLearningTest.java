@@ -0,0 +1,49 @@
+package com.ai.chatservice.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OnlineLearningTest {
+
+	private static final DecodingOptions GREEDY = new DecodingOptions(DecodingOptions.Strategy.GREEDY, 1.0, 0, 1.0);
+
+	@Test
+	void learnedPairsAreServedWithoutRetraining() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		MarkovChatEngine engine = new MarkovChatEngine(2);
+		ConversationMemory memory = new ConversationMemory(tokenizer);
+		memory.learn("xin chào", "chào bạn mình là bot", engine);
+		engine.freeze();
+		tokenizer.freeze();
+		int vocabulary = tokenizer.vocabularySize();
+
+		assertNull(memory.findDirectReply("Thời tiết sao?"));
+		memory.learnOnline(List.of(
+				new ConversationStreamLoader.Pair("thời tiết sao", "hôm nay trời nắng đẹp")), engine);
+
+		assertEquals("hôm nay trời nắng đẹp", memory.findDirectReply("Thời tiết sao?"));
+		assertEquals(1, memory.learnedSize());
+		assertEquals(vocabulary + 8, tokenizer.vocabularySize());
+		assertEquals(8, tokenizer.learnedWordCount());
+		assertEquals("trời nắng đẹp", engine.generate(tokenizer, "hôm nay", 3, GREEDY, new Random(1)));
+	}
+
+	@Test
+	void learnedCountsAreAddedToFrozenCounts() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		MarkovChatEngine engine = new MarkovChatEngine(1);
+		engine.train(tokenizer, "a b a b a c");
+		engine.freeze();
+		tokenizer.freeze();
+		assertEquals("b", engine.generate(tokenizer, "a", 1, GREEDY, new Random(1)));
+
+		// a→b: 2 gốc, a→c: 1 gốc + 2 học thêm → c thắng; lô có 2 n-gram: a→c, c→END
+		assertEquals(2, engine.learn(tokenizer, List.of("a c", "a c")));
+		assertEquals("c", engine.generate(tokenizer, "a", 1, GREEDY, new Random(1)));
+		assertEquals(2, engine.learnedStateCount());
+	}
+}
@@ -0,0 +1,84 @@
+package com.ai.chatservice.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutOfCoreTrainerTest {
+
+	private static final DecodingOptions GREEDY = new DecodingOptions(DecodingOptions.Strategy.GREEDY, 1.0, 0, 1.0);
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void spilledRunsBuildTheSameModelAsInMemoryTraining() throws IOException {
+		Path corpus = dir.resolve("conversations.jsonl");
+		String[] words = {"xin", "chào", "bạn", "mình", "là", "bot", "hôm", "nay", "trời", "đẹp", "quá", "không",
+				"mưa", "nắng", "đi", "học", "làm", "ăn", "cơm", "chưa"};
+		Random rnd = new Random(11);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 400; i++) {
+			sb.append("{\"messages\":[{\"role\":\"user\",\"content\":\"")
+					.append(sentence(words, rnd, 1 + rnd.nextInt(4)))
+					.append("\"},{\"role\":\"assistant\",\"content\":\"")
+					.append(sentence(words, rnd, 2 + rnd.nextInt(8)))
+					.append("\"}]}\n");
+		}
+		Files.writeString(corpus, sb, StandardCharsets.UTF_8);
+
+		SimpleTokenizer expectedTokenizer = new SimpleTokenizer();
+		MarkovChatEngine expected = new MarkovChatEngine(3);
+		new ConversationMemory(expectedTokenizer).load(corpus.toString(), expected);
+		expected.freeze();
+		expectedTokenizer.freeze();
+
+		// bảng gom chỉ vài trăm bản ghi + fanIn 3 → nhiều run và nhiều lượt trộn
+		Path out = dir.resolve("model.bin");
+		Path work = Files.createDirectories(dir.resolve("work"));
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		OutOfCoreTrainer trainer = new OutOfCoreTrainer(3, 16 * 1024, work, 3);
+		trainer.load(corpus, tokenizer);
+		OutOfCoreTrainer.Stats stats = trainer.finish(tokenizer, out);
+
+		assertTrue(stats.runs() > 3, stats.toString());
+		assertTrue(stats.mergePasses() > 1, stats.toString());
+		assertEquals(400, stats.units());
+		assertEquals(expected.transitionCount(), stats.distinct());
+		try (var files = Files.list(work)) {
+			assertEquals(0, files.count());
+		}
+
+		ModelSnapshot snapshot = ModelSnapshot.open(out, true);
+		SimpleTokenizer loadedTokenizer = SimpleTokenizer.fromSnapshot(snapshot);
+		MarkovChatEngine loaded = MarkovChatEngine.fromSnapshot(snapshot);
+		assertEquals(expectedTokenizer.vocabularySize(), loadedTokenizer.vocabularySize());
+		assertEquals(expected.stateCount(), loaded.stateCount());
+		assertEquals(expected.transitionCount(), loaded.transitionCount());
+
+		// cùng phân phối ở mọi ngữ cảnh → cùng câu trả lời với cùng seed
+		for (int i = 0; i < 50; i++) {
+			String prompt = sentence(words, rnd, 1 + rnd.nextInt(3));
+			assertEquals(expected.generate(expectedTokenizer, prompt, 12, GREEDY, new Random(i)),
+					loaded.generate(loadedTokenizer, prompt, 12, GREEDY, new Random(i)));
+			assertEquals(expected.generate(expectedTokenizer, prompt, 12, DecodingOptions.DEFAULT, new Random(i)),
+					loaded.generate(loadedTokenizer, prompt, 12, DecodingOptions.DEFAULT, new Random(i)));
+		}
+	}
+
+	private static String sentence(String[] words, Random rnd, int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			if (i > 0) sb.append(' ');
+			sb.append(words[rnd.nextInt(words.length)]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,77 @@
+package com.ai.chatservice.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelTrainerTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void parallelTrainingBuildsTheSameModelAsSequential() throws IOException {
+		Path corpus = dir.resolve("conversations.jsonl");
+		String[] base = {"xin", "chào", "bạn", "mình", "là", "bot", "hôm", "nay", "trời", "đẹp", "quá", "không"};
+		String[] words = new String[200];
+		for (int i = 0; i < words.length; i++) {
+			// vài từ hiếm để từ vựng còn tăng ở các chunk sau
+			words[i] = i < base.length * 10 ? base[i % base.length] : "từ" + i;
+		}
+		Random rnd = new Random(7);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			sb.append("{\"messages\":[{\"role\":\"user\",\"content\":\"")
+					.append(sentence(words, rnd, 1 + rnd.nextInt(3)))
+					.append("\"},{\"role\":\"assistant\",\"content\":\"")
+					.append(sentence(words, rnd, 2 + rnd.nextInt(8)))
+					.append("\"}]}\n");
+		}
+		Files.writeString(corpus, sb, StandardCharsets.UTF_8);
+
+		Path sequential = compile(corpus, null);
+		ParallelTrainer trainer = new ParallelTrainer(4, 7);
+		try {
+			Path parallel = compile(corpus, trainer);
+			assertEquals(-1L, Files.mismatch(sequential, parallel));
+		} finally {
+			trainer.shutdown();
+		}
+	}
+
+	private Path compile(Path corpus, ParallelTrainer trainer) throws IOException {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		MarkovChatEngine engine = new MarkovChatEngine(2);
+		ConversationMemory memory = new ConversationMemory(tokenizer);
+		if (trainer == null) {
+			memory.load(corpus.toString(), engine);
+		} else {
+			memory.load(corpus.toString(), engine, trainer);
+		}
+
+		Path out = dir.resolve(trainer == null ? "sequential.bin" : "parallel.bin");
+		try (ModelSnapshot.Writer w = ModelSnapshot.create(out)) {
+			tokenizer.writeTo(w);
+			engine.writeTo(w);
+			memory.writeTo(w);
+			w.finish();
+		}
+		return out;
+	}
+
+	private static String sentence(String[] words, Random rnd, int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			if (i > 0) sb.append(' ');
+			sb.append(words[rnd.nextInt(words.length)]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,46 @@
+package com.ai.chatservice.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetrievalIndexTest {
+
+	private static RetrievalIndex index(List<String> questions) {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		for (String q : questions) tokenizer.encode(q);
+		tokenizer.freeze();
+		return RetrievalIndex.build(tokenizer, StringTable.build(questions, false));
+	}
+
+	@Test
+	void findsTheClosestStoredQuestion() {
+		RetrievalIndex index = index(List.of(
+				"bạn là ai",
+				"bạn tên là gì",
+				"hôm nay thời tiết thế nào",
+				"mấy giờ rồi"));
+
+		RetrievalIndex.Match exact = index.search("Bạn tên là gì?");
+		assertEquals("bạn tên là gì", exact.question());
+		assertEquals(1.0, exact.similarity(), 1e-9);
+
+		RetrievalIndex.Match near = index.search("cho hỏi thời tiết hôm nay");
+		assertEquals("hôm nay thời tiết thế nào", near.question());
+		assertTrue(near.similarity() > 0 && near.similarity() < 1, "similarity = " + near.similarity());
+
+		assertNull(index.search("xyz abc"));
+		assertNull(index.search(" ? "));
+	}
+
+	@Test
+	void unknownWordsLowerTheSimilarity() {
+		RetrievalIndex index = index(List.of("mấy giờ rồi", "bạn là ai"));
+
+		double close = index.search("mấy giờ rồi nhỉ").similarity();
+		double far = index.search("mấy giờ tàu chạy đi hà nội vậy").similarity();
+		assertTrue(close > far, close + " <= " + far);
+	}
+}
@@ -0,0 +1,119 @@
+package com.ai.chatservice.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimpleTokenizerTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void encodeSplitsLikeTheRegexVersion() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		int[] ids = tokenizer.encode("  Xin chào, BẠN!\tHôm\u000Bnay  trời.đẹp ; ?  ");
+
+		assertEquals("xin chào bạn hôm nay trờiđẹp", tokenizer.decode(ids, ids.length));
+		assertEquals(0, tokenizer.encode(" , . ").length);
+	}
+
+	@Test
+	void frozenVocabularyMapsUnknownWordsToUnk() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		int[] trained = tokenizer.encode("xin chào bạn");
+		tokenizer.freeze();
+		int size = tokenizer.vocabularySize();
+
+		assertArrayEquals(trained, tokenizer.encode("Xin chào bạn"));
+		assertArrayEquals(new int[]{trained[0], SimpleTokenizer.UNK, trained[2]},
+				tokenizer.encode("xin tạm-biệt bạn"));
+		assertEquals(size, tokenizer.vocabularySize());
+	}
+
+	@Test
+	void decodeToWritesTheSameUtf8BytesAsDecode() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		StringBuilder text = new StringBuilder("xin chào 😀 bạn ");
+		for (int i = 0; i < 5000; i++) text.append("từ").append(i).append(' ');
+		int[] ids = tokenizer.encode(text + "xin chào");
+		assertEquals(5006, tokenizer.vocabularySize());
+		assertEquals(ids[0], ids[ids.length - 2]);
+		tokenizer.freeze();
+		int[] learned = tokenizer.encodeAndLearn("đẹp quá xin");
+
+		for (int[] sentence : new int[][]{ids, learned, {-1, SimpleTokenizer.UNK, 99_999}}) {
+			Utf8Buffer out = new Utf8Buffer(16);
+			out.append((byte) '>');
+			int written = tokenizer.decodeTo(sentence, sentence.length, out);
+			byte[] expected = tokenizer.decode(sentence, sentence.length).getBytes(StandardCharsets.UTF_8);
+			assertEquals(expected.length, written);
+			assertArrayEquals(expected, Arrays.copyOfRange(out.array(), 1, out.length()));
+		}
+		assertEquals("đẹp quá xin", tokenizer.decode(learned, learned.length));
+	}
+
+	@Test
+	void textCannotProduceTheSentenceEndToken() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		int eos = tokenizer.sentenceEnd();
+		int[] trained = tokenizer.encodeSentences("gõ </s> nhé. xong");
+		tokenizer.freeze();
+
+		assertEquals(List.of("gõ", "</s>", "nhé", "."), Arrays.stream(trained).limit(4).mapToObj(tokenizer::word).toList());
+		assertEquals(eos, trained[3]);
+		for (int id : tokenizer.encode("</s> . </s>.")) assertTrue(id != eos);
+		assertEquals(trained[1], tokenizer.encode("</s>")[0]);
+	}
+
+	@Test
+	void vocabularyWithoutSentenceEndStillLearnsNewWords() throws Exception {
+		Path file = dir.resolve("vocab.bin");
+		try (ModelSnapshot.Writer w = ModelSnapshot.create(file)) {
+			StringTable.build(List.of("<unk>", "xin", "chào"), true).writeTo(w, "vocab");
+			w.finish();
+		}
+		SimpleTokenizer tokenizer = SimpleTokenizer.fromSnapshot(ModelSnapshot.open(file, true));
+
+		assertEquals(-1, tokenizer.sentenceEnd());
+		assertArrayEquals(new int[]{3, 1}, tokenizer.encodeAndLearn("bạn xin"));
+		assertEquals(1, tokenizer.learnedWordCount());
+		assertArrayEquals(new int[]{3, 2}, tokenizer.encode("bạn chào"));
+	}
+
+	@Test
+	void frozenEncodeIsSafeFromManyThreads() throws Exception {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		tokenizer.encode("mình là bot demo trả lời câu hỏi");
+		tokenizer.freeze();
+		int[] expected = tokenizer.encode("bot trả lời câu hỏi lạ");
+
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				int seed = t;
+				futures.add(pool.submit(() -> {
+					for (int i = 0; i < 10_000; i++) {
+						tokenizer.encode("từ mới " + seed + "-" + i);
+						assertArrayEquals(expected, tokenizer.encode("bot trả lời câu hỏi lạ"));
+					}
+				}));
+			}
+			for (Future<?> f : futures) f.get();
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(10, tokenizer.vocabularySize());
+	}
+}
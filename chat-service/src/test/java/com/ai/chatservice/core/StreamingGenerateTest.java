@@ -0,0 +1,45 @@
+package com.ai.chatservice.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingGenerateTest {
+
+	private static final String TEXT =
+			"hôm nay trời nắng đẹp quá bạn có muốn đi dạo không mình thì rất muốn đi dạo công viên cùng bạn";
+
+	@Test
+	void streamingEmitsTheSameWordsAsGenerate() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		MarkovChatEngine engine = new MarkovChatEngine(2);
+		engine.train(tokenizer, TEXT);
+
+		String whole = engine.generate(tokenizer, "hôm nay", 30, DecodingOptions.DEFAULT, new Random(42));
+		List<String> tokens = new ArrayList<>();
+		int produced = engine.generate(tokenizer, "hôm nay", 30, DecodingOptions.DEFAULT, new Random(42),
+				tokens::add);
+
+		assertEquals(whole, String.join(" ", tokens));
+		assertEquals(tokens.size(), produced);
+		assertTrue(produced > 3);
+	}
+
+	@Test
+	void returningFalseStopsGeneration() {
+		SimpleTokenizer tokenizer = new SimpleTokenizer();
+		MarkovChatEngine engine = new MarkovChatEngine(2);
+		engine.train(tokenizer, TEXT);
+
+		List<String> tokens = new ArrayList<>();
+		int produced = engine.generate(tokenizer, "hôm nay", 30, DecodingOptions.DEFAULT, new Random(42),
+				token -> tokens.add(token) && tokens.size() < 3);
+
+		assertEquals(3, tokens.size());
+		assertEquals(3, produced);
+	}
+}
@@ -0,0 +1,60 @@
+package com.ai.chatservice.kafka;
+
+import com.ai.chatservice.core.DecodingOptions;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.KafkaHeaders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatEnvelopeTest {
+
+	private final ChatEnvelopeSerializer serializer = new ChatEnvelopeSerializer();
+	private final ChatEnvelopeDeserializer deserializer = new ChatEnvelopeDeserializer();
+
+	@Test
+	void roundTripKeepsEveryField() {
+		DecodingOptions options = new DecodingOptions(DecodingOptions.Strategy.CUMULATIVE, 0.5, 40, 0.75);
+		String longSession = "phiên-".repeat(40);   // > 127 byte: độ dài varint 2 byte
+		ChatEnvelope[] envelopes = {
+				new ChatEnvelope(UUID.randomUUID(), "chat-response", longSession,
+						System.currentTimeMillis() + 10_000, 12, options, "Xin chào 👋 bạn khỏe không?"),
+				ChatEnvelope.request(UUID.randomUUID(), "chat-response", 0, ""),
+				ChatEnvelope.reply(ChatEnvelope.request(UUID.randomUUID(), null, 0, "hỏi"), "đáp"),
+		};
+		for (ChatEnvelope envelope : envelopes) {
+			assertEquals(envelope, deserializer.deserialize("chat-request", serializer.serialize("chat-request", envelope)));
+		}
+	}
+
+	@Test
+	void plainStringMessagesAreReadWithHeaders() {
+		UUID id = UUID.randomUUID();
+		Headers headers = new RecordHeaders()
+				.add(KafkaHeaders.CORRELATION_ID, id.toString().getBytes(StandardCharsets.UTF_8))
+				.add(KafkaHeaders.REPLY_TOPIC, "chat-response".getBytes(StandardCharsets.UTF_8));
+
+		ChatEnvelope legacy = deserializer.deserialize("chat-request", headers, "xin chào".getBytes(StandardCharsets.UTF_8));
+
+		assertEquals(ChatEnvelope.request(id, "chat-response", 0, "xin chào"), legacy);
+	}
+
+	@Test
+	void envelopeIsSmallerThanStringWithHeadersAndUnknownVersionIsRejected() {
+		UUID id = UUID.randomUUID();
+		byte[] bytes = serializer.serialize("chat-request",
+				ChatEnvelope.request(id, "chat-response", System.currentTimeMillis(), "xin chào"));
+		int legacy = "xin chào".getBytes(StandardCharsets.UTF_8).length
+				+ KafkaHeaders.CORRELATION_ID.length() + 36 + KafkaHeaders.REPLY_TOPIC.length() + "chat-response".length();
+		assertTrue(bytes.length < legacy);
+
+		bytes[1] = ChatEnvelope.VERSION + 1;
+		byte[] newer = bytes;
+		assertThrows(SerializationException.class, () -> deserializer.deserialize("chat-request", newer));
+	}
+}
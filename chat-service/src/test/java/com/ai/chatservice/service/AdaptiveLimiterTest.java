@@ -0,0 +1,81 @@
+package com.ai.chatservice.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveLimiterTest {
+
+	@Test
+	void slowRequestsShrinkTheLimitAndFastBusyOnesGrowIt() throws Exception {
+		AdaptiveLimiter slow = new AdaptiveLimiter("t", 10, 100, Duration.ofMillis(1), 0, Duration.ZERO, 0);
+		AdaptiveLimiter.Permit a = slow.acquire(AdaptiveLimiter.Lane.GENERATE);
+		AdaptiveLimiter.Permit b = slow.acquire(AdaptiveLimiter.Lane.GENERATE);
+		Thread.sleep(5);
+		a.close();
+		b.close();   // cùng đợt nghẽn với a → chỉ giảm 1 lần
+		assertEquals(10 * AdaptiveLimiter.BACKOFF, slow.limit(), 1e-9);
+
+		AdaptiveLimiter fast = new AdaptiveLimiter("t", 10, 100, Duration.ofSeconds(10), 0, Duration.ZERO, 0);
+		List<AdaptiveLimiter.Permit> permits = new ArrayList<>();
+		for (int i = 0; i < 10; i++) permits.add(fast.acquire(AdaptiveLimiter.Lane.GENERATE));
+		for (AdaptiveLimiter.Permit p : permits) p.close();
+		assertTrue(fast.limit() > 10);
+		assertEquals(0, fast.stats().inFlight());
+	}
+
+	@Test
+	void reserveIsKeptForTheCheapLaneAndOverflowIsRejected() throws Exception {
+		AdaptiveLimiter limiter = new AdaptiveLimiter("t", 2, 2, Duration.ofSeconds(10), 1, Duration.ofMillis(20), 0.5);
+		AdaptiveLimiter.Permit generate = limiter.acquire(AdaptiveLimiter.Lane.GENERATE);
+
+		// lane GENERATE chỉ được 1 chỗ: request thứ 2 chờ rồi hết giờ, CHEAP vẫn còn chỗ dành riêng
+		OverloadedException timeout = assertThrows(OverloadedException.class,
+				() -> limiter.acquire(AdaptiveLimiter.Lane.GENERATE));
+		assertEquals(OverloadedException.Reason.TIMEOUT, timeout.reason());
+		assertTrue(timeout.retryAfterSeconds() >= 1);
+
+		AdaptiveLimiter.Permit cheap = limiter.acquire(AdaptiveLimiter.Lane.CHEAP);
+		assertEquals(2, limiter.stats().inFlight());
+		cheap.close();
+		generate.close();
+		assertEquals(0, limiter.stats().inFlight());
+	}
+
+	@Test
+	void waitingCheapRequestsAreAdmittedBeforeGeneration() throws Exception {
+		AdaptiveLimiter limiter = new AdaptiveLimiter("t", 1, 1, Duration.ofSeconds(10), 4, Duration.ofSeconds(10), 0);
+		AdaptiveLimiter.Permit held = limiter.acquire(AdaptiveLimiter.Lane.GENERATE);
+		List<String> order = new CopyOnWriteArrayList<>();
+
+		Thread generate = waiter(limiter, AdaptiveLimiter.Lane.GENERATE, order);
+		awaitQueued(limiter, AdaptiveLimiter.Lane.GENERATE);
+		Thread cheap = waiter(limiter, AdaptiveLimiter.Lane.CHEAP, order);
+		awaitQueued(limiter, AdaptiveLimiter.Lane.CHEAP);
+
+		held.close();
+		generate.join(5_000);
+		cheap.join(5_000);
+		assertEquals(List.of("CHEAP", "GENERATE"), order);
+	}
+
+	private static Thread waiter(AdaptiveLimiter limiter, AdaptiveLimiter.Lane lane, List<String> order) {
+		Thread t = new Thread(() -> {
+			try (AdaptiveLimiter.Permit p = limiter.acquire(lane)) {
+				order.add(lane.name());
+			}
+		});
+		t.start();
+		return t;
+	}
+
+	private static void awaitQueued(AdaptiveLimiter limiter, AdaptiveLimiter.Lane lane) throws InterruptedException {
+		for (int i = 0; i < 500 && limiter.stats().queued()[lane.ordinal()] == 0; i++) Thread.sleep(10);
+		assertEquals(1, limiter.stats().queued()[lane.ordinal()]);
+	}
+}
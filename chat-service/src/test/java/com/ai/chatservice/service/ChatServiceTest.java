@@ -0,0 +1,49 @@
+package com.ai.chatservice.service;
+
+import com.ai.chatservice.core.DecodingOptions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatServiceTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void unanswerablePromptStaysOutOfCacheAndSessionContext() throws Exception {
+		Path corpus = dir.resolve("conversations.jsonl");
+		Files.writeString(corpus, "{\"messages\":[{\"role\":\"user\",\"content\":\"xin chào\"},"
+				+ "{\"role\":\"assistant\",\"content\":\"chào bạn.\"}]}\n", StandardCharsets.UTF_8);
+		ModelHolder models = new ModelHolder(corpus.toString(), dir.resolve("none.bin").toString(), false, 1, e -> { });
+		models.loadInitialModel();
+		while (models.isLoading() || !models.isReady()) Thread.onSpinWait();
+
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		SessionStore sessions = new SessionStore(32, DataSize.ofMegabytes(1), Duration.ofMinutes(30), registry);
+		ChatService chat = new ChatService(models, new ChatMetrics(registry, models, 0),
+				new ConversationLog(null, registry, false, 10, 10, Duration.ofSeconds(1),
+						ConversationLog.Overflow.DROP, false),
+				sessions, 0.6, 100, Duration.ofMinutes(10), 4, 30, 200, Duration.ZERO);
+		try {
+			String first = chat.chat("s1", "bạn", DecodingOptions.DEFAULT);
+			String again = chat.chat("s2", "bạn", DecodingOptions.DEFAULT);
+
+			assertEquals(first, again);
+			assertEquals(2.0, registry.get("chat.outcome").tag("outcome", "no_answer").counter().count());
+			assertEquals(0.0, registry.get("chat.outcome").tag("outcome", "cached").counter().count());
+			int[] prompt = models.current().tokenizer().encode("bạn");
+			assertArrayEquals(prompt, sessions.context("s2", models.current().version()));
+		} finally {
+			chat.shutdown();
+		}
+	}
+}
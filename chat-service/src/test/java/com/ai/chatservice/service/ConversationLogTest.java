@@ -0,0 +1,70 @@
+package com.ai.chatservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationLogTest {
+
+	@Test
+	void entriesAreWrittenInBatches() throws Exception {
+		JdbcTemplate jdbc = h2("chatlog_batches");
+		ConversationLog log = new ConversationLog(jdbc, new SimpleMeterRegistry(), true, 1000, 10,
+				Duration.ofMillis(50), ConversationLog.Overflow.DROP, true);
+		log.start();
+		for (int i = 0; i < 25; i++) {
+			log.append("s1", "câu hỏi " + i, "trả lời " + i, "markov", 1_500_000);
+		}
+		log.close();
+
+		assertEquals(25L, jdbc.queryForObject("SELECT COUNT(*) FROM chat_log", Long.class).longValue());
+		assertEquals(1500L, jdbc.queryForObject(
+				"SELECT latency_micros FROM chat_log WHERE prompt = ?", Long.class, "câu hỏi 7").longValue());
+		ConversationLog.Stats stats = log.stats();
+		assertEquals(25, stats.written());
+		assertTrue(stats.batches() >= 3, "flush-size 10 → ít nhất 3 lô");
+	}
+
+	@Test
+	void longSessionIdDoesNotFailItsBatch() throws Exception {
+		JdbcTemplate jdbc = h2("chatlog_long_session");
+		ConversationLog log = new ConversationLog(jdbc, new SimpleMeterRegistry(), true, 1000, 10,
+				Duration.ofSeconds(1), ConversationLog.Overflow.DROP, true);
+		log.start();
+		log.append("s1", "hỏi 1", "đáp 1", "direct", 0);
+		log.append("x".repeat(1000), "hỏi 2", "đáp 2", "a-very-long-source-name", 0);
+		log.append("s1", "hỏi 3", "đáp 3", "direct", 0);
+		log.close();
+
+		assertEquals(3L, jdbc.queryForObject("SELECT COUNT(*) FROM chat_log", Long.class).longValue());
+		assertEquals("x".repeat(ConversationLog.MAX_SESSION_ID), jdbc.queryForObject(
+				"SELECT session_id FROM chat_log WHERE prompt = ?", String.class, "hỏi 2"));
+		assertEquals(0, log.stats().failed());
+	}
+
+	@Test
+	void fullQueueDropsInsteadOfBlocking() {
+		// không start() → không có luồng ghi, hàng đợi chỉ đầy lên
+		ConversationLog log = new ConversationLog(h2("chatlog_drop"), new SimpleMeterRegistry(), true, 2, 10,
+				Duration.ofMillis(50), ConversationLog.Overflow.DROP, true);
+		for (int i = 0; i < 5; i++) {
+			log.append(null, "hỏi", "đáp", "direct", 0);
+		}
+
+		ConversationLog.Stats stats = log.stats();
+		assertEquals(2, stats.queued());
+		assertEquals(2, stats.appended());
+		assertEquals(3, stats.dropped());
+	}
+
+	private static JdbcTemplate h2(String name) {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:" + name + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+		return new JdbcTemplate(dataSource);
+	}
+}
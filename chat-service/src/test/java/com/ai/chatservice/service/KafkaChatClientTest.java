@@ -0,0 +1,114 @@
+package com.ai.chatservice.service;
+
+import com.ai.chatservice.kafka.ChatEnvelope;
+import com.ai.chatservice.kafka.ChatResponseListener;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KafkaChatClientTest {
+
+	@Test
+	void replyCompletesTheMatchingRequestAndClearsPending() throws Exception {
+		RecordingTemplate template = new RecordingTemplate(null);
+		KafkaChatClient client = client(template, Duration.ofSeconds(10));
+
+		CompletableFuture<String> reply = client.ask("xin chào");
+		ChatEnvelope request = template.sent.get(0);
+		assertEquals("xin chào", request.text());
+		assertEquals("chat-response", request.replyTopic());
+		client.complete(request.correlationId(), "chào bạn");
+
+		assertEquals("chào bạn", reply.get(1, TimeUnit.SECONDS));
+		KafkaChatClient.Stats stats = client.stats();
+		assertEquals(0, stats.pending());
+		assertEquals(1, stats.completed());
+		assertEquals(0, stats.unmatchedReplies());
+	}
+
+	@Test
+	void timeoutClearsPendingAndLateReplyIsUnmatched() throws Exception {
+		RecordingTemplate template = new RecordingTemplate(null);
+		KafkaChatClient client = client(template, Duration.ofMillis(50));
+
+		CompletableFuture<String> reply = client.ask("xin chào");
+		ExecutionException e = assertThrows(ExecutionException.class, () -> reply.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(TimeoutException.class, e.getCause());
+		awaitNoPending(client);
+		client.complete(template.sent.get(0).correlationId(), "trả lời muộn");
+
+		KafkaChatClient.Stats stats = client.stats();
+		assertEquals(1, stats.timeouts());
+		assertEquals(0, stats.completed());
+		assertEquals(1, stats.unmatchedReplies());
+	}
+
+	@Test
+	void failedSendClearsPending() throws Exception {
+		KafkaChatClient client = client(new RecordingTemplate(new IllegalStateException("broker down")),
+				Duration.ofSeconds(10));
+
+		CompletableFuture<String> reply = client.ask("xin chào");
+		assertThrows(ExecutionException.class, () -> reply.get(1, TimeUnit.SECONDS));
+		awaitNoPending(client);
+
+		assertEquals(1, client.stats().failures());
+	}
+
+	@Test
+	void replyWithoutValueIsCountedAsUnmatched() {
+		KafkaChatClient client = client(new RecordingTemplate(null), Duration.ofSeconds(10));
+		ChatResponseListener listener = new ChatResponseListener(client);
+
+		listener.onReply(new ConsumerRecord<>("chat-response", 0, 0L, null, null));
+
+		assertEquals(1, client.stats().unmatchedReplies());
+	}
+
+	private static KafkaChatClient client(KafkaTemplate<String, ChatEnvelope> template, Duration timeout) {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ModelHolder models = new ModelHolder("none.jsonl", "none.bin", false, 1, e -> { });
+		AdmissionControl admission = new AdmissionControl(false, 1, 1, Duration.ZERO, 0, Duration.ZERO, 0,
+				1, 1, Duration.ZERO, 0, Duration.ZERO, registry);
+		return new KafkaChatClient(template, new ChatMetrics(registry, models, 0), admission,
+				"chat-request", "chat-response", timeout);
+	}
+
+	private static void awaitNoPending(KafkaChatClient client) throws InterruptedException {
+		// mục pending được xoá trong whenComplete, có thể chạy ngay sau khi future hoàn thành
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (client.stats().pending() > 0 && System.nanoTime() < deadline) Thread.sleep(1);
+		assertEquals(0, client.stats().pending());
+	}
+
+	/** Ghi lại message được gửi; sendError != null → mọi lần gửi đều lỗi. */
+	private static final class RecordingTemplate extends KafkaTemplate<String, ChatEnvelope> {
+		final List<ChatEnvelope> sent = new CopyOnWriteArrayList<>();
+		private final RuntimeException sendError;
+
+		RecordingTemplate(RuntimeException sendError) {
+			super(new DefaultKafkaProducerFactory<>(Map.of()));
+			this.sendError = sendError;
+		}
+
+		@Override
+		public CompletableFuture<SendResult<String, ChatEnvelope>> send(String topic, ChatEnvelope data) {
+			sent.add(data);
+			return sendError == null ? new CompletableFuture<>() : CompletableFuture.failedFuture(sendError);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.ai.chatservice.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelHolderTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void reloadSwapsModelWhileReadersKeepServing() throws Exception {
+		Path v1 = corpus("v1.jsonl", "xin chào", "chào bạn");
+		Path v2 = corpus("v2.jsonl", "xin chào", "chào bạn, mình là bản mới");
+		ModelHolder holder = new ModelHolder(v1.toString(), dir.resolve("none.bin").toString(), false, 1, e -> { });
+
+		assertFalse(holder.isReady());
+		holder.loadInitialModel();
+		awaitLoaded(holder);
+		ChatModel first = holder.current();
+		assertEquals("chào bạn", first.memory().findDirectReply("Xin chào"));
+
+		AtomicBoolean stop = new AtomicBoolean();
+		AtomicInteger misses = new AtomicInteger();
+		Thread reader = new Thread(() -> {
+			while (!stop.get()) {
+				ChatModel m = holder.current();
+				if (m == null || m.memory().findDirectReply("xin chào") == null) misses.incrementAndGet();
+			}
+		});
+		reader.start();
+		ChatModel second = holder.reload(v2.toString(), null).get();
+		stop.set(true);
+		reader.join();
+
+		assertEquals(0, misses.get());
+		assertTrue(second.version() > first.version());
+		assertSame(second, holder.current());
+		assertEquals("chào bạn, mình là bản mới", holder.current().memory().findDirectReply("xin chào"));
+		// bản cũ vẫn dùng được cho request đã lấy nó trước khi đổi
+		assertEquals("chào bạn", first.memory().findDirectReply("xin chào"));
+	}
+
+	@Test
+	void failedReloadKeepsServingModel() throws Exception {
+		Path v1 = corpus("v1.jsonl", "xin chào", "chào bạn");
+		ModelHolder holder = new ModelHolder(v1.toString(), dir.resolve("none.bin").toString(), false, 1, e -> { });
+		holder.loadInitialModel();
+		awaitLoaded(holder);
+		ChatModel served = holder.current();
+
+		ExecutionException e = assertThrows(ExecutionException.class,
+				() -> holder.reload(dir.resolve("missing.jsonl").toString(), null).get());
+		assertInstanceOf(IllegalStateException.class, e.getCause());
+		assertSame(served, holder.current());
+		assertNotNull(holder.status().lastError());
+	}
+
+	private static void awaitLoaded(ModelHolder holder) {
+		while (holder.isLoading() || !holder.isReady()) Thread.onSpinWait();
+	}
+
+	private Path corpus(String name, String user, String assistant) throws Exception {
+		Path file = dir.resolve(name);
+		Files.writeString(file, "{\"messages\":[{\"role\":\"user\",\"content\":\"" + user
+				+ "\"},{\"role\":\"assistant\",\"content\":\"" + assistant + "\"}]}\n", StandardCharsets.UTF_8);
+		return file;
+	}
+}
@@ -0,0 +1,90 @@
+package com.ai.chatservice.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+
+	@Test
+	void concurrentMissesAreComputedOnce() throws Exception {
+		ResponseCache<String, String> cache = new ResponseCache<>(100, Duration.ofMinutes(1));
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				futures.add(pool.submit(() -> cache.get("xin chào", k -> {
+					loads.incrementAndGet();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+					return "chào bạn";
+				})));
+			}
+			Thread.sleep(200);
+			release.countDown();
+			for (Future<String> f : futures) assertEquals("chào bạn", f.get());
+		} finally {
+			pool.shutdown();
+		}
+
+		assertEquals(1, loads.get());
+		ResponseCache.Stats stats = cache.stats();
+		assertEquals(1, stats.misses());
+		assertEquals(7, stats.hits() + stats.coalesced());
+	}
+
+	@Test
+	void frequentKeysSurviveAScanOfOneOffKeys() {
+		// 1 shard nhận tối đa 2 phần tử (32 / 16)
+		ResponseCache<Integer, String> cache = new ResponseCache<>(32, Duration.ofMinutes(1));
+		cache.put(0, "faq");
+		assertEquals("faq", cache.getIfPresent(0));   // hit lần 2 → protected
+
+		for (int i = 1; i < 10_000; i++) {
+			cache.put(i * 16, "once");   // cùng shard với key 0
+		}
+		assertEquals("faq", cache.getIfPresent(0));
+		assertTrue(cache.stats().evictions() > 0);
+		assertTrue(cache.size() <= 32);
+	}
+
+	@Test
+	void expiredEntriesAreReloaded() throws Exception {
+		ResponseCache<String, Integer> cache = new ResponseCache<>(10, Duration.ofMillis(20));
+		AtomicInteger loads = new AtomicInteger();
+
+		assertEquals(1, cache.get("k", k -> loads.incrementAndGet()).intValue());
+		assertEquals(1, cache.get("k", k -> loads.incrementAndGet()).intValue());
+		Thread.sleep(50);
+		assertEquals(2, cache.get("k", k -> loads.incrementAndGet()).intValue());
+		assertEquals(1, cache.stats().expirations());
+	}
+
+	@Test
+	void containsDoesNotCountAHitOrPromote() {
+		// 1 shard nhận tối đa 2 phần tử (32 / 16)
+		ResponseCache<Integer, String> cache = new ResponseCache<>(32, Duration.ofMinutes(1));
+		cache.put(0, "faq");
+		assertTrue(cache.contains(0));
+		assertEquals(0, cache.stats().hits());
+
+		// vẫn ở probation → bị 1 lượt quét đẩy ra như mọi khoá mới
+		for (int i = 1; i < 100; i++) cache.put(i * 16, "once");
+		assertTrue(!cache.contains(0));
+	}
+}
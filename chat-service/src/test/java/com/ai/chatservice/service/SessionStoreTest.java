@@ -0,0 +1,66 @@
+package com.ai.chatservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionStoreTest {
+
+	private static SessionStore store(int contextTokens, long maxSessions, Duration ttl) {
+		DataSize maxBytes = DataSize.ofBytes(maxSessions * SessionStore.bytesPerSession(contextTokens));
+		return new SessionStore(contextTokens, maxBytes, ttl, new SimpleMeterRegistry());
+	}
+
+	@Test
+	void keepsOnlyTheLatestTokens() {
+		SessionStore sessions = store(4, 1000, Duration.ofMinutes(1));
+		assertArrayEquals(new int[0], sessions.context("s1", 1));
+
+		sessions.appendTurn("s1", 1, new int[]{1, 2}, new int[]{3});
+		assertArrayEquals(new int[]{1, 2, 3}, sessions.context("s1", 1));
+
+		sessions.appendTurn("s1", 1, new int[]{4, 5}, new int[]{6, 7, 8, 9, 10});
+		assertArrayEquals(new int[]{7, 8, 9, 10}, sessions.context("s1", 1));
+		assertArrayEquals(new int[0], sessions.context("s2", 1));
+	}
+
+	@Test
+	void contextOfAnOlderModelIsIgnored() {
+		SessionStore sessions = store(8, 1000, Duration.ofMinutes(1));
+		sessions.appendTurn("s1", 1, new int[]{1, 2}, new int[]{3});
+
+		assertArrayEquals(new int[0], sessions.context("s1", 2));
+		sessions.appendTurn("s1", 2, new int[]{7}, new int[]{8});
+		assertArrayEquals(new int[]{7, 8}, sessions.context("s1", 2));
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedSessionsAtTheMemoryCap() {
+		SessionStore sessions = store(4, 1024, Duration.ofMinutes(1));
+		sessions.appendTurn("hot", 1, new int[]{1}, new int[]{2});
+		for (int i = 0; i < 5000; i++) {
+			sessions.appendTurn("s" + i, 1, new int[]{i}, new int[]{i});
+			assertEquals(2, sessions.context("hot", 1).length);
+		}
+
+		SessionStore.Stats stats = sessions.stats();
+		assertTrue(stats.sessions() <= 1024);
+		assertEquals(5001 - stats.sessions(), stats.evicted());
+		assertTrue(stats.bytes() <= 2 * 1024 * SessionStore.bytesPerSession(4));
+	}
+
+	@Test
+	void expiresIdleSessions() throws InterruptedException {
+		SessionStore sessions = store(4, 1000, Duration.ofMillis(50));
+		sessions.appendTurn("s1", 1, new int[]{1}, new int[]{2});
+		Thread.sleep(100);
+
+		assertArrayEquals(new int[0], sessions.context("s1", 1));
+		assertEquals(1, sessions.stats().expired());
+		assertEquals(0, sessions.size());
+	}
+}